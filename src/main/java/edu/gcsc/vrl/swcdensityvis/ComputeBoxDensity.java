@@ -0,0 +1,37 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import edu.gcsc.vrl.densityvis.*;
+import eu.mihosoft.vrl.annotation.ComponentInfo;
+import eu.mihosoft.vrl.annotation.MethodInfo;
+import eu.mihosoft.vrl.annotation.ParamInfo;
+
+/**
+ * @brief sums the density of a computed density in an axis-aligned box
+ *
+ * The first query builds a summed-area table of the density, so moving or
+ * resizing the box afterwards takes constant time.
+ *
+ * @author stephan
+ */
+@ComponentInfo(name = "ComputeBoxDensity", category = "Neuro/SWC-Density-Vis")
+public class ComputeBoxDensity implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@MethodInfo(
+		valueName = "Sum",
+		valueTypeName = "Sum of the densities of the sampling cuboids the box overlaps"
+	)
+	public double compute(
+		@ParamInfo(name = "Density", typeName = "Density of the image (stack)", style = "default", options = "") DensityResult dens,
+		@ParamInfo(name = "Min x", typeName = "Lower corner of the box [µm]", style = "default", options = "value=0") double minX,
+		@ParamInfo(name = "Min y", style = "default", options = "value=0") double minY,
+		@ParamInfo(name = "Min z", style = "default", options = "value=0") double minZ,
+		@ParamInfo(name = "Max x", typeName = "Upper corner of the box [µm]", style = "default", options = "value=100") double maxX,
+		@ParamInfo(name = "Max y", style = "default", options = "value=100") double maxY,
+		@ParamInfo(name = "Max z", style = "default", options = "value=100") double maxZ) {
+		return DensityUtil.sum(dens.getDensity(), new RegionOfInterest((float) minX, (float) minY, (float) minZ, (float) maxX, (float) maxY, (float) maxZ));
+	}
+}
@@ -11,20 +11,75 @@ import eu.mihosoft.vrl.annotation.ParamInfo;
 import eu.mihosoft.vrl.v3d.VTriangleArray;
 import eu.mihosoft.vrl.v3d.jcsg.Cube;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.vecmath.Vector3f;
 
 /**
  * @brief computes the density
+ *
+ * The densities of all compartment types are computed once per stack at a
+ * base resolution, in one channel per type. Other types read their
+ * channel and other sampling cube sizes are served from the pyramid of the
+ * densities of the type, so neither changing the type nor moving the
+ * sliders recomputes. With the cache enabled the channels are kept beside
+ * the input folder as well (SWCDensityCache), so a new invocation only
+ * computes the files added or changed since.
+ *
+ * In watch mode, started from scripts by watch, the input folder is watched
+ * for changes (SWCFolderWatcher), after a burst of changes has settled the
+ * density is updated with the parameters of watch and published to the
+ * listeners. Only the affected files are parsed again, and watch mode
+ * always uses the density cache, so only they are sampled again as well.
+ * The canvas can not receive densities pushed from another thread, hence
+ * watch mode has no option in the GUI. The watcher is
+ * stopped by stopWatching or after the component has been discarded.
+ *
+ * Restricted to a region of interest the density is computed for the
+ * cuboids of the region only (SWCUtility.computeDensity with regions).
  */
 @ComponentInfo(name = "ComputeSWCDensity", category = "Neuro/SWC-Density-Vis")
 public class ComputeSWCDensity implements java.io.Serializable {
 
 	private static final long serialVersionUID = 1L;
+	/// base cuboid size of the pyramid [µm], every slider value is a multiple
+	private static final int PYRAMID_BASE = 1;
+	/// quiet time [ms] after the last change of a watched folder before updating
+	private static final long WATCH_DEBOUNCE = 2000;
+
+	/**
+	 * @brief receives the densities updated in watch mode
+	 */
+	public interface Listener {
+
+		/**
+		 * @brief called from the watcher thread after an update
+		 * @param result
+		 */
+		void updated(DensityResult result);
+	}
+
+	/// the stack of the last invocation, its channels and the pyramids by type
+	private transient String stackKey;
+	private transient HashMap<String, Morphology> stackCells;
+	private transient DensityChannels channels;
+	private transient HashMap<String, DensityPyramid> pyramids;
+
+	/// watch mode: the watcher, the parameters of the updates and the listeners
+	private transient SWCFolderWatcher watcher;
+	private transient boolean watchCache;
+	private transient int[] watchSize;
+	private transient String watchChoice;
+	private transient double watchThreshold;
+	private transient RegionOfInterest watchRegion;
+	private transient CopyOnWriteArrayList<Listener> listeners;
 
 	@MethodInfo(
 		valueName = "Density",
@@ -33,6 +88,8 @@ public class ComputeSWCDensity implements java.io.Serializable {
 	public DensityResult compute(
 		@ParamGroupInfo(group = "Common options|true|Compute the density for the image (stack); Folder|true|Input folder")
 		@ParamInfo(name = "Input folder", typeName = "Location of SWC files", style = "load-folder-dialog", options = "endings=[\"swc\"]; description=\"SWC files (.swc)\"") File folder,
+		@ParamGroupInfo(group = "Common options|true|Compute the density for the image (stack); Folder|true|Input folder")
+		@ParamInfo(name = "Use cache", typeName = "Cache the parsed stack beside the input folder", style = "default", options = "value=true") boolean cache,
 		@ParamGroupInfo(group = "Common options|true|Compute the density for the image (stack); Dimensions|true|Dimensions")
 		@ParamInfo(name = "Width", typeName = "Width of sampling cube", style = "slider", options = "min=1;max=100") int width,
 		@ParamGroupInfo(group = "Common options|true|Compute the density for the image (stack); Dimensions|true|Dimensions")
@@ -40,33 +97,295 @@ public class ComputeSWCDensity implements java.io.Serializable {
 		@ParamGroupInfo(group = "Common options|true|Compute the density for the image (stack); Dimensions|true|Dimensions")
 		@ParamInfo(name = "Depth", typeName = "Depth of sampling cube", style = "slider", options = "min=1;max=100") int depth,
 		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Compartment|true|Compartment")
-		@ParamInfo(name = "Type", typeName = "Compartment", style = "selection", options = "value=[\"all\", \"undefined\", \"axon\", \"(basal) dendrite\", \"apical dendrite\", \"fork point\", \"end point\", \"custom\"]") String choice
+		@ParamInfo(name = "Type", typeName = "Compartment", style = "selection", options = "value=[\"all\", \"undefined\", \"axon\", \"(basal) dendrite\", \"apical dendrite\", \"fork point\", \"end point\", \"custom\"]") String choice,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Output|true|Output")
+		@ParamInfo(name = "Threshold", typeName = "Minimum density of the voxels shown, negative for all voxels", style = "default", options = "value=0.0") double threshold,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Restrict to region", typeName = "Compute the density in the region of interest only", style = "default", options = "value=false") boolean restrict,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Min x", typeName = "Lower corner of the region [µm]", style = "default", options = "value=0.0") double minX,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Min y", typeName = "Lower corner of the region [µm]", style = "default", options = "value=0.0") double minY,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Min z", typeName = "Lower corner of the region [µm]", style = "default", options = "value=0.0") double minZ,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Max x", typeName = "Upper corner of the region [µm]", style = "default", options = "value=0.0") double maxX,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Max y", typeName = "Upper corner of the region [µm]", style = "default", options = "value=0.0") double maxY,
+		@ParamGroupInfo(group = "Advanced options|true|Compute the density for the image (stack); Region|false|Region of interest")
+		@ParamInfo(name = "Max z", typeName = "Upper corner of the region [µm]", style = "default", options = "value=0.0") double maxZ
 	) {
-		HashMap<String, ArrayList<SWCCompartmentInformation>> cells = new HashMap<String, ArrayList<SWCCompartmentInformation>>();
-		try {
-			File[] swcFiles = folder.listFiles(new FilenameFilter() {
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.endsWith(".swc");
-				}
-			});
+		RegionOfInterest region = restrict ? new RegionOfInterest((float) minX, (float) minY, (float) minZ, (float) maxX, (float) maxY, (float) maxZ) : null;
+		return update(folder, cache, cache, width, height, depth, choice, threshold, region);
+	}
+
+	/**
+	 * @brief computes the density and updates it whenever SWC files of the
+	 * folder are added, changed or removed, replaces a running watch
+	 * @param folder
+	 * @param cache cache the parsed stack, the density cache is used in any
+	 * case
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 * @param threshold
+	 * @param region region of interest or null
+	 * @return the current density, updates are published to the listeners
+	 * @throws IOException if the folder can not be watched
+	 */
+	@MethodInfo(noGUI = true)
+	public DensityResult watch(File folder, boolean cache, int width, int height, int depth, String choice, double threshold, RegionOfInterest region) throws IOException {
+		return watch(folder, cache, width, height, depth, choice, threshold, region, WATCH_DEBOUNCE);
+	}
 
-			for (File f : swcFiles) {
-				eu.mihosoft.vrl.system.VMessage.info("Parsing SWC file", f.toString());
-				cells.put(f.getName(), SWCUtility.parse(f));
+	/**
+	 * @brief computes the density and updates it whenever SWC files of the
+	 * folder are added, changed or removed, replaces a running watch
+	 * @param folder
+	 * @param cache cache the parsed stack, the density cache is used in any
+	 * case
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 * @param threshold
+	 * @param region region of interest or null
+	 * @param debounce quiet time [ms] after the last change before updating
+	 * @return the current density, updates are published to the listeners
+	 * @throws IOException if the folder can not be watched
+	 */
+	@MethodInfo(noGUI = true)
+	public synchronized DensityResult watch(File folder, boolean cache, int width, int height, int depth, String choice, double threshold, RegionOfInterest region, long debounce) throws IOException {
+		stopWatching();
+		watchCache = cache;
+		watchRegion = region;
+		watchSize = new int[]{width, height, depth};
+		watchChoice = choice;
+		watchThreshold = threshold;
+		DensityResult result = update(folder, cache, true, width, height, depth, choice, threshold, region);
+		watcher = new SWCFolderWatcher(folder, debounce, new Updater(this, folder));
+		return result;
+	}
+
+	/**
+	 * @brief stops watching, does nothing if not watching
+	 */
+	@MethodInfo(noGUI = true)
+	public synchronized void stopWatching() {
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				eu.mihosoft.vrl.system.VMessage.warning("Watching folder", "Could not stop watching " + watcher.getFolder() + ": " + e);
 			}
-			eu.mihosoft.vrl.system.VMessage.info("Computing density", "Total number of files for density computation: " + swcFiles.length);
+			watcher = null;
+		}
+	}
 
+	/**
+	 * @brief determines if a folder is watched
+	 * @return
+	 */
+	@MethodInfo(noGUI = true)
+	public synchronized boolean isWatching() {
+		return watcher != null && watcher.isWatching();
+	}
+
+	/**
+	 * @brief registers a listener of the densities updated in watch mode
+	 * @param listener
+	 */
+	public synchronized void addListener(Listener listener) {
+		if (listeners == null) {
+			listeners = new CopyOnWriteArrayList<Listener>();
+		}
+		listeners.add(listener);
+	}
+
+	/**
+	 * @brief unregisters a listener
+	 * @param listener
+	 */
+	public synchronized void removeListener(Listener listener) {
+		if (listeners != null) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * @brief the density of a stack, reuses the channels and pyramids of
+	 * the last invocation if the stack did not change
+	 *
+	 * The density of a region of interest is computed for the region
+	 * directly, the channels of the stack are not needed for it.
+	 *
+	 * @param cache cache the parsed stack
+	 * @param densityCache cache the channels of the stack
+	 */
+	private synchronized DensityResult update(File folder, boolean cache, boolean densityCache, int width, int height, int depth, String choice, double threshold, RegionOfInterest region) {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		String key = null;
+		try {
+			key = getStackKey(folder);
+			if (key.equals(stackKey)) {
+				cells = stackCells;
+				eu.mihosoft.vrl.system.VMessage.info("Computing density", "Reusing the stack of " + cells.size() + " files");
+			} else {
+				if (cache) {
+					cells = new SWCStackCache(folder).loadMorphologies(SWCStackLoader.getDefaultParallelism());
+				} else {
+					cells = SWCStackLoader.loadMorphologies(SWCStackLoader.listSWCFiles(folder), SWCStackLoader.getDefaultParallelism());
+				}
+				eu.mihosoft.vrl.system.VMessage.info("Computing density", "Total number of files for density computation: " + cells.size());
+			}
 		} catch (IOException e) {
+			key = null;
 			eu.mihosoft.vrl.system.VMessage.exception("File not found", e.toString());
 		}
 
+		if (key == null || !key.equals(stackKey)) {
+			channels = null;
+			pyramids = new HashMap<String, DensityPyramid>();
+			stackCells = cells;
+			stackKey = key;
+		}
+
 		/// density must respect new rescaled geometry and therefore fit in cuboid
-		Density density = DensityUtil.computeDensity(cells, width, height, depth, choice);
-		double dim = Collections.max(Arrays.asList(SWCUtility.getDimensions(cells).x, SWCUtility.getDimensions(cells).y, SWCUtility.getDimensions(cells).z));
+		Density density;
+		if (region != null) {
+			density = DensityUtil.computeDensity(cells, width, height, depth, choice, (float) threshold, Collections.singletonList(region));
+		} else {
+			density = DensityUtil.computeDensity(cells, getPyramid(folder, densityCache && key != null, cells, choice), width, height, depth, choice, (float) threshold);
+		}
+		Vector3f dims = SWCUtility.getDimensions(cells);
+		double dim = Collections.max(Arrays.asList(dims.x, dims.y, dims.z));
 		VTriangleArray vta = new Cube(dim, dim, dim).toCSG().toVTriangleArray();
 		
 		/// return density
 		return new DensityResult(density, vta);
 	}
+
+	/**
+	 * @brief parses the changed files of the stack of the last invocation
+	 * again instead of reloading the whole folder, the channels of the
+	 * stack are dropped
+	 * @param folder
+	 * @param names changed SWC files, empty if unknown
+	 */
+	private void refreshStack(File folder, Set<String> names) {
+		if (names.isEmpty() || stackCells == null || stackKey == null || !stackKey.startsWith(folder.getAbsolutePath() + "|")) {
+			/// update reloads the whole stack
+			return;
+		}
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>(stackCells);
+		ArrayList<File> changed = new ArrayList<File>();
+		for (String name : names) {
+			File file = new File(folder, name);
+			if (file.isFile()) {
+				changed.add(file);
+			} else {
+				cells.remove(name);
+			}
+		}
+		try {
+			/// identified before parsing, so later changes are noticed
+			String key = getStackKey(folder);
+			cells.putAll(SWCStackLoader.loadMorphologies(changed.toArray(new File[changed.size()]), SWCStackLoader.getDefaultParallelism()));
+			stackCells = cells;
+			stackKey = key;
+			channels = null;
+			pyramids = new HashMap<String, DensityPyramid>();
+			eu.mihosoft.vrl.system.VMessage.info("Watching folder", "Parsed " + changed.size() + " changed files, removed " + (names.size() - changed.size()) + " files");
+		} catch (IOException e) {
+			eu.mihosoft.vrl.system.VMessage.warning("Watching folder", "Could not parse the changed files, reloading " + folder + ": " + e);
+		}
+	}
+
+	/**
+	 * @brief the pyramid of a type, computes the channels of the stack at
+	 * the base resolution once
+	 */
+	private DensityPyramid getPyramid(File folder, boolean cache, HashMap<String, Morphology> cells, String choice) {
+		if (channels == null) {
+			if (cache) {
+				/// only the cells added or changed since the last invocation are computed
+				try {
+					channels = new SWCDensityCache(folder, PYRAMID_BASE, PYRAMID_BASE, PYRAMID_BASE).load(cells, SWCStackLoader.getDefaultParallelism());
+				} catch (IOException e) {
+					eu.mihosoft.vrl.system.VMessage.warning("Computing density", "Density cache not available: " + e);
+				}
+			}
+			if (channels == null) {
+				channels = SWCUtility.computeDensityChannels(cells, PYRAMID_BASE, PYRAMID_BASE, PYRAMID_BASE);
+			}
+		}
+		DensityPyramid pyramid = pyramids.get(choice);
+		if (pyramid == null) {
+			pyramid = new DensityPyramid(channels.getGrid(), channels.density(choice));
+			pyramids.put(choice, pyramid);
+		}
+		return pyramid;
+	}
+
+	/**
+	 * @brief updates the density after changes of the watched folder
+	 *
+	 * The component is referenced weakly, so the watcher does not keep a
+	 * discarded component alive and stops on the next change after the
+	 * component has been collected.
+	 */
+	private static final class Updater implements SWCFolderWatcher.Listener {
+
+		private final WeakReference<ComputeSWCDensity> component;
+		private final File folder;
+
+		Updater(ComputeSWCDensity component, File folder) {
+			this.component = new WeakReference<ComputeSWCDensity>(component);
+			this.folder = folder;
+		}
+
+		@Override
+		public void changed(Set<String> names) {
+			ComputeSWCDensity c = component.get();
+			if (c == null) {
+				/// the component is gone, interrupts the watcher thread
+				Thread.currentThread().interrupt();
+				return;
+			}
+			eu.mihosoft.vrl.system.VMessage.info("Watching folder", "Updating the density after changes of " + (names.isEmpty() ? "the folder" : names.size() + " files"));
+			DensityResult result;
+			List<Listener> targets;
+			synchronized (c) {
+				if (c.watcher == null || !c.watcher.getFolder().equals(folder)) {
+					/// stopped or retargeted meanwhile
+					return;
+				}
+				c.refreshStack(folder, names);
+				result = c.update(folder, c.watchCache, true, c.watchSize[0], c.watchSize[1], c.watchSize[2], c.watchChoice, c.watchThreshold, c.watchRegion);
+				targets = c.listeners != null ? c.listeners : Collections.<Listener>emptyList();
+			}
+			for (Listener listener : targets) {
+				listener.updated(result);
+			}
+		}
+	}
+
+	/**
+	 * @brief identifies a stack: the folder, the names, sizes and
+	 * modification times of its SWC files
+	 * @param folder
+	 * @return
+	 * @throws IOException
+	 */
+	private static String getStackKey(File folder) throws IOException {
+		File[] files = SWCStackLoader.listSWCFiles(folder);
+		long hash = 17;
+		for (File file : files) {
+			hash = 31 * hash + file.getName().hashCode();
+			hash = 31 * hash + file.length();
+			hash = 31 * hash + file.lastModified();
+		}
+		return folder.getAbsolutePath() + "|" + files.length + "|" + hash;
+	}
 }
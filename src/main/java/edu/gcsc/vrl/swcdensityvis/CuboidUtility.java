@@ -16,57 +16,147 @@ public final class CuboidUtility {
 		
 	};
  
+	/// bits per coordinate of a Morton key, i. e. 2^21 cuboids per axis
+	public static final int MORTON_BITS = 21;
+	public static final int MORTON_MAX = (1 << MORTON_BITS) - 1;
+
+	/**
+	 * @brief Morton (Z-order) key of integer grid coordinates
+	 *
+	 * The bits of i, j and k are interleaved (i in the lowest bit), so
+	 * cuboids which are close in space get close keys. Each coordinate
+	 * must be in [0, MORTON_MAX].
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return 63 bit key
+	 */
+	public static long mortonEncode(int i, int j, int k) {
+		if ((i | j | k) < 0 || i > MORTON_MAX || j > MORTON_MAX || k > MORTON_MAX) {
+			throw new IllegalArgumentException("Grid coordinates (" + i + ", " + j + ", " + k + ") out of Morton range [0, " + MORTON_MAX + "]");
+		}
+		return spread(i) | (spread(j) << 1) | (spread(k) << 2);
+	}
+
+	/**
+	 * @brief grid coordinates of a Morton key
+	 * @param key
+	 * @return {i, j, k}
+	 */
+	public static int[] mortonDecode(long key) {
+		return new int[]{mortonDecodeX(key), mortonDecodeY(key), mortonDecodeZ(key)};
+	}
+
+	public static int mortonDecodeX(long key) {
+		return compact(key);
+	}
+
+	public static int mortonDecodeY(long key) {
+		return compact(key >>> 1);
+	}
+
+	public static int mortonDecodeZ(long key) {
+		return compact(key >>> 2);
+	}
+
+	/**
+	 * @brief inserts two zero bits after each of the lower 21 bits
+	 */
+	private static long spread(int v) {
+		long x = v & 0x1FFFFFL;
+		x = (x | (x << 32)) & 0x1F00000000FFFFL;
+		x = (x | (x << 16)) & 0x1F0000FF0000FFL;
+		x = (x | (x << 8)) & 0x100F00F00F00F00FL;
+		x = (x | (x << 4)) & 0x10C30C30C30C30C3L;
+		x = (x | (x << 2)) & 0x1249249249249249L;
+		return x;
+	}
+
 	/**
-	 * @brief get index of sampling cube within the bounding box 
+	 * @brief inverse of spread, collects every third bit
+	 */
+	private static int compact(long key) {
+		long x = key & 0x1249249249249249L;
+		x = (x | (x >>> 2)) & 0x10C30C30C30C30C3L;
+		x = (x | (x >>> 4)) & 0x100F00F00F00F00FL;
+		x = (x | (x >>> 8)) & 0x1F0000FF0000FFL;
+		x = (x | (x >>> 16)) & 0x1F00000000FFFFL;
+		x = (x | (x >>> 32)) & 0x1FFFFFL;
+		return (int) x;
+	}
+
+	/**
+	 * @brief grid coordinates of the sampling cuboid containing a point,
+	 * the grid starts at the lower corner of the bounding cuboid
 	 * @param bounding
-	 * @param sample
+	 * @param x
+	 * @param y
+	 * @param z
 	 * @param step_x
 	 * @param step_y
 	 * @param step_z
-	 * @return 
+	 * @return {i, j, k}
 	 */
-	public static int[] getCuboidId(Cuboid bounding, Cuboid sample, float step_x, float step_y, float step_z) {
-		return new int[]
-		{
-			(int) Math.abs((bounding.getX() + sample.getX() * step_x)),
-			(int) Math.abs((bounding.getY() + sample.getY() * step_y)),
-			(int) Math.abs((bounding.getZ() + sample.getZ() * step_z))
+	public static int[] getCuboidCoordinates(Cuboid bounding, float x, float y, float z, float step_x, float step_y, float step_z) {
+		return new int[]{
+			(int) Math.floor((x - bounding.getX()) / step_x),
+			(int) Math.floor((y - bounding.getY()) / step_y),
+			(int) Math.floor((z - bounding.getZ()) / step_z)
 		};
+	}
 
+	/**
+	 * @brief get id (Morton key) of the sampling cube containing the lower
+	 * corner of sample within the bounding box
+	 * @param bounding
+	 * @param sample
+	 * @param step_x
+	 * @param step_y
+	 * @param step_z
+	 * @return
+	 */
+	public static long getCuboidId(Cuboid bounding, Cuboid sample, float step_x, float step_y, float step_z) {
+		int[] c = getCuboidCoordinates(bounding, sample.getX(), sample.getY(), sample.getZ(), step_x, step_y, step_z);
+		return mortonEncode(c[0], c[1], c[2]);
 	}
-	
+
 	/**
-	 * @brief get cuboid by id 
-	 * @todo implement
-	 * 
+	 * @brief get sampling cube by id (Morton key)
 	 * @param bounding
 	 * @param id
 	 * @param step_x
 	 * @param step_y
 	 * @param step_z
-	 * @return 
+	 * @return
 	 */
-	public static Cuboid getCuboidbyId(Cuboid bounding, int[] id, float step_x, float step_y, float step_z) {
-		return new Cuboid(id[0], id[1], id[2], step_x, step_y, step_z);
+	public static Cuboid getCuboidbyId(Cuboid bounding, long id, float step_x, float step_y, float step_z) {
+		return new Cuboid(
+			bounding.getX() + mortonDecodeX(id) * step_x,
+			bounding.getY() + mortonDecodeY(id) * step_y,
+			bounding.getZ() + mortonDecodeZ(id) * step_z,
+			step_x, step_y, step_z);
 	}
-	
-	
+
 	/**
 	 * @brief get bounding indices of of sample cube;
 	 * with this indices we can iterate over the whole geometry
 	 * bounding in a sparse sense...
-	 * 
+	 *
 	 * @param bounding
-	 * @param min
-	 * @param max
+	 * @param min sample cube at the lower corner
+	 * @param max sample cube at the upper corner
 	 * @param step_x
 	 * @param step_y
 	 * @param step_z
-	 * @return 
+	 * @return grid coordinates, lower inclusive and upper exclusive
 	 */
 	public static Pair<int[], int[]> getSampleCuboidBounding(Cuboid bounding, Cuboid min, Cuboid max, float step_x, float step_y, float step_z) {
-		int[] lo = getCuboidId(bounding, new Cuboid(min.getX()-step_x, min.getY()-step_y, min.getZ()-step_z, min.getWidth()-step_x, min.getY()-step_y, min.getZ()-step_z), step_x, step_y, step_z);
-		int[] hi = getCuboidId(bounding, new Cuboid(max.getX()+step_x, max.getY()+step_y, max.getZ()+step_z, max.getWidth()+step_x, max.getY()+step_y, max.getZ()+step_z), step_x, step_y, step_z);
+		int[] lo = getCuboidCoordinates(bounding, min.getX(), min.getY(), min.getZ(), step_x, step_y, step_z);
+		int[] hi = getCuboidCoordinates(bounding, max.getX(), max.getY(), max.getZ(), step_x, step_y, step_z);
+		for (int d = 0; d < 3; d++) {
+			hi[d]++;
+		}
 		return new Pair<int[], int[]>(lo, hi);
 	}
 }
@@ -0,0 +1,210 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @brief dense accumulator of dendritic lengths, one float per sampling
+ * cuboid of a grid
+ *
+ * The cuboids are stored in sweep order (SamplingGrid.index) either in an
+ * array on the heap or in a direct buffer outside of it. For small grids,
+ * e. g. a few million cuboids, adding to an array is much faster than
+ * hashing keys, but the memory grows with the bounding box instead of the
+ * occupied cuboids.
+ *
+ * @author stephan
+ */
+final class DenseAccumulator {
+
+	/// bytes per sampling cuboid
+	static final int BYTES_PER_CUBOID = 4;
+	/// upper bound for the number of cuboids, also of a direct buffer
+	static final long MAX_CUBOIDS = Integer.MAX_VALUE / BYTES_PER_CUBOID;
+	/// estimated bytes per occupied cuboid of a hash map (key, value, free slots)
+	static final int BYTES_PER_OCCUPIED_CUBOID = 24;
+
+	private final float[] array;
+	private final FloatBuffer buffer;
+	private final int size;
+
+	/**
+	 * @brief ctor, all cuboids are zero
+	 * @param size number of sampling cuboids
+	 * @param direct allocate a direct buffer instead of an array
+	 */
+	DenseAccumulator(int size, boolean direct) {
+		this.size = size;
+		if (direct) {
+			this.array = null;
+			this.buffer = ByteBuffer.allocateDirect(size * BYTES_PER_CUBOID).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		} else {
+			this.array = new float[size];
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * @brief adds to the length of a cuboid
+	 * @param index sweep index
+	 * @param length
+	 */
+	void add(int index, float length) {
+		if (array != null) {
+			array[index] += length;
+		} else {
+			buffer.put(index, buffer.get(index) + length);
+		}
+	}
+
+	/**
+	 * @brief length of a cuboid
+	 * @param index sweep index
+	 * @return
+	 */
+	float get(int index) {
+		return array != null ? array[index] : buffer.get(index);
+	}
+
+	/**
+	 * @brief number of sampling cuboids
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @brief true if the cuboids are stored outside of the heap
+	 * @return
+	 */
+	boolean isDirect() {
+		return array == null;
+	}
+
+	/**
+	 * @brief memory needed by dense accumulators for a grid
+	 * @param grid
+	 * @param accumulators number of accumulators, e. g. one per processor
+	 * @return bytes
+	 */
+	static long footprint(SamplingGrid grid, int accumulators) {
+		return grid.getCellCount() * BYTES_PER_CUBOID * accumulators;
+	}
+
+	/**
+	 * @brief expected number of cuboids the edges of a stack pass through
+	 *
+	 * An edge passes through about one cuboid per cuboid boundary it
+	 * crosses plus the one it starts in. Edges sharing cuboids are counted
+	 * more than once, so this is an upper estimate, bounded by the grid.
+	 *
+	 * @param cells
+	 * @param type type index, negative for all compartments
+	 * @param grid
+	 * @return
+	 */
+	static long estimateOccupied(Collection<Morphology> cells, int type, SamplingGrid grid) {
+		double occupied = 0;
+		for (Morphology cell : cells) {
+			Topology topology = cell.getTopology();
+			for (int i = 0; i < cell.size(); i++) {
+				if (type < 0 || type == cell.type[i]) {
+					for (int c = 0; c < topology.getChildCount(i); c++) {
+						int child = topology.getChild(i, c);
+						occupied += Math.abs(cell.x[child] - cell.x[i]) / grid.getWidth()
+							+ Math.abs(cell.y[child] - cell.y[i]) / grid.getHeight()
+							+ Math.abs(cell.z[child] - cell.z[i]) / grid.getDepth() + 1;
+					}
+				}
+			}
+		}
+		return (long) Math.min(grid.getCellCount(), Math.ceil(occupied));
+	}
+
+	/**
+	 * @brief adds all accumulators to the first one, in parallel over
+	 * ranges of cuboids
+	 * @param parts accumulators of the same size
+	 * @param executor
+	 * @param ranges number of ranges, e. g. one per processor
+	 * @return sum of all lengths
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static double sumInto(final DenseAccumulator[] parts, ExecutorService executor, int ranges) throws InterruptedException, ExecutionException {
+		final int size = parts[0].size();
+		final int range = (int) Math.max(1, ((long) size + ranges - 1) / ranges);
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for (int from = 0; from < size; from += range) {
+			final int lo = from;
+			final int hi = (int) Math.min(size, (long) from + range);
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() {
+					DenseAccumulator sum = parts[0];
+					double total = 0;
+					for (int index = lo; index < hi; index++) {
+						float length = sum.get(index);
+						for (int p = 1; p < parts.length; p++) {
+							length += parts[p].get(index);
+						}
+						if (parts.length > 1) {
+							sum.set(index, length);
+						}
+						total += length;
+					}
+					return total;
+				}
+			});
+		}
+		double total = 0;
+		for (Future<Double> result : executor.invokeAll(tasks)) {
+			total += result.get();
+		}
+		return total;
+	}
+
+	/**
+	 * @brief the non-zero cuboids as sparse grid
+	 * @param grid sampling grid of the accumulator
+	 * @param divisor the lengths are divided by it
+	 * @return densities by Morton key of the cuboids
+	 */
+	SparseDensityGrid toSparse(SamplingGrid grid, float divisor) {
+		SparseDensityGrid result = new SparseDensityGrid();
+		int index = 0;
+		for (int i = 0; i < grid.getNx(); i++) {
+			for (int j = 0; j < grid.getNy(); j++) {
+				for (int k = 0; k < grid.getNz(); k++, index++) {
+					float length = get(index);
+					if (length != 0) {
+						result.put(grid.key(i, j, k), length / divisor);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @brief sets the length of a cuboid
+	 */
+	private void set(int index, float length) {
+		if (array != null) {
+			array[index] = length;
+		} else {
+			buffer.put(index, length);
+		}
+	}
+}
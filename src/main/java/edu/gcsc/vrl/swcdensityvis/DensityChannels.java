@@ -0,0 +1,134 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Arrays;
+
+/**
+ * @brief dendritic lengths of a stack in separate channels, one per
+ * compartment type
+ *
+ * The channels hold the lengths of the edges from the compartments of a
+ * type to their children, computed in one pass over the stack. The density
+ * of a type is its channel normalized by the mean total length per cell of
+ * the type, the density of all types is the sum of the channels normalized
+ * by the mean total length of all types, i. e. the same as computeDensity
+ * for the selection yields.
+ *
+ * @author stephan
+ */
+public final class DensityChannels {
+
+	/// compartment types with a name (SWCCompartmentType without ALL)
+	public static final int TYPES = SWCCompartmentType.ALL.ordinal();
+	/// one channel per named type and one for all other types
+	public static final int CHANNELS = TYPES + 1;
+
+	private final SamplingGrid grid;
+	private final SparseDensityGrid[] lengths;
+	private final double[] totals;
+	private final int cells;
+
+	/**
+	 * @brief ctor, takes ownership of the arrays
+	 * @param grid sampling grid of the channels
+	 * @param lengths dendritic length in each cuboid by channel
+	 * @param totals total dendritic length by channel
+	 * @param cells number of cells of the stack
+	 */
+	public DensityChannels(SamplingGrid grid, SparseDensityGrid[] lengths, double[] totals, int cells) {
+		if (lengths.length != CHANNELS || totals.length != CHANNELS) {
+			throw new IllegalArgumentException("Expected " + CHANNELS + " channels, got " + lengths.length);
+		}
+		this.grid = grid;
+		this.lengths = lengths;
+		this.totals = totals;
+		this.cells = cells;
+	}
+
+	/**
+	 * @brief channel of a compartment type
+	 * @param type type of a compartment (Morphology.getType)
+	 * @return the ordinal of the named type or the channel of all other types
+	 */
+	public static int channel(int type) {
+		return type >= 0 && type < TYPES ? type : TYPES;
+	}
+
+	/**
+	 * @brief sampling grid of the channels
+	 * @return
+	 */
+	public SamplingGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @brief number of cells of the stack
+	 * @return
+	 */
+	public int getCells() {
+		return cells;
+	}
+
+	/**
+	 * @brief dendritic length in each cuboid of a channel, not normalized
+	 * @param channel
+	 * @return
+	 */
+	public SparseDensityGrid getLengths(int channel) {
+		return lengths[channel];
+	}
+
+	/**
+	 * @brief total dendritic length of a channel
+	 * @param channel
+	 * @return
+	 */
+	public double getTotalLength(int channel) {
+		return totals[channel];
+	}
+
+	/**
+	 * @brief density of a compartment type selection
+	 * @see SWCUtility#computeDensity(java.util.Map, float, float, float, String)
+	 * @param type e. g. "all" or "axon"
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid
+	 */
+	public SparseDensityGrid density(String type) {
+		return density(SWCUtility.getTypeIndex(type));
+	}
+
+	/**
+	 * @brief density of a compartment type
+	 * @param type type index, negative for all types
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid
+	 */
+	public SparseDensityGrid density(int type) {
+		SparseDensityGrid density = new SparseDensityGrid();
+		double sum = 0;
+		for (int c = 0; c < CHANNELS; c++) {
+			if (type < 0 || c == channel(type)) {
+				SparseDensityGrid.Cursor lc = lengths[c].cursor();
+				while (lc.next()) {
+					density.addTo(lc.key(), lc.value());
+				}
+				sum += totals[c];
+			}
+		}
+		/// normalize by the mean total length per cell
+		float total_length = (float) (sum / cells);
+		SparseDensityGrid.Cursor dc = density.cursor();
+		while (dc.next()) {
+			dc.setValue(dc.value() / total_length);
+		}
+		return density;
+	}
+
+	@Override
+	public String toString() {
+		return "DensityChannels(grid=" + grid + ", cells=" + cells + ", totals=" + Arrays.toString(totals) + ")";
+	}
+}
@@ -0,0 +1,278 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @brief long-lived service which runs density computations on a bounded
+ * work-stealing pool
+ *
+ * All components share one service (getShared), so repeated computations
+ * reuse the worker threads instead of creating a thread pool per call. The
+ * workers are daemon threads, i. e. they do not keep the VM alive.
+ *
+ * @author stephan
+ */
+public final class DensityComputeService {
+
+	private static DensityComputeService shared;
+
+	private final ForkJoinPool pool;
+	/// memory budget for dense accumulation, a quarter of the heap by default
+	private volatile long denseMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+	private volatile boolean directBuffers;
+
+	/**
+	 * @brief ctor
+	 * @param parallelism number of worker threads
+	 */
+	public DensityComputeService(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * @brief the service shared by all components, one worker per processor
+	 * @return
+	 */
+	public static synchronized DensityComputeService getShared() {
+		if (shared == null || shared.pool.isShutdown()) {
+			shared = new DensityComputeService(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/**
+	 * @brief number of worker threads
+	 * @return
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * @brief the worker pool, e. g. for building summed-area tables
+	 * @return
+	 */
+	ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @brief memory budget for dense accumulation
+	 * @return bytes
+	 */
+	public long getDenseMemoryBudget() {
+		return denseMemoryBudget;
+	}
+
+	/**
+	 * @brief sets the memory budget for dense accumulation
+	 *
+	 * A computation accumulates into one float per sampling cuboid and
+	 * processor if these arrays fit the budget, into hash maps of the
+	 * occupied cuboids otherwise. A budget of 0 always accumulates sparsely.
+	 *
+	 * @param bytes
+	 */
+	public void setDenseMemoryBudget(long bytes) {
+		this.denseMemoryBudget = bytes;
+	}
+
+	/**
+	 * @brief true if dense accumulation uses direct buffers
+	 * @return
+	 */
+	public boolean isDirectBuffers() {
+		return directBuffers;
+	}
+
+	/**
+	 * @brief accumulate densely into direct buffers outside of the heap
+	 * instead of arrays, e. g. if the heap is small
+	 * @param directBuffers
+	 */
+	public void setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+	}
+
+	/**
+	 * @brief starts a density computation by segment index search
+	 * @see SWCUtility#computeDensity(Map, float, float, float, String)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param listener progress listener, may be null
+	 * @return handle of the computation
+	 */
+	public DensityJob<SparseDensityGrid> computeDensity(Map<String, Morphology> cells, float width, float height, float depth, String type, DensityProgressListener listener) {
+		return submit(false, cells, width, height, depth, type, listener, new DensityTimings());
+	}
+
+	/**
+	 * @brief starts an edge by edge density computation
+	 * @see SWCUtility#computeDensityAlternative(Map, float, float, float, String)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param listener progress listener, may be null
+	 * @return handle of the computation
+	 */
+	public DensityJob<SparseDensityGrid> computeDensityAlternative(Map<String, Morphology> cells, float width, float height, float depth, String type, DensityProgressListener listener) {
+		return submit(true, cells, width, height, depth, type, listener, new DensityTimings());
+	}
+
+	/**
+	 * @brief starts a density computation
+	 * @param traversal edge by edge (true) or by segment index search (false)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param listener may be null
+	 * @param timings receives the timings
+	 * @return handle of the computation
+	 */
+	DensityJob<SparseDensityGrid> submit(final boolean traversal, final Map<String, Morphology> cells, final float width, final float height, final float depth, final String type, DensityProgressListener listener, DensityTimings timings) {
+		final DensityJob<SparseDensityGrid> job = new DensityJob<SparseDensityGrid>(listener, timings, denseMemoryBudget, directBuffers);
+		job.start(pool, new Callable<SparseDensityGrid>() {
+			@Override
+			public SparseDensityGrid call() throws Exception {
+				if (traversal) {
+					return SWCUtility.computeDensityByTraversal(cells, width, height, depth, type, job, pool);
+				}
+				return SWCUtility.computeDensityBySearch(cells, width, height, depth, type, job, pool);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * @brief starts an edge by edge computation of the densities of all
+	 * compartment types in one pass
+	 * @see SWCUtility#computeDensityChannels(Map, float, float, float)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param listener progress listener, may be null
+	 * @return handle of the computation
+	 */
+	public DensityJob<DensityChannels> computeDensityChannels(Map<String, Morphology> cells, float width, float height, float depth, DensityProgressListener listener) {
+		return submitChannels(cells, width, height, depth, listener, new DensityTimings());
+	}
+
+	/**
+	 * @brief starts a computation of the densities of all compartment types
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param listener may be null
+	 * @param timings receives the timings
+	 * @return handle of the computation
+	 */
+	DensityJob<DensityChannels> submitChannels(final Map<String, Morphology> cells, final float width, final float height, final float depth, DensityProgressListener listener, DensityTimings timings) {
+		final DensityJob<DensityChannels> job = new DensityJob<DensityChannels>(listener, timings, denseMemoryBudget, directBuffers);
+		job.start(pool, new Callable<DensityChannels>() {
+			@Override
+			public DensityChannels call() throws Exception {
+				return SWCUtility.computeChannelsByTraversal(cells, width, height, depth, job, pool);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * @brief starts an edge by edge computation of morphometry metrics
+	 * @see SWCUtility#computeMorphometry(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param metrics one column per metric
+	 * @param listener progress listener, may be null
+	 * @return handle of the computation
+	 */
+	public DensityJob<MorphometryTable> computeMorphometry(Map<String, Morphology> cells, float width, float height, float depth, String type, List<? extends MorphometryMetric> metrics, DensityProgressListener listener) {
+		return submitMorphometry(cells, width, height, depth, type, metrics, listener, new DensityTimings());
+	}
+
+	/**
+	 * @brief starts a computation of morphometry metrics
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param metrics
+	 * @param listener may be null
+	 * @param timings receives the timings
+	 * @return handle of the computation
+	 */
+	DensityJob<MorphometryTable> submitMorphometry(final Map<String, Morphology> cells, final float width, final float height, final float depth, final String type, final List<? extends MorphometryMetric> metrics, DensityProgressListener listener, DensityTimings timings) {
+		final DensityJob<MorphometryTable> job = new DensityJob<MorphometryTable>(listener, timings, denseMemoryBudget, directBuffers);
+		job.start(pool, new Callable<MorphometryTable>() {
+			@Override
+			public MorphometryTable call() throws Exception {
+				return SWCUtility.computeMorphometryByTraversal(cells, width, height, depth, type, metrics, job, pool);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * @brief starts a density computation in regions of interest
+	 * @see SWCUtility#computeDensity(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param regions
+	 * @param listener progress listener, may be null
+	 * @return handle of the computation
+	 */
+	public DensityJob<SparseDensityGrid> computeDensity(Map<String, Morphology> cells, float width, float height, float depth, String type, List<RegionOfInterest> regions, DensityProgressListener listener) {
+		return submitRegions(cells, width, height, depth, type, regions, listener, new DensityTimings());
+	}
+
+	/**
+	 * @brief starts a density computation in regions of interest
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param type
+	 * @param regions
+	 * @param listener may be null
+	 * @param timings receives the timings
+	 * @return handle of the computation
+	 */
+	DensityJob<SparseDensityGrid> submitRegions(final Map<String, Morphology> cells, final float width, final float height, final float depth, final String type, final List<RegionOfInterest> regions, DensityProgressListener listener, DensityTimings timings) {
+		final DensityJob<SparseDensityGrid> job = new DensityJob<SparseDensityGrid>(listener, timings, denseMemoryBudget, directBuffers);
+		job.start(pool, new Callable<SparseDensityGrid>() {
+			@Override
+			public SparseDensityGrid call() throws Exception {
+				return SWCUtility.computeDensityInRegions(cells, width, height, depth, type, regions, job, pool);
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * @brief stops the workers, running computations are abandoned
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -5,35 +5,57 @@ package edu.gcsc.vrl.swcdensityvis;
 import edu.gcsc.vrl.densityvis.Density;
 import edu.gcsc.vrl.densityvis.VoxelSet;
 import edu.gcsc.vrl.densityvis.VoxelImpl;
-import edu.gcsc.vrl.densityvis.WritableVoxel;
-import eu.mihosoft.vrl.reflection.Pair;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import javax.vecmath.Vector3f;
+import java.util.Map;
 
 /**
  * @brief Density implementation for internal usage
+ *
+ * The voxels are views created on access: in dense mode one voxel for
+ * each sampling cuboid of the bounding box, in sparse mode only the voxels
+ * with a density above a threshold, backed by primitive arrays.
+ *
  * @author stephan
  */
 final class DensityImpl implements Density { /// this can get an instance of teh ImportGeometryFooImpl in a general way... => plug in here SWC or Foo or Bar or other Importer
 	/// the SWC "stack"
 
-	private final HashMap<String, ArrayList<SWCCompartmentInformation>> stack;
+	private final Map<String, Morphology> stack;
 	private final int voxelWidth;
 	private final int voxelHeight;
 	private final int voxelDepth;
 	private final String choice;
+	/// voxels with a density above are emitted, negative for all voxels (dense mode)
+	private final float threshold;
 
-	/// the output voxels
-	private final ArrayList<WritableVoxel> voxels = new ArrayList<WritableVoxel>();
+	/// the densities and their sampling grid
+	private SamplingGrid grid;
+	private SparseDensityGrid density;
+	/// the output voxels, created on first access
+	private List<? extends VoxelSet> voxels;
+	/// prefix sums of the densities, built on the first box query
+	private SummedAreaTable table;
 
 	/// front and back planes
 	private final float backplane = 100.0f;
 	private final float frontplane = 0.1f;
 
+	/**
+	 * @brief computes the average density in each voxel subset, all
+	 * voxels of the bounding box are emitted
+	 * @param stack
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 */
+	public DensityImpl(Map<String, Morphology> stack, int voxelWidth, int voxelHeight, int voxelDepth, String choice) {
+		this(stack, voxelWidth, voxelHeight, voxelDepth, choice, -1.f);
+	}
+
 	/**
 	 * @brief computes the average density in each voxel subset
 	 * @param stack
@@ -41,16 +63,40 @@ final class DensityImpl implements Density { /// this can get an instance of teh
 	 * @param height
 	 * @param depth
 	 * @param choice
+	 * @param threshold only voxels with a density above are emitted (sparse
+	 * mode), negative for all voxels of the bounding box
 	 */
-	public DensityImpl(HashMap<String, ArrayList<SWCCompartmentInformation>> stack, int voxelWidth, int voxelHeight, int voxelDepth, String choice) {
+	public DensityImpl(Map<String, Morphology> stack, int voxelWidth, int voxelHeight, int voxelDepth, String choice, float threshold) {
 		this.stack = stack;
 		this.voxelWidth = voxelWidth;
 		this.voxelHeight = voxelHeight;
 		this.voxelDepth = voxelDepth;
 		this.choice = choice;
+		this.threshold = threshold;
 		compute();
 	}
 
+	/**
+	 * @brief wraps densities computed before, e. g. served by a
+	 * DensityPyramid
+	 * @param stack
+	 * @param grid sampling grid of the densities
+	 * @param density densities by Morton key of the cuboids
+	 * @param choice compartment type the densities were computed for
+	 * @param threshold only voxels with a density above are emitted (sparse
+	 * mode), negative for all voxels of the bounding box
+	 */
+	DensityImpl(Map<String, Morphology> stack, SamplingGrid grid, SparseDensityGrid density, String choice, float threshold) {
+		this.stack = stack;
+		this.voxelWidth = (int) grid.getWidth();
+		this.voxelHeight = (int) grid.getHeight();
+		this.voxelDepth = (int) grid.getDepth();
+		this.choice = choice;
+		this.threshold = threshold;
+		this.grid = grid;
+		this.density = density;
+	}
+
 	/**
 	 * @brief get the scaling factor
 	 * @return 
@@ -63,39 +109,75 @@ final class DensityImpl implements Density { /// this can get an instance of teh
 	 * Computes the average density for each voxel subset.
 	 */
 	private void compute() {
-		/// get the bounding box in physiological units, i. e. µm
-		Pair<Vector3f, Vector3f> bounding = SWCUtility.getBoundingBox(stack);
+		/// the sampling cuboids in physiological units, i. e. µm
+		grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(stack), voxelWidth, voxelHeight, voxelDepth);
 		/// compute the density
-		HashMap<Integer, Float> density = SWCUtility.computeDensity(stack, voxelWidth, voxelHeight, voxelDepth, choice);
-		/**
-		 * @todo computeDensity must respect the voxel width depth and
-		 * height
-		 */
+		density = SWCUtility.computeDensity(stack, voxelWidth, voxelHeight, voxelDepth, choice);
+	}
 
-		int index = 0;
-		for (float x = bounding.getSecond().x; x < bounding.getFirst().x; x += this.voxelWidth) {
-			for (float y = bounding.getSecond().y; y < bounding.getFirst().y; y += this.voxelHeight) {
-				for (float z = bounding.getSecond().z; z < bounding.getFirst().z; z += this.voxelDepth) {
-					if (density.containsKey(index)) {
-						voxels.add(new VoxelImpl((int) x, (int) y, (int) z, this.voxelWidth, this.voxelHeight, this.voxelDepth, density.get(index) * 255));
-						/**
-						 * @todo multiplication with 255
-						 * not necessary, since we have
-						 * no colors in input image
-						 */
-					} else {
-						voxels.add(new VoxelImpl((int) x, (int) y, (int) z, this.voxelWidth, this.voxelHeight, this.voxelDepth, 0));
-					}
-					/// note: density.get(index) in interval [0, 1] -> thus we multiply by 255 to have a color between 0 and 255
-					index++;
+	/**
+	 * @brief view of all sampling cuboids in sweep order, absent cuboids
+	 * have density 0
+	 * @return
+	 */
+	private List<VoxelSet> denseVoxels() {
+		if (!grid.hasIntegerIndices()) {
+			throw new IllegalStateException("Too many sampling cuboids for a dense voxel list: " + grid);
+		}
+		final int size = (int) grid.getCellCount();
+		return new AbstractList<VoxelSet>() {
+			@Override
+			public VoxelSet get(int index) {
+				if (index < 0 || index >= size) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
 				}
+				int k = index % grid.getNz();
+				int j = (index / grid.getNz()) % grid.getNy();
+				int i = index / grid.getNz() / grid.getNy();
+				/// note: density in interval [0, 1] -> thus we multiply by 255 to have a color between 0 and 255
+				/**
+				 * @todo multiplication with 255
+				 * not necessary, since we have
+				 * no colors in input image
+				 */
+				return new VoxelImpl((int) (grid.getX() + i * grid.getWidth()), (int) (grid.getY() + j * grid.getHeight()), (int) (grid.getZ() + k * grid.getDepth()),
+					voxelWidth, voxelHeight, voxelDepth, density.get(i, j, k) * 255);
 			}
-		}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
 	}
 
 	@Override
 	@SuppressWarnings("ReturnOfCollectionOrArrayField")
-	public List<? extends VoxelSet> getVoxels() {
+	public synchronized List<? extends VoxelSet> getVoxels() {
+		if (voxels == null) {
+			voxels = threshold < 0 ? denseVoxels() : VoxelList.of(density, grid, threshold, 255);
+		}
 		return voxels;
 	}
+
+	/**
+	 * @brief the summed-area table of the densities, built on first access
+	 * @return
+	 */
+	synchronized SummedAreaTable getSummedAreaTable() {
+		if (table == null) {
+			table = SummedAreaTable.build(grid, density);
+		}
+		return table;
+	}
+
+	/**
+	 * @brief sum of the densities of the sampling cuboids a box overlaps,
+	 * constant time after the first query
+	 * @param box
+	 * @return
+	 */
+	double sum(RegionOfInterest box) {
+		return getSummedAreaTable().sum(box);
+	}
 }
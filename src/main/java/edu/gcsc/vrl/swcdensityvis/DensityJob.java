@@ -0,0 +1,233 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief handle of a density computation running on a
+ * DensityComputeService
+ *
+ * The result is a SparseDensityGrid, or DensityChannels for a computation
+ * of all compartment types at once.
+ *
+ * Cancelling cancels the submitted computation and sets a flag which its
+ * tasks poll (once per compartment or every few cuboid queries), so the
+ * workers are free again shortly after cancel returns. Unlike the tasks of
+ * the pool, the job is done only once the computation has actually
+ * returned, i. e. once isDone holds or get has thrown the
+ * CancellationException, no worker runs for the job anymore.
+ *
+ * @author stephan
+ */
+public final class DensityJob<T> implements Future<T> {
+
+	private final DensityProgressListener listener;
+	private final DensityTimings timings;
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong candidates = new AtomicLong();
+	/// memory budget for dense accumulation [bytes]
+	private final long denseBudget;
+	private final boolean directBuffers;
+	private volatile int total;
+	private volatile boolean cancelled;
+	/// the computation itself, set on submission
+	private volatile Future<T> future;
+	/// claimed by the computation when it starts or by cancel before
+	private final AtomicBoolean started = new AtomicBoolean();
+	/// released when the computation has returned or will never start
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	/**
+	 * @brief ctor
+	 * @param listener may be null
+	 * @param timings receives the timings of the computation
+	 * @param denseBudget memory budget for dense accumulation [bytes]
+	 * @param directBuffers accumulate densely outside of the heap
+	 */
+	DensityJob(DensityProgressListener listener, DensityTimings timings, long denseBudget, boolean directBuffers) {
+		this.listener = listener;
+		this.timings = timings;
+		this.denseBudget = denseBudget;
+		this.directBuffers = directBuffers;
+	}
+
+	/**
+	 * @brief submits the computation of the job
+	 * @param pool
+	 * @param computation
+	 */
+	void start(ExecutorService pool, final Callable<T> computation) {
+		this.future = pool.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				if (!started.compareAndSet(false, true)) {
+					throw new CancellationException("Density computation was cancelled.");
+				}
+				try {
+					checkCancelled();
+					return computation.call();
+				} finally {
+					finished.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @brief sets the number of tasks of the computation
+	 * @param total
+	 */
+	void setTotal(int total) {
+		this.total = total;
+		done.set(0);
+	}
+
+	/**
+	 * @brief marks one task as finished and notifies the listener
+	 */
+	void taskDone() {
+		int count = done.incrementAndGet();
+		if (listener != null) {
+			listener.progress(count, total);
+		}
+	}
+
+	/**
+	 * @brief adds the candidate counts of a task
+	 * @param queries number of cuboid queries
+	 * @param candidates number of candidate edges returned
+	 */
+	void addCandidates(long queries, long candidates) {
+		this.queries.addAndGet(queries);
+		this.candidates.addAndGet(candidates);
+	}
+
+	long getQueries() {
+		return queries.get();
+	}
+
+	long getCandidates() {
+		return candidates.get();
+	}
+
+	long getDenseBudget() {
+		return denseBudget;
+	}
+
+	boolean isDirectBuffers() {
+		return directBuffers;
+	}
+
+	/**
+	 * @brief polled by the tasks
+	 * @throws CancellationException if the job was cancelled
+	 */
+	void checkCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Density computation was cancelled.");
+		}
+	}
+
+	/**
+	 * @brief fraction of finished tasks
+	 * @return progress in [0, 1]
+	 */
+	public double getProgress() {
+		int t = total;
+		return t == 0 ? (isDone() ? 1.0 : 0.0) : Math.min(1.0, done.get() / (double) t);
+	}
+
+	/**
+	 * @brief timings, complete once the job is done
+	 * @return
+	 */
+	public DensityTimings getTimings() {
+		return timings;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (cancelled || isDone()) {
+			return false;
+		}
+		cancelled = true;
+		future.cancel(mayInterruptIfRunning);
+		/// a computation which has not started yet never will
+		if (started.compareAndSet(false, true)) {
+			finished.countDown();
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @brief true once the computation has returned, a cancelled job is
+	 * done as soon as its tasks have stopped
+	 * @return
+	 */
+	@Override
+	public boolean isDone() {
+		return finished.getCount() == 0;
+	}
+
+	/**
+	 * @brief waits for the result
+	 * @return
+	 * @throws CancellationException once the tasks of a cancelled job have
+	 * stopped
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		finished.await();
+		checkCancelled();
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!finished.await(timeout, unit)) {
+			throw new TimeoutException("Density computation is still running.");
+		}
+		checkCancelled();
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * @brief reports a cancellation detected by a task as such
+	 * @param e
+	 * @return e if the computation failed for another reason
+	 */
+	private ExecutionException rethrow(ExecutionException e) {
+		checkCancelled();
+		if (e.getCause() instanceof CancellationException) {
+			throw (CancellationException) e.getCause();
+		}
+		return e;
+	}
+}
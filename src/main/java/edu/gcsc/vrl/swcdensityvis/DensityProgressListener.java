@@ -0,0 +1,17 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/**
+ * @brief receives the progress of a density computation
+ * @author stephan
+ */
+public interface DensityProgressListener {
+
+	/**
+	 * @brief called from the worker threads whenever a task (a cell or a
+	 * chunk of a cell) is finished
+	 * @param done number of finished tasks
+	 * @param total number of tasks
+	 */
+	void progress(int done, int total);
+}
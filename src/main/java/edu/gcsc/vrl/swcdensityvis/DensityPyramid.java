@@ -0,0 +1,222 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * @brief multi-resolution pyramid of densities
+ *
+ * The densities are computed once at a base resolution (level 0), each
+ * further level sums the 2 x 2 x 2 cuboids of the level below, like the
+ * mipmaps of a texture. Since the densities are normalized lengths they
+ * are additive, so a cuboid of any multiple (fx, fy, fz) of the base size
+ * is the sum of the base cuboids it covers. Such densities are served by
+ * summing the cuboids of the coarsest level whose size divides the
+ * requested one, without touching the cells again.
+ *
+ * Blocks are aligned to the lattice of their size anchored at the global
+ * origin, like the grid of SamplingGrid.fromBoundingBox, so the coarse
+ * cuboids are the cuboids a direct computation with that size samples.
+ *
+ * @author stephan
+ */
+public final class DensityPyramid {
+
+	/// levels are built until a level has at most this many cuboids
+	private static final long MIN_LEVEL_CUBOIDS = 1;
+
+	private final ArrayList<SamplingGrid> grids = new ArrayList<SamplingGrid>();
+	private final ArrayList<SparseDensityGrid> levels = new ArrayList<SparseDensityGrid>();
+
+	/**
+	 * @brief builds the pyramid over base densities
+	 * @param grid sampling grid of the base densities
+	 * @param density base densities by Morton key of the cuboids
+	 */
+	public DensityPyramid(SamplingGrid grid, SparseDensityGrid density) {
+		grids.add(grid);
+		levels.add(density);
+		while (grid.getCellCount() > MIN_LEVEL_CUBOIDS) {
+			density = coarsen(grid, density, 2, 2, 2);
+			grid = coarsen(grid, 2, 2, 2);
+			grids.add(grid);
+			levels.add(density);
+		}
+	}
+
+	/**
+	 * @brief computes the base densities of a stack and builds the pyramid
+	 *
+	 * The base densities are computed edge by edge, which is exact and
+	 * scales with the number of cuboids the edges pass through, i. e. also
+	 * with fine base cuboids.
+	 *
+	 * @param cells
+	 * @param base edge length of the base cuboids, e. g. 1 µm
+	 * @param type
+	 * @return
+	 */
+	public static DensityPyramid compute(Map<String, Morphology> cells, float base, String type) {
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), base, base, base);
+		return new DensityPyramid(grid, SWCUtility.computeDensityAlternative(cells, base, base, base, type));
+	}
+
+	/**
+	 * @brief sums blocks of fx x fy x fz cuboids, starting with the first
+	 * cuboid
+	 * @param density
+	 * @param fx
+	 * @param fy
+	 * @param fz
+	 * @return densities by Morton key of the blocks
+	 */
+	public static SparseDensityGrid coarsen(SparseDensityGrid density, int fx, int fy, int fz) {
+		return coarsen(density, fx, fy, fz, 0, 0, 0);
+	}
+
+	/**
+	 * @brief sums the blocks of fx x fy x fz cuboids of the lattice
+	 * @param grid sampling grid of the densities
+	 * @param density
+	 * @param fx
+	 * @param fy
+	 * @param fz
+	 * @return densities by Morton key of the cuboids of coarsen(grid, fx,
+	 * fy, fz)
+	 */
+	public static SparseDensityGrid coarsen(SamplingGrid grid, SparseDensityGrid density, int fx, int fy, int fz) {
+		return coarsen(density, fx, fy, fz, offset(grid.getX(), grid.getWidth(), fx),
+			offset(grid.getY(), grid.getHeight(), fy), offset(grid.getZ(), grid.getDepth(), fz));
+	}
+
+	private static SparseDensityGrid coarsen(SparseDensityGrid density, int fx, int fy, int fz, int ox, int oy, int oz) {
+		SparseDensityGrid coarse = new SparseDensityGrid();
+		SparseDensityGrid.Cursor c = density.cursor();
+		while (c.next()) {
+			coarse.addTo(CuboidUtility.mortonEncode((c.getI() + ox) / fx, (c.getJ() + oy) / fy, (c.getK() + oz) / fz), c.value());
+		}
+		return coarse;
+	}
+
+	/**
+	 * @brief grid of the blocks of fx x fy x fz cuboids of the lattice
+	 * covering a grid
+	 * @param grid
+	 * @param fx
+	 * @param fy
+	 * @param fz
+	 * @return
+	 */
+	public static SamplingGrid coarsen(SamplingGrid grid, int fx, int fy, int fz) {
+		int ox = offset(grid.getX(), grid.getWidth(), fx);
+		int oy = offset(grid.getY(), grid.getHeight(), fy);
+		int oz = offset(grid.getZ(), grid.getDepth(), fz);
+		return new SamplingGrid(
+			(float) (grid.getX() - ox * (double) grid.getWidth()), (float) (grid.getY() - oy * (double) grid.getHeight()), (float) (grid.getZ() - oz * (double) grid.getDepth()),
+			grid.getWidth() * fx, grid.getHeight() * fy, grid.getDepth() * fz,
+			(grid.getNx() + ox + fx - 1) / fx, (grid.getNy() + oy + fy - 1) / fy, (grid.getNz() + oz + fz - 1) / fz);
+	}
+
+	/**
+	 * @brief position of the first cuboid of a grid in its block of f
+	 * cuboids of the lattice
+	 * @param origin
+	 * @param size
+	 * @param f
+	 * @return
+	 */
+	private static int offset(float origin, float size, int f) {
+		long g = Math.round(origin / (double) size);
+		return (int) ((g % f + f) % f);
+	}
+
+	/**
+	 * @brief number of levels, including the base
+	 * @return
+	 */
+	public int getLevels() {
+		return levels.size();
+	}
+
+	/**
+	 * @brief sampling grid of a level
+	 * @param level 0 for the base
+	 * @return
+	 */
+	public SamplingGrid getGrid(int level) {
+		return grids.get(level);
+	}
+
+	/**
+	 * @brief densities of a level
+	 * @param level 0 for the base
+	 * @return
+	 */
+	public SparseDensityGrid getLevel(int level) {
+		return levels.get(level);
+	}
+
+	/**
+	 * @brief sampling grid for cuboids of fx x fy x fz base cuboids
+	 * @param fx
+	 * @param fy
+	 * @param fz
+	 * @return
+	 */
+	public SamplingGrid grid(int fx, int fy, int fz) {
+		checkFactors(fx, fy, fz);
+		return coarsen(grids.get(0), fx, fy, fz);
+	}
+
+	/**
+	 * @brief densities of cuboids of fx x fy x fz base cuboids
+	 *
+	 * Sums the cuboids of the coarsest level whose size divides the
+	 * requested one, e. g. level 2 (4 base cuboids) for 12 base cuboids.
+	 *
+	 * @param fx
+	 * @param fy
+	 * @param fz
+	 * @return densities by Morton key of the cuboids of grid(fx, fy, fz)
+	 */
+	public SparseDensityGrid density(int fx, int fy, int fz) {
+		checkFactors(fx, fy, fz);
+		int level = Math.min(levels.size() - 1, Math.min(Integer.numberOfTrailingZeros(fx),
+			Math.min(Integer.numberOfTrailingZeros(fy), Integer.numberOfTrailingZeros(fz))));
+		if (fx == 1 << level && fy == 1 << level && fz == 1 << level) {
+			return levels.get(level);
+		}
+		return coarsen(grids.get(level), levels.get(level), fx >> level, fy >> level, fz >> level);
+	}
+
+	/**
+	 * @brief factors of the base size for cuboids of the given size
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @return {fx, fy, fz}, null if the size is not a multiple of the base
+	 */
+	public int[] factors(float width, float height, float depth) {
+		SamplingGrid base = grids.get(0);
+		int fx = factor(width, base.getWidth());
+		int fy = factor(height, base.getHeight());
+		int fz = factor(depth, base.getDepth());
+		return fx > 0 && fy > 0 && fz > 0 ? new int[]{fx, fy, fz} : null;
+	}
+
+	/**
+	 * @brief positive integer multiple of the base, 0 if there is none
+	 */
+	private static int factor(float size, float base) {
+		long f = Math.round((double) size / base);
+		return f >= 1 && f <= Integer.MAX_VALUE && Math.abs(f * base - size) <= 1e-5 * size ? (int) f : 0;
+	}
+
+	private static void checkFactors(int fx, int fy, int fz) {
+		if (fx < 1 || fy < 1 || fz < 1) {
+			throw new IllegalArgumentException("Cuboids consist of at least one base cuboid per axis.");
+		}
+	}
+}
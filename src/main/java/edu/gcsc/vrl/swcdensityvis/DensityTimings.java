@@ -0,0 +1,37 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * @brief wall clock timings of a density computation
+ *
+ * The parallel phase computes the partial densities of the cells, the
+ * merge phase sums them up and normalizes the result.
+ *
+ * @author stephan
+ */
+@ToString @Getter @Setter
+public class DensityTimings {
+	/// time spent in the per cell computations [ns]
+	private long parallelNanos;
+	/// time spent in the reduction and normalization [ns]
+	private long mergeNanos;
+	/// number of tasks of the parallel phase
+	private int tasks;
+	/// number of shards the reduction was split into
+	private int shards;
+	/// number of cuboid queries of the search based computation
+	private long queries;
+	/// number of candidate edges returned by these queries
+	private long candidates;
+	/// segment index chosen by the search based computation
+	private String index;
+	/// accumulation mode chosen up front: dense, dense direct or sparse
+	private String accumulation;
+	/// estimated memory footprint of the chosen accumulation [bytes]
+	private long estimatedBytes;
+}
@@ -5,6 +5,8 @@ package edu.gcsc.vrl.swcdensityvis;
 import edu.gcsc.vrl.densityvis.Density;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @brief density utility class
@@ -27,6 +29,92 @@ public final class DensityUtil {
 	 * @return 
 	 */
 	public static Density computeDensity(HashMap<String, ArrayList<SWCCompartmentInformation>> cells, int width, int height, int depth, String choice) {
-	    return new DensityImpl(cells, width, height, depth, choice);
+	    return computeDensity(Morphology.fromStack(cells), width, height, depth, choice);
     }
+
+	/**
+	 * @brief computes the density for a stack of morphologies
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 * @return 
+	 */
+	public static Density computeDensity(Map<String, Morphology> cells, int width, int height, int depth, String choice) {
+	    return new DensityImpl(cells, width, height, depth, choice);
+	}
+
+	/**
+	 * @brief computes the density for a stack of morphologies, only voxels
+	 * with a density above the threshold are emitted
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 * @param threshold negative for all voxels of the bounding box
+	 * @return 
+	 */
+	public static Density computeDensity(Map<String, Morphology> cells, int width, int height, int depth, String choice, float threshold) {
+	    return new DensityImpl(cells, width, height, depth, choice, threshold);
+	}
+
+	/**
+	 * @brief computes the density for a stack of morphologies in regions of
+	 * interest only
+	 * @see SWCUtility#computeDensity(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param choice
+	 * @param threshold negative for all voxels of the bounding box
+	 * @param regions
+	 * @return
+	 */
+	public static Density computeDensity(Map<String, Morphology> cells, int width, int height, int depth, String choice, float threshold, List<RegionOfInterest> regions) {
+	    SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width, height, depth);
+	    return new DensityImpl(cells, grid, SWCUtility.computeDensity(cells, width, height, depth, choice, regions), choice, threshold);
+	}
+
+	/**
+	 * @brief serves the density for a stack from a pyramid of its densities
+	 * @param cells the stack the pyramid was computed for
+	 * @param pyramid
+	 * @param width multiple of the base cuboid size of the pyramid
+	 * @param height
+	 * @param depth
+	 * @param choice compartment type the pyramid was computed for
+	 * @param threshold negative for all voxels of the bounding box
+	 * @return
+	 * @throws IllegalArgumentException if the size is not a multiple of
+	 * the base cuboid size
+	 */
+	public static Density computeDensity(Map<String, Morphology> cells, DensityPyramid pyramid, int width, int height, int depth, String choice, float threshold) {
+	    int[] f = pyramid.factors(width, height, depth);
+	    if (f == null) {
+		    throw new IllegalArgumentException("Sampling cube " + width + " x " + height + " x " + depth + " is not a multiple of the base of the pyramid: " + pyramid.getGrid(0));
+	    }
+	    return new DensityImpl(cells, pyramid.grid(f[0], f[1], f[2]), pyramid.density(f[0], f[1], f[2]), choice, threshold);
+	}
+
+	/**
+	 * @brief sum of the densities of the sampling cuboids a box overlaps
+	 *
+	 * The first query builds a summed-area table of the density, further
+	 * queries take constant time regardless of the size of the box.
+	 *
+	 * @param density computed by this plugin
+	 * @param box
+	 * @return
+	 * @throws IllegalArgumentException if the density was not computed by
+	 * this plugin
+	 */
+	public static double sum(Density density, RegionOfInterest box) {
+	    if (!(density instanceof DensityImpl)) {
+		    throw new IllegalArgumentException("Box queries need a density computed from SWC files, got: " + density);
+	    }
+	    return ((DensityImpl) density).sum(box);
+	}
 }
@@ -0,0 +1,54 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Arrays;
+
+/**
+ * @brief growable buffer of int indices, e. g. the hits of a spatial
+ * query, meant to be reused across queries
+ * @author stephan
+ */
+public final class IndexBuffer {
+
+	private int[] indices;
+	private int size;
+
+	/**
+	 * @brief def ctor
+	 */
+	public IndexBuffer() {
+		this(64);
+	}
+
+	/**
+	 * @brief ctor
+	 * @param capacity initial capacity
+	 */
+	public IndexBuffer(int capacity) {
+		indices = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @brief appends an index
+	 * @param index
+	 */
+	public void add(int index) {
+		if (size == indices.length) {
+			indices = Arrays.copyOf(indices, size << 1);
+		}
+		indices[size++] = index;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int i) {
+		return indices[i];
+	}
+}
@@ -37,7 +37,7 @@ public class KDTreeDemo {
 				System.out.println("Vertex:" + vertex);
 			}*/
 		}
-		KDTree<ArrayList<Vector3f>> tree = SWCUtility.buildKDTree(incidents);
+		StaticKDTree<ArrayList<Vector3f>> tree = SWCUtility.buildKDTree(incidents);
 		assertEquals("Tree size is required to be: 1514, but was: " + tree.size(), tree.size(), 1514);
 		double[] elem = {2.14, 14.34, -0.15};
 		try {
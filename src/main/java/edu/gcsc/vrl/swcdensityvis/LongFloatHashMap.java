@@ -0,0 +1,524 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @brief open-addressing hash map from primitive long keys to float values
+ *
+ * Keys and values are kept in two parallel arrays and collisions are
+ * resolved by linear probing, i. e. neither lookups nor updates box or
+ * allocate (except for growing the table). Meant for accumulating lengths
+ * in sampling cuboids, thus the central operation is addTo.
+ *
+ * @note not thread-safe, absent keys have the value 0
+ * @author stephan
+ */
+public final class LongFloatHashMap {
+
+	/// marks an empty slot, the key itself is stored out of the table
+	private static final long FREE = Long.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.75f;
+	/// 2^64 / golden ratio, multiplier of the Fibonacci hashing
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private float[] values;
+	private int mask;
+	/// 64 - log2(table size), the home slot is given by the top bits
+	private int shift;
+	private int size;
+	private int threshold;
+
+	/// value of the FREE key
+	private boolean hasFreeKey;
+	private float freeValue;
+
+	/**
+	 * @brief def ctor
+	 */
+	public LongFloatHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @brief ctor
+	 * @param expected expected number of keys
+	 */
+	public LongFloatHashMap(int expected) {
+		allocate(tableSize(expected));
+	}
+
+	/**
+	 * @brief copies a boxed map
+	 * @param map
+	 */
+	public LongFloatHashMap(Map<Long, Float> map) {
+		this(map.size());
+		for (Map.Entry<Long, Float> entry : map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @brief number of keys
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @brief the value of a key
+	 * @param key
+	 * @return the value or 0 if the key is absent
+	 */
+	public float get(long key) {
+		return get(key, 0.f);
+	}
+
+	/**
+	 * @brief the value of a key
+	 * @param key
+	 * @param defaultValue
+	 * @return the value or defaultValue if the key is absent
+	 */
+	public float get(long key, float defaultValue) {
+		if (key == FREE) {
+			return hasFreeKey ? freeValue : defaultValue;
+		}
+		int slot = find(key);
+		return slot >= 0 ? values[slot] : defaultValue;
+	}
+
+	public boolean containsKey(long key) {
+		return key == FREE ? hasFreeKey : find(key) >= 0;
+	}
+
+	/**
+	 * @brief sets the value of a key
+	 * @param key
+	 * @param value
+	 */
+	public void put(long key, float value) {
+		if (key == FREE) {
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				size++;
+			}
+			freeValue = value;
+			return;
+		}
+		/// insert first, it may replace the arrays
+		int slot = insert(key);
+		values[slot] = value;
+	}
+
+	/**
+	 * @brief adds delta to the value of a key (absent keys count as 0)
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public float addTo(long key, float delta) {
+		if (key == FREE) {
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				size++;
+			}
+			return freeValue += delta;
+		}
+		int slot = insert(key);
+		return values[slot] += delta;
+	}
+
+	/**
+	 * @brief adds all values of another map
+	 * @param other
+	 */
+	public void addAll(LongFloatHashMap other) {
+		if (other.hasFreeKey) {
+			addTo(FREE, other.freeValue);
+		}
+		long[] k = other.keys;
+		float[] v = other.values;
+		for (int slot = 0; slot < k.length; slot++) {
+			if (k[slot] != FREE) {
+				addTo(k[slot], v[slot]);
+			}
+		}
+	}
+
+	/**
+	 * @brief sum of all values
+	 * @return
+	 */
+	public double sum() {
+		double sum = hasFreeKey ? freeValue : 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE) {
+				sum += values[slot];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @brief multiplies all values by a factor
+	 * @param factor
+	 */
+	public void scale(float factor) {
+		freeValue *= factor;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE) {
+				values[slot] *= factor;
+			}
+		}
+	}
+
+	/**
+	 * @brief divides all values by a divisor
+	 * @param divisor
+	 */
+	public void divide(float divisor) {
+		freeValue /= divisor;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE) {
+				values[slot] /= divisor;
+			}
+		}
+	}
+
+	/**
+	 * @brief removes all keys
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		hasFreeKey = false;
+		freeValue = 0;
+		size = 0;
+	}
+
+	/**
+	 * @brief copy of all keys (unordered)
+	 * @return
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int n = 0;
+		if (hasFreeKey) {
+			result[n++] = FREE;
+		}
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != FREE) {
+				result[n++] = keys[slot];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @brief copies the map into a boxed hashmap
+	 * @return
+	 */
+	public HashMap<Long, Float> toHashMap() {
+		HashMap<Long, Float> map = new HashMap<Long, Float>(Math.max(16, (int) (size / 0.75f) + 1));
+		Cursor c = cursor();
+		while (c.next()) {
+			map.put(c.key(), c.value());
+		}
+		return map;
+	}
+
+	/**
+	 * @brief cursor over the entries
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @brief iterates the entries without boxing, usage:
+	 * while (c.next()) { c.key(); c.value(); }
+	 */
+	public final class Cursor {
+
+		/// current slot, keys.length denotes the FREE key
+		private int slot = -1;
+
+		private Cursor() {
+		}
+
+		/**
+		 * @brief advances to the next entry
+		 * @return false if there are no more entries
+		 */
+		public boolean next() {
+			while (++slot < keys.length) {
+				if (keys[slot] != FREE) {
+					return true;
+				}
+			}
+			return slot == keys.length && hasFreeKey;
+		}
+
+		public long key() {
+			return slot == keys.length ? FREE : keys[slot];
+		}
+
+		public float value() {
+			return slot == keys.length ? freeValue : values[slot];
+		}
+
+		public void setValue(float value) {
+			if (slot == keys.length) {
+				freeValue = value;
+			} else {
+				values[slot] = value;
+			}
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LongFloatHashMap)) {
+			return false;
+		}
+		LongFloatHashMap other = (LongFloatHashMap) obj;
+		if (other.size != size) {
+			return false;
+		}
+		Cursor c = cursor();
+		while (c.next()) {
+			if (!other.containsKey(c.key()) || Float.floatToIntBits(other.get(c.key())) != Float.floatToIntBits(c.value())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		Cursor c = cursor();
+		while (c.next()) {
+			hash += (int) (c.key() ^ (c.key() >>> 32)) ^ Float.floatToIntBits(c.value());
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return toHashMap().toString();
+	}
+
+	/**
+	 * @brief slot of a key
+	 * @param key not FREE
+	 * @return slot or -1 if absent
+	 */
+	private int find(long key) {
+		int slot = home(key);
+		while (true) {
+			long k = keys[slot];
+			if (k == key) {
+				return slot;
+			}
+			if (k == FREE) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @brief slot of a key, inserts the key with value 0 if absent
+	 * @param key not FREE
+	 * @return
+	 */
+	private int insert(long key) {
+		int slot = home(key);
+		while (true) {
+			long k = keys[slot];
+			if (k == key) {
+				return slot;
+			}
+			if (k == FREE) {
+				if (size >= threshold) {
+					rehash(keys.length << 1);
+					return insert(key);
+				}
+				keys[slot] = key;
+				values[slot] = 0.f;
+				size++;
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		float[] oldValues = values;
+		allocate(capacity);
+		for (int slot = 0; slot < oldKeys.length; slot++) {
+			long key = oldKeys[slot];
+			if (key != FREE) {
+				int s = home(key);
+				while (keys[s] != FREE) {
+					s = (s + 1) & mask;
+				}
+				keys[s] = key;
+				values[s] = oldValues[slot];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE);
+		values = new float[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * @brief power of two table size for the expected number of keys
+	 */
+	private static int tableSize(int expected) {
+		long needed = (long) Math.ceil(Math.max(expected, 2) / LOAD_FACTOR);
+		int capacity = 4;
+		while (capacity < needed && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * @brief home slot of a key (Fibonacci hashing), since cuboid keys
+	 * are dense and regular the top bits of the product are used
+	 */
+	private int home(long key) {
+		return (int) ((key * GOLDEN) >>> shift);
+	}
+
+	/**
+	 * @brief shard of a key for the sharded reduction
+	 *
+	 * Keys which only differ in their lowest groupBits bits (e. g. the
+	 * voxels of a brick, see SparseDensityGrid) share their shard.
+	 *
+	 * @param key
+	 * @param groupBits
+	 * @param shardBits
+	 * @return shard in [0, 2^shardBits)
+	 */
+	private static int shardOf(long key, int groupBits, int shardBits) {
+		return shardBits == 0 ? 0 : (int) (((key >>> groupBits) * GOLDEN) >>> (64 - shardBits));
+	}
+
+	/**
+	 * @brief sums maps in parallel, sharded by key
+	 *
+	 * @see #sumSharded(List, LongFloatHashMap[], double[], int, ExecutorService)
+	 * @param maps
+	 * @param shards output: the sums by shard, the number of shards must be
+	 * a power of two
+	 * @param sums output: the sum of the values of each shard
+	 * @param executor
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void sumSharded(List<LongFloatHashMap> maps, LongFloatHashMap[] shards, double[] sums, ExecutorService executor) throws InterruptedException, ExecutionException {
+		sumSharded(maps, shards, sums, 0, executor);
+	}
+
+	/**
+	 * @brief sums maps in parallel, sharded by groups of keys
+	 *
+	 * Each shard collects the keys it owns from all maps, i. e. the shards
+	 * hold disjoint keys (and disjoint groups of keys) and can be joined
+	 * without further summation. The values of a key are summed in the
+	 * order of the maps.
+	 *
+	 * @see SparseDensityGrid#join(LongFloatHashMap[], float, ExecutorService)
+	 * @param maps
+	 * @param shards output: the sums by shard, the number of shards must be
+	 * a power of two
+	 * @param sums output: the sum of the values of each shard
+	 * @param groupBits keys which only differ in their lowest groupBits
+	 * bits are summed by the same shard
+	 * @param executor
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void sumSharded(final List<LongFloatHashMap> maps, final LongFloatHashMap[] shards, final double[] sums, final int groupBits, ExecutorService executor) throws InterruptedException, ExecutionException {
+		if (Integer.bitCount(shards.length) != 1 || sums.length != shards.length) {
+			throw new IllegalArgumentException("Number of shards must be a power of two: " + shards.length);
+		}
+		final int shardBits = Integer.numberOfTrailingZeros(shards.length);
+		int expected = 0;
+		for (LongFloatHashMap map : maps) {
+			expected = Math.max(expected, map.size);
+		}
+		ArrayList<Callable<Void>> callables = new ArrayList<Callable<Void>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			final int shard = s;
+			shards[s] = new LongFloatHashMap(expected >> shardBits);
+			callables.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					double sum = 0;
+					for (LongFloatHashMap map : maps) {
+						sum += shards[shard].addAllOfShard(map, shard, groupBits, shardBits);
+					}
+					sums[shard] = sum;
+					return null;
+				}
+			});
+		}
+		for (Future<Void> res : executor.invokeAll(callables)) {
+			res.get();
+		}
+	}
+
+	/**
+	 * @brief adds the values of the keys of one shard of another map
+	 * @param other
+	 * @param shard
+	 * @param groupBits
+	 * @param shardBits
+	 * @return the sum of the added values
+	 */
+	private double addAllOfShard(LongFloatHashMap other, int shard, int groupBits, int shardBits) {
+		double sum = 0;
+		if (other.hasFreeKey && shardOf(FREE, groupBits, shardBits) == shard) {
+			addTo(FREE, other.freeValue);
+			sum += other.freeValue;
+		}
+		long[] k = other.keys;
+		float[] v = other.values;
+		for (int slot = 0; slot < k.length; slot++) {
+			if (k[slot] != FREE && shardOf(k[slot], groupBits, shardBits) == shard) {
+				addTo(k[slot], v[slot]);
+				sum += v[slot];
+			}
+		}
+		return sum;
+	}
+}
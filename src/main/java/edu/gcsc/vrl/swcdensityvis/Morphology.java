@@ -0,0 +1,353 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.reflection.Pair;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.vecmath.Vector3f;
+
+/**
+ * @brief primitive-backed (structure of arrays) morphology of one cell
+ *
+ * Compartment i is described by the i-th entry of parallel arrays, i. e.
+ * 25 bytes per compartment instead of a SWCCompartmentInformation with a
+ * Vector3f and a Pair of boxed integers. Compartments keep the order of the
+ * SWC file. The morphology is immutable once built.
+ *
+ * @note radii are kept in single precision and types as bytes, types
+ * outside the range of a byte are rejected
+ *
+ * @author stephan
+ */
+public final class Morphology {
+
+	/// compartment index (first column - 1) and parent as given in the file
+	final int[] index;
+	final int[] parent;
+	/// coordinates and radius (thickness column)
+	final float[] x;
+	final float[] y;
+	final float[] z;
+	final float[] radius;
+	/// compartment type
+	final byte[] type;
+
+	/// child adjacency, built on first use
+	private volatile Topology topology;
+
+	/**
+	 * @brief ctor, takes ownership of the arrays
+	 */
+	Morphology(int[] index, int[] parent, float[] x, float[] y, float[] z, float[] radius, byte[] type) {
+		this.index = index;
+		this.parent = parent;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.radius = radius;
+		this.type = type;
+	}
+
+	/**
+	 * @brief incrementally builds a morphology, e. g. while parsing
+	 */
+	public static final class Builder implements SWCFastParser.Handler {
+
+		private int size = 0;
+		private int[] index;
+		private int[] parent;
+		private float[] x;
+		private float[] y;
+		private float[] z;
+		private float[] radius;
+		private byte[] type;
+
+		/**
+		 * @brief def ctor
+		 */
+		public Builder() {
+			this(64);
+		}
+
+		/**
+		 * @brief ctor
+		 * @param capacity expected number of compartments
+		 */
+		public Builder(int capacity) {
+			capacity = Math.max(1, capacity);
+			index = new int[capacity];
+			parent = new int[capacity];
+			x = new float[capacity];
+			y = new float[capacity];
+			z = new float[capacity];
+			radius = new float[capacity];
+			type = new byte[capacity];
+		}
+
+		/**
+		 * @brief appends a compartment
+		 * @throws IllegalArgumentException if the type does not fit a byte
+		 */
+		@Override
+		public void compartment(int index, int type, float x, float y, float z, double thickness, int parent) {
+			if (type < Byte.MIN_VALUE || type > Byte.MAX_VALUE) {
+				throw new IllegalArgumentException("Compartment type " + type + " of compartment " + (index + 1) + " is out of the supported range ["
+					+ Byte.MIN_VALUE + ", " + Byte.MAX_VALUE + "].");
+			}
+			if (size == this.index.length) {
+				grow(size + (size >> 1) + 1);
+			}
+			this.index[size] = index;
+			this.parent[size] = parent;
+			this.x[size] = x;
+			this.y[size] = y;
+			this.z[size] = z;
+			this.radius[size] = (float) thickness;
+			this.type[size] = (byte) type;
+			size++;
+		}
+
+		private void grow(int capacity) {
+			index = Arrays.copyOf(index, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			radius = Arrays.copyOf(radius, capacity);
+			type = Arrays.copyOf(type, capacity);
+		}
+
+		/**
+		 * @brief creates the morphology, the builder must not be used afterwards
+		 * @return
+		 */
+		public Morphology build() {
+			if (size != index.length) {
+				grow(size);
+			}
+			return new Morphology(index, parent, x, y, z, radius, type);
+		}
+	}
+
+	/**
+	 * @brief parses a SWC file directly into a morphology
+	 * @param file
+	 * @return
+	 * @throws IOException also if a compartment type does not fit a byte
+	 */
+	public static Morphology parse(File file) throws IOException {
+		/// a compartment line typically takes 30 to 40 bytes
+		Builder builder = new Builder((int) Math.min(Integer.MAX_VALUE, file.length() / 32));
+		try {
+			SWCFastParser.parse(file, builder);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage() + " (" + file + ")", e);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @brief parses SWC content, e. g. of a file read into memory
+	 * @param content bytes from the position to the limit
+	 * @param source name of the source used in error messages
+	 * @return
+	 * @throws IOException also if a compartment type does not fit a byte
+	 */
+	public static Morphology parse(ByteBuffer content, String source) throws IOException {
+		Builder builder = new Builder(content.remaining() / 32);
+		try {
+			SWCFastParser.parse(content, builder, source);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage() + " (" + source + ")", e);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @brief converts a list of compartments
+	 * @param cell
+	 * @return
+	 */
+	public static Morphology fromCompartments(List<SWCCompartmentInformation> cell) {
+		Builder builder = new Builder(cell.size());
+		for (SWCCompartmentInformation info : cell) {
+			Vector3f c = info.getCoordinates();
+			builder.compartment(info.getIndex(), info.getType(), c.x, c.y, c.z, info.getThickness(), info.getConnectivity().getSecond());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @brief converts a whole stack of compartment lists
+	 * @param cells
+	 * @return
+	 */
+	public static HashMap<String, Morphology> fromStack(Map<String, ? extends List<SWCCompartmentInformation>> cells) {
+		HashMap<String, Morphology> morphologies = new HashMap<String, Morphology>(cells.size() * 2);
+		for (Map.Entry<String, ? extends List<SWCCompartmentInformation>> entry : cells.entrySet()) {
+			morphologies.put(entry.getKey(), fromCompartments(entry.getValue()));
+		}
+		return morphologies;
+	}
+
+	/**
+	 * @brief converts a whole stack of morphologies to compartment lists
+	 * @param cells
+	 * @return
+	 */
+	public static HashMap<String, ArrayList<SWCCompartmentInformation>> toStack(Map<String, Morphology> cells) {
+		HashMap<String, ArrayList<SWCCompartmentInformation>> compartments = new HashMap<String, ArrayList<SWCCompartmentInformation>>(cells.size() * 2);
+		for (Map.Entry<String, Morphology> entry : cells.entrySet()) {
+			compartments.put(entry.getKey(), entry.getValue().toCompartments());
+		}
+		return compartments;
+	}
+
+	/**
+	 * @brief number of compartments
+	 * @return
+	 */
+	public int size() {
+		return index.length;
+	}
+
+	public int getIndex(int i) {
+		return index[i];
+	}
+
+	/**
+	 * @brief parent as given in the SWC file, i. e. index + 1 of the
+	 * parent compartment or -1 for the root
+	 * @param i
+	 * @return
+	 */
+	public int getParent(int i) {
+		return parent[i];
+	}
+
+	public float getX(int i) {
+		return x[i];
+	}
+
+	public float getY(int i) {
+		return y[i];
+	}
+
+	public float getZ(int i) {
+		return z[i];
+	}
+
+	public float getRadius(int i) {
+		return radius[i];
+	}
+
+	public int getType(int i) {
+		return type[i];
+	}
+
+	/**
+	 * @brief child adjacency of the compartments, built once on first use
+	 * @return
+	 */
+	public Topology getTopology() {
+		Topology t = topology;
+		if (t == null) {
+			t = Topology.build(this);
+			topology = t;
+		}
+		return t;
+	}
+
+	/**
+	 * @brief coordinates of a compartment (allocates)
+	 * @param i
+	 * @return
+	 */
+	public Vector3f getCoordinates(int i) {
+		return new Vector3f(x[i], y[i], z[i]);
+	}
+
+	/**
+	 * @brief approximate heap footprint of the arrays
+	 * @return bytes
+	 */
+	public long getMemoryFootprint() {
+		return 25L * size();
+	}
+
+	/**
+	 * @brief materializes compartment i (allocates)
+	 * @param i
+	 * @return
+	 */
+	public SWCCompartmentInformation getCompartment(int i) {
+		SWCCompartmentInformation info = new SWCCompartmentInformation();
+		info.setIndex(index[i]);
+		info.setType(type[i]);
+		info.setCoordinates(new Vector3f(x[i], y[i], z[i]));
+		info.setThickness(radius[i]);
+		info.setConnectivity(new Pair<Integer, Integer>(index[i], parent[i]));
+		return info;
+	}
+
+	/**
+	 * @brief materializes all compartments
+	 * @return
+	 */
+	public ArrayList<SWCCompartmentInformation> toCompartments() {
+		return new ArrayList<SWCCompartmentInformation>(asCompartmentList());
+	}
+
+	/**
+	 * @brief read-only view which materializes compartments on access
+	 * @return
+	 */
+	public List<SWCCompartmentInformation> asCompartmentList() {
+		return new AbstractList<SWCCompartmentInformation>() {
+			@Override
+			public SWCCompartmentInformation get(int i) {
+				return getCompartment(i);
+			}
+
+			@Override
+			public int size() {
+				return Morphology.this.size();
+			}
+		};
+	}
+
+	/**
+	 * @brief bounding box of the compartments
+	 * @return pair max min coordinates 3d (as SWCUtility.getBoundingBox)
+	 */
+	public Pair<Vector3f, Vector3f> getBoundingBox() {
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		includeInBounds(bounds);
+		return new Pair<Vector3f, Vector3f>(new Vector3f(bounds[3], bounds[4], bounds[5]), new Vector3f(bounds[0], bounds[1], bounds[2]));
+	}
+
+	/**
+	 * @brief enlarges the bounds {minx, miny, minz, maxx, maxy, maxz} by
+	 * this morphology
+	 * @param bounds
+	 */
+	void includeInBounds(float[] bounds) {
+		for (int i = 0; i < x.length; i++) {
+			bounds[0] = Math.min(bounds[0], x[i]);
+			bounds[1] = Math.min(bounds[1], y[i]);
+			bounds[2] = Math.min(bounds[2], z[i]);
+			bounds[3] = Math.max(bounds[3], x[i]);
+			bounds[4] = Math.max(bounds[4], y[i]);
+			bounds[5] = Math.max(bounds[5], z[i]);
+		}
+	}
+}
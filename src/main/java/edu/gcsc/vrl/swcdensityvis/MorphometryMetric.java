@@ -0,0 +1,44 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/**
+ * @brief a quantity accumulated per sampling cuboid by computeMorphometry
+ *
+ * The engine walks each edge through the sampling grid once and asks
+ * every metric for the contribution of the part of the edge within each
+ * cuboid, the compartments contribute to the cuboid containing them. The
+ * contributions are stored in one column per metric (MorphometryTable).
+ * @see MorphometryMetrics for the built-in metrics
+ *
+ * @author stephan
+ */
+public interface MorphometryMetric {
+
+	/**
+	 * @brief name of the metric, e. g. the column header
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * @brief contribution of the part [t0, t1] of an edge to the cuboid it
+	 * passes through
+	 * @param cell
+	 * @param from parent compartment of the edge, position at t = 0
+	 * @param to child compartment of the edge, position at t = 1
+	 * @param length length of the edge
+	 * @param t0 parameter where the edge enters the cuboid
+	 * @param t1 parameter where the edge leaves the cuboid
+	 * @return
+	 */
+	double edge(Morphology cell, int from, int to, double length, double t0, double t1);
+
+	/**
+	 * @brief contribution of a compartment to the cuboid containing it
+	 * @param cell
+	 * @param i compartment
+	 * @param children number of children of the compartment
+	 * @return
+	 */
+	double node(Morphology cell, int i, int children);
+}
@@ -0,0 +1,139 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @brief built-in morphometry metrics
+ *
+ * An edge is modelled as truncated cone between the radii (thickness
+ * column) of its compartments, the radius varies linearly along the edge.
+ *
+ * @author stephan
+ */
+public final class MorphometryMetrics {
+
+	/**
+	 * @brief private ctor
+	 */
+	private MorphometryMetrics() {
+	}
+
+	/// clipped length of the edges [µm]
+	public static final MorphometryMetric LENGTH = new EdgeMetric("length") {
+		@Override
+		public double edge(Morphology cell, int from, int to, double length, double t0, double t1) {
+			return (t1 - t0) * length;
+		}
+	};
+
+	/// lateral surface of the truncated cones [µm^2]
+	public static final MorphometryMetric SURFACE = new EdgeMetric("surface") {
+		@Override
+		public double edge(Morphology cell, int from, int to, double length, double t0, double t1) {
+			double r0 = radius(cell, from, to, t0);
+			double r1 = radius(cell, from, to, t1);
+			double h = (t1 - t0) * length;
+			return Math.PI * (r0 + r1) * Math.sqrt((r1 - r0) * (r1 - r0) + h * h);
+		}
+	};
+
+	/// volume of the truncated cones (frusta) [µm^3]
+	public static final MorphometryMetric VOLUME = new EdgeMetric("volume") {
+		@Override
+		public double edge(Morphology cell, int from, int to, double length, double t0, double t1) {
+			double r0 = radius(cell, from, to, t0);
+			double r1 = radius(cell, from, to, t1);
+			double h = (t1 - t0) * length;
+			return Math.PI * h / 3 * (r0 * r0 + r0 * r1 + r1 * r1);
+		}
+	};
+
+	/// number of branch points, i. e. compartments with two or more children
+	public static final MorphometryMetric BRANCH_POINTS = new NodeMetric("branch points") {
+		@Override
+		public double node(Morphology cell, int i, int children) {
+			return children >= 2 ? 1 : 0;
+		}
+	};
+
+	/// number of end points, i. e. compartments without children
+	public static final MorphometryMetric END_POINTS = new NodeMetric("end points") {
+		@Override
+		public double node(Morphology cell, int i, int children) {
+			return children == 0 ? 1 : 0;
+		}
+	};
+
+	/**
+	 * @brief all built-in metrics
+	 * @return
+	 */
+	public static List<MorphometryMetric> all() {
+		return Collections.unmodifiableList(Arrays.asList(LENGTH, SURFACE, VOLUME, BRANCH_POINTS, END_POINTS));
+	}
+
+	/**
+	 * @brief radius at parameter t of an edge
+	 */
+	private static double radius(Morphology cell, int from, int to, double t) {
+		return cell.radius[from] + (cell.radius[to] - cell.radius[from]) * t;
+	}
+
+	/**
+	 * @brief metric of the edges only
+	 */
+	private abstract static class EdgeMetric implements MorphometryMetric {
+
+		private final String name;
+
+		EdgeMetric(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public double node(Morphology cell, int i, int children) {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * @brief metric of the compartments only
+	 */
+	private abstract static class NodeMetric implements MorphometryMetric {
+
+		private final String name;
+
+		NodeMetric(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public double edge(Morphology cell, int from, int to, double length, double t0, double t1) {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
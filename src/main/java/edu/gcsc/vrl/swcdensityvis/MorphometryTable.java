@@ -0,0 +1,240 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @brief columnar table of morphometry metrics by sampling cuboid
+ *
+ * Each occupied cuboid is a row, identified by its Morton key, each metric
+ * a column of floats. A cuboid is looked up once per visit, no matter how
+ * many metrics are recorded, so adding metrics adds a float per row but no
+ * hashing. The rows are found by open addressing (linear probing) on the
+ * keys.
+ *
+ * @author stephan
+ */
+public final class MorphometryTable {
+
+	/// marks an empty slot, Morton keys are never negative
+	private static final long FREE = -1L;
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	private final List<MorphometryMetric> metrics;
+	/// hash table: key and row of the key
+	private long[] slots;
+	private int[] rows;
+	private int shift;
+	/// rows in insertion order: key and one value per column
+	private long[] keys;
+	private float[][] columns;
+	private int size;
+
+	/**
+	 * @brief empty table
+	 * @param metrics one column per metric
+	 */
+	public MorphometryTable(List<? extends MorphometryMetric> metrics) {
+		this.metrics = Collections.unmodifiableList(new ArrayList<MorphometryMetric>(metrics));
+		slots = new long[32];
+		Arrays.fill(slots, FREE);
+		rows = new int[slots.length];
+		shift = 64 - Integer.numberOfTrailingZeros(slots.length);
+		keys = new long[16];
+		columns = new float[metrics.size()][keys.length];
+	}
+
+	/**
+	 * @brief the metrics of the columns
+	 * @return
+	 */
+	public List<MorphometryMetric> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @brief number of columns
+	 * @return
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @brief column of a metric
+	 * @param name
+	 * @return column or -1 if there is no metric of the name
+	 */
+	public int getColumn(String name) {
+		for (int c = 0; c < metrics.size(); c++) {
+			if (metrics.get(c).getName().equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @brief number of rows, i. e. cuboids
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @brief Morton key of a row
+	 * @param row
+	 * @return
+	 */
+	public long getKey(int row) {
+		return keys[row];
+	}
+
+	/**
+	 * @brief row of a cuboid
+	 * @param key Morton key
+	 * @return row or -1 if the cuboid is absent
+	 */
+	public int find(long key) {
+		int mask = slots.length - 1;
+		for (int slot = (int) ((key * GOLDEN) >>> shift); ; slot = (slot + 1) & mask) {
+			if (slots[slot] == key) {
+				return rows[slot];
+			}
+			if (slots[slot] == FREE) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @brief row of a cuboid, a zero row is appended if absent
+	 * @param key Morton key
+	 * @return
+	 */
+	public int row(long key) {
+		int mask = slots.length - 1;
+		int slot = (int) ((key * GOLDEN) >>> shift);
+		for (; slots[slot] != FREE; slot = (slot + 1) & mask) {
+			if (slots[slot] == key) {
+				return rows[slot];
+			}
+		}
+		if (size == keys.length) {
+			int capacity = keys.length + (keys.length >> 1) + 1;
+			keys = Arrays.copyOf(keys, capacity);
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = Arrays.copyOf(columns[c], capacity);
+			}
+		}
+		int row = size++;
+		keys[row] = key;
+		/// load factor of at most one half
+		if (2 * size > slots.length) {
+			rehash(slots.length * 2);
+		} else {
+			slots[slot] = key;
+			rows[slot] = row;
+		}
+		return row;
+	}
+
+	/**
+	 * @brief value of a row
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public float get(int row, int column) {
+		return columns[column][row];
+	}
+
+	/**
+	 * @brief value of a cuboid
+	 * @param key Morton key
+	 * @param column
+	 * @return 0 if the cuboid is absent
+	 */
+	public float get(long key, int column) {
+		int row = find(key);
+		return row < 0 ? 0.f : columns[column][row];
+	}
+
+	/**
+	 * @brief adds to the value of a row
+	 * @param row
+	 * @param column
+	 * @param value
+	 */
+	public void add(int row, int column, float value) {
+		columns[column][row] += value;
+	}
+
+	/**
+	 * @brief adds the rows of a table with the same columns
+	 * @param other
+	 */
+	public void addAll(MorphometryTable other) {
+		if (!other.metrics.equals(metrics)) {
+			throw new IllegalArgumentException("Tables of different metrics: " + other.metrics + ", " + metrics);
+		}
+		for (int r = 0; r < other.size; r++) {
+			int row = row(other.keys[r]);
+			for (int c = 0; c < columns.length; c++) {
+				columns[c][row] += other.columns[c][r];
+			}
+		}
+	}
+
+	/**
+	 * @brief sum of a column
+	 * @param column
+	 * @return
+	 */
+	public double sum(int column) {
+		double sum = 0;
+		for (int r = 0; r < size; r++) {
+			sum += columns[column][r];
+		}
+		return sum;
+	}
+
+	/**
+	 * @brief the non-zero values of a column
+	 * @param column
+	 * @return values by Morton key of the cuboids
+	 */
+	public SparseDensityGrid toGrid(int column) {
+		SparseDensityGrid grid = new SparseDensityGrid();
+		for (int r = 0; r < size; r++) {
+			grid.put(keys[r], columns[column][r]);
+		}
+		return grid;
+	}
+
+	private void rehash(int capacity) {
+		slots = new long[capacity];
+		Arrays.fill(slots, FREE);
+		rows = new int[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		int mask = capacity - 1;
+		for (int r = 0; r < size; r++) {
+			int slot = (int) ((keys[r] * GOLDEN) >>> shift);
+			while (slots[slot] != FREE) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = keys[r];
+			rows[slot] = r;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MorphometryTable(metrics=" + metrics + ", size=" + size + ")";
+	}
+}
@@ -0,0 +1,91 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @brief axis-aligned box [min, max] the density is restricted to, e. g. a
+ * layer or a barrel
+ *
+ * On a sampling grid a region stands for the cuboids it overlaps, i. e.
+ * the box is extended to whole cuboids, so the densities of these cuboids
+ * are the same as without restriction.
+ *
+ * @author stephan
+ */
+@ToString @EqualsAndHashCode @Getter
+public final class RegionOfInterest {
+
+	/// lower corner
+	private final float minX;
+	private final float minY;
+	private final float minZ;
+
+	/// upper corner
+	private final float maxX;
+	private final float maxY;
+	private final float maxZ;
+
+	/**
+	 * @brief ctor
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 */
+	public RegionOfInterest(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		if (!(minX <= maxX && minY <= maxY && minZ <= maxZ)) {
+			throw new IllegalArgumentException("Lower corner of the region must not exceed the upper corner.");
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * @brief determines if the region overlaps the closed box [lo, hi]
+	 * @param lox
+	 * @param loy
+	 * @param loz
+	 * @param hix
+	 * @param hiy
+	 * @param hiz
+	 * @return
+	 */
+	public boolean overlaps(float lox, float loy, float loz, float hix, float hiy, float hiz) {
+		return minX <= hix && maxX >= lox && minY <= hiy && maxY >= loy && minZ <= hiz && maxZ >= loz;
+	}
+
+	/**
+	 * @brief the cuboids of a grid the region overlaps
+	 * @param grid
+	 * @return {i0, j0, k0, i1, j1, k1}, cuboids [i0, i1) x [j0, j1) x
+	 * [k0, k1), empty if the region is outside the grid
+	 */
+	public int[] getCuboids(SamplingGrid grid) {
+		return new int[]{
+			first(minX, grid.getX(), grid.getWidth(), grid.getNx()),
+			first(minY, grid.getY(), grid.getHeight(), grid.getNy()),
+			first(minZ, grid.getZ(), grid.getDepth(), grid.getNz()),
+			last(maxX, grid.getX(), grid.getWidth(), grid.getNx()),
+			last(maxY, grid.getY(), grid.getHeight(), grid.getNy()),
+			last(maxZ, grid.getZ(), grid.getDepth(), grid.getNz())
+		};
+	}
+
+	private static int first(float min, float origin, float step, int n) {
+		return (int) Math.max(0, Math.min(n, Math.floor((min - (double) origin) / step)));
+	}
+
+	private static int last(float max, float origin, float step, int n) {
+		return (int) Math.max(0, Math.min(n, Math.floor((max - (double) origin) / step) + 1));
+	}
+}
@@ -0,0 +1,716 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.system.VMessage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.Getter;
+
+/**
+ * @brief on-disk cache of the density channels of a stack, updated
+ * incrementally when SWC files are added, changed or removed
+ *
+ * The dendritic lengths are sampled on the lattice of cuboids anchored at
+ * the global origin, like by the other engines (see
+ * SamplingGrid.fromBoundingBox), so the lengths of a cell do not depend on
+ * the other cells. The cache keeps the lengths of each cell, identified by
+ * the SHA-1 hash of its file content, and their sum over the stack. A load
+ * hashes the files, subtracts the cells which are gone, computes the new
+ * cells only and adds them to the sum, the normalization is applied by
+ * DensityChannels on selection. Identical files are counted with their
+ * multiplicity, so renaming a file does not recompute anything.
+ *
+ * The cache is written beside the input folder, one file per cuboid size
+ * (folder name, size and CACHE_SUFFIX):
+ *
+ * <pre>
+ * header: int magic, int version, float width, float height, float depth,
+ *         int cells, double[] total length by channel,
+ *         int[] cuboids by channel, long block offset of the sum,
+ *         int entries,
+ *         per entry: byte[20] SHA-1, int count, double[] total length by
+ *                    channel, int[] cuboids by channel, long block offset
+ * block:  per channel: long[] lattice key, float[] length
+ * </pre>
+ *
+ * A lattice key is the Morton key of (g + BIAS) per axis. The channels
+ * returned are keyed on the sampling grid of the stack.
+ *
+ * @note sums are updated in single precision, cuboids whose length drops
+ * to rounding residue on subtraction are removed
+ * @author stephan
+ */
+public final class SWCDensityCache {
+
+	public final static String CACHE_SUFFIX = ".swcdensity";
+	private final static int MAGIC = 0x53574344;
+	private final static int VERSION = 3;
+	private final static int HASH_BYTES = 20;
+	/// lattice cuboid 0 is at key coordinate BIAS, Morton keys are never negative
+	private final static int BIAS = 1 << (CuboidUtility.MORTON_BITS - 1);
+	/// bytes of a cell in the header
+	private final static int ENTRY_BYTES = HASH_BYTES + 4 + 12 * DensityChannels.CHANNELS + 8;
+	/// a subtraction leaving at most this fraction of the subtracted length leaves nothing
+	private final static float RESIDUE = 1e-4f;
+
+	/// the input folder, the cuboid size and the cache file
+	@Getter private final File folder;
+	@Getter private final float width;
+	@Getter private final float height;
+	@Getter private final float depth;
+	@Getter private final File cacheFile;
+
+	/// statistics of the last load
+	@Getter private int reusedCount;
+	@Getter private int addedCount;
+	@Getter private int removedCount;
+	@Getter private int computedCount;
+	@Getter private boolean written;
+
+	/**
+	 * @brief ctor
+	 * @param folder folder of SWC files
+	 * @param width
+	 * @param height
+	 * @param depth
+	 */
+	public SWCDensityCache(File folder, float width, float height, float depth) {
+		if (!(width > 0 && height > 0 && depth > 0)) {
+			throw new IllegalArgumentException("Sampling cuboid dimensions must be positive.");
+		}
+		this.folder = folder;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.cacheFile = getCacheFile(folder, width, height, depth);
+	}
+
+	/**
+	 * @brief location of the cache file for a folder and a cuboid size
+	 * @param folder
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @return the cache file beside the folder
+	 */
+	public static File getCacheFile(File folder, float width, float height, float depth) {
+		File absolute = folder.getAbsoluteFile();
+		File parent = absolute.getParentFile();
+		return new File(parent != null ? parent : absolute, absolute.getName() + "-" + width + "x" + height + "x" + depth + CACHE_SUFFIX);
+	}
+
+	/**
+	 * @brief cached lengths of a cell (or of the stack)
+	 */
+	private static final class Entry {
+
+		private final int count;
+		private final double[] totals;
+		private final int[] sizes;
+		private final long offset;
+
+		Entry(int count, double[] totals, int[] sizes, long offset) {
+			this.count = count;
+			this.totals = totals;
+			this.sizes = sizes;
+			this.offset = offset;
+		}
+
+		long blockSize() {
+			long n = 0;
+			for (int size : sizes) {
+				n += size;
+			}
+			return 12 * n;
+		}
+	}
+
+	/**
+	 * @brief the sum of the stack and the cached cells of a cache file
+	 */
+	private static final class Contents {
+
+		private final int cells;
+		private final Entry sum;
+		private final HashMap<String, Entry> entries;
+
+		Contents(int cells, Entry sum, HashMap<String, Entry> entries) {
+			this.cells = cells;
+			this.sum = sum;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * @brief updates the cache for the SWC files of the folder and returns
+	 * the density channels of the stack
+	 * @param cells the parsed stack by file name, e. g. as loaded by
+	 * SWCStackCache, files of the folder not in the stack are ignored. The
+	 * cells which are not cached yet are parsed again from the bytes
+	 * hashed, so a file changed since the stack was loaded is never cached
+	 * under the hash of another content.
+	 * @param parallelism number of cells computed at the same time
+	 * @return channels on the sampling grid of the stack, see
+	 * SamplingGrid.fromBoundingBox
+	 * @throws IOException if the SWC files can not be read, failures to
+	 * read or write the cache itself are reported and lead to a
+	 * recomputation
+	 */
+	public DensityChannels load(Map<String, Morphology> cells, int parallelism) throws IOException {
+		reusedCount = 0;
+		addedCount = 0;
+		removedCount = 0;
+		computedCount = 0;
+		written = false;
+
+		/// the old cache is read into memory, so the file can be replaced below
+		ByteBuffer buffer = null;
+		Contents contents = null;
+		if (cacheFile.isFile()) {
+			try {
+				buffer = read(cacheFile);
+				contents = readHeader(buffer);
+			} catch (IOException e) {
+				contents = invalidate(e);
+			} catch (BufferUnderflowException e) {
+				contents = invalidate(e);
+			}
+		}
+		HashMap<String, Entry> entries = contents != null ? contents.entries : new HashMap<String, Entry>();
+
+		/// the cells by content: multiplicity and the cells to compute
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		HashMap<String, Morphology> byHash = new HashMap<String, Morphology>();
+		HashMap<String, Morphology> stack = new HashMap<String, Morphology>(cells.size() * 2);
+		int total = 0;
+		for (File f : SWCStackLoader.listSWCFiles(folder)) {
+			Morphology cell = cells.get(f.getName());
+			if (cell == null) {
+				continue;
+			}
+			ByteBuffer content = read(f);
+			String hash = hash(content);
+			if (byHash.containsKey(hash)) {
+				cell = byHash.get(hash);
+			} else if (!entries.containsKey(hash)) {
+				cell = Morphology.parse(content, f.toString());
+				byHash.put(hash, cell);
+			}
+			stack.put(f.getName(), cell);
+			Integer count = counts.get(hash);
+			counts.put(hash, count != null ? count + 1 : 1);
+			total++;
+		}
+
+		/// the sum over the cached stack
+		SparseDensityGrid[] lengths = new SparseDensityGrid[DensityChannels.CHANNELS];
+		double[] totals = new double[DensityChannels.CHANNELS];
+		int cachedCells = 0;
+		if (contents != null) {
+			cachedCells = contents.cells;
+			readBlock(buffer, contents.sum, 1, lengths, null);
+			System.arraycopy(contents.sum.totals, 0, totals, 0, totals.length);
+		} else {
+			for (int c = 0; c < lengths.length; c++) {
+				lengths[c] = new SparseDensityGrid();
+			}
+		}
+
+		/// subtract the cells which are gone, add the cached cells which are back
+		ArrayList<String> missing = new ArrayList<String>();
+		for (Map.Entry<String, Integer> current : counts.entrySet()) {
+			Entry entry = entries.get(current.getKey());
+			int difference = current.getValue() - (entry != null ? entry.count : 0);
+			if (entry == null) {
+				missing.add(current.getKey());
+			} else if (difference != 0) {
+				readBlock(buffer, entry, difference, lengths, totals);
+			}
+			reusedCount += current.getValue() - Math.max(0, difference);
+			addedCount += Math.max(0, difference);
+			removedCount += Math.max(0, -difference);
+		}
+		for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+			if (!counts.containsKey(cached.getKey())) {
+				readBlock(buffer, cached.getValue(), -cached.getValue().count, lengths, totals);
+				removedCount += cached.getValue().count;
+			}
+		}
+
+		/// compute and add the new cells
+		HashMap<String, SparseDensityGrid[]> computed = new HashMap<String, SparseDensityGrid[]>();
+		HashMap<String, double[]> computedTotals = new HashMap<String, double[]>();
+		compute(missing, byHash, computed, computedTotals, parallelism);
+		for (String hash : missing) {
+			add(lengths, totals, computed.get(hash), computedTotals.get(hash), counts.get(hash));
+		}
+		computedCount = missing.size();
+
+		if (total == 0) {
+			for (int c = 0; c < lengths.length; c++) {
+				lengths[c] = new SparseDensityGrid();
+				totals[c] = 0;
+			}
+		}
+
+		if (contents == null || addedCount > 0 || removedCount > 0 || cachedCells != total) {
+			try {
+				writeCache(buffer, total, lengths, totals, counts, entries, computed, computedTotals);
+				written = true;
+			} catch (IOException e) {
+				VMessage.warning("SWC density cache", "Could not write cache " + cacheFile + ": " + e);
+			}
+		}
+		VMessage.info("SWC density cache", "Reused " + reusedCount + " cells, added " + addedCount + " (computed " + computedCount + "), removed " + removedCount + " cells.");
+		return window(stack, lengths, totals, total);
+	}
+
+	/**
+	 * @brief reads a file into memory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be read into memory: " + file);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				/// read until the end of the file
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @brief reports a broken cache, which is then treated as absent
+	 */
+	private Contents invalidate(Exception e) {
+		VMessage.warning("SWC density cache", "Ignoring unreadable cache " + cacheFile + ": " + e);
+		return null;
+	}
+
+	/**
+	 * @brief SHA-1 hash of the content of a file
+	 * @param content the file read into memory, the position is kept
+	 * @return hexadecimal digest
+	 */
+	private static String hash(ByteBuffer content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(content.duplicate());
+		return hex(digest.digest());
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @brief reads and validates the header
+	 * @param buffer
+	 * @return
+	 * @throws IOException if the header is not valid
+	 */
+	private Contents readHeader(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a SWC density cache of version " + VERSION);
+		}
+		if (buffer.getFloat() != width || buffer.getFloat() != height || buffer.getFloat() != depth) {
+			throw new IOException("SWC density cache of a different cuboid size");
+		}
+		int cells = buffer.getInt();
+		Entry sum = readEntry(buffer, cells);
+		int n = buffer.getInt();
+		if (n < 0 || n > buffer.remaining() / ENTRY_BYTES) {
+			throw new IOException("Corrupt SWC density cache header");
+		}
+		HashMap<String, Entry> entries = new HashMap<String, Entry>(n * 2);
+		byte[] digest = new byte[HASH_BYTES];
+		for (int i = 0; i < n; i++) {
+			buffer.get(digest);
+			entries.put(hex(digest), readEntry(buffer, buffer.getInt()));
+		}
+		return new Contents(cells, sum, entries);
+	}
+
+	/**
+	 * @brief reads and validates the totals, sizes and offset of a block
+	 * @param buffer
+	 * @param count multiplicity of the cell or number of cells of the stack
+	 * @return
+	 * @throws IOException if the entry is not valid
+	 */
+	private static Entry readEntry(ByteBuffer buffer, int count) throws IOException {
+		if (count < 0) {
+			throw new IOException("Corrupt SWC density cache header");
+		}
+		double[] totals = new double[DensityChannels.CHANNELS];
+		int[] sizes = new int[DensityChannels.CHANNELS];
+		for (int c = 0; c < totals.length; c++) {
+			totals[c] = buffer.getDouble();
+		}
+		for (int c = 0; c < sizes.length; c++) {
+			sizes[c] = buffer.getInt();
+			if (sizes[c] < 0) {
+				throw new IOException("Corrupt SWC density cache header");
+			}
+		}
+		Entry entry = new Entry(count, totals, sizes, buffer.getLong());
+		if (entry.offset < 0 || entry.offset + entry.blockSize() > buffer.limit()) {
+			throw new IOException("Corrupt SWC density cache header");
+		}
+		return entry;
+	}
+
+	/**
+	 * @brief adds a multiple of the lengths of a block
+	 * @param buffer
+	 * @param entry
+	 * @param factor negative to subtract
+	 * @param lengths in and out: lengths by channel, allocated if null
+	 * @param totals in and out: total length by channel, null to leave alone
+	 */
+	private static void readBlock(ByteBuffer buffer, Entry entry, int factor, SparseDensityGrid[] lengths, double[] totals) {
+		ByteBuffer block = buffer.duplicate();
+		block.position((int) entry.offset);
+		for (int c = 0; c < lengths.length; c++) {
+			int n = entry.sizes[c];
+			long[] keys = new long[n];
+			float[] values = new float[n];
+			block.asLongBuffer().get(keys);
+			block.position(block.position() + 8 * n);
+			block.asFloatBuffer().get(values);
+			block.position(block.position() + 4 * n);
+			if (lengths[c] == null) {
+				lengths[c] = new SparseDensityGrid(n / SparseDensityGrid.BRICK_VOXELS + 16);
+			}
+			for (int v = 0; v < n; v++) {
+				add(lengths[c], keys[v], factor * values[v]);
+			}
+			if (totals != null) {
+				totals[c] += factor * entry.totals[c];
+			}
+		}
+	}
+
+	/**
+	 * @brief adds a multiple of the lengths of a computed cell
+	 */
+	private static void add(SparseDensityGrid[] lengths, double[] totals, SparseDensityGrid[] cell, double[] cellTotals, int factor) {
+		for (int c = 0; c < lengths.length; c++) {
+			SparseDensityGrid.Cursor cursor = cell[c].cursor();
+			while (cursor.next()) {
+				add(lengths[c], cursor.key(), factor * cursor.value());
+			}
+			totals[c] += factor * cellTotals[c];
+		}
+	}
+
+	/**
+	 * @brief adds to a cuboid, a subtraction down to the rounding residue
+	 * removes the cuboid
+	 */
+	private static void add(SparseDensityGrid lengths, long key, float delta) {
+		float value = lengths.addTo(key, delta);
+		if (delta < 0 && Math.abs(value) <= -delta * RESIDUE) {
+			lengths.put(key, 0.f);
+		}
+	}
+
+	/**
+	 * @brief computes the lattice lengths of cells in parallel
+	 * @param hashes cells to compute
+	 * @param byHash cells by hash
+	 * @param lengths output: lengths by channel by hash
+	 * @param totals output: total length by channel by hash
+	 * @param parallelism
+	 * @throws IOException if interrupted
+	 */
+	private void compute(List<String> hashes, final Map<String, Morphology> byHash, HashMap<String, SparseDensityGrid[]> lengths, HashMap<String, double[]> totals, int parallelism) throws IOException {
+		if (hashes.isEmpty()) {
+			return;
+		}
+		if (parallelism < 1) {
+			parallelism = SWCStackLoader.getDefaultParallelism();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, hashes.size()));
+		try {
+			ArrayList<Future<SparseDensityGrid[]>> results = new ArrayList<Future<SparseDensityGrid[]>>(hashes.size());
+			for (final String hash : hashes) {
+				final double[] cellTotals = new double[DensityChannels.CHANNELS];
+				totals.put(hash, cellTotals);
+				results.add(executor.submit(new Callable<SparseDensityGrid[]>() {
+					@Override
+					public SparseDensityGrid[] call() {
+						return computeCell(byHash.get(hash), cellTotals);
+					}
+				}));
+			}
+			for (int i = 0; i < hashes.size(); i++) {
+				lengths.put(hashes.get(i), results.get(i).get());
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Computation of the density cache was interrupted.");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @brief dendritic lengths of a cell on the lattice
+	 * @param cell
+	 * @param totals output: total length by channel
+	 * @return lengths by lattice key by channel
+	 */
+	private SparseDensityGrid[] computeCell(Morphology cell, double[] totals) {
+		final SparseDensityGrid[] lengths = new SparseDensityGrid[DensityChannels.CHANNELS];
+		for (int c = 0; c < lengths.length; c++) {
+			lengths[c] = new SparseDensityGrid();
+		}
+		if (cell.size() == 0) {
+			return lengths;
+		}
+
+		/// the lattice cuboids covering the cell
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(cell.getBoundingBox(), width, height, depth);
+		final int[] first = first(grid);
+
+		class Accumulator implements VoxelTraversal.Visitor {
+
+			private SparseDensityGrid channel;
+			private double edge_length;
+			private double sum;
+
+			@Override
+			public void visit(int i, int j, int k, double t0, double t1) {
+				float length = (float) ((t1 - t0) * edge_length);
+				channel.addTo(CuboidUtility.mortonEncode(first[0] + i + BIAS, first[1] + j + BIAS, first[2] + k + BIAS), length);
+				sum += length;
+			}
+		}
+
+		Accumulator accumulator = new Accumulator();
+		Topology topology = cell.getTopology();
+		for (int i = 0; i < cell.size(); i++) {
+			int c = DensityChannels.channel(cell.type[i]);
+			accumulator.channel = lengths[c];
+			accumulator.sum = 0;
+			for (int e = 0; e < topology.getChildCount(i); e++) {
+				int child = topology.getChild(i, e);
+				double ex = cell.x[child] - cell.x[i];
+				double ey = cell.y[child] - cell.y[i];
+				double ez = cell.z[child] - cell.z[i];
+				accumulator.edge_length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+				VoxelTraversal.traverse(grid, cell.x[i], cell.y[i], cell.z[i], cell.x[child], cell.y[child], cell.z[child], accumulator);
+			}
+			totals[c] += accumulator.sum;
+		}
+		return lengths;
+	}
+
+	/**
+	 * @brief lattice coordinates of the first cuboid of a grid
+	 * @param grid grid snapped to the lattice
+	 * @return
+	 * @throws IllegalArgumentException if the grid exceeds the range of
+	 * the lattice keys
+	 */
+	private static int[] first(SamplingGrid grid) {
+		int[] first = {
+			(int) Math.round(grid.getX() / (double) grid.getWidth()),
+			(int) Math.round(grid.getY() / (double) grid.getHeight()),
+			(int) Math.round(grid.getZ() / (double) grid.getDepth())
+		};
+		if (first[0] < -BIAS || first[1] < -BIAS || first[2] < -BIAS
+			|| first[0] + grid.getNx() > BIAS || first[1] + grid.getNy() > BIAS || first[2] + grid.getNz() > BIAS) {
+			throw new IllegalArgumentException("Cells outside the range of the sampling lattice: " + grid);
+		}
+		return first;
+	}
+
+	/**
+	 * @brief re-keys the lattice lengths on the grid of the stack
+	 * @param cells
+	 * @param lengths lengths by lattice key by channel
+	 * @param totals
+	 * @param total number of cells
+	 * @return
+	 */
+	private DensityChannels window(Map<String, Morphology> cells, SparseDensityGrid[] lengths, double[] totals, int total) {
+		if (cells.isEmpty()) {
+			return new DensityChannels(new SamplingGrid(0, 0, 0, width, height, depth, 0, 0, 0), lengths, totals, total);
+		}
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width, height, depth);
+		int[] first = first(grid);
+		SparseDensityGrid[] windowed = new SparseDensityGrid[lengths.length];
+		for (int c = 0; c < lengths.length; c++) {
+			windowed[c] = new SparseDensityGrid(lengths[c].getBrickCount() + 16);
+			SparseDensityGrid.Cursor cursor = lengths[c].cursor();
+			while (cursor.next()) {
+				/// a cuboid beyond the upper corner by rounding is clamped like by SamplingGrid.keyOf
+				int i = Math.min(cursor.getI() - BIAS - first[0], grid.getNx() - 1);
+				int j = Math.min(cursor.getJ() - BIAS - first[1], grid.getNy() - 1);
+				int k = Math.min(cursor.getK() - BIAS - first[2], grid.getNz() - 1);
+				windowed[c].addTo(grid.key(i, j, k), cursor.value());
+			}
+		}
+		return new DensityChannels(grid, windowed, totals, total);
+	}
+
+	/**
+	 * @brief writes the cache to a temporary file and replaces the old one
+	 * @param buffer the old cache or null
+	 * @param cells number of cells of the stack
+	 * @param lengths sum over the stack
+	 * @param totals
+	 * @param counts multiplicity by hash of the cells of the stack
+	 * @param entries cached cells of the old cache
+	 * @param computed lengths of the cells not in the old cache
+	 * @param computedTotals
+	 * @throws IOException
+	 */
+	private void writeCache(ByteBuffer buffer, int cells, SparseDensityGrid[] lengths, double[] totals, Map<String, Integer> counts,
+		Map<String, Entry> entries, Map<String, SparseDensityGrid[]> computed, Map<String, double[]> computedTotals) throws IOException {
+		/// header size determines the offset of the first block
+		long offset = 24 + (12L * DensityChannels.CHANNELS + 8) + 4 + (long) counts.size() * ENTRY_BYTES;
+		ArrayList<String> hashes = new ArrayList<String>(counts.keySet());
+
+		File temp = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeFloat(width);
+			out.writeFloat(height);
+			out.writeFloat(depth);
+			out.writeInt(cells);
+			long blockOffset = offset;
+			blockOffset = writeEntry(out, totals, sizes(lengths), blockOffset);
+			out.writeInt(hashes.size());
+			for (String hash : hashes) {
+				for (int h = 0; h < 2 * HASH_BYTES; h += 2) {
+					out.writeByte(Integer.parseInt(hash.substring(h, h + 2), 16));
+				}
+				out.writeInt(counts.get(hash));
+				Entry entry = entries.get(hash);
+				if (entry != null) {
+					blockOffset = writeEntry(out, entry.totals, entry.sizes, blockOffset);
+				} else {
+					blockOffset = writeEntry(out, computedTotals.get(hash), sizes(computed.get(hash)), blockOffset);
+				}
+			}
+			if (blockOffset > Integer.MAX_VALUE) {
+				throw new IOException("SWC stack too large to be cached");
+			}
+
+			writeBlock(out, lengths);
+			for (String hash : hashes) {
+				Entry entry = entries.get(hash);
+				if (entry != null) {
+					/// copy the block of the old cache
+					ByteBuffer block = buffer.duplicate();
+					block.position((int) entry.offset);
+					byte[] bytes = new byte[(int) entry.blockSize()];
+					block.get(bytes);
+					out.write(bytes);
+				} else {
+					writeBlock(out, computed.get(hash));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (cacheFile.exists() && !cacheFile.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + cacheFile);
+		}
+		if (!temp.renameTo(cacheFile)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + cacheFile);
+		}
+	}
+
+	private static int[] sizes(SparseDensityGrid[] lengths) {
+		int[] sizes = new int[lengths.length];
+		for (int c = 0; c < lengths.length; c++) {
+			sizes[c] = lengths[c].size();
+		}
+		return sizes;
+	}
+
+	/**
+	 * @brief writes totals, sizes and offset of a block
+	 * @return offset of the next block
+	 */
+	private static long writeEntry(DataOutputStream out, double[] totals, int[] sizes, long offset) throws IOException {
+		long n = 0;
+		for (double t : totals) {
+			out.writeDouble(t);
+		}
+		for (int size : sizes) {
+			out.writeInt(size);
+			n += size;
+		}
+		out.writeLong(offset);
+		return offset + 12 * n;
+	}
+
+	private static void writeBlock(DataOutputStream out, SparseDensityGrid[] lengths) throws IOException {
+		for (SparseDensityGrid channel : lengths) {
+			SparseDensityGrid.Cursor cursor = channel.cursor();
+			while (cursor.next()) {
+				out.writeLong(cursor.key());
+			}
+			cursor = channel.cursor();
+			while (cursor.next()) {
+				out.writeFloat(cursor.value());
+			}
+		}
+	}
+}
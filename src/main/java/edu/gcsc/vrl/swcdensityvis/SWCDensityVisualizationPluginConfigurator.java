@@ -55,6 +55,7 @@ public class SWCDensityVisualizationPluginConfigurator extends VPluginConfigurat
 			vapi.addComponent(SWCLoadStackComponent.class);
 			vapi.addComponent(ComputeSWCDensity.class);
 			vapi.addComponent(ComputeSWCDistance.class);
+			vapi.addComponent(ComputeBoxDensity.class);
 			// vapi.addTypeRepresentation(MyType.class);
 		}
 	}
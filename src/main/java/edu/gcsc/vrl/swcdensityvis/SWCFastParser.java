@@ -0,0 +1,394 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.reflection.Pair;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import javax.vecmath.Vector3f;
+
+/**
+ * @brief zero-copy SWC parser working directly on a memory-mapped file
+ *
+ * The file is mapped read-only and tokenized byte by byte, numbers are
+ * converted without creating intermediate strings. Columns may be separated
+ * by any run of whitespace, comment lines (#) and blank lines are skipped.
+ * Numbers which can not be converted exactly on the fast path (very long
+ * mantissas, huge exponents, NaN, ...) fall back to the JDK conversion so
+ * the parsed values are identical to Float.parseFloat and friends.
+ *
+ * @author stephan
+ */
+public final class SWCFastParser {
+
+	/**
+	 * @brief receives the compartments of a SWC file in file order
+	 */
+	public interface Handler {
+
+		/**
+		 * @brief called once per compartment line
+		 * @param index zero-based compartment index (first column - 1)
+		 * @param type compartment type
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @param thickness
+		 * @param parent parent index as given in the file (-1 for the root)
+		 */
+		void compartment(int index, int type, float x, float y, float z, double thickness, int parent);
+	}
+
+	/// exact powers of ten (float: up to 10^10, double: up to 10^22)
+	private static final float[] FLOAT_POW10 = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+	private static final double[] DOUBLE_POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/// largest mantissas which are exactly representable as float and double
+	private static final long FLOAT_EXACT_MANTISSA = 1L << 24;
+	private static final long DOUBLE_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * @brief private ctor since utility classs should be final and private
+	 */
+	private SWCFastParser() {
+
+	}
+
+	/**
+	 * @brief parses a swc file
+	 * @param file
+	 * @return list of compartment information for this file
+	 * @throws IOException
+	 */
+	public static ArrayList<SWCCompartmentInformation> parse(File file) throws IOException {
+		final ArrayList<SWCCompartmentInformation> temp = new ArrayList<SWCCompartmentInformation>();
+		parse(file, new Handler() {
+			@Override
+			public void compartment(int index, int type, float x, float y, float z, double thickness, int parent) {
+				SWCCompartmentInformation info = new SWCCompartmentInformation();
+				info.setIndex(index);
+				info.setType(type);
+				info.setCoordinates(new Vector3f(x, y, z));
+				info.setThickness(thickness);
+				info.setConnectivity(new Pair<Integer, Integer>(index, parent));
+				temp.add(info);
+			}
+		});
+		return temp;
+	}
+
+	/**
+	 * @brief parses a swc file and hands each compartment to the handler
+	 * @param file
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void parse(File file, Handler handler) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("SWC file too large to be mapped: " + file);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			parse(buffer, handler, file.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @brief parses swc content from the current position to the limit of
+	 * the buffer
+	 * @param buffer
+	 * @param handler
+	 * @param source name of the source used in error messages
+	 * @throws IOException
+	 */
+	public static void parse(ByteBuffer buffer, Handler handler, String source) throws IOException {
+		new Tokenizer(buffer, source).run(handler);
+	}
+
+	/**
+	 * @brief tokenizer over the raw bytes, one instance per file
+	 */
+	private static final class Tokenizer {
+
+		private final ByteBuffer buf;
+		private final String source;
+		private final int limit;
+		private int pos;
+		private int line = 1;
+
+		/// bounds of the current token
+		private int start;
+		private int end;
+
+		/// result of scanDecimal: value = (negative ? -1 : 1) * mantissa * 10^exponent
+		private long mantissa;
+		private int exponent;
+		private boolean negative;
+
+		Tokenizer(ByteBuffer buf, String source) {
+			this.buf = buf;
+			this.source = source;
+			this.pos = buf.position();
+			this.limit = buf.limit();
+		}
+
+		/**
+		 * @brief tokenizes the whole buffer
+		 * @param handler
+		 * @throws IOException
+		 */
+		void run(Handler handler) throws IOException {
+			while (pos < limit) {
+				skipBlanks();
+				if (pos >= limit) {
+					break;
+				}
+				byte b = buf.get(pos);
+				if (b == '#') {
+					skipLine();
+					continue;
+				}
+				if (b == '\n' || b == '\r') {
+					skipLine();
+					continue;
+				}
+
+				int index = nextInt() - 1;
+				int type = nextInt();
+				float x = nextFloat();
+				float y = nextFloat();
+				float z = nextFloat();
+				double thickness = nextDouble();
+				int parent = nextInt();
+				handler.compartment(index, type, x, y, z, thickness, parent);
+				/// additional columns are ignored
+				skipLine();
+			}
+		}
+
+		/**
+		 * @brief skips spaces and tabs, but not line breaks
+		 */
+		private void skipBlanks() {
+			while (pos < limit) {
+				byte b = buf.get(pos);
+				if (b != ' ' && b != '\t' && b != '\f' && b != 0x0B) {
+					return;
+				}
+				pos++;
+			}
+		}
+
+		/**
+		 * @brief column separators and line breaks
+		 * @param b
+		 * @return
+		 */
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+		}
+
+		/**
+		 * @brief skips to the first byte of the next line
+		 */
+		private void skipLine() {
+			while (pos < limit) {
+				byte b = buf.get(pos++);
+				if (b == '\n') {
+					line++;
+					return;
+				}
+				if (b == '\r') {
+					if (pos < limit && buf.get(pos) == '\n') {
+						pos++;
+					}
+					line++;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @brief advances to the next token of the current line
+		 * @throws IOException if the line has no more columns
+		 */
+		private void nextToken() throws IOException {
+			skipBlanks();
+			start = pos;
+			while (pos < limit) {
+				if (isWhitespace(buf.get(pos))) {
+					break;
+				}
+				pos++;
+			}
+			end = pos;
+			if (start == end) {
+				throw new IOException("SWC not in standardized format, i. e. columns do not match the "
+					+ "format specification (" + source + ", line " + line + ").");
+			}
+		}
+
+		/**
+		 * @brief the current token as string (slow path only)
+		 * @return
+		 */
+		private String token() {
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buf.get(start + i);
+			}
+			try {
+				return new String(bytes, "US-ASCII");
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private int nextInt() throws IOException {
+			nextToken();
+			int i = start;
+			boolean minus = false;
+			byte b = buf.get(i);
+			if (b == '-' || b == '+') {
+				minus = b == '-';
+				i++;
+			}
+			if (i == end || end - i > 9) {
+				return Integer.parseInt(token());
+			}
+			int value = 0;
+			for (; i < end; i++) {
+				int digit = buf.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					return Integer.parseInt(token());
+				}
+				value = value * 10 + digit;
+			}
+			return minus ? -value : value;
+		}
+
+		private float nextFloat() throws IOException {
+			nextToken();
+			if (!scanDecimal()) {
+				return Float.parseFloat(token());
+			}
+			if (mantissa == 0) {
+				return negative ? -0.f : 0.f;
+			}
+			if (mantissa < FLOAT_EXACT_MANTISSA && exponent >= -10 && exponent <= 10) {
+				float f = (float) mantissa;
+				f = exponent < 0 ? f / FLOAT_POW10[-exponent] : f * FLOAT_POW10[exponent];
+				return negative ? -f : f;
+			}
+			if (mantissa < DOUBLE_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+				double d = (double) mantissa;
+				d = exponent < 0 ? d / DOUBLE_POW10[-exponent] : d * DOUBLE_POW10[exponent];
+				/// rounding the correctly rounded double to float is exact unless
+				/// the double hits a float midpoint or leaves the normal float range
+				long bits = Double.doubleToRawLongBits(d);
+				if ((bits & 0x1FFFFFFFL) != 0x10000000L && d >= Float.MIN_NORMAL && d <= Float.MAX_VALUE) {
+					return negative ? -(float) d : (float) d;
+				}
+			}
+			return Float.parseFloat(token());
+		}
+
+		private double nextDouble() throws IOException {
+			nextToken();
+			if (!scanDecimal()) {
+				return Double.parseDouble(token());
+			}
+			if (mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			if (mantissa < DOUBLE_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+				double d = (double) mantissa;
+				d = exponent < 0 ? d / DOUBLE_POW10[-exponent] : d * DOUBLE_POW10[exponent];
+				return negative ? -d : d;
+			}
+			return Double.parseDouble(token());
+		}
+
+		/**
+		 * @brief scans the current token as plain decimal number
+		 * @return false if the token is not a plain decimal number or has
+		 * too many digits to be handled without overflow
+		 */
+		private boolean scanDecimal() {
+			int i = start;
+			negative = false;
+			mantissa = 0;
+			exponent = 0;
+			byte b = buf.get(i);
+			if (b == '-' || b == '+') {
+				negative = b == '-';
+				i++;
+			}
+			int digits = 0;
+			boolean dot = false;
+			boolean sawDigit = false;
+			for (; i < end; i++) {
+				b = buf.get(i);
+				if (b >= '0' && b <= '9') {
+					sawDigit = true;
+					if (mantissa != 0 || b != '0') {
+						if (++digits > 18) {
+							return false;
+						}
+					}
+					mantissa = mantissa * 10 + (b - '0');
+					if (dot) {
+						exponent--;
+					}
+				} else if (b == '.' && !dot) {
+					dot = true;
+				} else {
+					break;
+				}
+			}
+			if (!sawDigit) {
+				return false;
+			}
+			if (i < end) {
+				b = buf.get(i);
+				if (b != 'e' && b != 'E') {
+					return false;
+				}
+				i++;
+				boolean negativeExponent = false;
+				if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+					negativeExponent = buf.get(i) == '-';
+					i++;
+				}
+				if (i == end || end - i > 4) {
+					return false;
+				}
+				int e = 0;
+				for (; i < end; i++) {
+					int digit = buf.get(i) - '0';
+					if (digit < 0 || digit > 9) {
+						return false;
+					}
+					e = e * 10 + digit;
+				}
+				exponent += negativeExponent ? -e : e;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.system.VMessage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+
+/**
+ * @brief watches a folder for SWC files being created, changed or deleted
+ *
+ * Events are collected by a daemon thread until the folder has been quiet
+ * for the debounce interval, then the listener is called once with the
+ * names of all SWC files affected by the burst, e. g. a reconstruction
+ * copied in several writes or a batch of files dropped into a share causes
+ * a single update.
+ *
+ * @note the listener is called from the watcher thread, it may stop
+ * watching by interrupting the thread
+ * @author stephan
+ */
+public final class SWCFolderWatcher implements Closeable {
+
+	/**
+	 * @brief receives the changes of the folder
+	 */
+	public interface Listener {
+
+		/**
+		 * @brief called after a burst of changes has settled
+		 * @param names names of the SWC files created, changed or deleted,
+		 * empty if events were lost and the whole folder may have changed
+		 */
+		void changed(Set<String> names);
+	}
+
+	/// the watched folder and the debounce interval [ms]
+	@Getter private final File folder;
+	@Getter private final long debounce;
+	private final Listener listener;
+	private final WatchService service;
+	private final WatchKey key;
+	private final Thread thread;
+
+	/**
+	 * @brief starts watching
+	 * @param folder folder of SWC files
+	 * @param debounce quiet time [ms] after the last event before the
+	 * listener is called
+	 * @param listener
+	 * @throws IOException if the folder can not be watched
+	 */
+	public SWCFolderWatcher(File folder, long debounce, Listener listener) throws IOException {
+		if (debounce < 0) {
+			throw new IllegalArgumentException("Debounce interval must not be negative.");
+		}
+		this.folder = folder;
+		this.debounce = debounce;
+		this.listener = listener;
+		Path path = folder.toPath();
+		service = FileSystems.getDefault().newWatchService();
+		try {
+			key = path.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			service.close();
+			throw e;
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "SWC folder watcher " + folder.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @brief determines if the folder is still watched
+	 * @return
+	 */
+	public boolean isWatching() {
+		return thread.isAlive();
+	}
+
+	/**
+	 * @brief stops watching
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		thread.interrupt();
+		service.close();
+	}
+
+	/**
+	 * @brief the loop of the watcher thread
+	 */
+	private void watch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				/// the first event of a burst
+				TreeSet<String> names = new TreeSet<String>();
+				boolean overflow = collect(service.take(), names);
+
+				/// all events until the folder is quiet
+				WatchKey next;
+				while ((next = service.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(next, names);
+				}
+				if (overflow || !names.isEmpty()) {
+					try {
+						listener.changed(overflow ? Collections.<String>emptySet() : Collections.unmodifiableSet(names));
+					} catch (RuntimeException e) {
+						VMessage.exception("SWC folder watcher", "Update after a change of " + folder + " failed: " + e);
+					}
+				}
+				if (!key.isValid()) {
+					VMessage.warning("SWC folder watcher", "Stopped watching " + folder + ", it is no longer accessible.");
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			/// closed
+		} catch (ClosedWatchServiceException e) {
+			/// closed
+		} finally {
+			/// also if the listener stopped the thread by interrupting it
+			try {
+				service.close();
+			} catch (IOException e) {
+				VMessage.warning("SWC folder watcher", "Could not close the watch service of " + folder + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * @brief adds the SWC files of the events of a key
+	 * @param key
+	 * @param names in and out: names of the affected files
+	 * @return true if events were lost
+	 */
+	private static boolean collect(WatchKey key, Set<String> names) {
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+			String name = event.context().toString();
+			if (name.endsWith(".swc")) {
+				names.add(name);
+			}
+		}
+		key.reset();
+		return overflow;
+	}
+
+	@Override
+	public String toString() {
+		return "SWCFolderWatcher(folder=" + folder + ", debounce=" + debounce + ")";
+	}
+}
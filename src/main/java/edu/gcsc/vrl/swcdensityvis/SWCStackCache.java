@@ -0,0 +1,404 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.system.VMessage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import lombok.Getter;
+
+/**
+ * @brief binary columnar on-disk cache for a parsed stack of SWC files
+ *
+ * The cache is written beside the input folder (folder name plus
+ * CACHE_SUFFIX) and consists of a header and one column block per cell:
+ *
+ * <pre>
+ * header: int magic, int version, int cells,
+ *         per cell: int name length, name (UTF-8), long file size,
+ *                   long file mtime, int compartments, long block offset
+ * block:  int[] index, float[] x, float[] y, float[] z, float[] radius,
+ *         int[] parent, byte[] type (padded to a multiple of four bytes)
+ * </pre>
+ *
+ * On load the header is compared with the SWC files in the folder, cells
+ * whose size and modification time still match are read from the cache,
+ * all other files are parsed again and the cache is rewritten. The size
+ * and modification time of a parsed file are the ones seen before it was
+ * parsed, so a file rewritten meanwhile is parsed again on the next load.
+ *
+ * @note radii are stored in single precision and types as bytes, as in
+ * Morphology
+ * @author stephan
+ */
+public final class SWCStackCache {
+
+	public final static String CACHE_SUFFIX = ".swcstack";
+	private final static int MAGIC = 0x53574353;
+	private final static int VERSION = 1;
+
+	/// the input folder and its cache file
+	@Getter private final File folder;
+	@Getter private final File cacheFile;
+
+	/// statistics of the last load
+	@Getter private int reusedCount;
+	@Getter private int parsedCount;
+	@Getter private boolean written;
+
+	/// number of cells in the cache file read last (-1 if none)
+	private int cachedCells = -1;
+
+	/**
+	 * @brief ctor
+	 * @param folder folder of SWC files
+	 */
+	public SWCStackCache(File folder) {
+		this.folder = folder;
+		this.cacheFile = getCacheFile(folder);
+	}
+
+	/**
+	 * @brief location of the cache file for a folder
+	 * @param folder
+	 * @return the cache file beside the folder
+	 */
+	public static File getCacheFile(File folder) {
+		File absolute = folder.getAbsoluteFile();
+		File parent = absolute.getParentFile();
+		return new File(parent != null ? parent : absolute, absolute.getName() + CACHE_SUFFIX);
+	}
+
+	/**
+	 * @brief table of contents entry of a cached cell
+	 */
+	private static final class Entry {
+
+		private final long size;
+		private final long modified;
+		private final int compartments;
+		private final long offset;
+
+		Entry(long size, long modified, int compartments, long offset) {
+			this.size = size;
+			this.modified = modified;
+			this.compartments = compartments;
+			this.offset = offset;
+		}
+
+		boolean isFresh(File f) {
+			return f.length() == size && f.lastModified() == modified;
+		}
+	}
+
+	/**
+	 * @brief loads the stack with the default parallelism
+	 * @return hashmap of arraylist of information for each compartment in
+	 * each file
+	 * @throws IOException
+	 */
+	public HashMap<String, ArrayList<SWCCompartmentInformation>> load() throws IOException {
+		return load(SWCStackLoader.getDefaultParallelism());
+	}
+
+	/**
+	 * @brief loads the stack, from the cache where possible
+	 * @see #loadMorphologies(int)
+	 * @param parallelism number of files parsed at the same time
+	 * @return hashmap of arraylist of information for each compartment in
+	 * each file
+	 * @throws IOException
+	 */
+	public HashMap<String, ArrayList<SWCCompartmentInformation>> load(int parallelism) throws IOException {
+		return Morphology.toStack(loadMorphologies(parallelism));
+	}
+
+	/**
+	 * @brief loads the stack as morphologies, from the cache where possible
+	 * @param parallelism number of files parsed at the same time
+	 * @return hashmap of morphologies by file name
+	 * @throws IOException if the SWC files can not be read, failures to
+	 * read or write the cache itself are reported and lead to a reparse
+	 */
+	public HashMap<String, Morphology> loadMorphologies(int parallelism) throws IOException {
+		reusedCount = 0;
+		parsedCount = 0;
+		written = false;
+
+		File[] swcFiles = SWCStackLoader.listSWCFiles(folder);
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>(swcFiles.length * 2);
+		HashMap<String, long[]> stats = new HashMap<String, long[]>(swcFiles.length * 2);
+		ArrayList<File> stale = new ArrayList<File>();
+		readCache(swcFiles, cells, stats, stale);
+		boolean removed = cachedCells > cells.size();
+		reusedCount = cells.size();
+
+		if (!stale.isEmpty()) {
+			HashMap<String, Morphology> parsed = SWCStackLoader.loadMorphologies(stale.toArray(new File[stale.size()]), parallelism, stats);
+			cells.putAll(parsed);
+			parsedCount = parsed.size();
+		}
+
+		if (!stale.isEmpty() || removed) {
+			try {
+				writeCache(swcFiles, cells, stats);
+				written = true;
+			} catch (IOException e) {
+				VMessage.warning("SWC stack cache", "Could not write cache " + cacheFile + ": " + e);
+			}
+		}
+		VMessage.info("SWC stack cache", "Reused " + reusedCount + " cached cells, parsed " + parsedCount + " SWC files.");
+		return cells;
+	}
+
+	/**
+	 * @brief reads the cache into memory and all fresh cells from it
+	 * @param swcFiles files of the folder
+	 * @param cells output: fresh cells by file name
+	 * @param stats output: {size, modification time} of the fresh cells
+	 * by file name
+	 * @param stale output: files which need to be parsed
+	 */
+	private void readCache(File[] swcFiles, HashMap<String, Morphology> cells, HashMap<String, long[]> stats, ArrayList<File> stale) {
+		cachedCells = -1;
+		if (!cacheFile.isFile()) {
+			for (File f : swcFiles) {
+				stale.add(f);
+			}
+			return;
+		}
+
+		try {
+			/// the file is closed before it may be replaced by writeCache
+			ByteBuffer buffer = read(cacheFile);
+			HashMap<String, Entry> entries = readHeader(buffer);
+			cachedCells = entries.size();
+			for (File f : swcFiles) {
+				Entry entry = entries.get(f.getName());
+				if (entry != null && entry.isFresh(f)) {
+					cells.put(f.getName(), readColumns(buffer, entry));
+					stats.put(f.getName(), new long[]{entry.size, entry.modified});
+				} else {
+					stale.add(f);
+				}
+			}
+		} catch (IOException e) {
+			invalidate(swcFiles, cells, stats, stale, e);
+		} catch (BufferUnderflowException e) {
+			invalidate(swcFiles, cells, stats, stale, e);
+		} catch (IllegalArgumentException e) {
+			invalidate(swcFiles, cells, stats, stale, e);
+		}
+	}
+
+	/**
+	 * @brief reads a file into memory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("SWC stack cache too large");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				/// read until the end of the file
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @brief discards everything read from a broken cache
+	 */
+	private void invalidate(File[] swcFiles, HashMap<String, Morphology> cells, HashMap<String, long[]> stats, ArrayList<File> stale, Exception e) {
+		VMessage.warning("SWC stack cache", "Ignoring unreadable cache " + cacheFile + ": " + e);
+		cells.clear();
+		stats.clear();
+		stale.clear();
+		cachedCells = -1;
+		for (File f : swcFiles) {
+			stale.add(f);
+		}
+	}
+
+	/**
+	 * @brief reads and validates the header
+	 * @param buffer
+	 * @return the table of contents by file name
+	 * @throws IOException if the header is not valid
+	 */
+	private static HashMap<String, Entry> readHeader(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a SWC stack cache of version " + VERSION);
+		}
+		int cells = buffer.getInt();
+		/// an entry takes at least its length, sizes, count and offset
+		if (cells < 0 || cells > buffer.remaining() / 32) {
+			throw new IOException("Corrupt SWC stack cache header");
+		}
+		HashMap<String, Entry> entries = new HashMap<String, Entry>(cells * 2);
+		for (int i = 0; i < cells; i++) {
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Corrupt SWC stack cache header");
+			}
+			byte[] name = new byte[length];
+			buffer.get(name);
+			long size = buffer.getLong();
+			long modified = buffer.getLong();
+			int compartments = buffer.getInt();
+			long offset = buffer.getLong();
+			if (compartments < 0 || offset < 0 || offset + 25L * compartments > buffer.limit()) {
+				throw new IOException("Corrupt SWC stack cache header");
+			}
+			entries.put(new String(name, "UTF-8"), new Entry(size, modified, compartments, offset));
+		}
+		return entries;
+	}
+
+	/**
+	 * @brief bulk reads the column block of a cell
+	 * @param buffer
+	 * @param entry
+	 * @return
+	 */
+	private static Morphology readColumns(ByteBuffer buffer, Entry entry) {
+		int n = entry.compartments;
+		int[] index = new int[n];
+		float[] x = new float[n];
+		float[] y = new float[n];
+		float[] z = new float[n];
+		float[] radius = new float[n];
+		int[] parent = new int[n];
+		byte[] type = new byte[n];
+		ByteBuffer block = buffer.duplicate();
+		block.position((int) entry.offset);
+		block.asIntBuffer().get(index);
+		block.position(block.position() + 4 * n);
+		block.asFloatBuffer().get(x);
+		block.position(block.position() + 4 * n);
+		block.asFloatBuffer().get(y);
+		block.position(block.position() + 4 * n);
+		block.asFloatBuffer().get(z);
+		block.position(block.position() + 4 * n);
+		block.asFloatBuffer().get(radius);
+		block.position(block.position() + 4 * n);
+		block.asIntBuffer().get(parent);
+		block.position(block.position() + 4 * n);
+		block.get(type);
+		return new Morphology(index, parent, x, y, z, radius, type);
+	}
+
+	/**
+	 * @brief bytes of the column block of a cell including padding
+	 * @param cell
+	 * @return
+	 */
+	private static long blockSize(Morphology cell) {
+		long n = cell.size();
+		return (n * 25 + 3) & ~3L;
+	}
+
+	/**
+	 * @brief writes the cache to a temporary file and replaces the old one
+	 * @param swcFiles
+	 * @param cells
+	 * @param stats {size, modification time} by file name as seen before
+	 * the cells were parsed
+	 * @throws IOException
+	 */
+	private void writeCache(File[] swcFiles, HashMap<String, Morphology> cells, HashMap<String, long[]> stats) throws IOException {
+		/// header size determines the offset of the first block
+		ArrayList<byte[]> names = new ArrayList<byte[]>(swcFiles.length);
+		long offset = 12;
+		for (File f : swcFiles) {
+			byte[] name = f.getName().getBytes("UTF-8");
+			names.add(name);
+			offset += 4 + name.length + 8 + 8 + 4 + 8;
+		}
+		offset = (offset + 3) & ~3L;
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("SWC stack too large to be cached");
+		}
+
+		File temp = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(swcFiles.length);
+			long blockOffset = offset;
+			for (int i = 0; i < swcFiles.length; i++) {
+				Morphology c = cells.get(swcFiles[i].getName());
+				long[] stat = stats.get(swcFiles[i].getName());
+				out.writeInt(names.get(i).length);
+				out.write(names.get(i));
+				out.writeLong(stat[0]);
+				out.writeLong(stat[1]);
+				out.writeInt(c.size());
+				out.writeLong(blockOffset);
+				blockOffset += blockSize(c);
+			}
+			if (blockOffset > Integer.MAX_VALUE) {
+				throw new IOException("SWC stack too large to be cached");
+			}
+			while (out.size() < offset) {
+				out.writeByte(0);
+			}
+			for (File f : swcFiles) {
+				Morphology c = cells.get(f.getName());
+				int n = c.size();
+				for (int i = 0; i < n; i++) {
+					out.writeInt(c.index[i]);
+				}
+				for (int i = 0; i < n; i++) {
+					out.writeFloat(c.x[i]);
+				}
+				for (int i = 0; i < n; i++) {
+					out.writeFloat(c.y[i]);
+				}
+				for (int i = 0; i < n; i++) {
+					out.writeFloat(c.z[i]);
+				}
+				for (int i = 0; i < n; i++) {
+					out.writeFloat(c.radius[i]);
+				}
+				for (int i = 0; i < n; i++) {
+					out.writeInt(c.parent[i]);
+				}
+				out.write(c.type);
+				for (long pad = blockSize(c) - 25L * n; pad > 0; pad--) {
+					out.writeByte(0);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (cacheFile.exists() && !cacheFile.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + cacheFile);
+		}
+		if (!temp.renameTo(cacheFile)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + cacheFile);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.system.VMessage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief loads a stack of SWC files concurrently on a bounded thread pool
+ * @author stephan
+ */
+public final class SWCStackLoader {
+
+	/// progress is reported in steps of this fraction of all files
+	private static final int PROGRESS_STEPS = 10;
+
+	/**
+	 * @brief private ctor since utility classs should be final and private
+	 */
+	private SWCStackLoader() {
+
+	}
+
+	/**
+	 * @brief default parallelism, i. e. the number of available processors
+	 * @return
+	 */
+	public static int getDefaultParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @brief lists the SWC files of a folder in a stable (sorted) order
+	 * @param folder
+	 * @return the SWC files
+	 * @throws IOException if the folder can not be listed
+	 */
+	public static File[] listSWCFiles(File folder) throws IOException {
+		File[] swcFiles = folder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".swc");
+			}
+		});
+		if (swcFiles == null) {
+			throw new IOException("Not a readable folder: " + folder);
+		}
+		Arrays.sort(swcFiles);
+		return swcFiles;
+	}
+
+	/**
+	 * @brief parses all SWC files of a folder with the default parallelism
+	 * @param folder
+	 * @return hashmap of arraylist of information for each compartment in
+	 * each file
+	 * @throws IOException
+	 */
+	public static HashMap<String, ArrayList<SWCCompartmentInformation>> load(File folder) throws IOException {
+		return load(listSWCFiles(folder), getDefaultParallelism());
+	}
+
+	/**
+	 * @brief parses all SWC files of a folder into morphologies with the
+	 * default parallelism
+	 * @param folder
+	 * @return hashmap of morphologies by file name
+	 * @throws IOException
+	 */
+	public static HashMap<String, Morphology> loadMorphologies(File folder) throws IOException {
+		return loadMorphologies(listSWCFiles(folder), getDefaultParallelism());
+	}
+
+	/**
+	 * @brief parses the given SWC files concurrently
+	 * @see #load(File[], int)
+	 * @param files
+	 * @param parallelism
+	 * @return hashmap of arraylist of information for each compartment in
+	 * each file
+	 * @throws IOException
+	 */
+	public static HashMap<String, ArrayList<SWCCompartmentInformation>> load(File[] files, int parallelism) throws IOException {
+		return load(files, parallelism, new FileParser<ArrayList<SWCCompartmentInformation>>() {
+			@Override
+			public ArrayList<SWCCompartmentInformation> parse(File file) throws IOException {
+				return SWCUtility.parse(file);
+			}
+		});
+	}
+
+	/**
+	 * @brief parses the given SWC files concurrently into morphologies
+	 * @see #load(File[], int)
+	 * @param files
+	 * @param parallelism
+	 * @return hashmap of morphologies by file name
+	 * @throws IOException
+	 */
+	public static HashMap<String, Morphology> loadMorphologies(File[] files, int parallelism) throws IOException {
+		return load(files, parallelism, new FileParser<Morphology>() {
+			@Override
+			public Morphology parse(File file) throws IOException {
+				return Morphology.parse(file);
+			}
+		});
+	}
+
+	/**
+	 * @brief parses the given SWC files concurrently into morphologies and
+	 * records the size and modification time of each file
+	 *
+	 * The size and modification time are taken before the file is parsed,
+	 * so a file rewritten while it is parsed shows up as changed when they
+	 * are compared with the file again, e. g. by SWCStackCache.
+	 *
+	 * @see #load(File[], int)
+	 * @param files
+	 * @param parallelism
+	 * @param stats output: {size, modification time} by file name
+	 * @return hashmap of morphologies by file name
+	 * @throws IOException
+	 */
+	public static HashMap<String, Morphology> loadMorphologies(File[] files, int parallelism, Map<String, long[]> stats) throws IOException {
+		final ConcurrentHashMap<String, long[]> seen = new ConcurrentHashMap<String, long[]>(Math.max(1, files.length));
+		HashMap<String, Morphology> cells = load(files, parallelism, new FileParser<Morphology>() {
+			@Override
+			public Morphology parse(File file) throws IOException {
+				seen.put(file.getName(), new long[]{file.length(), file.lastModified()});
+				return Morphology.parse(file);
+			}
+		});
+		stats.putAll(seen);
+		return cells;
+	}
+
+	/**
+	 * @brief parses a single file into the representation T
+	 * @param <T>
+	 */
+	private interface FileParser<T> {
+
+		T parse(File file) throws IOException;
+	}
+
+	/**
+	 * @brief parses the given SWC files concurrently
+	 *
+	 * Each file is parsed by one task, at most parallelism tasks run at the
+	 * same time. The first failing file aborts the remaining tasks and its
+	 * exception is rethrown. The result is identical to parsing the files
+	 * one after another.
+	 *
+	 * @param <T>
+	 * @param files
+	 * @param parallelism number of threads, values smaller than 1 select
+	 * the default parallelism
+	 * @param parser
+	 * @return hashmap of parsed cells by file name
+	 * @throws IOException
+	 */
+	private static <T> HashMap<String, T> load(File[] files, int parallelism, final FileParser<T> parser) throws IOException {
+		if (files.length == 0) {
+			return new HashMap<String, T>();
+		}
+		final ConcurrentHashMap<String, T> cells = new ConcurrentHashMap<String, T>(files.length);
+
+		if (parallelism < 1) {
+			parallelism = getDefaultParallelism();
+		}
+		final int total = files.length;
+		final int step = Math.max(1, total / PROGRESS_STEPS);
+		final AtomicInteger done = new AtomicInteger();
+
+		ArrayList<Callable<Void>> callables = new ArrayList<Callable<Void>>(total);
+		for (final File f : files) {
+			callables.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					cells.put(f.getName(), parser.parse(f));
+					int count = done.incrementAndGet();
+					if (count % step == 0 || count == total) {
+						VMessage.info("Parsing SWC files", "Parsed " + count + " of " + total + " SWC files.");
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, total));
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(total);
+			for (Callable<Void> c : callables) {
+				results.add(executor.submit(c));
+			}
+			for (Future<Void> res : results) {
+				res.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading of SWC stack was interrupted.");
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return new HashMap<String, T>(cells);
+	}
+}
@@ -2,25 +2,23 @@
 package edu.gcsc.vrl.swcdensityvis;
 
 /// imports
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 import eu.mihosoft.vrl.reflection.Pair;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import javax.vecmath.Vector3f;
 
@@ -36,6 +34,11 @@ public final class SWCUtility {
 	public final static float DEFAULT_DEPTH = 10.f;
 	public final static String DEFAULT_SELECTION = "ALL";
 	public final static float EPS = 1e-12f;
+	/// splitting of cells into tasks of the edge by edge density computation
+	private final static int TASKS_PER_PROCESSOR = 4;
+	private final static int MIN_GRAIN_SIZE = 4096;
+	/// cuboid queries between two polls of the cancellation, a power of two
+	private final static int CANCEL_POLL_QUERIES = 1024;
 
 	/**
 	 * @brief private ctor since utility classs should be final and private
@@ -46,12 +49,24 @@ public final class SWCUtility {
 
 	/**
 	 * @brief parses a swc file
+	 * @see SWCFastParser
 	 * @param file
 	 * @return list of compartment information for this file
 	 * @throws IOException
 	 */
-	@SuppressWarnings("NestedAssignment")
 	public static ArrayList<SWCCompartmentInformation> parse(File file) throws IOException {
+		return SWCFastParser.parse(file);
+	}
+
+	/**
+	 * @brief parses a swc file line by line with a buffered reader
+	 * @note kept as reference implementation for the memory-mapped parser
+	 * @param file
+	 * @return list of compartment information for this file
+	 * @throws IOException
+	 */
+	@SuppressWarnings("NestedAssignment")
+	public static ArrayList<SWCCompartmentInformation> parseBuffered(File file) throws IOException {
 		ArrayList<SWCCompartmentInformation> temp = new ArrayList<SWCCompartmentInformation>();
 		BufferedReader br = null;
 		try {
@@ -84,26 +99,26 @@ public final class SWCUtility {
 
 	/**
 	 * @brief parses a bunch of swc file
+	 * @see SWCStackLoader
 	 * @param folder
 	 * @return hashmap of arraylist of information for each compartment in
 	 * each file
 	 * @throws IOException
 	 */
-	@SuppressWarnings("NestedAssignment")
 	public static HashMap<String, ArrayList<SWCCompartmentInformation>> parseStack(File folder) throws IOException {
-		HashMap<String, ArrayList<SWCCompartmentInformation>> compartments = new HashMap<String, ArrayList<SWCCompartmentInformation>>();
-		File[] swcFiles = folder.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.endsWith(".swc");
-			}
-		});
-
-		for (File f : swcFiles) {
-			compartments.put(f.getName(), parse(f));
-		}
+		return parseStack(folder, SWCStackLoader.getDefaultParallelism());
+	}
 
-		return compartments;
+	/**
+	 * @brief parses a bunch of swc file concurrently
+	 * @param folder
+	 * @param parallelism number of files parsed at the same time
+	 * @return hashmap of arraylist of information for each compartment in
+	 * each file
+	 * @throws IOException
+	 */
+	public static HashMap<String, ArrayList<SWCCompartmentInformation>> parseStack(File folder, int parallelism) throws IOException {
+		return SWCStackLoader.load(SWCStackLoader.listSWCFiles(folder), parallelism);
 	}
 
 	/**
@@ -146,6 +161,29 @@ public final class SWCUtility {
 
 	}
 
+	/**
+	 * @brief get bounding box for a morphology
+	 * @param cell
+	 * @return pair max min coordinates 3d
+	 */
+	public static Pair<Vector3f, Vector3f> getBoundingBox(Morphology cell) {
+		return cell.getBoundingBox();
+	}
+
+	/**
+	 * @brief get bounding box for a bunch of morphologies
+	 * @param cells input cells
+	 * @return pair max min coordinates 3d
+	 */
+	public static Pair<Vector3f, Vector3f> getBoundingBox(Map<String, Morphology> cells) {
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (Morphology cell : cells.values()) {
+			cell.includeInBounds(bounds);
+		}
+		return new Pair<Vector3f, Vector3f>(new Vector3f(bounds[3], bounds[4], bounds[5]), new Vector3f(bounds[0], bounds[1], bounds[2]));
+	}
+
 	/**
 	 * @brief get dimensions (width, height and depth) for the cells
 	 * @param cells
@@ -160,6 +198,20 @@ public final class SWCUtility {
 		);
 	}
 
+	/**
+	 * @brief get dimensions (width, height and depth) for the morphologies
+	 * @param cells
+	 * @return the dimensions as a vector
+	 */
+	public static Vector3f getDimensions(Map<String, Morphology> cells) {
+		Pair<Vector3f, Vector3f> bounding = getBoundingBox(cells);
+		return new Vector3f(
+			Math.abs(bounding.getFirst().x - bounding.getSecond().x),
+			Math.abs(bounding.getFirst().y - bounding.getSecond().y),
+			Math.abs(bounding.getFirst().z - bounding.getSecond().z)
+		);
+	}
+
 	/**
 	 * @brief get dimensions for a named cell
 	 * @param cell
@@ -176,133 +228,992 @@ public final class SWCUtility {
 	}
 
 	/**
-	 * @brief computes the density in an alternative way, i. e. iterates
-	 * over the edges
+	 * @brief compute dendritic length in cuboid edge by edge
+	 * @see #computeDensityAlternative(Map, float, float, float, String)
 	 * @param cells
-	 * @return
+	 * @return a hashmap representing dendritic length in each sampling
+	 * cuboid
 	 */
 	public static HashMap<Integer, Float> computeDensityAlternative(HashMap<String, ArrayList<SWCCompartmentInformation>> cells) {
-		final Vector3f dims = SWCUtility.getDimensions(cells);
-		final Pair<Vector3f, Vector3f> bounding = SWCUtility.getBoundingBox(cells);
-		System.out.println("Dimensions of all cells: " + dims);
-		System.out.println("Bounding box Min: " + bounding.getSecond() + ", Max:" + bounding.getFirst());
+		return computeDensityAlternative(cells, DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_DEPTH, DEFAULT_SELECTION);
+	}
 
-		/// sampling cube in geometry dimensions (i. e. µm!)
-		final float width = 10.f;
-		final float height = 10.f;
-		final float depth = 10.f;
+	/**
+	 * @brief compute dendritic length in cuboid edge by edge
+	 * @see #computeDensityAlternative(Map, float, float, float, String)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @return a hashmap representing dendritic length in each sampling
+	 * cuboid
+	 */
+	public static HashMap<Integer, Float> computeDensityAlternative(HashMap<String, ArrayList<SWCCompartmentInformation>> cells, float width_, float height_, float depth_, final String type) {
+		HashMap<String, Morphology> morphologies = Morphology.fromStack(cells);
+		return toSweepIndices(computeDensityAlternative(morphologies, width_, height_, depth_, type),
+			SamplingGrid.fromBoundingBox(getBoundingBox(morphologies), width_, height_, depth_));
+	}
 
-		class PartialDensityComputer implements Callable<HashMap<Integer, Float>> {
+	/**
+	 * @brief compute dendritic length in cuboid edge by edge
+	 *
+	 * Instead of querying every sampling cuboid of the bounding box, each
+	 * edge is walked through the sampling grid (VoxelTraversal) and its
+	 * exact clipped length is added to the cuboids it passes through. The
+	 * result is normalized as in computeDensity.
+	 *
+	 * Each task handles the edges of a chunk of compartments with its own
+	 * accumulator, large cells are split into several chunks.
+	 *
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 */
+	public static SparseDensityGrid computeDensityAlternative(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type) {
+		return computeDensityAlternative(cells, width_, height_, depth_, type, new DensityTimings());
+	}
+
+	/**
+	 * @brief compute dendritic length in cuboid edge by edge
+	 * @see #computeDensityAlternative(Map, float, float, float, String)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param timings output: timings of the parallel and merge phase
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 */
+	public static SparseDensityGrid computeDensityAlternative(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, DensityTimings timings) {
+		return await(DensityComputeService.getShared().submit(true, cells, width_, height_, depth_, type, null, timings));
+	}
+
+	/**
+	 * @brief edge by edge density computation, runs on the pool of a
+	 * DensityComputeService
+	 * @see #computeDensityAlternative(Map, float, float, float, String)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param job cancellation, progress and timings
+	 * @param pool
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static SparseDensityGrid computeDensityByTraversal(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, final DensityJob<?> job, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width_, height_, depth_);
+		final int type_index = getTypeIndex(type);
+		System.out.println("Sampling grid: " + grid);
+
+		// the pool runs at most its parallelism threads at a time to
+		// calculate the partial density (Callable PartialDensityComputer)
+		int processors = pool.getParallelism();
+		System.out.println("Number of processors: " + processors);
+		final DenseAccumulator[] dense = chooseAccumulators(cells, type_index, grid, processors, job);
+
+		/**
+		 * @brief thread, e. g. callable, which computes for one cell
+		 * the dendritic length in each cuboid the edges pass through
+		 */
+		class PartialDensityComputer implements Callable<LongFloatHashMap>, VoxelTraversal.Visitor {
 
 			/// store lengthes in the cuboids and the cell itself
-			private volatile HashMap<Integer, Float> lengths = new HashMap<Integer, Float>();
-			private volatile Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell;
+			private final LongFloatHashMap lengths = new LongFloatHashMap();
+			private final Morphology cell;
+			/// the edges from the compartments [from, to) to their children
+			private final int from;
+			private final int to;
+
+			/// length of the edge currently traversed
+			private double edge_length;
+			/// dense accumulator of the slot of the task, null if sparse
+			private final DenseAccumulator accumulator;
 
 			/**
 			 * @brief def ctor
 			 */
-			public PartialDensityComputer(Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell) {
+			public PartialDensityComputer(Morphology cell, int from, int to, DenseAccumulator accumulator) {
 				this.cell = cell;
+				this.from = from;
+				this.to = to;
+				this.accumulator = accumulator;
 			}
 
 			@Override
 			@SuppressWarnings("ReturnOfCollectionOrArrayField")
-			public HashMap<Integer, Float> call() {
-				/// preprocess, determine characteristic edge length (one can chose also something different)
-				HashMap<Vector3f, ArrayList<Vector3f>> incidents = getIndicents(cell.getValue());
-				for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : incidents.entrySet()) {
-					for (Vector3f edge : entry.getValue()) {
-						Pair<Vector3f, Vector3f> bounding_e = EdgeUtility.getBounding(new Edge<Vector3f>(entry.getKey(), edge));
-						Cuboid bounding_ee = new Cuboid(bounding_e.getFirst().x, bounding_e.getFirst().y, bounding_e.getFirst().y, bounding_e.getSecond().x, bounding_e.getSecond().y, bounding_e.getSecond().z);
-						Cuboid min = new Cuboid(bounding_e.getFirst().x, bounding_e.getFirst().y, bounding_e.getFirst().y, width, depth, height);
-						Cuboid max = new Cuboid(bounding_e.getSecond().x, bounding_e.getSecond().y, bounding_e.getSecond().z, width, depth, height);
-						Pair<int[], int[]> bounding_ss = CuboidUtility.getSampleCuboidBounding(bounding_ee, min, max, width, depth, height);
-
-						for (int i = bounding_ss.getFirst()[0]; i < bounding_ss.getSecond()[0]; i++) {
-							for (int j = bounding_ss.getFirst()[1]; j < bounding_ss.getSecond()[1]; j++) {
-								for (int k = bounding_ss.getFirst()[2]; k < bounding_ss.getSecond()[2]; k++) {
-									float x = bounding_e.getFirst().x;
-									float y = bounding_e.getFirst().y;
-									float z = bounding_e.getFirst().z;
-
-									Integer real_index = i * j * k;
-									float len = EdgeSegmentWithinCuboid(x, y, z, width, height, depth, edge, new ArrayList<Vector3f>(Arrays.asList(entry.getKey())));
-									if (len != 0) {
-										if (lengths.containsKey(real_index)) {
-											lengths.put(real_index, lengths.get(real_index) + len);
-										} else {
-											lengths.put(real_index, len);
-										}
-									}
-								}
-							}
+			public LongFloatHashMap call() {
+				Topology topology = cell.getTopology();
+				for (int i = from; i < to; i++) {
+					job.checkCancelled();
+					if (type_index >= 0 && type_index != cell.type[i]) {
+						continue;
+					}
+					for (int c = 0; c < topology.getChildCount(i); c++) {
+						int child = topology.getChild(i, c);
+						double ex = cell.x[child] - cell.x[i];
+						double ey = cell.y[child] - cell.y[i];
+						double ez = cell.z[child] - cell.z[i];
+						edge_length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+						VoxelTraversal.traverse(grid, cell.x[i], cell.y[i], cell.z[i], cell.x[child], cell.y[child], cell.z[child], this);
+					}
+				}
+				job.taskDone();
+				return lengths;
+			}
+
+			@Override
+			public void visit(int i, int j, int k, double t0, double t1) {
+				float length = (float) ((t1 - t0) * edge_length);
+				if (accumulator != null) {
+					accumulator.add(grid.index(i, j, k), length);
+				} else {
+					lengths.addTo(grid.key(i, j, k), length);
+				}
+			}
+		}
+
+		/// cells larger than the grain are split into chunks of their edges,
+		/// so that a few huge cells still keep all processors busy
+		int grain = getGrainSize(cells, processors);
+		ArrayList<Long> costs = new ArrayList<Long>();
+		for (Map.Entry<String, Morphology> cell : cells.entrySet()) {
+			Morphology morphology = cell.getValue();
+			for (int from = 0; from < morphology.size(); from += grain) {
+				costs.add((long) Math.min(morphology.size() - from, grain));
+			}
+		}
+		int[] slots = balance(costs, dense);
+		ArrayList<Callable<LongFloatHashMap>> callables = new ArrayList<Callable<LongFloatHashMap>>();
+		for (Map.Entry<String, Morphology> cell : cells.entrySet()) {
+			Morphology morphology = cell.getValue();
+			if (morphology.size() > grain) {
+				/// build the topology once instead of in each chunk
+				morphology.getTopology();
+			}
+			for (int from = 0; from < morphology.size(); from += grain) {
+				Callable<LongFloatHashMap> c = new PartialDensityComputer(morphology, from, Math.min(morphology.size(), from + grain), slot(dense, slots, callables.size()));
+				callables.add(c);
+			}
+		}
+		return computeAndReduce(pool, processors, callables, cells.size(), job, grid, dense, slots, null);
+	}
+
+	/**
+	 * @brief computes the density in regions of interest only
+	 *
+	 * The densities are those of computeDensityAlternative in the cuboids
+	 * the regions overlap, i. e. keyed on the grid of the bounding box of
+	 * the stack and normalized by the mean total length per cell of the
+	 * whole stack, all other cuboids are absent. Cells whose bounding box
+	 * misses all regions are skipped, the edges of the others are looked
+	 * up in a segment index by region and traversed within the region
+	 * only, so the work grows with the content of the regions rather than
+	 * with the extent of the stack.
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param regions cuboids overlapped by more than one region count once
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid of the regions by Morton key of the cuboid
+	 * (SamplingGrid.key)
+	 */
+	public static SparseDensityGrid computeDensity(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, List<RegionOfInterest> regions) {
+		return computeDensity(cells, width_, height_, depth_, type, regions, new DensityTimings());
+	}
+
+	/**
+	 * @brief computes the density in regions of interest only
+	 * @see #computeDensity(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param regions
+	 * @param timings output: timings of the parallel and merge phase
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid of the regions by Morton key of the cuboid
+	 */
+	public static SparseDensityGrid computeDensity(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, List<RegionOfInterest> regions, DensityTimings timings) {
+		return await(DensityComputeService.getShared().submitRegions(cells, width_, height_, depth_, type, regions, null, timings));
+	}
+
+	/**
+	 * @brief density computation in regions of interest, runs on the pool
+	 * of a DensityComputeService
+	 * @see #computeDensity(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param regions
+	 * @param job cancellation, progress, timings and candidate counts
+	 * @param pool
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid of the regions by Morton key of the cuboid
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static SparseDensityGrid computeDensityInRegions(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, List<RegionOfInterest> regions, final DensityJob<?> job, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width_, height_, depth_);
+		final int type_index = getTypeIndex(type);
+		System.out.println("Sampling grid: " + grid);
+		System.out.println("Regions of interest: " + regions);
+
+		/// the cuboids of the regions, their boxes and the grids covering them
+		final int[][] ranges = new int[regions.size()][];
+		final float[][] boxes = new float[regions.size()][];
+		final SamplingGrid[] subgrids = new SamplingGrid[regions.size()];
+		for (int r = 0; r < ranges.length; r++) {
+			int[] c = regions.get(r).getCuboids(grid);
+			ranges[r] = c;
+			boxes[r] = new float[]{
+				(float) (grid.getX() + c[0] * (double) grid.getWidth()), (float) (grid.getY() + c[1] * (double) grid.getHeight()), (float) (grid.getZ() + c[2] * (double) grid.getDepth()),
+				(float) (grid.getX() + c[3] * (double) grid.getWidth()), (float) (grid.getY() + c[4] * (double) grid.getHeight()), (float) (grid.getZ() + c[5] * (double) grid.getDepth())
+			};
+			subgrids[r] = new SamplingGrid(boxes[r][0], boxes[r][1], boxes[r][2], grid.getWidth(), grid.getHeight(), grid.getDepth(),
+				Math.max(0, c[3] - c[0]), Math.max(0, c[4] - c[1]), Math.max(0, c[5] - c[2]));
+		}
+		int processors = pool.getParallelism();
+		System.out.println("Number of processors: " + processors);
+
+		/**
+		 * @brief thread, e. g. callable, which computes for one cell
+		 * the dendritic length in each cuboid of the regions
+		 */
+		class PartialDensityComputer implements Callable<LongFloatHashMap>, VoxelTraversal.Visitor {
+
+			/// store lengthes in the cuboids and the cell itself
+			private final LongFloatHashMap lengths = new LongFloatHashMap();
+			private final Morphology cell;
+			/// output: total length of the cell by task
+			private final double[] totals;
+			private final int task;
+
+			/// region and length of the edge currently traversed
+			private int region;
+			private double edge_length;
+
+			/**
+			 * @brief def ctor
+			 */
+			public PartialDensityComputer(Morphology cell, double[] totals, int task) {
+				this.cell = cell;
+				this.totals = totals;
+				this.task = task;
+			}
+
+			@Override
+			@SuppressWarnings("ReturnOfCollectionOrArrayField")
+			public LongFloatHashMap call() {
+				Topology topology = cell.getTopology();
+				double total = 0;
+				for (int i = 0; i < cell.size(); i++) {
+					job.checkCancelled();
+					if (type_index < 0 || type_index == cell.type[i]) {
+						for (int c = 0; c < topology.getChildCount(i); c++) {
+							int child = topology.getChild(i, c);
+							double ex = cell.x[child] - cell.x[i];
+							double ey = cell.y[child] - cell.y[i];
+							double ez = cell.z[child] - cell.z[i];
+							total += Math.sqrt(ex * ex + ey * ey + ez * ez);
 						}
 					}
 				}
+				totals[task] = total;
+
+				/// cells outside all regions are skipped, the others indexed once
+				float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+					Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+				cell.includeInBounds(bounds);
+				SegmentIndex index = null;
+				IndexBuffer hits = new IndexBuffer();
+				long queries = 0;
+				long candidates = 0;
+				for (region = 0; region < boxes.length; region++) {
+					float[] b = boxes[region];
+					if (subgrids[region].getCellCount() == 0
+						|| b[0] > bounds[3] || b[3] < bounds[0] || b[1] > bounds[4] || b[4] < bounds[1] || b[2] > bounds[5] || b[5] < bounds[2]) {
+						continue;
+					}
+					job.checkCancelled();
+					if (index == null) {
+						index = SegmentBVH.build(cell, type_index);
+					}
+					index.query(b[0], b[1], b[2], b[3], b[4], b[5], hits);
+					queries++;
+					candidates += hits.size();
+					/// polled per edge as the other engines, a large cell stays cancellable
+					for (int h = 0; h < hits.size(); h++) {
+						job.checkCancelled();
+						int s = hits.get(h);
+						double ex = index.x2[s] - index.x1[s];
+						double ey = index.y2[s] - index.y1[s];
+						double ez = index.z2[s] - index.z1[s];
+						edge_length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+						VoxelTraversal.traverse(subgrids[region], index.x1[s], index.y1[s], index.z1[s], index.x2[s], index.y2[s], index.z2[s], this);
+					}
+				}
+				job.addCandidates(queries, candidates);
+				job.taskDone();
 				return lengths;
 			}
+
+			@Override
+			public void visit(int i, int j, int k, double t0, double t1) {
+				int[] range = ranges[region];
+				i += range[0];
+				j += range[1];
+				k += range[2];
+				/// a cuboid of several regions belongs to the first
+				for (int r = 0; r < region; r++) {
+					int[] other = ranges[r];
+					if (i >= other[0] && i < other[3] && j >= other[1] && j < other[4] && k >= other[2] && k < other[5]) {
+						return;
+					}
+				}
+				lengths.addTo(grid.key(i, j, k), (float) ((t1 - t0) * edge_length));
+			}
+		}
+
+		ArrayList<Callable<LongFloatHashMap>> callables = new ArrayList<Callable<LongFloatHashMap>>();
+		double[] totals = new double[cells.size()];
+		for (Morphology cell : cells.values()) {
+			callables.add(new PartialDensityComputer(cell, totals, callables.size()));
 		}
-		// take number of available processors and create a fixed thread pool,
-		// the executor executes then at most the number of available processors
-		// threads to calculate the partial density (Callable PartialDensityComputer)
-		int processors = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(processors);
+		job.getTimings().setIndex(SegmentBVH.class.getSimpleName());
+		job.getTimings().setAccumulation("sparse");
+		return computeAndReduce(pool, processors, callables, cells.size(), job, grid, null, null, totals);
+	}
+
+	/**
+	 * @brief compute dendritic length in cuboid edge by edge for all
+	 * compartment types in one pass
+	 *
+	 * Each edge is added to the channel of the type of its parent
+	 * compartment, so selecting a type afterwards reads a channel instead
+	 * of computing again.
+	 * @see DensityChannels
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @return dendritic length in each sampling cuboid by channel
+	 */
+	public static DensityChannels computeDensityChannels(Map<String, Morphology> cells, float width_, float height_, float depth_) {
+		return computeDensityChannels(cells, width_, height_, depth_, new DensityTimings());
+	}
+
+	/**
+	 * @brief compute dendritic length in cuboid edge by edge for all
+	 * compartment types in one pass
+	 * @see #computeDensityChannels(Map, float, float, float)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param timings output: timings of the parallel and merge phase
+	 * @return dendritic length in each sampling cuboid by channel
+	 */
+	public static DensityChannels computeDensityChannels(Map<String, Morphology> cells, float width_, float height_, float depth_, DensityTimings timings) {
+		return await(DensityComputeService.getShared().submitChannels(cells, width_, height_, depth_, null, timings));
+	}
+
+	/**
+	 * @brief edge by edge computation of all channels, runs on the pool of
+	 * a DensityComputeService
+	 *
+	 * The tasks accumulate into one hash map per channel, the reduction is
+	 * sharded by key per channel as in computeAndReduce.
+	 * @see #computeDensityChannels(Map, float, float, float)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param job cancellation, progress and timings
+	 * @param pool
+	 * @return dendritic length in each sampling cuboid by channel
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static DensityChannels computeChannelsByTraversal(Map<String, Morphology> cells, float width_, float height_, float depth_, final DensityJob<?> job, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width_, height_, depth_);
+		System.out.println("Sampling grid: " + grid);
+		int processors = pool.getParallelism();
 		System.out.println("Number of processors: " + processors);
 
-		ArrayList<Callable<HashMap<Integer, Float>>> callables = new ArrayList<Callable<HashMap<Integer, Float>>>();
-		for (Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell : cells.entrySet()) {
-			Callable<HashMap<Integer, Float>> c = new PartialDensityComputer(cell);
-			callables.add(c);
+		/**
+		 * @brief thread, e. g. callable, which computes for a chunk of
+		 * one cell the dendritic length of each channel in each cuboid
+		 */
+		class PartialChannelComputer implements Callable<LongFloatHashMap[]>, VoxelTraversal.Visitor {
+
+			/// lengths by channel, created on the first edge of the channel
+			private final LongFloatHashMap[] lengths = new LongFloatHashMap[DensityChannels.CHANNELS];
+			private final Morphology cell;
+			private final int from;
+			private final int to;
+
+			/// length and channel of the edge currently traversed
+			private double edge_length;
+			private LongFloatHashMap channel;
+
+			public PartialChannelComputer(Morphology cell, int from, int to) {
+				this.cell = cell;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			@SuppressWarnings("ReturnOfCollectionOrArrayField")
+			public LongFloatHashMap[] call() {
+				Topology topology = cell.getTopology();
+				for (int i = from; i < to; i++) {
+					job.checkCancelled();
+					int c = DensityChannels.channel(cell.type[i]);
+					for (int e = 0; e < topology.getChildCount(i); e++) {
+						if (lengths[c] == null) {
+							lengths[c] = new LongFloatHashMap();
+						}
+						channel = lengths[c];
+						int child = topology.getChild(i, e);
+						double ex = cell.x[child] - cell.x[i];
+						double ey = cell.y[child] - cell.y[i];
+						double ez = cell.z[child] - cell.z[i];
+						edge_length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+						VoxelTraversal.traverse(grid, cell.x[i], cell.y[i], cell.z[i], cell.x[child], cell.y[child], cell.z[child], this);
+					}
+				}
+				job.taskDone();
+				return lengths;
+			}
+
+			@Override
+			public void visit(int i, int j, int k, double t0, double t1) {
+				channel.addTo(grid.key(i, j, k), (float) ((t1 - t0) * edge_length));
+			}
 		}
 
-		HashMap<Integer, Float> vals = new HashMap<Integer, Float>();
-		/*
-		 try {
-		 /// perform parallel work
-		 long millisecondsStartParallel = System.currentTimeMillis();
-		 List<Future<HashMap<Integer, Float>>> results = executor.invokeAll(callables);
-		 ArrayList<HashMap<Integer, Float>> subresults = new ArrayList<HashMap<Integer, Float>>();
-		 for (Future<HashMap<Integer, Float>> res : results) {
-		 subresults.add(res.get());
-		 }
-		 executor.shutdown();
-		 long timeSpentInMillisecondsParallel = System.currentTimeMillis() - millisecondsStartParallel;
-		 System.out.println("Parallel work [s]: " +timeSpentInMillisecondsParallel/1000.0);
-			
-		 long millisecondsStartSerial = System.currentTimeMillis();
-		 /// serial summation. note, the below could also be done in parallel somehow
-		 for (HashMap<Integer, Float> result : subresults) {
-		 for (Map.Entry<Integer, Float> map_entry : result.entrySet()) {
-		 if (vals.containsKey(map_entry.getKey())) {
-		 vals.put(map_entry.getKey(), map_entry.getValue() + vals.get(map_entry.getKey()));
-		 } else {
-		 vals.put(map_entry.getKey(), map_entry.getValue()); 
-		 }
-		 }
-		 }
-		
-		 /// total length
-		 float total_length = 0;
-		 for (Map.Entry<Integer, Float> entry : vals.entrySet()) {
-		 total_length += entry.getValue() / cells.size();
-		 }
-		
-		 /// densities
-		 for (Map.Entry<Integer, Float> entry : vals.entrySet()) {
-		 entry.setValue(entry.getValue() / total_length);
-		 }
-		
-		 System.out.println("Total dendritic length [\\mu m]: " + total_length);
-		
-		 System.out.println("Non-zero cuboids: " + vals.size());
-		 long timeSpentInMillisecondsSerial = System.currentTimeMillis() - millisecondsStartSerial;
-		 System.out.println("Serial work [s]: " +timeSpentInMillisecondsSerial/1000.0);
-	
-		 } catch (ExecutionException e) {
-		 System.err.println(e);
-		 } catch (InterruptedException e) {
-		 System.err.println(e);
-		 }*/
+		int grain = getGrainSize(cells, processors);
+		ArrayList<Callable<LongFloatHashMap[]>> callables = new ArrayList<Callable<LongFloatHashMap[]>>();
+		for (Morphology morphology : cells.values()) {
+			if (morphology.size() > grain) {
+				morphology.getTopology();
+			}
+			for (int from = 0; from < morphology.size(); from += grain) {
+				callables.add(new PartialChannelComputer(morphology, from, Math.min(morphology.size(), from + grain)));
+			}
+		}
+		DensityTimings timings = job.getTimings();
+		timings.setTasks(callables.size());
+		timings.setAccumulation("sparse");
+		timings.setEstimatedBytes(DenseAccumulator.estimateOccupied(cells.values(), -1, grid) * DenseAccumulator.BYTES_PER_OCCUPIED_CUBOID);
+		job.setTotal(callables.size());
+
+		/// perform parallel work
+		long startParallel = System.nanoTime();
+		List<Future<LongFloatHashMap[]>> results = pool.invokeAll(callables);
+		ArrayList<LongFloatHashMap[]> subresults = new ArrayList<LongFloatHashMap[]>(results.size());
+		for (Future<LongFloatHashMap[]> res : results) {
+			subresults.add(res.get());
+		}
+		timings.setParallelNanos(System.nanoTime() - startParallel);
+		System.out.println("Parallel work [s]: " + timings.getParallelNanos() / 1e9);
+		job.checkCancelled();
+
+		/// sum up each channel, the lengths are normalized on selection
+		long startMerge = System.nanoTime();
+		SparseDensityGrid[] lengths = new SparseDensityGrid[DensityChannels.CHANNELS];
+		double[] totals = new double[DensityChannels.CHANNELS];
+		LongFloatHashMap[] shards = new LongFloatHashMap[Integer.highestOneBit(Math.max(1, processors) * 2 - 1)];
+		for (int c = 0; c < DensityChannels.CHANNELS; c++) {
+			ArrayList<LongFloatHashMap> partials = new ArrayList<LongFloatHashMap>();
+			for (LongFloatHashMap[] subresult : subresults) {
+				if (subresult[c] != null) {
+					partials.add(subresult[c]);
+				}
+			}
+			if (partials.isEmpty()) {
+				lengths[c] = new SparseDensityGrid();
+				continue;
+			}
+			double[] sums = new double[shards.length];
+			LongFloatHashMap.sumSharded(partials, shards, sums, SparseDensityGrid.BRICK_BITS, pool);
+			for (double sum : sums) {
+				totals[c] += sum;
+			}
+			lengths[c] = SparseDensityGrid.join(shards, 1.f, pool);
+		}
+		timings.setMergeNanos(System.nanoTime() - startMerge);
+		timings.setShards(shards.length);
+
+		DensityChannels channels = new DensityChannels(grid, lengths, totals, cells.size());
+		System.out.println("Channels: " + channels);
+		System.out.println("Merge work [s]: " + timings.getMergeNanos() / 1e9);
+		return channels;
+	}
+
+	/**
+	 * @brief computes several morphometry metrics per cuboid in one pass
+	 *
+	 * Each edge is walked through the sampling grid once, every metric
+	 * adds the contribution of the part of the edge within a cuboid, e. g.
+	 * length, lateral surface and volume of the truncated cone. Each
+	 * compartment adds to the cuboid containing it, e. g. branch and end
+	 * points. The values are not normalized.
+	 * @see MorphometryMetrics
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type compartment types of the edges (parents) and nodes
+	 * @param metrics one column per metric
+	 * @return columns of the metrics by Morton key of the cuboids
+	 * (SamplingGrid.key of the grid of the bounding box)
+	 */
+	public static MorphometryTable computeMorphometry(Map<String, Morphology> cells, float width_, float height_, float depth_, String type, List<? extends MorphometryMetric> metrics) {
+		return computeMorphometry(cells, width_, height_, depth_, type, metrics, new DensityTimings());
+	}
+
+	/**
+	 * @brief computes several morphometry metrics per cuboid in one pass
+	 * @see #computeMorphometry(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param metrics
+	 * @param timings output: timings of the parallel and merge phase
+	 * @return columns of the metrics by Morton key of the cuboids
+	 */
+	public static MorphometryTable computeMorphometry(Map<String, Morphology> cells, float width_, float height_, float depth_, String type, List<? extends MorphometryMetric> metrics, DensityTimings timings) {
+		return await(DensityComputeService.getShared().submitMorphometry(cells, width_, height_, depth_, type, metrics, null, timings));
+	}
+
+	/**
+	 * @brief edge by edge computation of morphometry metrics, runs on the
+	 * pool of a DensityComputeService
+	 *
+	 * Each task fills its own table, the tables are added up in the order
+	 * of the tasks.
+	 * @see #computeMorphometry(Map, float, float, float, String, List)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param metrics
+	 * @param job cancellation, progress and timings
+	 * @param pool
+	 * @return columns of the metrics by Morton key of the cuboids
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static MorphometryTable computeMorphometryByTraversal(Map<String, Morphology> cells, float width_, float height_, float depth_, String type, final List<? extends MorphometryMetric> metrics, final DensityJob<?> job, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), width_, height_, depth_);
+		final int type_index = getTypeIndex(type);
+		final MorphometryMetric[] columns = metrics.toArray(new MorphometryMetric[metrics.size()]);
+		System.out.println("Sampling grid: " + grid);
+		System.out.println("Metrics: " + metrics);
+		int processors = pool.getParallelism();
+		System.out.println("Number of processors: " + processors);
+
+		/**
+		 * @brief thread, e. g. callable, which computes the metrics for
+		 * a chunk of one cell
+		 */
+		class PartialMorphometryComputer implements Callable<MorphometryTable>, VoxelTraversal.Visitor {
+
+			private final MorphometryTable table = new MorphometryTable(metrics);
+			private final Morphology cell;
+			private final int from;
+			private final int to;
+
+			/// the edge currently traversed
+			private int parent;
+			private int child;
+			private double edge_length;
+
+			public PartialMorphometryComputer(Morphology cell, int from, int to) {
+				this.cell = cell;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			@SuppressWarnings("ReturnOfCollectionOrArrayField")
+			public MorphometryTable call() {
+				Topology topology = cell.getTopology();
+				for (int i = from; i < to; i++) {
+					job.checkCancelled();
+					if (type_index >= 0 && type_index != cell.type[i]) {
+						continue;
+					}
+					int row = table.row(grid.keyOf(cell.x[i], cell.y[i], cell.z[i]));
+					for (int c = 0; c < columns.length; c++) {
+						table.add(row, c, (float) columns[c].node(cell, i, topology.getChildCount(i)));
+					}
+					parent = i;
+					for (int e = 0; e < topology.getChildCount(i); e++) {
+						child = topology.getChild(i, e);
+						double ex = cell.x[child] - cell.x[i];
+						double ey = cell.y[child] - cell.y[i];
+						double ez = cell.z[child] - cell.z[i];
+						edge_length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+						VoxelTraversal.traverse(grid, cell.x[i], cell.y[i], cell.z[i], cell.x[child], cell.y[child], cell.z[child], this);
+					}
+				}
+				job.taskDone();
+				return table;
+			}
+
+			@Override
+			public void visit(int i, int j, int k, double t0, double t1) {
+				/// one lookup for all metrics
+				int row = table.row(grid.key(i, j, k));
+				for (int c = 0; c < columns.length; c++) {
+					table.add(row, c, (float) columns[c].edge(cell, parent, child, edge_length, t0, t1));
+				}
+			}
+		}
+
+		int grain = getGrainSize(cells, processors);
+		ArrayList<Callable<MorphometryTable>> callables = new ArrayList<Callable<MorphometryTable>>();
+		for (Morphology morphology : cells.values()) {
+			if (morphology.size() > grain) {
+				morphology.getTopology();
+			}
+			for (int from = 0; from < morphology.size(); from += grain) {
+				callables.add(new PartialMorphometryComputer(morphology, from, Math.min(morphology.size(), from + grain)));
+			}
+		}
+		DensityTimings timings = job.getTimings();
+		timings.setTasks(callables.size());
+		timings.setAccumulation("sparse");
+		job.setTotal(callables.size());
+
+		/// perform parallel work
+		long startParallel = System.nanoTime();
+		List<Future<MorphometryTable>> results = pool.invokeAll(callables);
+		timings.setParallelNanos(System.nanoTime() - startParallel);
+		System.out.println("Parallel work [s]: " + timings.getParallelNanos() / 1e9);
+		job.checkCancelled();
+
+		long startMerge = System.nanoTime();
+		MorphometryTable table = new MorphometryTable(metrics);
+		for (Future<MorphometryTable> res : results) {
+			table.addAll(res.get());
+		}
+		timings.setMergeNanos(System.nanoTime() - startMerge);
+		timings.setShards(1);
+		System.out.println("Cuboids: " + table.size());
+		System.out.println("Merge work [s]: " + timings.getMergeNanos() / 1e9);
+		return table;
+	}
+
+	/**
+	 * @brief number of compartments processed by one task
+	 *
+	 * About TASKS_PER_PROCESSOR tasks per processor are created for the
+	 * whole stack, but a task handles at least MIN_GRAIN_SIZE compartments
+	 * since every task has its own accumulator which has to be merged.
+	 *
+	 * @param cells
+	 * @param processors
+	 * @return
+	 */
+	private static int getGrainSize(Map<String, Morphology> cells, int processors) {
+		long compartments = 0;
+		for (Morphology cell : cells.values()) {
+			compartments += cell.size();
+		}
+		long grain = (compartments + TASKS_PER_PROCESSOR * processors - 1) / (TASKS_PER_PROCESSOR * processors);
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_GRAIN_SIZE, grain));
+	}
+
+	/**
+	 * @brief computes the partial results of the cells, sums them up and
+	 * normalizes by the mean total dendritic length per cell
+	 *
+	 * The reduction is sharded by key and runs in parallel: the shards sum
+	 * their keys and total length over all partial results, then they are
+	 * joined into one map, dividing by the mean total length on the way.
+	 * Dense accumulators are summed in parallel over ranges of cuboids
+	 * instead, then the non-zero cuboids are collected. Callable t adds to
+	 * dense[slots[t]], the callables of a slot run one after another in
+	 * the order of the list, so the dense sums do not depend on the
+	 * scheduling (see chooseAccumulators for the price).
+	 *
+	 * @param executor
+	 * @param processors
+	 * @param callables partial results of the cells
+	 * @param cells number of cells
+	 * @param job cancellation, progress and timings
+	 * @param grid sampling grid
+	 * @param dense accumulators the callables add to by slot, null if they
+	 * return their partial results
+	 * @param slots slot by callable, see balance, null if dense is null
+	 * @param totals total dendritic length by callable, filled in by the
+	 * callables, normalizes instead of the sum of the partial results if
+	 * not null
+	 * @return densities
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static SparseDensityGrid computeAndReduce(ExecutorService executor, int processors, List<Callable<LongFloatHashMap>> callables, int cells, DensityJob<?> job, SamplingGrid grid, DenseAccumulator[] dense, int[] slots, double[] totals) throws InterruptedException, ExecutionException {
+		DensityTimings timings = job.getTimings();
+		timings.setTasks(callables.size());
+		job.setTotal(callables.size());
+
+		/// perform parallel work
+		long startParallel = System.nanoTime();
+		List<Future<LongFloatHashMap>> results = executor.invokeAll(dense != null ? bySlot(callables, slots, dense.length) : callables);
+		ArrayList<LongFloatHashMap> subresults = new ArrayList<LongFloatHashMap>(results.size());
+		for (Future<LongFloatHashMap> res : results) {
+			subresults.add(res.get());
+		}
+		timings.setParallelNanos(System.nanoTime() - startParallel);
+		timings.setQueries(job.getQueries());
+		timings.setCandidates(job.getCandidates());
+		System.out.println("Parallel work [s]: " + timings.getParallelNanos() / 1e9);
+		if (timings.getQueries() > 0) {
+			System.out.println("Candidate edges per cuboid query: " + (double) timings.getCandidates() / timings.getQueries());
+		}
+		job.checkCancelled();
+
+		long startMerge = System.nanoTime();
+		if (dense != null) {
+			double sum = DenseAccumulator.sumInto(dense, executor, processors);
+			if (totals != null) {
+				sum = 0;
+				for (double length : totals) {
+					sum += length;
+				}
+			}
+			float total_length = (float) (sum / cells);
+			SparseDensityGrid vals = dense[0].toSparse(grid, total_length);
+			timings.setMergeNanos(System.nanoTime() - startMerge);
+			timings.setShards(processors);
+
+			System.out.println("Total dendritic length [\\mu m]: " + total_length);
+			System.out.println("Non-zero cuboids: " + vals.size() + " in bricks: " + vals.getBrickCount());
+			System.out.println("Merge work [s]: " + timings.getMergeNanos() / 1e9);
+			return vals;
+		}
+
+		/// power of two number of shards, at least one per processor
+		LongFloatHashMap[] shards = new LongFloatHashMap[Integer.highestOneBit(Math.max(1, processors) * 2 - 1)];
+		double[] lengths = new double[shards.length];
+		LongFloatHashMap.sumSharded(subresults, shards, lengths, SparseDensityGrid.BRICK_BITS, executor);
+
+		/// total length
+		double sum = 0;
+		for (double length : totals != null ? totals : lengths) {
+			sum += length;
+		}
+		float total_length = (float) (sum / cells);
+
+		/// densities, bricks of sampling cuboids
+		SparseDensityGrid vals = SparseDensityGrid.join(shards, total_length, executor);
+		timings.setMergeNanos(System.nanoTime() - startMerge);
+		timings.setShards(shards.length);
+
+		System.out.println("Total dendritic length [\\mu m]: " + total_length);
+		System.out.println("Non-zero cuboids: " + vals.size() + " in bricks: " + vals.getBrickCount());
+		System.out.println("Merge work [s]: " + timings.getMergeNanos() / 1e9);
+		return vals;
+	}
+
+	/**
+	 * @brief chooses dense or sparse accumulation for a computation
+	 *
+	 * Dense accumulation needs one float per sampling cuboid and processor,
+	 * it is chosen if this fits the memory budget of the job. Otherwise the
+	 * tasks accumulate into hash maps of the occupied cuboids, whose number
+	 * is estimated from the edges. The choice and the estimated footprint
+	 * are logged and stored in the timings.
+	 *
+	 * Dense accumulation trades load balancing for reproducibility: float
+	 * sums depend on their order, so the tasks are assigned to the
+	 * accumulators up front (balance) and the tasks of an accumulator run
+	 * in list order on one worker, without work stealing between them. The
+	 * assignment evens out the estimated costs, but a single task larger
+	 * than the others, e. g. one huge cell of the search, still delays the
+	 * end of its accumulator. Sparse accumulation returns one map per task
+	 * and reduces them in list order, its tasks are stolen freely.
+	 *
+	 * @param cells
+	 * @param type_index type index, negative for all compartments
+	 * @param grid sampling grid
+	 * @param processors
+	 * @param job
+	 * @return one dense accumulator per processor, null for sparse
+	 * accumulation
+	 */
+	private static DenseAccumulator[] chooseAccumulators(Map<String, Morphology> cells, int type_index, SamplingGrid grid, int processors, DensityJob<?> job) {
+		long occupied = DenseAccumulator.estimateOccupied(cells.values(), type_index, grid);
+		long sparseBytes = occupied * DenseAccumulator.BYTES_PER_OCCUPIED_CUBOID;
+		long denseBytes = DenseAccumulator.footprint(grid, processors);
+		boolean dense = grid.getCellCount() <= DenseAccumulator.MAX_CUBOIDS && denseBytes <= job.getDenseBudget();
+		DensityTimings timings = job.getTimings();
+		timings.setAccumulation(dense ? (job.isDirectBuffers() ? "dense direct" : "dense") : "sparse");
+		timings.setEstimatedBytes(dense ? denseBytes : sparseBytes);
+		System.out.println("Accumulation: " + timings.getAccumulation() + ", estimated footprint [MB]: " + timings.getEstimatedBytes() / 1e6
+			+ " (dense: " + denseBytes / 1e6 + ", sparse: " + sparseBytes / 1e6 + ", budget: " + job.getDenseBudget() / 1e6
+			+ ", occupied cuboids: " + occupied + " of " + grid.getCellCount() + ")");
+		if (!dense) {
+			return null;
+		}
+		DenseAccumulator[] accumulators = new DenseAccumulator[processors];
+		for (int p = 0; p < processors; p++) {
+			accumulators[p] = new DenseAccumulator((int) grid.getCellCount(), job.isDirectBuffers());
+		}
+		return accumulators;
+	}
+
+	/**
+	 * @brief assigns tasks to the slots of the dense accumulators, the
+	 * most expensive task first to the least loaded slot
+	 *
+	 * The assignment depends on the estimated costs only, not on the
+	 * scheduling, so the dense sums stay reproducible.
+	 *
+	 * @param costs estimated cost by task
+	 * @param dense may be null
+	 * @return slot by task, null if dense is null
+	 */
+	private static int[] balance(final List<Long> costs, DenseAccumulator[] dense) {
+		if (dense == null) {
+			return null;
+		}
+		Integer[] order = new Integer[costs.size()];
+		for (int t = 0; t < order.length; t++) {
+			order[t] = t;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = costs.get(b).compareTo(costs.get(a));
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		int[] slots = new int[order.length];
+		long[] loads = new long[dense.length];
+		for (int t : order) {
+			int slot = 0;
+			for (int s = 1; s < loads.length; s++) {
+				if (loads[s] < loads[slot]) {
+					slot = s;
+				}
+			}
+			slots[t] = slot;
+			loads[slot] += costs.get(t);
+		}
+		return slots;
+	}
+
+	/**
+	 * @brief dense accumulator of the slot of a task
+	 * @param dense may be null
+	 * @param slots slot by task, see balance
+	 * @param task index of the task in the list of callables
+	 * @return dense[slots[task]], null if dense is null
+	 */
+	private static DenseAccumulator slot(DenseAccumulator[] dense, int[] slots, int task) {
+		return dense != null ? dense[slots[task]] : null;
+	}
+
+	/**
+	 * @brief one callable per slot which runs the callables of the slot
+	 * one after another in the order of the list
+	 *
+	 * A slot adds to its accumulator exclusively and always in the same
+	 * order, so the dense sums are reproducible.
+	 *
+	 * @param callables
+	 * @param slots slot by callable
+	 * @param count number of dense accumulators
+	 * @return
+	 */
+	private static List<Callable<LongFloatHashMap>> bySlot(final List<Callable<LongFloatHashMap>> callables, final int[] slots, int count) {
+		List<Callable<LongFloatHashMap>> runners = new ArrayList<Callable<LongFloatHashMap>>(count);
+		for (int s = 0; s < count; s++) {
+			final int slot = s;
+			runners.add(new Callable<LongFloatHashMap>() {
+				@Override
+				public LongFloatHashMap call() throws Exception {
+					for (int t = 0; t < callables.size(); t++) {
+						if (slots[t] == slot) {
+							callables.get(t).call();
+						}
+					}
+					return new LongFloatHashMap();
+				}
+			});
+		}
+		return runners;
+	}
+
+	/**
+	 * @brief waits for a density computation
+	 *
+	 * If the waiting thread is interrupted, e. g. since the invocation was
+	 * stopped from the VRL canvas, the computation is cancelled.
+	 *
+	 * @param job
+	 * @return densities
+	 * @throws CancellationException if the computation was cancelled or
+	 * the waiting thread interrupted
+	 */
+	private static <T> T await(DensityJob<T> job) {
+		try {
+			return job.get();
+		} catch (InterruptedException e) {
+			job.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Density computation was interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException("Density computation failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * @brief converts a density by Morton keys to sweep indices
+	 * @param density
+	 * @param grid
+	 * @return hashmap by sweep index (SamplingGrid.index)
+	 * @throws IllegalArgumentException if the grid has too many cuboids
+	 * for integer indices
+	 */
+	private static HashMap<Integer, Float> toSweepIndices(SparseDensityGrid density, SamplingGrid grid) {
+		if (!grid.hasIntegerIndices()) {
+			throw new IllegalArgumentException("Too many sampling cuboids for integer indices: " + grid);
+		}
+		HashMap<Integer, Float> vals = new HashMap<Integer, Float>(Math.max(16, density.size() * 2));
+		SparseDensityGrid.Cursor c = density.cursor();
+		while (c.next()) {
+			vals.put(grid.indexOfKey(c.key()), c.value());
+		}
 		return vals;
 	}
 
@@ -372,6 +1283,62 @@ public final class SWCUtility {
 	 * @param type
 	 */
 	public static HashMap<Integer, Float> computeDensity(HashMap<String, ArrayList<SWCCompartmentInformation>> cells, float width_, float height_, float depth_, final String type) {
+		HashMap<String, Morphology> morphologies = Morphology.fromStack(cells);
+		return toSweepIndices(computeDensity(morphologies, width_, height_, depth_, type),
+			SamplingGrid.fromBoundingBox(getBoundingBox(morphologies), width_, height_, depth_));
+	}
+
+	/**
+	 * @brief compute dendritic length in cuboid for morphologies
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 */
+	public static SparseDensityGrid computeDensity(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type) {
+		return computeDensity(cells, width_, height_, depth_, type, new DensityTimings());
+	}
+
+	/**
+	 * @brief compute dendritic length in cuboid for morphologies
+	 * @see #computeDensity(Map, float, float, float, String)
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param timings output: timings of the parallel and merge phase
+	 */
+	public static SparseDensityGrid computeDensity(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, DensityTimings timings) {
+		return await(DensityComputeService.getShared().submit(false, cells, width_, height_, depth_, type, null, timings));
+	}
+
+	/**
+	 * @brief density computation by segment index search, runs on the pool
+	 * of a DensityComputeService
+	 *
+	 * The edges of each cell are indexed by a uniform grid with cells of
+	 * the sampling cuboid size if the edges of the stack are short compared
+	 * to the cuboids, by a bounding volume hierarchy otherwise.
+	 * @see #computeDensity(Map, float, float, float, String)
+	 * @param cells
+	 * @param width_
+	 * @param height_
+	 * @param depth_
+	 * @param type
+	 * @param job cancellation, progress, timings and candidate counts
+	 * @param pool
+	 * @return sparse grid of the (normalized) dendritic length in each
+	 * sampling cuboid by Morton key of the cuboid (SamplingGrid.key)
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static SparseDensityGrid computeDensityBySearch(Map<String, Morphology> cells, float width_, float height_, float depth_, final String type, final DensityJob<?> job, ForkJoinPool pool) throws InterruptedException, ExecutionException {
 		/// get dimensions and bounding box and report
 		final Vector3f dims = SWCUtility.getDimensions(cells);
 		final Pair<Vector3f, Vector3f> bounding = SWCUtility.getBoundingBox(cells);
@@ -382,77 +1349,79 @@ public final class SWCUtility {
 		final float width = width_;
 		final float height = height_;
 		final float depth = depth_;
+		final int type_index = getTypeIndex(type);
+
+		/// choose the segment index by the number of grid cells an edge covers
+		double cellsPerSegment = SegmentGrid.meanCellsPerSegment(cells.values(), type_index, width, height, depth);
+		final boolean uniform = cellsPerSegment <= SegmentGrid.MAX_MEAN_CELLS_PER_SEGMENT;
+		job.getTimings().setIndex(uniform ? SegmentGrid.class.getSimpleName() : SegmentBVH.class.getSimpleName());
+		System.out.println("Segment index: " + job.getTimings().getIndex() + " (grid cells per edge: " + cellsPerSegment + ")");
+
+		// the pool runs at most its parallelism threads at a time to
+		// calculate the partial density (Callable PartialDensityComputer)
+		int processors = pool.getParallelism();
+		System.out.println("Number of processors: " + processors);
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(bounding, width, height, depth);
+		final DenseAccumulator[] dense = chooseAccumulators(cells, type_index, grid, processors, job);
 
 		/**
 		 * @brief thread, e. g. callable, which computes for one cell
 		 * the dendritic length in each cuboid
-		 * @todo performance penalties: i. build kdtree and operations
-		 * on kdtree (maybe we don't need the kdtree, this could
-		 * probably the case if we have geometries with a few edges!)
-		 * ii. intersection algorithms iii. hashmap as sparse data
-		 * structure, maybe we should chose some structure from the
-		 * linear algebra for java package, cf. below
-		 * @see la4j package @ http://la4j.org/
-		 * @see profiler @ https://profiler.netbeans.org/
+		 * @todo performance penalties: i. the cuboids of the whole
+		 * bounding box are queried, also the empty ones ii. intersection
+		 * algorithms
 		 */
-		class PartialDensityComputer implements Callable<HashMap<Integer, Float>> {
+		class PartialDensityComputer implements Callable<LongFloatHashMap> {
 
 			/// store lengthes in the cuboids and the cell itself
-			private volatile HashMap<Integer, Float> lengths = new HashMap<Integer, Float>();
-			private volatile Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell;
-
-			/// note: characteristic edge length (arithmetic mean for now, could use min, max instead too)
-			private volatile float lambda_x = 0.f;
-			private volatile float lambda_y = 0.f;
-			private volatile float lambda_z = 0.f;
+			private final LongFloatHashMap lengths = new LongFloatHashMap();
+			private final Morphology cell;
+			/// dense accumulator of the slot of the task, null if sparse
+			private final DenseAccumulator accumulator;
 
 			/**
 			 * @brief def ctor
 			 */
-			public PartialDensityComputer(Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell) {
+			public PartialDensityComputer(Morphology cell, DenseAccumulator accumulator) {
 				this.cell = cell;
+				this.accumulator = accumulator;
 			}
 
 			@Override
 			@SuppressWarnings("ReturnOfCollectionOrArrayField")
-			public HashMap<Integer, Float> call() {
-				/// preprocess, determine characteristic edge length (one can chose also something different)
-				int size = 0;
-				HashMap<Vector3f, ArrayList<Vector3f>> incidents = getIndicents(cell.getValue(), type);
-				//ArrayList<Float> e_lengths = new ArrayList<Float>(incidents.size());
-				for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : incidents.entrySet()) {
-					ArrayList<Vector3f> vecs = entry.getValue();
-					size += vecs.size();
-					for (Vector3f vec : vecs) {
-						Vector3f temp = new Vector3f(entry.getKey());
-						temp.sub(vec);
-						lambda_x += Math.abs(temp.x);
-						lambda_y += Math.abs(temp.y);
-						lambda_z += Math.abs(temp.z);
-					}
-				}
-				lambda_x /= (size - incidents.size());
-				lambda_y /= (size - incidents.size());
-				lambda_z /= (size - incidents.size());
-
-				System.out.println("Characteristic edge length for x-coordinate [\\mu m]: " + lambda_x);
-				System.out.println("Characteristic edge length for y-coordinate [\\mu m]: " + lambda_y);
-				System.out.println("Characteristic edge length for z-coordinate [\\mu m]: " + lambda_z);
-
-				/// create a kd tree for the geometry, attach to leaf all compartment nodes
-				/// each lead node gets attached the vertices which are connected to the
-				/// leaf node with and edge (getIncidents)
-				KDTree<ArrayList<Vector3f>> tree = buildKDTree(incidents);
+			public LongFloatHashMap call() {
+				sweep(accumulator);
+				job.taskDone();
+				return lengths;
+			}
 
-				/// iterate with the width, height, depth over the bounding box of the cells
+			/**
+			 * @brief queries the cuboids of the whole bounding box
+			 * @param accumulator dense accumulator, null to store
+			 * the lengths in the hashmap
+			 */
+			private void sweep(DenseAccumulator accumulator) {
+				/// index the boxes of the edges, a query returns every edge
+				/// whose box overlaps the cuboid, no matter how long the edge is
+				SegmentIndex index = uniform
+					? SegmentGrid.build(cell, type_index, width, height, depth)
+					: SegmentBVH.build(cell, type_index);
+				IndexBuffer hits = new IndexBuffer();
+				long queries = 0;
+				long candidates = 0;
+
+				/// iterate with the width, height, depth over the cuboids of the grid covering the cells
 				/// note, that the cuboids get created explicit, which may not be necessary
-				/// note: it could be more efficient to iterate instead over the BoundingBoxes of each Edge
-				///       then we need an indexing scheme for inserting into a hashmap since the number of
-				///       boxes can be very large, i. e. > 10e9 boxes need to be the same for every geometry!
-				int cube_index = 0;
-				for (float x = bounding.getSecond().x; x < bounding.getFirst().x; x += width) {
-					for (float y = bounding.getSecond().y; y < bounding.getFirst().y; y += height) {
-						for (float z = bounding.getSecond().z; z < bounding.getFirst().z; z += depth) {
+				int i = 0;
+				for (float x = grid.getX(); x < bounding.getFirst().x; x += width, i++) {
+					int j = 0;
+					for (float y = grid.getY(); y < bounding.getFirst().y; y += height, j++) {
+						int k = 0;
+						for (float z = grid.getZ(); z < bounding.getFirst().z; z += depth, k++) {
+							/// a slab of small cuboids takes seconds, poll within it
+							if ((queries & (CANCEL_POLL_QUERIES - 1)) == 0) {
+								job.checkCancelled();
+							}
 							/*
 							 *              
 							 *            p5 .... p6    
@@ -466,113 +1435,44 @@ public final class SWCUtility {
 							 *
 							 *
 							 */
-							double[] upper = {x + width + lambda_x, y + height + lambda_y, z + depth + lambda_z};
-							double[] lower = {x - lambda_x, y - lambda_y, z - lambda_z};
-
-							List<ArrayList<Vector3f>> temps = new ArrayList<ArrayList<Vector3f>>();
-
-							/// speed bottleneck is here the kdtree obvious
-							/// note: that up to 1,000,000,000 iterations it's quite fine
-							/// and done within 13 seconds (when using #procs geometries)
-							/// but if we go to 1,000,000,000,000 i. e. sampling cube
-							/// sizes of 0.001 in geometry units it gets slow...
-							try {
-								temps = tree.range(lower, upper);
-							} catch (KeySizeException e) {
-								System.err.println("Keysize exception: " + e);
-							}
+							/// determine the amount of the candidate edges in each sampling cube
+							float length = index.clippedLength(x, y, z, x + width, y + height, z + depth, hits);
+							queries++;
+							candidates += hits.size();
 
-							float length = 0.f;
-
-							/// a list of all edges within the bigger sampling cube bounding box
-							for (ArrayList<Vector3f> elem : temps) {
-								/// starting vertex is the last in attached metadata ArrayList
-								Vector3f starting_vertex = new Vector3f(elem.get(elem.size() - 1));
-
-								/// determine the amount of edge in each sampling cube
-								length += EdgeSegmentWithinCuboid(
-									x, y, z, width, height, depth,
-									starting_vertex, elem);
-							}
-
-							/// if length is not zero in this cube, add it to the hashmap with cube_index
+							/// if length is not zero in this cube, add it to the hashmap with its Morton key
 							if (length != 0) {
-								lengths.put(cube_index, length);
+								if (accumulator != null) {
+									accumulator.add(grid.index(i, j, k), length);
+								} else {
+									lengths.put(CuboidUtility.mortonEncode(i, j, k), length);
+								}
 							}
-							cube_index++;
 						}
 					}
 				}
-				return lengths;
+				job.addCandidates(queries, candidates);
 			}
 		}
 
-		// take number of available processors and create a fixed thread pool,
-		// the executor executes then at most the number of available processors
-		// threads to calculate the partial density (Callable PartialDensityComputer)
-		int processors = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(processors);
-		System.out.println("Number of processors: " + processors);
-
-		ArrayList<Callable<HashMap<Integer, Float>>> callables = new ArrayList<Callable<HashMap<Integer, Float>>>();
-		for (Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell : cells.entrySet()) {
-			Callable<HashMap<Integer, Float>> c = new PartialDensityComputer(cell);
-			callables.add(c);
+		/// every cell queries all cuboids, the cost of a query grows with the edges
+		ArrayList<Long> costs = new ArrayList<Long>();
+		for (Morphology cell : cells.values()) {
+			costs.add((long) cell.size());
 		}
-
-		HashMap<Integer, Float> vals = new HashMap<Integer, Float>();
-		try {
-			/// perform parallel work
-			long millisecondsStartParallel = System.currentTimeMillis();
-			List<Future<HashMap<Integer, Float>>> results = executor.invokeAll(callables);
-			ArrayList<HashMap<Integer, Float>> subresults = new ArrayList<HashMap<Integer, Float>>();
-			for (Future<HashMap<Integer, Float>> res : results) {
-				subresults.add(res.get());
-			}
-			executor.shutdown();
-			long timeSpentInMillisecondsParallel = System.currentTimeMillis() - millisecondsStartParallel;
-			System.out.println("Parallel work [s]: " + timeSpentInMillisecondsParallel / 1000.0);
-
-			long millisecondsStartSerial = System.currentTimeMillis();
-			/// serial summation. note, the below could also be done in parallel somehow
-			for (HashMap<Integer, Float> result : subresults) {
-				for (Map.Entry<Integer, Float> map_entry : result.entrySet()) {
-					if (vals.containsKey(map_entry.getKey())) {
-						vals.put(map_entry.getKey(), map_entry.getValue() + vals.get(map_entry.getKey()));
-					} else {
-						vals.put(map_entry.getKey(), map_entry.getValue());
-					}
-				}
-			}
-
-			/// total length
-			float total_length = 0;
-			for (Map.Entry<Integer, Float> entry : vals.entrySet()) {
-				total_length += entry.getValue() / cells.size();
-			}
-
-			/// densities
-			for (Map.Entry<Integer, Float> entry : vals.entrySet()) {
-				entry.setValue(entry.getValue() / total_length);
-			}
-
-			System.out.println("Total dendritic length [\\mu m]: " + total_length);
-
-			System.out.println("Non-zero cuboids: " + vals.size());
-			long timeSpentInMillisecondsSerial = System.currentTimeMillis() - millisecondsStartSerial;
-			System.out.println("Serial work [s]: " + timeSpentInMillisecondsSerial / 1000.0);
-
-		} catch (ExecutionException e) {
-			System.err.println(e);
-		} catch (InterruptedException e) {
-			System.err.println(e);
+		int[] slots = balance(costs, dense);
+		ArrayList<Callable<LongFloatHashMap>> callables = new ArrayList<Callable<LongFloatHashMap>>();
+		for (Morphology cell : cells.values()) {
+			Callable<LongFloatHashMap> c = new PartialDensityComputer(cell, slot(dense, slots, callables.size()));
+			callables.add(c);
 		}
-		return vals;
+		return computeAndReduce(pool, processors, callables, cells.size(), job, grid, dense, slots, null);
 	}
 
 	/**
-	 * @brief @todo check if this is correct -> introduce JUnit Tests. case
-	 * 1 is verified, case 2, 3 needs to be verified
+	 * @brief length of the edges from p1 to the end vertices within the
+	 * sampling cuboid
+	 * @see SegmentClipper#clippedLength
 	 * @param x
 	 * @param y
 	 * @param z
@@ -583,106 +1483,14 @@ public final class SWCUtility {
 	 * @param end_vertices
 	 * @return
 	 */
-	public static float EdgeSegmentWithinCuboid(float x, float y, float z, float width, float height, float depth, Vector3f p1, ArrayList<Vector3f> end_vertices) {
+	public static float EdgeSegmentWithinCuboid(float x, float y, float z, float width, float height, float depth, Vector3f p1, List<Vector3f> end_vertices) {
+		final float x2 = x + width;
+		final float y2 = y + height;
+		final float z2 = z + depth;
 		float length = 0.f;
-		for (Vector3f p2 : end_vertices) {
-			/// Case 1: Both vertices inside cube (verified to work)
-			if (((p1.x <= x + width && p1.x >= x)
-				&& (p1.y <= y + height && p1.y >= y)
-				&& (p1.z <= z + depth && p1.z >= z))
-				&& ((p2.x <= x + width && p2.x >= x)
-				&& (p2.y <= y + height && p2.y >= y)
-				&& (p2.z <= z + depth && p2.z >= z))) {
-				Vector3f temp = new Vector3f(p1);
-				temp.sub(p2);
-				length += temp.length();
-				/*if (temp.length() > Math.sqrt(width*width +height*height + depth*depth)) {
-				 System.err.println("erroneous segment!");
-				 } else {
-				 length += temp.length();
-				 }*/
-				/// Case 2: One vertex inside the cube (p1 in, p2 out) (dominates if the sampling cube is of the size of the largest edge length in the geometry
-			} else if (((p2.x > x + width || p2.x < x)
-				|| (p2.y > y + height || p2.y < y)
-				|| (p2.z > z + depth || p2.z < z))
-				&& (((p1.x <= x + width && p1.x >= x)
-				&& (p1.y <= y + height && p1.y >= y)
-				&& (p1.z <= z + depth && p1.z >= z)))) {
-				Vector3f dir = new Vector3f(p2);
-				dir.sub(p1);
-				Pair<Boolean, Pair<Float, Float>> res = RayBoxIntersection(p1, dir, new Vector3f(x, y, z), new Vector3f(x + width, y + height, z + depth));
-				if (res.getFirst()) {
-					Vector3f x1 = new Vector3f(p1);
-					Vector3f scaled1 = new Vector3f(dir);
-					scaled1.scale(res.getSecond().getFirst());
-					x1.add(scaled1);
-					Vector3f segment = new Vector3f(x1);
-					segment.sub(p1);
-					length += segment.length();
-					/*if (segment.length() > Math.sqrt(width*width +height*height + depth*depth)) {
-					 System.err.println("erroneous segment!");
-					 } else {
-					 length += segment.length();
-					 }*/
-				}
-				/// Case 2: One vertex inside cube (p1 out, p2 in)
-			} else if (((p1.x > x + width || p1.x < x)
-				|| (p1.y > y + height || p1.y < y)
-				|| (p1.z > z + depth || p1.z < z))
-				&& (((p2.x <= x + width && p2.x >= x)
-				&& (p2.y <= y + height && p2.y >= y)
-				&& (p2.z <= z + depth && p2.z >= z)))) {
-				Vector3f dir = new Vector3f(p1);
-				dir.sub(p2);
-				Pair<Boolean, Pair<Float, Float>> res = RayBoxIntersection(p2, dir, new Vector3f(x, y, z), new Vector3f(x + width, y + height, z + depth));
-				if (res.getFirst()) {
-					Vector3f x1 = new Vector3f(p2);
-					Vector3f scaled_dir = new Vector3f(dir);
-					scaled_dir.scale(res.getSecond().getFirst());
-					x1.add(scaled_dir);
-					Vector3f segment = new Vector3f(x1);
-					segment.sub(p2);
-					length += segment.length();
-					/*if (segment.length() > Math.sqrt(width*width +height*height + depth*depth)) {
-					 System.err.println("Erroneous segment!");
-					 } else {
-					 length += segment.length();
-					 }*/
-				}
-				/// Case 3: End vertex and start vertex outside of the sampling cube, i. e. p1 and p2 outside (dominates if the sampling cube is very small) 
-			} else if (((p1.x > x + width || p1.x < x)
-				|| (p1.y > y + height || p1.y < y)
-				|| (p1.z > z + depth || p1.z < z))
-				&& ((p2.x > x + width || p2.x < x)
-				|| (p2.y > y + height || p2.y < y)
-				|| (p2.z > z + depth || p2.z < z))) {
-				Vector3f dir = new Vector3f(p2);
-				dir.sub(p1);
-				Pair<Boolean, Pair<Float, Float>> res = LineBoxIntersection(p1, p2, new Vector3f(x, y, z), new Vector3f(x + width, y + height, z + depth));
-				if (res.getFirst()) {
-					Vector3f x1 = new Vector3f(p2);
-					Vector3f x2 = new Vector3f(p2);
-					Vector3f scaled1 = new Vector3f(dir);
-					Vector3f scaled2 = new Vector3f(dir);
-
-					scaled1.scale(res.getSecond().getFirst());
-					scaled2.scale(res.getSecond().getSecond());
-
-					/// get intersection points
-					x1.add(scaled1);
-					x2.add(scaled2);
-
-					/// determine segment
-					Vector3f segment = new Vector3f(x2);
-					segment.sub(x1);
-					length += segment.length();
-					/*if (segment.length() > Math.sqrt(width*width +height*height + depth*depth)) {
-					 System.err.println("Erroneous segment!");
-					 } else {
-					 length += segment.length();
-					 }*/
-				}
-			}
+		for (int i = 0; i < end_vertices.size(); i++) {
+			Vector3f p2 = end_vertices.get(i);
+			length += SegmentClipper.clippedLength(p1.x, p1.y, p1.z, p2.x, p2.y, p2.z, x, y, z, x2, y2, z2);
 		}
 		return length;
 	}
@@ -696,6 +1504,18 @@ public final class SWCUtility {
 		return type.replace(" ", "_").replace("(", "").replace(")", "").toUpperCase();
 	}
 
+	/**
+	 * @brief compartment type of a selection
+	 * @param type
+	 * @return ordinal of the type or -1 for all types
+	 */
+	static int getTypeIndex(String type) {
+		if (DEFAULT_SELECTION.equalsIgnoreCase(type)) {
+			return -1;
+		}
+		return SWCCompartmentType.valueOf(get_clean_choice(type)).ordinal();
+	}
+
 	/**
 	 * @brief get a selection of incidents
 	 * @param cell
@@ -703,64 +1523,66 @@ public final class SWCUtility {
 	 * @return
 	 */
 	public static HashMap<Vector3f, ArrayList<Vector3f>> getIndicents(final ArrayList<SWCCompartmentInformation> cell, String type) {
-		// get clean type string
-		String type_clean = get_clean_choice(type);
-		// get index
-		int index = SWCCompartmentType.valueOf(type_clean).ordinal();
-
-		if (DEFAULT_SELECTION.equalsIgnoreCase(type)) {
-			return getIndicents(cell);
-		} else {
-			final HashMap<Vector3f, ArrayList<Vector3f>> incidents = new HashMap<Vector3f, ArrayList<Vector3f>>(cell.size());
-			for (SWCCompartmentInformation info : cell) {
-				ArrayList<Vector3f> temp = new ArrayList<Vector3f>();
-				Vector3f v0 = info.getCoordinates();
-				for (SWCCompartmentInformation info2 : cell) {
-					if (info.getIndex() == info2.getConnectivity().getSecond() - 1) {
-						if (index == info.getType()) {
-							temp.add(info2.getCoordinates());
-						}
-					}
-				}
-				temp.add(v0); // starting vertex: this could be improved certainly
-				incidents.put(v0, temp);
-			}
-			return incidents;
-		}
+		return getIndicents(Morphology.fromCompartments(cell), type);
 	}
 
 	/**
 	 * @brief get all incident vertices
-	 * @todo see implementation notes concerning speedup of computation
 	 * @param cell
 	 * @return
 	 */
 	public static HashMap<Vector3f, ArrayList<Vector3f>> getIndicents(final ArrayList<SWCCompartmentInformation> cell) {
-		final HashMap<Vector3f, ArrayList<Vector3f>> incidents = new HashMap<Vector3f, ArrayList<Vector3f>>(cell.size());
-		for (SWCCompartmentInformation info : cell) {
-			ArrayList<Vector3f> temp = new ArrayList<Vector3f>();
-			Vector3f v0 = info.getCoordinates();
-			for (SWCCompartmentInformation info2 : cell) {
-				if (info.getIndex() == info2.getConnectivity().getSecond() - 1) {
-					temp.add(info2.getCoordinates());
+		return getIndicents(Morphology.fromCompartments(cell));
+	}
+
+	/**
+	 * @brief get a selection of incidents of a morphology
+	 * @param cell
+	 * @param type
+	 * @return
+	 */
+	public static HashMap<Vector3f, ArrayList<Vector3f>> getIndicents(final Morphology cell, String type) {
+		return getIndicents(cell, getTypeIndex(type));
+	}
+
+	/**
+	 * @brief get all incident vertices of a morphology
+	 * @param cell
+	 * @return
+	 */
+	public static HashMap<Vector3f, ArrayList<Vector3f>> getIndicents(final Morphology cell) {
+		return getIndicents(cell, -1);
+	}
+
+	/**
+	 * @brief get incident vertices, i. e. for each compartment the children
+	 * followed by the compartment itself (starting vertex)
+	 * @see Topology
+	 * @param cell
+	 * @param type only children of compartments of this type are
+	 * collected, -1 collects all children
+	 * @return
+	 */
+	private static HashMap<Vector3f, ArrayList<Vector3f>> getIndicents(final Morphology cell, int type) {
+		final int n = cell.size();
+		final Topology topology = cell.getTopology();
+		final HashMap<Vector3f, ArrayList<Vector3f>> incidents = new HashMap<Vector3f, ArrayList<Vector3f>>(n * 2);
+		for (int i = 0; i < n; i++) {
+			Vector3f v0 = cell.getCoordinates(i);
+			ArrayList<Vector3f> temp;
+			if (type < 0 || type == cell.type[i]) {
+				int children = topology.getChildCount(i);
+				temp = new ArrayList<Vector3f>(children + 1);
+				for (int k = 0; k < children; k++) {
+					temp.add(cell.getCoordinates(topology.getChild(i, k)));
 				}
+			} else {
+				temp = new ArrayList<Vector3f>(1);
 			}
-			temp.add(v0); // starting vertex: this could be improved certainly
+			temp.add(v0); // starting vertex
 			incidents.put(v0, temp);
 		}
 		return incidents;
-		/// split into initializing phase (init keys of ArrayList<ArrayList<Vector3f>> to v0)
-		/// and a populating phase (i. e. add to ArrayList the incident to V0) to get rid of O(n^2) for loop
-		/// if necessary in the future (then we need to make the convention, that the arraylist is ordered
-		/// in the same way as the compartments are appearing in the single swc file...
-		/*
-		 // init phase
-		 ArrayList<ArrayList<Vector3f>> incidents2 = new ArrayList<ArrayList<Vector3f>>(cell.size());
-		 // populate phase
-		 for (SWCCompartmentInformation info : cell) {
-		 incidents2.get(info.getConnectivity().getSecond()).add(info.getCoordinates());
-		 }
-		 */
 	}
 
 	/**
@@ -768,25 +1590,25 @@ public final class SWCUtility {
 	 * @param cell
 	 * @return the newly created kd tree
 	 */
-	public static KDTree<ArrayList<Vector3f>> buildKDTree(final HashMap<Vector3f, ArrayList<Vector3f>> cell) {
-		KDTree<ArrayList<Vector3f>> kd = new KDTree<ArrayList<Vector3f>>(3);
-		try {
-			for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : cell.entrySet()) {
-				Vector3f vec = entry.getKey();
-				double[] key = {vec.x, vec.y, vec.z};
-				kd.insert(key, entry.getValue());
-			}
-		} catch (KeyDuplicateException e) {
-			System.err.println(e);
-		} catch (KeySizeException e) {
-			System.err.println(e);
+	public static StaticKDTree<ArrayList<Vector3f>> buildKDTree(final HashMap<Vector3f, ArrayList<Vector3f>> cell) {
+		int n = cell.size();
+		float[] x = new float[n];
+		float[] y = new float[n];
+		float[] z = new float[n];
+		ArrayList<ArrayList<Vector3f>> values = new ArrayList<ArrayList<Vector3f>>(n);
+		for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : cell.entrySet()) {
+			Vector3f vec = entry.getKey();
+			x[values.size()] = vec.x;
+			y[values.size()] = vec.y;
+			z[values.size()] = vec.z;
+			values.add(entry.getValue());
 		}
-		return kd;
+		return new StaticKDTree<ArrayList<Vector3f>>(x, y, z, values);
 	}
 
 	/**
 	 * @brief computes intersection between ray and box
-	 * @note however we can use SwappablePair implementation to swap pairs
+	 * @see SegmentClipper#intersectRay
 	 * @param rayFrom
 	 * @param rayDir
 	 * @param boxMin
@@ -794,118 +1616,15 @@ public final class SWCUtility {
 	 * @return
 	 */
 	public static Pair<Boolean, Pair<Float, Float>> RayBoxIntersection(Vector3f rayFrom, Vector3f rayDir, Vector3f boxMin, Vector3f boxMax) {
-
-		float t1, t2;
-		boolean bMinMaxSet = false;
-		float eps = 1.0e-6f;
-		float tMin = -1f, tMax = -1f;
-		float tNearOut = 0, tFarOut = 0;
-
-		if (Math.abs(rayDir.x) > eps) {
-			t1 = (boxMin.x - rayFrom.x) / rayDir.x;
-			t2 = (boxMax.x - rayFrom.x) / rayDir.x;
-			if (t1 > t2) {
-				float temp = t1;
-				t1 = t2;
-				t2 = temp;
-			}
-			tMin = t1;
-			tMax = t2;
-			bMinMaxSet = true;
-		} else {
-			if (rayFrom.x < boxMin.x) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-			if (rayFrom.x > boxMax.x) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-		}
-
-		if (Math.abs(rayDir.y) > eps) {
-			t1 = (boxMin.y - rayFrom.y) / rayDir.y;
-			t2 = (boxMax.y - rayFrom.y) / rayDir.y;
-			if (t1 > t2) {
-				float temp = t1;
-				t1 = t2;
-				t2 = temp;
-			}
-			if (bMinMaxSet) {
-				if ((t1 <= tMax) && (t2 >= tMin)) {
-					tMin = Math.max(t1, tMin);
-					tMax = Math.min(t2, tMax);
-				} else {
-					return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-				}
-			} else {
-				tMin = t1;
-				tMax = t2;
-			}
-			bMinMaxSet = true;
-		} else {
-			if (rayFrom.y < boxMin.y) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-			if (rayFrom.y > boxMax.y) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-		}
-
-		if (Math.abs(rayDir.z) > eps) {
-			t1 = (boxMin.z - rayFrom.z) / rayDir.z;
-			t2 = (boxMax.z - rayFrom.z) / rayDir.z;
-			if (t1 > t2) {
-				float temp = t1;
-				t1 = t2;
-				t2 = temp;
-			}
-			if (bMinMaxSet) {
-				if ((t1 <= tMax) && (t2 >= tMin)) {
-					tMin = Math.max(t1, tMin);
-					tMax = Math.min(t2, tMax);
-				} else {
-					return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-				}
-			} else {
-				tMin = t1;
-				tMax = t2;
-			}
-			bMinMaxSet = true;
-		} else {
-			if (rayFrom.z < boxMin.z) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-			if (rayFrom.z > boxMax.z) {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(-1f, -1f));
-			}
-		}
-
-		if (bMinMaxSet) {
-			if (Math.abs(tMin) > Math.abs(tMax)) {
-				float temp = tMin;
-				tMin = tMax;
-				tMax = temp;
-			}
-			tNearOut = tMin;
-			tFarOut = tMax;
-			return new Pair<Boolean, Pair<Float, Float>>(true, new Pair<Float, Float>(tNearOut, tFarOut));
-		} else {
-			if (BoxProbe(rayFrom, boxMin, boxMax)) {
-				if (tNearOut != 0) {
-					tNearOut = 0;
-				}
-				if (tFarOut != 0) {
-					tFarOut = 0;
-				}
-
-				return new Pair<Boolean, Pair<Float, Float>>(true, new Pair<Float, Float>(tNearOut, tFarOut));
-			} else {
-				return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(0.f, 0.f));
-			}
-		}
+		float[] t = new float[2];
+		boolean hit = SegmentClipper.intersectRay(rayFrom.x, rayFrom.y, rayFrom.z, rayDir.x, rayDir.y, rayDir.z,
+			boxMin.x, boxMin.y, boxMin.z, boxMax.x, boxMax.y, boxMax.z, t);
+		return new Pair<Boolean, Pair<Float, Float>>(hit, new Pair<Float, Float>(t[0], t[1]));
 	}
 
 	/**
 	 * @brief calculates the intersection between line and box
+	 * @see SegmentClipper#intersectSegment
 	 * @param v1
 	 * @param v2
 	 * @param boxMin
@@ -913,17 +1632,10 @@ public final class SWCUtility {
 	 * @return
 	 */
 	public static Pair<Boolean, Pair<Float, Float>> LineBoxIntersection(Vector3f v1, Vector3f v2, Vector3f boxMin, Vector3f boxMax) {
-		Vector3f dir = new Vector3f(v2);
-		dir.sub(v1);
-		Pair<Boolean, Pair<Float, Float>> res = RayBoxIntersection(v1, dir, boxMin, boxMax);
-		if (res.getFirst()) {
-			float tNear = res.getSecond().getFirst();
-			float tFar = res.getSecond().getSecond();
-			if ((tNear >= 0 && tNear <= 1.0) && (tFar >= 0 && tNear <= 1.0)) {
-				return res;
-			}
-		}
-		return new Pair<Boolean, Pair<Float, Float>>(false, new Pair<Float, Float>(0f, 0f));
+		float[] t = new float[2];
+		boolean hit = SegmentClipper.intersectSegment(v1.x, v1.y, v1.z, v2.x, v2.y, v2.z,
+			boxMin.x, boxMin.y, boxMin.z, boxMax.x, boxMax.y, boxMax.z, t);
+		return new Pair<Boolean, Pair<Float, Float>>(hit, new Pair<Float, Float>(t[0], t[1]));
 	}
 
 	/**
@@ -934,19 +1646,7 @@ public final class SWCUtility {
 	 * @return
 	 */
 	public static boolean BoxProbe(Vector3f rayFrom, Vector3f boxMin, Vector3f boxMax) {
-		if (rayFrom.x < boxMin.x || rayFrom.x > boxMax.x) {
-			return false;
-		}
-
-		if (rayFrom.y < boxMin.y || rayFrom.y > boxMax.y) {
-			return false;
-		}
-
-		if (rayFrom.z < boxMin.z || rayFrom.z > boxMax.z) {
-			return false;
-		}
-
-		return true;
+		return SegmentClipper.contains(rayFrom.x, rayFrom.y, rayFrom.z, boxMin.x, boxMin.y, boxMin.z, boxMax.x, boxMax.y, boxMax.z);
 	}
 
 	/**
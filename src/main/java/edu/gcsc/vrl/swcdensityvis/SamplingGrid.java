@@ -0,0 +1,207 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import eu.mihosoft.vrl.reflection.Pair;
+import javax.vecmath.Vector3f;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @brief regular grid of sampling cuboids
+ *
+ * Cuboid (i, j, k) spans [x + i * width, x + (i+1) * width] and likewise in
+ * y and z. Cuboids are identified by the 64 bit Morton key of (i, j, k),
+ * see CuboidUtility.mortonEncode, which allows for up to 2^21 cuboids per
+ * axis. For compatibility cuboids also have an index in the order of the
+ * sweep of computeDensity, i. e. x outermost and z innermost:
+ * index = (i * ny + j) * nz + k, which is limited to 2^31 cuboids.
+ *
+ * @author stephan
+ */
+@ToString @EqualsAndHashCode @Getter
+public final class SamplingGrid {
+
+	/// origin (lower corner) of the grid
+	private final float x;
+	private final float y;
+	private final float z;
+
+	/// sampling cuboid dimensions
+	private final float width;
+	private final float height;
+	private final float depth;
+
+	/// number of cuboids per axis
+	private final int nx;
+	private final int ny;
+	private final int nz;
+
+	/**
+	 * @brief ctor
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param nx
+	 * @param ny
+	 * @param nz
+	 */
+	public SamplingGrid(float x, float y, float z, float width, float height, float depth, int nx, int ny, int nz) {
+		if (!(width > 0 && height > 0 && depth > 0)) {
+			throw new IllegalArgumentException("Sampling cuboid dimensions must be positive.");
+		}
+		if (nx < 0 || ny < 0 || nz < 0) {
+			throw new IllegalArgumentException("Number of sampling cuboids must not be negative.");
+		}
+		if (nx > CuboidUtility.MORTON_MAX + 1 || ny > CuboidUtility.MORTON_MAX + 1 || nz > CuboidUtility.MORTON_MAX + 1) {
+			throw new IllegalArgumentException("At most " + (CuboidUtility.MORTON_MAX + 1) + " sampling cuboids per axis are supported.");
+		}
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+	}
+
+	/**
+	 * @brief grid covering a bounding box as swept by computeDensity
+	 *
+	 * The origin is snapped to the lattice of cuboids anchored at the
+	 * global origin, i. e. cuboid g along an axis spans [g * size,
+	 * (g+1) * size] no matter which cells are in the stack. So the cuboids
+	 * of a cell do not move when cells are added to or removed from the
+	 * stack, see SWCDensityCache.
+	 *
+	 * @param bounding pair max min coordinates 3d
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @return
+	 */
+	public static SamplingGrid fromBoundingBox(Pair<Vector3f, Vector3f> bounding, float width, float height, float depth) {
+		if (!(width > 0 && height > 0 && depth > 0)) {
+			throw new IllegalArgumentException("Sampling cuboid dimensions must be positive.");
+		}
+		Vector3f max = bounding.getFirst();
+		Vector3f min = bounding.getSecond();
+		float x = snap(min.x, width);
+		float y = snap(min.y, height);
+		float z = snap(min.z, depth);
+		return new SamplingGrid(x, y, z, width, height, depth,
+			count(x, max.x, width), count(y, max.y, height), count(z, max.z, depth));
+	}
+
+	/**
+	 * @brief lower corner of the lattice cuboid containing a coordinate
+	 * @param v
+	 * @param step
+	 * @return floor(v / step) * step, never above v
+	 */
+	private static float snap(float v, float step) {
+		double g = Math.floor(v / (double) step);
+		float corner = (float) (g * step);
+		return corner > v ? (float) ((g - 1) * step) : corner;
+	}
+
+	/**
+	 * @brief number of steps of the sweep for (v = min; v < max; v += step)
+	 * @param min
+	 * @param max
+	 * @param step
+	 * @return
+	 */
+	private static int count(float min, float max, float step) {
+		int n = 0;
+		for (float v = min; v < max; n++) {
+			float next = v + step;
+			if (next == v || n > CuboidUtility.MORTON_MAX) {
+				/// step below float resolution, the sweep would not terminate
+				return (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(((double) max - min) / step));
+			}
+			v = next;
+		}
+		return n;
+	}
+
+	/**
+	 * @brief total number of sampling cuboids
+	 * @return
+	 */
+	public long getCellCount() {
+		return (long) nx * ny * nz;
+	}
+
+	/**
+	 * @brief Morton key of a cuboid
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	public long key(int i, int j, int k) {
+		return CuboidUtility.mortonEncode(i, j, k);
+	}
+
+	/**
+	 * @brief Morton key of the cuboid containing a point, points outside
+	 * the grid are clamped to the nearest cuboid
+	 * @param px
+	 * @param py
+	 * @param pz
+	 * @return
+	 */
+	public long keyOf(float px, float py, float pz) {
+		return key(clamp((int) Math.floor((px - x) / width), nx), clamp((int) Math.floor((py - y) / height), ny), clamp((int) Math.floor((pz - z) / depth), nz));
+	}
+
+	private static int clamp(int c, int n) {
+		return c < 0 ? 0 : c >= n ? Math.max(0, n - 1) : c;
+	}
+
+	/**
+	 * @brief sweep index of a cuboid
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	public int index(int i, int j, int k) {
+		return (i * ny + j) * nz + k;
+	}
+
+	/**
+	 * @brief sweep index of the cuboid with the given Morton key
+	 * @param key
+	 * @return
+	 */
+	public int indexOfKey(long key) {
+		return index(CuboidUtility.mortonDecodeX(key), CuboidUtility.mortonDecodeY(key), CuboidUtility.mortonDecodeZ(key));
+	}
+
+	/**
+	 * @brief determines if the cuboids can be numbered by sweep indices
+	 * @return
+	 */
+	public boolean hasIntegerIndices() {
+		return getCellCount() <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @brief the sampling cuboid (i, j, k)
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	public Cuboid getCuboid(int i, int j, int k) {
+		return new Cuboid(x + i * width, y + j * height, z + k * depth, width, height, depth);
+	}
+}
@@ -0,0 +1,206 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/**
+ * @brief static bounding volume hierarchy over the axis-aligned boxes of
+ * line segments (edges of a cell)
+ *
+ * The hierarchy is built by median splits along the longest axis of the
+ * segment centers and stored in flat arrays: node n has its box at
+ * bounds[6n .. 6n+5], its left child at n + 1 and its right child at
+ * right[n], leaves hold the segments [first[n], first[n] + count[n]).
+ * A box query returns exactly the segments whose boxes overlap the query
+ * box, independent of the lengths of the segments.
+ *
+ * @author stephan
+ */
+public final class SegmentBVH extends SegmentIndex {
+
+	/// maximum number of segments in a leaf
+	private static final int LEAF_SIZE = 4;
+	/// depth of median splits is bounded by log2 of the number of segments
+	private static final int MAX_DEPTH = 64;
+
+	/// nodes
+	private float[] bounds;
+	private int[] right;
+	private int[] first;
+	private int[] count;
+	private int nodes;
+
+	/**
+	 * @brief builds the hierarchy, the arrays are copied
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param size number of segments
+	 */
+	public SegmentBVH(float[] x1, float[] y1, float[] z1, float[] x2, float[] y2, float[] z2, int size) {
+		super(x1, y1, z1, x2, y2, z2, size);
+		/// split leaves hold at least two segments, so there are less nodes than segments
+		int capacity = Math.max(1, size);
+		bounds = new float[6 * capacity];
+		right = new int[capacity];
+		first = new int[capacity];
+		count = new int[capacity];
+		if (size > 0) {
+			build(0, size);
+		}
+	}
+
+	/**
+	 * @brief builds the hierarchy over the edges from the compartments of
+	 * the given type to their children
+	 * @param cell
+	 * @param type type index, negative for all compartments
+	 * @return
+	 */
+	public static SegmentBVH build(Morphology cell, int type) {
+		float[][] p = edges(cell, type);
+		return new SegmentBVH(p[0], p[1], p[2], p[3], p[4], p[5], p[0].length);
+	}
+
+	/**
+	 * @brief creates the node of the segments [lo, hi) and its subtree
+	 * @return the node
+	 */
+	private int build(int lo, int hi) {
+		int node = nodes++;
+		float[] box = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		float[] centers = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+			Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (int s = lo; s < hi; s++) {
+			for (int d = 0; d < 3; d++) {
+				float a = start(s, d);
+				float b = end(s, d);
+				box[d] = Math.min(box[d], Math.min(a, b));
+				box[d + 3] = Math.max(box[d + 3], Math.max(a, b));
+				centers[d] = Math.min(centers[d], a + b);
+				centers[d + 3] = Math.max(centers[d + 3], a + b);
+			}
+		}
+		System.arraycopy(box, 0, bounds, 6 * node, 6);
+
+		if (hi - lo <= LEAF_SIZE) {
+			first[node] = lo;
+			count[node] = hi - lo;
+			return node;
+		}
+		int axis = 0;
+		for (int d = 1; d < 3; d++) {
+			if (centers[d + 3] - centers[d] > centers[axis + 3] - centers[axis]) {
+				axis = d;
+			}
+		}
+		int median = (lo + hi) >>> 1;
+		select(lo, hi - 1, median, axis);
+		build(lo, median);
+		right[node] = build(median, hi);
+		return node;
+	}
+
+	private float start(int s, int d) {
+		return d == 0 ? x1[s] : d == 1 ? y1[s] : z1[s];
+	}
+
+	private float end(int s, int d) {
+		return d == 0 ? x2[s] : d == 1 ? y2[s] : z2[s];
+	}
+
+	/// twice the center, the order is the same
+	private float center(int s, int d) {
+		return start(s, d) + end(s, d);
+	}
+
+	/**
+	 * @brief quickselect of the segments [left, right] by center
+	 */
+	private void select(int left, int right, int k, int axis) {
+		while (right > left) {
+			int mid = (left + right) >>> 1;
+			if (center(mid, axis) < center(left, axis)) {
+				swap(mid, left);
+			}
+			if (center(right, axis) < center(left, axis)) {
+				swap(right, left);
+			}
+			if (center(right, axis) < center(mid, axis)) {
+				swap(right, mid);
+			}
+			float pivot = center(mid, axis);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (center(i, axis) < pivot) {
+					i++;
+				}
+				while (center(j, axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static void swap(float[] a, int i, int j) {
+		float t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	private void swap(int i, int j) {
+		swap(x1, i, j);
+		swap(y1, i, j);
+		swap(z1, i, j);
+		swap(x2, i, j);
+		swap(y2, i, j);
+		swap(z2, i, j);
+		int t = ids[i];
+		ids[i] = ids[j];
+		ids[j] = t;
+	}
+
+	@Override
+	public int query(float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer result) {
+		result.clear();
+		if (nodes == 0) {
+			return 0;
+		}
+		int[] stack = new int[MAX_DEPTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int b = 6 * node;
+			if (bounds[b] > hix || bounds[b + 3] < lox || bounds[b + 1] > hiy || bounds[b + 4] < loy || bounds[b + 2] > hiz || bounds[b + 5] < loz) {
+				continue;
+			}
+			if (count[node] > 0) {
+				for (int s = first[node]; s < first[node] + count[node]; s++) {
+					if (overlaps(s, lox, loy, loz, hix, hiy, hiz)) {
+						result.add(s);
+					}
+				}
+			} else {
+				stack[top++] = right[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return result.size();
+	}
+}
@@ -0,0 +1,254 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/**
+ * @brief allocation-free clipping of segments and rays against boxes
+ *
+ * All methods work on raw coordinates of axis-aligned boxes given by their
+ * lower and upper corner and allocate nothing, i. e. they can be used in
+ * the innermost loops of the density computation. The Vector3f-based
+ * methods of SWCUtility are wrappers around this kernel.
+ *
+ * @author stephan
+ */
+public final class SegmentClipper {
+
+	/// directions with smaller components are considered parallel to a slab
+	public static final float PARALLEL_EPS = 1.0e-6f;
+
+	/// results of a single slab test
+	private static final int MISS = -1;
+	private static final int PARALLEL = 0;
+	private static final int HIT = 1;
+
+	/**
+	 * @brief private ctor since utility classs should be final and private
+	 */
+	private SegmentClipper() {
+
+	}
+
+	/**
+	 * @brief length of the part of segment (x1, y1, z1) - (x2, y2, z2) which
+	 * lies inside the closed box (Liang-Barsky slab clipping)
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @return clipped length, 0 if the segment misses the box
+	 */
+	public static float clippedLength(float x1, float y1, float z1, float x2, float y2, float z2,
+		float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		final double dx = (double) x2 - x1;
+		final double dy = (double) y2 - y1;
+		final double dz = (double) z2 - z1;
+		double t0 = 0;
+		double t1 = 1;
+
+		/// x slab
+		if (dx == 0) {
+			if (x1 < minX || x1 > maxX) {
+				return 0.f;
+			}
+		} else {
+			double a = (minX - (double) x1) / dx;
+			double b = (maxX - (double) x1) / dx;
+			t0 = Math.max(t0, Math.min(a, b));
+			t1 = Math.min(t1, Math.max(a, b));
+		}
+
+		/// y slab
+		if (dy == 0) {
+			if (y1 < minY || y1 > maxY) {
+				return 0.f;
+			}
+		} else {
+			double a = (minY - (double) y1) / dy;
+			double b = (maxY - (double) y1) / dy;
+			t0 = Math.max(t0, Math.min(a, b));
+			t1 = Math.min(t1, Math.max(a, b));
+		}
+
+		/// z slab
+		if (dz == 0) {
+			if (z1 < minZ || z1 > maxZ) {
+				return 0.f;
+			}
+		} else {
+			double a = (minZ - (double) z1) / dz;
+			double b = (maxZ - (double) z1) / dz;
+			t0 = Math.max(t0, Math.min(a, b));
+			t1 = Math.min(t1, Math.max(a, b));
+		}
+
+		if (t1 <= t0) {
+			return 0.f;
+		}
+		return (float) ((t1 - t0) * Math.sqrt(dx * dx + dy * dy + dz * dz));
+	}
+
+	/**
+	 * @brief determines if a point lies within the closed box
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @return
+	 */
+	public static boolean contains(float x, float y, float z, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+	}
+
+	/**
+	 * @brief intersects the line o + t * d with the box
+	 *
+	 * The parameters of the two slab intersections are written to t,
+	 * ordered by magnitude (the one closer to the origin first). If the
+	 * direction is parallel to all slabs, t is {0, 0} and the result tells
+	 * whether the origin lies within the box. On a miss t is {-1, -1}.
+	 *
+	 * @param ox
+	 * @param oy
+	 * @param oz
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @param t output: the two parameters, at least two elements
+	 * @return true if the line intersects the box
+	 */
+	public static boolean intersectRay(float ox, float oy, float oz, float dx, float dy, float dz,
+		float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float[] t) {
+		t[0] = -1f;
+		t[1] = -1f;
+		boolean set = false;
+
+		int res = slab(ox, dx, minX, maxX, t, set);
+		if (res == MISS) {
+			return miss(t);
+		}
+		set |= res == HIT;
+
+		res = slab(oy, dy, minY, maxY, t, set);
+		if (res == MISS) {
+			return miss(t);
+		}
+		set |= res == HIT;
+
+		res = slab(oz, dz, minZ, maxZ, t, set);
+		if (res == MISS) {
+			return miss(t);
+		}
+		set |= res == HIT;
+
+		if (set) {
+			if (Math.abs(t[0]) > Math.abs(t[1])) {
+				float temp = t[0];
+				t[0] = t[1];
+				t[1] = temp;
+			}
+			return true;
+		}
+		t[0] = 0f;
+		t[1] = 0f;
+		return contains(ox, oy, oz, minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * @brief intersects the segment v1 - v2 with the box
+	 * @see #intersectRay
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @param t output: the two parameters along v2 - v1, {0, 0} on a miss
+	 * @return true if the line hits the box with the near parameter
+	 * within the segment
+	 */
+	public static boolean intersectSegment(float x1, float y1, float z1, float x2, float y2, float z2,
+		float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float[] t) {
+		if (intersectRay(x1, y1, z1, x2 - x1, y2 - y1, z2 - z1, minX, minY, minZ, maxX, maxY, maxZ, t)) {
+			if ((t[0] >= 0 && t[0] <= 1.0) && (t[1] >= 0 && t[0] <= 1.0)) {
+				return true;
+			}
+		}
+		t[0] = 0f;
+		t[1] = 0f;
+		return false;
+	}
+
+	/**
+	 * @brief intersects the parameter interval in t with one slab
+	 * @param o origin coordinate
+	 * @param d direction coordinate
+	 * @param lo slab lower bound
+	 * @param hi slab upper bound
+	 * @param t in and out: current interval
+	 * @param set if the interval in t has been set by a previous slab
+	 * @return MISS, PARALLEL (slab does not restrict) or HIT
+	 */
+	private static int slab(float o, float d, float lo, float hi, float[] t, boolean set) {
+		if (Math.abs(d) > PARALLEL_EPS) {
+			float t1 = (lo - o) / d;
+			float t2 = (hi - o) / d;
+			if (t1 > t2) {
+				float temp = t1;
+				t1 = t2;
+				t2 = temp;
+			}
+			if (set) {
+				if ((t1 <= t[1]) && (t2 >= t[0])) {
+					t[0] = Math.max(t1, t[0]);
+					t[1] = Math.min(t2, t[1]);
+				} else {
+					return MISS;
+				}
+			} else {
+				t[0] = t1;
+				t[1] = t2;
+			}
+			return HIT;
+		}
+		if (o < lo || o > hi) {
+			return MISS;
+		}
+		return PARALLEL;
+	}
+
+	/**
+	 * @brief marks a miss in t
+	 * @param t
+	 * @return false
+	 */
+	private static boolean miss(float[] t) {
+		t[0] = -1f;
+		t[1] = -1f;
+		return false;
+	}
+}
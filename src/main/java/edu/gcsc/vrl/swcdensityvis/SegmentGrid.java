@@ -0,0 +1,256 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Collection;
+
+/**
+ * @brief uniform spatial hash grid over the axis-aligned boxes of line
+ * segments (edges of a cell)
+ *
+ * Each segment is registered in every grid cell its box overlaps, the grid
+ * cells are hashed into a power of two number of buckets. The buckets are
+ * filled by a counting sort into flat arrays: the entries of bucket b are
+ * entries[start[b] .. start[b + 1]). A box query looks up the buckets of the
+ * grid cells the box overlaps, a segment is reported in the first grid cell
+ * shared by its box and the query box only, hence exactly once.
+ *
+ * Suited for segments of similar length which are short compared to the
+ * grid cells, e. g. grid cells of the size of the sampling cuboids.
+ *
+ * @author stephan
+ */
+public final class SegmentGrid extends SegmentIndex {
+
+	/// stacks with more grid cells per segment on average are indexed by a hierarchy
+	public static final double MAX_MEAN_CELLS_PER_SEGMENT = 8;
+	/// upper bound for the number of registrations of segments in grid cells
+	private static final long MAX_ENTRIES = 1L << 28;
+
+	/// grid origin, cell size and number of cells
+	private final float ox;
+	private final float oy;
+	private final float oz;
+	private final float invWidth;
+	private final float invHeight;
+	private final float invDepth;
+	private final int nx;
+	private final int ny;
+	private final int nz;
+	/// bounds of the segments
+	private final float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+		Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+	/// buckets
+	private final int mask;
+	private final int[] start;
+	private final int[] entries;
+
+	/**
+	 * @brief builds the grid, the arrays are copied
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param size number of segments
+	 * @param width cell size
+	 * @param height
+	 * @param depth
+	 * @throws IllegalArgumentException if the cell size is not positive or
+	 * the segments would be registered in too many cells
+	 */
+	public SegmentGrid(float[] x1, float[] y1, float[] z1, float[] x2, float[] y2, float[] z2, int size, float width, float height, float depth) {
+		super(x1, y1, z1, x2, y2, z2, size);
+		if (!(width > 0 && height > 0 && depth > 0)) {
+			throw new IllegalArgumentException("Grid cells need a positive size.");
+		}
+		for (int s = 0; s < size; s++) {
+			bounds[0] = Math.min(bounds[0], Math.min(this.x1[s], this.x2[s]));
+			bounds[1] = Math.min(bounds[1], Math.min(this.y1[s], this.y2[s]));
+			bounds[2] = Math.min(bounds[2], Math.min(this.z1[s], this.z2[s]));
+			bounds[3] = Math.max(bounds[3], Math.max(this.x1[s], this.x2[s]));
+			bounds[4] = Math.max(bounds[4], Math.max(this.y1[s], this.y2[s]));
+			bounds[5] = Math.max(bounds[5], Math.max(this.z1[s], this.z2[s]));
+		}
+		ox = size == 0 ? 0.f : bounds[0];
+		oy = size == 0 ? 0.f : bounds[1];
+		oz = size == 0 ? 0.f : bounds[2];
+		invWidth = 1.f / width;
+		invHeight = 1.f / height;
+		invDepth = 1.f / depth;
+		nx = size == 0 ? 1 : cells(bounds[3] - ox, invWidth);
+		ny = size == 0 ? 1 : cells(bounds[4] - oy, invHeight);
+		nz = size == 0 ? 1 : cells(bounds[5] - oz, invDepth);
+
+		/// number of registrations, determines the number of buckets
+		long registrations = 0;
+		for (int s = 0; s < size; s++) {
+			registrations += (long) (cellX(Math.max(this.x1[s], this.x2[s])) - cellX(Math.min(this.x1[s], this.x2[s])) + 1)
+				* (cellY(Math.max(this.y1[s], this.y2[s])) - cellY(Math.min(this.y1[s], this.y2[s])) + 1)
+				* (cellZ(Math.max(this.z1[s], this.z2[s])) - cellZ(Math.min(this.z1[s], this.z2[s])) + 1);
+		}
+		if (registrations > MAX_ENTRIES) {
+			throw new IllegalArgumentException("Too many grid cells for the segments: " + registrations);
+		}
+		int buckets = Integer.highestOneBit((int) Math.max(1, registrations) * 2 - 1);
+		mask = buckets - 1;
+
+		/// counting sort: count, prefix sums, fill
+		start = new int[buckets + 1];
+		entries = new int[(int) registrations];
+		for (int s = 0; s < size; s++) {
+			register(s, null);
+		}
+		for (int b = 0; b < buckets; b++) {
+			start[b + 1] += start[b];
+		}
+		int[] fill = new int[buckets];
+		System.arraycopy(start, 0, fill, 0, buckets);
+		for (int s = 0; s < size; s++) {
+			register(s, fill);
+		}
+	}
+
+	/**
+	 * @brief builds the grid over the edges from the compartments of the
+	 * given type to their children
+	 * @param cell
+	 * @param type type index, negative for all compartments
+	 * @param width cell size, e. g. of the sampling cuboids
+	 * @param height
+	 * @param depth
+	 * @return
+	 */
+	public static SegmentGrid build(Morphology cell, int type, float width, float height, float depth) {
+		float[][] p = edges(cell, type);
+		return new SegmentGrid(p[0], p[1], p[2], p[3], p[4], p[5], p[0].length, width, height, depth);
+	}
+
+	/**
+	 * @brief mean number of grid cells the edges of a stack are expected to
+	 * be registered in
+	 * @param cells
+	 * @param type type index, negative for all compartments
+	 * @param width cell size
+	 * @param height
+	 * @param depth
+	 * @return 0 if there are no edges
+	 */
+	public static double meanCellsPerSegment(Collection<Morphology> cells, int type, float width, float height, float depth) {
+		double registrations = 0;
+		long edges = 0;
+		for (Morphology cell : cells) {
+			Topology topology = cell.getTopology();
+			for (int i = 0; i < cell.size(); i++) {
+				if (type < 0 || type == cell.type[i]) {
+					for (int c = 0; c < topology.getChildCount(i); c++) {
+						int child = topology.getChild(i, c);
+						/// expected value for a random alignment of the box to the grid
+						registrations += (Math.abs(cell.x[child] - cell.x[i]) / width + 1)
+							* (Math.abs(cell.y[child] - cell.y[i]) / height + 1)
+							* (Math.abs(cell.z[child] - cell.z[i]) / depth + 1);
+						edges++;
+					}
+				}
+			}
+		}
+		return edges == 0 ? 0 : registrations / edges;
+	}
+
+	/**
+	 * @brief number of cells covering an extent
+	 */
+	private static int cells(float extent, float inv) {
+		return (int) Math.min(Integer.MAX_VALUE, (long) Math.floor(extent * inv) + 1);
+	}
+
+	private static int cell(float v, float o, float inv, int n) {
+		int c = (int) Math.floor((v - o) * inv);
+		return c < 0 ? 0 : c >= n ? n - 1 : c;
+	}
+
+	private int cellX(float v) {
+		return cell(v, ox, invWidth, nx);
+	}
+
+	private int cellY(float v) {
+		return cell(v, oy, invHeight, ny);
+	}
+
+	private int cellZ(float v) {
+		return cell(v, oz, invDepth, nz);
+	}
+
+	private int bucket(int cx, int cy, int cz) {
+		return ((cx * 73856093) ^ (cy * 19349663) ^ (cz * 83492791)) & mask;
+	}
+
+	/**
+	 * @brief counts (fill == null) or stores the registrations of segment s
+	 * in the grid cells its box overlaps
+	 */
+	private void register(int s, int[] fill) {
+		int cx1 = cellX(Math.max(x1[s], x2[s]));
+		int cy1 = cellY(Math.max(y1[s], y2[s]));
+		int cz1 = cellZ(Math.max(z1[s], z2[s]));
+		for (int cx = cellX(Math.min(x1[s], x2[s])); cx <= cx1; cx++) {
+			for (int cy = cellY(Math.min(y1[s], y2[s])); cy <= cy1; cy++) {
+				for (int cz = cellZ(Math.min(z1[s], z2[s])); cz <= cz1; cz++) {
+					int b = bucket(cx, cy, cz);
+					if (fill == null) {
+						start[b + 1]++;
+					} else {
+						entries[fill[b]++] = s;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief number of buckets
+	 * @return
+	 */
+	public int getBuckets() {
+		return mask + 1;
+	}
+
+	@Override
+	public int query(float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer result) {
+		result.clear();
+		if (size() == 0 || lox > bounds[3] || hix < bounds[0] || loy > bounds[4] || hiy < bounds[1] || loz > bounds[5] || hiz < bounds[2]) {
+			return 0;
+		}
+		int qx0 = cellX(lox);
+		int qy0 = cellY(loy);
+		int qz0 = cellZ(loz);
+		int qx1 = cellX(hix);
+		int qy1 = cellY(hiy);
+		int qz1 = cellZ(hiz);
+		for (int cx = qx0; cx <= qx1; cx++) {
+			for (int cy = qy0; cy <= qy1; cy++) {
+				for (int cz = qz0; cz <= qz1; cz++) {
+					int b = bucket(cx, cy, cz);
+					int previous = -1;
+					for (int e = start[b]; e < start[b + 1]; e++) {
+						int s = entries[e];
+						/// the registrations of a segment in colliding cells are adjacent
+						if (s == previous) {
+							continue;
+						}
+						previous = s;
+						/// report in the first shared cell only
+						if (cx == Math.max(qx0, cellX(Math.min(x1[s], x2[s])))
+							&& cy == Math.max(qy0, cellY(Math.min(y1[s], y2[s])))
+							&& cz == Math.max(qz0, cellZ(Math.min(z1[s], z2[s])))
+							&& overlaps(s, lox, loy, loz, hix, hiy, hiz)) {
+							result.add(s);
+						}
+					}
+				}
+			}
+		}
+		return result.size();
+	}
+}
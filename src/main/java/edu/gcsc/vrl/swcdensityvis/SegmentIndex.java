@@ -0,0 +1,148 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Arrays;
+
+/**
+ * @brief spatial index over the axis-aligned boxes of line segments (edges
+ * of a cell)
+ *
+ * The end points of the segments are held as primitive arrays in the order
+ * of the index, a box query reports positions in these arrays. Implemented
+ * by a bounding volume hierarchy (SegmentBVH) and a uniform spatial hash
+ * grid (SegmentGrid).
+ *
+ * @author stephan
+ */
+public abstract class SegmentIndex {
+
+	/// end points of the segments in index order
+	protected final float[] x1;
+	protected final float[] y1;
+	protected final float[] z1;
+	protected final float[] x2;
+	protected final float[] y2;
+	protected final float[] z2;
+	/// index of each segment as given on construction
+	protected final int[] ids;
+
+	/**
+	 * @brief ctor, the arrays are copied
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param size number of segments
+	 */
+	protected SegmentIndex(float[] x1, float[] y1, float[] z1, float[] x2, float[] y2, float[] z2, int size) {
+		this.x1 = Arrays.copyOf(x1, size);
+		this.y1 = Arrays.copyOf(y1, size);
+		this.z1 = Arrays.copyOf(z1, size);
+		this.x2 = Arrays.copyOf(x2, size);
+		this.y2 = Arrays.copyOf(y2, size);
+		this.z2 = Arrays.copyOf(z2, size);
+		this.ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = i;
+		}
+	}
+
+	/**
+	 * @brief end points of the edges from the compartments of the given
+	 * type to their children
+	 * @param cell
+	 * @param type type index, negative for all compartments
+	 * @return {x1, y1, z1, x2, y2, z2}
+	 */
+	static float[][] edges(Morphology cell, int type) {
+		Topology topology = cell.getTopology();
+		int edges = 0;
+		for (int i = 0; i < cell.size(); i++) {
+			if (type < 0 || type == cell.type[i]) {
+				edges += topology.getChildCount(i);
+			}
+		}
+		float[][] p = new float[6][edges];
+		int s = 0;
+		for (int i = 0; i < cell.size(); i++) {
+			if (type < 0 || type == cell.type[i]) {
+				for (int c = 0; c < topology.getChildCount(i); c++) {
+					int child = topology.getChild(i, c);
+					p[0][s] = cell.x[i];
+					p[1][s] = cell.y[i];
+					p[2][s] = cell.z[i];
+					p[3][s] = cell.x[child];
+					p[4][s] = cell.y[child];
+					p[5][s] = cell.z[child];
+					s++;
+				}
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * @brief number of segments
+	 * @return
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @brief index of the segment at a position as given on construction
+	 * @param s
+	 * @return
+	 */
+	public int getId(int s) {
+		return ids[s];
+	}
+
+	/**
+	 * @brief collects the segments whose boxes overlap the closed box
+	 * [lo, hi], each segment once
+	 * @param lox
+	 * @param loy
+	 * @param loz
+	 * @param hix
+	 * @param hiy
+	 * @param hiz
+	 * @param result cleared and filled with the positions of the segments
+	 * @return number of candidates found
+	 */
+	public abstract int query(float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer result);
+
+	/**
+	 * @brief true if the box of segment s overlaps the closed box [lo, hi]
+	 */
+	protected final boolean overlaps(int s, float lox, float loy, float loz, float hix, float hiy, float hiz) {
+		return Math.min(x1[s], x2[s]) <= hix && Math.max(x1[s], x2[s]) >= lox
+			&& Math.min(y1[s], y2[s]) <= hiy && Math.max(y1[s], y2[s]) >= loy
+			&& Math.min(z1[s], z2[s]) <= hiz && Math.max(z1[s], z2[s]) >= loz;
+	}
+
+	/**
+	 * @brief total length of the segments within the closed box [lo, hi]
+	 * @see SegmentClipper#clippedLength
+	 * @param lox
+	 * @param loy
+	 * @param loz
+	 * @param hix
+	 * @param hiy
+	 * @param hiz
+	 * @param candidates buffer for the candidates, holds them afterwards
+	 * @return clipped length
+	 */
+	public float clippedLength(float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer candidates) {
+		query(lox, loy, loz, hix, hiy, hiz, candidates);
+		float length = 0.f;
+		for (int h = 0; h < candidates.size(); h++) {
+			int s = candidates.get(h);
+			length += SegmentClipper.clippedLength(x1[s], y1[s], z1[s], x2[s], y2[s], z2[s], lox, loy, loz, hix, hiy, hiz);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,523 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import edu.gcsc.vrl.densityvis.Density;
+import edu.gcsc.vrl.densityvis.VoxelImpl;
+import edu.gcsc.vrl.densityvis.VoxelSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @brief sparse grid of sampling cuboids (voxels) organized in bricks
+ *
+ * Voxels are addressed by their Morton key (CuboidUtility.mortonEncode).
+ * The lowest 9 bits of a key interleave the lowest 3 bits of the grid
+ * coordinates, i. e. the voxels sharing the remaining bits form a brick of
+ * 8 x 8 x 8 voxels. Only bricks holding non-zero voxels are allocated: a
+ * hash table maps the brick key (key >>> 9) to a dense block of 512 floats
+ * in Morton order. Memory is thus proportional to the occupied space, not
+ * to the volume of the bounding box, and iteration visits the allocated
+ * bricks only.
+ *
+ * @note not thread-safe, absent voxels have the value 0, a voxel set to 0
+ * counts as absent
+ * @author stephan
+ */
+public final class SparseDensityGrid {
+
+	/// bits of the Morton key within a brick and voxels per brick
+	public static final int BRICK_BITS = 9;
+	public static final int BRICK_VOXELS = 1 << BRICK_BITS;
+	/// voxels per brick edge
+	public static final int BRICK_SIZE = 8;
+
+	/// marks an empty slot, brick keys are never negative
+	private static final long FREE = -1L;
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	/// brick table: brick key and index of the brick in the voxel pool
+	private long[] slots;
+	private int[] bricks;
+	private int shift;
+	/// brick keys and non-zero voxels of the allocated bricks, in allocation order
+	private long[] brickKeys;
+	private int[] occupied;
+	private int brickCount;
+	/// voxel pool, brick b holds [b * BRICK_VOXELS, (b + 1) * BRICK_VOXELS)
+	private float[] voxels;
+	/// number of non-zero voxels
+	private int size;
+	/// brick of the last lookup, voxel access is mostly local
+	private long lastKey = FREE;
+	private int lastBrick = -1;
+
+	/**
+	 * @brief def ctor
+	 */
+	public SparseDensityGrid() {
+		this(16);
+	}
+
+	/**
+	 * @brief ctor
+	 * @param expectedBricks
+	 */
+	public SparseDensityGrid(int expectedBricks) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedBricks) * 2 - 1) * 2;
+		slots = new long[capacity];
+		Arrays.fill(slots, FREE);
+		bricks = new int[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		brickKeys = new long[Math.max(16, expectedBricks)];
+		occupied = new int[brickKeys.length];
+		voxels = new float[brickKeys.length * BRICK_VOXELS];
+	}
+
+	/**
+	 * @brief grid holding the entries of a map by Morton key
+	 * @param map
+	 * @return
+	 */
+	public static SparseDensityGrid fromMap(LongFloatHashMap map) {
+		SparseDensityGrid grid = new SparseDensityGrid();
+		LongFloatHashMap.Cursor c = map.cursor();
+		while (c.next()) {
+			grid.addTo(c.key(), c.value());
+		}
+		return grid;
+	}
+
+	/**
+	 * @brief grid holding the entries of disjoint shards divided by a
+	 * divisor
+	 *
+	 * The shards must be summed by brick (see LongFloatHashMap.sumSharded
+	 * with BRICK_BITS), i. e. every brick belongs to one shard. The shards
+	 * are filled into bricks in parallel, the bricks are then copied block
+	 * by block into the joined pool.
+	 *
+	 * @param shards
+	 * @param divisor
+	 * @param executor
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static SparseDensityGrid join(final LongFloatHashMap[] shards, final float divisor, ExecutorService executor) throws InterruptedException, ExecutionException {
+		ArrayList<Callable<SparseDensityGrid>> callables = new ArrayList<Callable<SparseDensityGrid>>(shards.length);
+		for (final LongFloatHashMap shard : shards) {
+			callables.add(new Callable<SparseDensityGrid>() {
+				@Override
+				public SparseDensityGrid call() {
+					SparseDensityGrid part = new SparseDensityGrid();
+					LongFloatHashMap.Cursor c = shard.cursor();
+					while (c.next()) {
+						part.addTo(c.key(), c.value() / divisor);
+					}
+					return part;
+				}
+			});
+		}
+		ArrayList<SparseDensityGrid> parts = new ArrayList<SparseDensityGrid>(shards.length);
+		int total = 0;
+		for (Future<SparseDensityGrid> res : executor.invokeAll(callables)) {
+			parts.add(res.get());
+			total += parts.get(parts.size() - 1).brickCount;
+		}
+
+		SparseDensityGrid grid = new SparseDensityGrid(total);
+		for (SparseDensityGrid part : parts) {
+			System.arraycopy(part.voxels, 0, grid.voxels, grid.brickCount * BRICK_VOXELS, part.brickCount * BRICK_VOXELS);
+			System.arraycopy(part.occupied, 0, grid.occupied, grid.brickCount, part.brickCount);
+			for (int b = 0; b < part.brickCount; b++) {
+				if (grid.find(part.brickKeys[b]) >= 0) {
+					throw new IllegalArgumentException("Shards share the brick " + part.brickKeys[b]);
+				}
+				grid.brickKeys[grid.brickCount] = part.brickKeys[b];
+				grid.insert(part.brickKeys[b], grid.brickCount++);
+			}
+			grid.size += part.size;
+		}
+		return grid;
+	}
+
+	/**
+	 * @brief number of non-zero voxels
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @brief number of allocated bricks
+	 * @return
+	 */
+	public int getBrickCount() {
+		return brickCount;
+	}
+
+	/**
+	 * @brief approximate heap footprint of the voxels and the brick table
+	 * @return bytes
+	 */
+	public long getMemoryFootprint() {
+		return 4L * voxels.length + 12L * brickKeys.length + 12L * slots.length;
+	}
+
+	/**
+	 * @brief value of a voxel
+	 * @param key Morton key
+	 * @return the value, 0 if absent
+	 */
+	public float get(long key) {
+		int brick = find(key >>> BRICK_BITS);
+		return brick < 0 ? 0.f : voxels[brick * BRICK_VOXELS + (int) (key & (BRICK_VOXELS - 1))];
+	}
+
+	/**
+	 * @brief value of a voxel
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return the value, 0 if absent or outside of the Morton range
+	 */
+	public float get(int i, int j, int k) {
+		if ((i | j | k) < 0 || i > CuboidUtility.MORTON_MAX || j > CuboidUtility.MORTON_MAX || k > CuboidUtility.MORTON_MAX) {
+			return 0.f;
+		}
+		return get(CuboidUtility.mortonEncode(i, j, k));
+	}
+
+	/**
+	 * @brief value of a neighbour of a voxel
+	 * @param key Morton key of the voxel
+	 * @param di offset of the neighbour
+	 * @param dj
+	 * @param dk
+	 * @return the value, 0 if absent or outside of the Morton range
+	 */
+	public float getNeighbour(long key, int di, int dj, int dk) {
+		return get(CuboidUtility.mortonDecodeX(key) + di, CuboidUtility.mortonDecodeY(key) + dj, CuboidUtility.mortonDecodeZ(key) + dk);
+	}
+
+	/**
+	 * @brief sets the value of a voxel, allocates its brick if necessary
+	 * @param key Morton key
+	 * @param value
+	 */
+	public void put(long key, float value) {
+		int brick = find(key >>> BRICK_BITS);
+		if (brick < 0) {
+			if (value == 0) {
+				return;
+			}
+			brick = allocate(key >>> BRICK_BITS);
+		}
+		set(brick, brick * BRICK_VOXELS + (int) (key & (BRICK_VOXELS - 1)), value);
+	}
+
+	/**
+	 * @brief adds to the value of a voxel
+	 * @param key Morton key
+	 * @param delta
+	 * @return the new value
+	 */
+	public float addTo(long key, float delta) {
+		int brick = find(key >>> BRICK_BITS);
+		if (brick < 0) {
+			if (delta == 0) {
+				return 0.f;
+			}
+			brick = allocate(key >>> BRICK_BITS);
+		}
+		int v = brick * BRICK_VOXELS + (int) (key & (BRICK_VOXELS - 1));
+		float value = voxels[v] + delta;
+		set(brick, v, value);
+		return value;
+	}
+
+	private void set(int brick, int v, float value) {
+		if (voxels[v] == 0 && value != 0) {
+			occupied[brick]++;
+			size++;
+		} else if (voxels[v] != 0 && value == 0) {
+			occupied[brick]--;
+			size--;
+		}
+		voxels[v] = value;
+	}
+
+	/**
+	 * @brief sum of all values
+	 * @return
+	 */
+	public double sum() {
+		double sum = 0;
+		for (int v = 0; v < brickCount * BRICK_VOXELS; v++) {
+			sum += voxels[v];
+		}
+		return sum;
+	}
+
+	/**
+	 * @brief multiplies all values by a factor
+	 * @param factor
+	 */
+	public void scale(float factor) {
+		Cursor c = cursor();
+		while (c.next()) {
+			c.setValue(c.value() * factor);
+		}
+	}
+
+	/**
+	 * @brief copies the non-zero voxels into a map by Morton key
+	 * @return
+	 */
+	public LongFloatHashMap toMap() {
+		LongFloatHashMap map = new LongFloatHashMap(size);
+		Cursor c = cursor();
+		while (c.next()) {
+			map.put(c.key(), c.value());
+		}
+		return map;
+	}
+
+	/**
+	 * @brief copies the non-zero voxels into a boxed hashmap by Morton key
+	 * @return
+	 */
+	public HashMap<Long, Float> toHashMap() {
+		HashMap<Long, Float> map = new HashMap<Long, Float>(Math.max(16, (int) (size / 0.75f) + 1));
+		Cursor c = cursor();
+		while (c.next()) {
+			map.put(c.key(), c.value());
+		}
+		return map;
+	}
+
+	/**
+	 * @brief cursor over the non-zero voxels
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @brief iterates the non-zero voxels brick by brick, skipping the
+	 * bricks without non-zero voxels, usage:
+	 * while (c.next()) { c.key(); c.value(); }
+	 */
+	public final class Cursor {
+
+		private int brick = 0;
+		/// current voxel in the pool
+		private int voxel = -1;
+
+		private Cursor() {
+		}
+
+		/**
+		 * @brief advances to the next non-zero voxel
+		 * @return false if there are no more voxels
+		 */
+		public boolean next() {
+			while (brick < brickCount) {
+				if (occupied[brick] > 0) {
+					int end = (brick + 1) * BRICK_VOXELS;
+					for (voxel = Math.max(voxel + 1, brick * BRICK_VOXELS); voxel < end; voxel++) {
+						if (voxels[voxel] != 0) {
+							return true;
+						}
+					}
+				}
+				brick++;
+				voxel = brick * BRICK_VOXELS - 1;
+			}
+			return false;
+		}
+
+		/**
+		 * @brief Morton key of the current voxel
+		 * @return
+		 */
+		public long key() {
+			return (brickKeys[brick] << BRICK_BITS) | (voxel & (BRICK_VOXELS - 1));
+		}
+
+		public int getI() {
+			return CuboidUtility.mortonDecodeX(key());
+		}
+
+		public int getJ() {
+			return CuboidUtility.mortonDecodeY(key());
+		}
+
+		public int getK() {
+			return CuboidUtility.mortonDecodeZ(key());
+		}
+
+		public float value() {
+			return voxels[voxel];
+		}
+
+		public void setValue(float value) {
+			set(brick, voxel, value);
+		}
+	}
+
+	/**
+	 * @brief density of the non-zero voxels for the Density-Vis plugin
+	 * @param grid sampling grid the voxels belong to
+	 * @param factor values are multiplied by it, e. g. 255 for grey values
+	 * @return
+	 */
+	public Density toDensity(SamplingGrid grid, float factor) {
+		return toDensity(grid, 0.f, factor);
+	}
+
+	/**
+	 * @brief density of the voxels above a threshold for the Density-Vis
+	 * plugin, the voxels are views of primitive arrays
+	 * @param grid sampling grid the voxels belong to
+	 * @param threshold voxels with a value above it are kept
+	 * @param factor values are multiplied by it, e. g. 255 for grey values
+	 * @return
+	 */
+	public Density toDensity(SamplingGrid grid, float threshold, float factor) {
+		final VoxelList voxels = VoxelList.of(this, grid, threshold, factor);
+		return new Density() {
+			@Override
+			public List<? extends VoxelSet> getVoxels() {
+				return voxels;
+			}
+		};
+	}
+
+	/**
+	 * @brief voxel of the Density-Vis plugin
+	 * @param grid sampling grid the voxel belongs to
+	 * @param key Morton key
+	 * @param value
+	 * @return voxel at the (truncated) position of the sampling cuboid
+	 */
+	public static VoxelSet toVoxelSet(SamplingGrid grid, long key, double value) {
+		return new VoxelImpl(
+			(int) (grid.getX() + CuboidUtility.mortonDecodeX(key) * grid.getWidth()),
+			(int) (grid.getY() + CuboidUtility.mortonDecodeY(key) * grid.getHeight()),
+			(int) (grid.getZ() + CuboidUtility.mortonDecodeZ(key) * grid.getDepth()),
+			(int) grid.getWidth(), (int) grid.getHeight(), (int) grid.getDepth(), value);
+	}
+
+	/**
+	 * @brief pool index of a brick
+	 * @param brickKey
+	 * @return index or -1 if not allocated
+	 */
+	private int find(long brickKey) {
+		if (brickKey == lastKey) {
+			return lastBrick;
+		}
+		int mask = slots.length - 1;
+		for (int slot = (int) ((brickKey * GOLDEN) >>> shift); ; slot = (slot + 1) & mask) {
+			if (slots[slot] == brickKey) {
+				lastKey = brickKey;
+				lastBrick = bricks[slot];
+				return lastBrick;
+			}
+			if (slots[slot] == FREE) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @brief allocates a zero brick
+	 * @param brickKey not allocated yet
+	 * @return its pool index
+	 */
+	private int allocate(long brickKey) {
+		if (brickCount == brickKeys.length) {
+			int capacity = brickKeys.length + (brickKeys.length >> 1) + 1;
+			brickKeys = Arrays.copyOf(brickKeys, capacity);
+			occupied = Arrays.copyOf(occupied, capacity);
+			voxels = Arrays.copyOf(voxels, capacity * BRICK_VOXELS);
+		}
+		/// load factor of at most one half
+		if (2 * (brickCount + 1) > slots.length) {
+			rehash(slots.length * 2);
+		}
+		int brick = brickCount++;
+		brickKeys[brick] = brickKey;
+		insert(brickKey, brick);
+		lastKey = brickKey;
+		lastBrick = brick;
+		return brick;
+	}
+
+	private void insert(long brickKey, int brick) {
+		int mask = slots.length - 1;
+		int slot = (int) ((brickKey * GOLDEN) >>> shift);
+		while (slots[slot] != FREE) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = brickKey;
+		bricks[slot] = brick;
+	}
+
+	private void rehash(int capacity) {
+		slots = new long[capacity];
+		Arrays.fill(slots, FREE);
+		bricks = new int[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		for (int b = 0; b < brickCount; b++) {
+			insert(brickKeys[b], b);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SparseDensityGrid)) {
+			return false;
+		}
+		SparseDensityGrid other = (SparseDensityGrid) obj;
+		if (other.size != size) {
+			return false;
+		}
+		Cursor c = cursor();
+		while (c.next()) {
+			if (Float.floatToIntBits(other.get(c.key())) != Float.floatToIntBits(c.value())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		Cursor c = cursor();
+		while (c.next()) {
+			hash += (int) (c.key() ^ (c.key() >>> 32)) ^ Float.floatToIntBits(c.value());
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return toHashMap().toString();
+	}
+}
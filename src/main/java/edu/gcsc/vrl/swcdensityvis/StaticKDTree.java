@@ -0,0 +1,289 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import edu.wlu.cs.levy.CG.KeySizeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @brief static three-dimensional kd tree over primitive arrays
+ *
+ * The tree is built once by median splits and stored implicitly: the
+ * points are reordered such that the node of the range [lo, hi) is the
+ * median (lo + hi) / 2, split by coordinate depth % 3, with the left
+ * subtree in [lo, median) and the right subtree in (median, hi). There are
+ * no node objects, duplicate keys are allowed.
+ *
+ * Points are addressed by their position in the tree (0 to size - 1),
+ * range queries write these positions into a reusable IndexBuffer.
+ *
+ * @param <T> value attached to each point
+ * @author stephan
+ */
+public final class StaticKDTree<T> {
+
+	/// coordinates in tree order
+	private final float[] x;
+	private final float[] y;
+	private final float[] z;
+	/// values in tree order
+	private final Object[] values;
+
+	/**
+	 * @brief thrown for keys which are not three-dimensional, the
+	 * KeySizeException ctor is not accessible
+	 */
+	private static final class DimensionMismatchException extends KeySizeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * @brief builds the tree, the arrays are copied
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param values value of each point, in the order of the coordinates
+	 */
+	public StaticKDTree(float[] x, float[] y, float[] z, List<? extends T> values) {
+		int n = x.length;
+		if (y.length != n || z.length != n || values.size() != n) {
+			throw new IllegalArgumentException("Coordinates and values must have the same length.");
+		}
+		this.x = Arrays.copyOf(x, n);
+		this.y = Arrays.copyOf(y, n);
+		this.z = Arrays.copyOf(z, n);
+		this.values = values.toArray();
+		build(0, n, 0);
+	}
+
+	/**
+	 * @brief orders [lo, hi) such that its median splits by the coordinate
+	 * of the depth and recurses into both halves
+	 */
+	private void build(int lo, int hi, int depth) {
+		while (hi - lo > 1) {
+			int median = (lo + hi) >>> 1;
+			select(lo, hi - 1, median, depth % 3);
+			build(median + 1, hi, depth + 1);
+			hi = median;
+			depth++;
+		}
+	}
+
+	private float coordinate(int i, int dim) {
+		return dim == 0 ? x[i] : dim == 1 ? y[i] : z[i];
+	}
+
+	/**
+	 * @brief quickselect: moves the k-th smallest point of [left, right]
+	 * by coordinate dim to position k, smaller or equal points before it,
+	 * larger or equal after it
+	 */
+	private void select(int left, int right, int k, int dim) {
+		while (right > left) {
+			/// median of three pivot
+			int mid = (left + right) >>> 1;
+			if (coordinate(mid, dim) < coordinate(left, dim)) {
+				swap(mid, left);
+			}
+			if (coordinate(right, dim) < coordinate(left, dim)) {
+				swap(right, left);
+			}
+			if (coordinate(right, dim) < coordinate(mid, dim)) {
+				swap(right, mid);
+			}
+			float pivot = coordinate(mid, dim);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (coordinate(i, dim) < pivot) {
+					i++;
+				}
+				while (coordinate(j, dim) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		float t = x[i];
+		x[i] = x[j];
+		x[j] = t;
+		t = y[i];
+		y[i] = y[j];
+		y[j] = t;
+		t = z[i];
+		z[i] = z[j];
+		z[j] = t;
+		Object v = values[i];
+		values[i] = values[j];
+		values[j] = v;
+	}
+
+	/**
+	 * @brief number of points
+	 * @return
+	 */
+	public int size() {
+		return x.length;
+	}
+
+	/**
+	 * @brief value of the point at a tree position
+	 * @param index
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) values[index];
+	}
+
+	public float getX(int index) {
+		return x[index];
+	}
+
+	public float getY(int index) {
+		return y[index];
+	}
+
+	public float getZ(int index) {
+		return z[index];
+	}
+
+	/**
+	 * @brief collects all points within the closed box [lo, hi]
+	 * @param lox
+	 * @param loy
+	 * @param loz
+	 * @param hix
+	 * @param hiy
+	 * @param hiz
+	 * @param result cleared and filled with the tree positions of the points
+	 * @return number of points found
+	 */
+	public int range(float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer result) {
+		result.clear();
+		range(0, x.length, 0, lox, loy, loz, hix, hiy, hiz, result);
+		return result.size();
+	}
+
+	private void range(int lo, int hi, int depth, float lox, float loy, float loz, float hix, float hiy, float hiz, IndexBuffer result) {
+		while (lo < hi) {
+			int median = (lo + hi) >>> 1;
+			float px = x[median];
+			float py = y[median];
+			float pz = z[median];
+			if (px >= lox && px <= hix && py >= loy && py <= hiy && pz >= loz && pz <= hiz) {
+				result.add(median);
+			}
+			float split;
+			float low;
+			float high;
+			switch (depth % 3) {
+				case 0:
+					split = px;
+					low = lox;
+					high = hix;
+					break;
+				case 1:
+					split = py;
+					low = loy;
+					high = hiy;
+					break;
+				default:
+					split = pz;
+					low = loz;
+					high = hiz;
+					break;
+			}
+			/// equal keys may be on both sides of the median
+			boolean left = low <= split;
+			boolean right = high >= split;
+			if (left && right) {
+				range(median + 1, hi, depth + 1, lox, loy, loz, hix, hiy, hiz, result);
+				hi = median;
+			} else if (left) {
+				hi = median;
+			} else {
+				lo = median + 1;
+			}
+			depth++;
+		}
+	}
+
+	/**
+	 * @brief collects the values of all points within the closed box
+	 * [lo, hi] (as KDTree.range)
+	 * @param lo
+	 * @param hi
+	 * @return values of the points found
+	 * @throws KeySizeException if the keys are not three-dimensional
+	 */
+	public List<T> range(double[] lo, double[] hi) throws KeySizeException {
+		if (lo.length != 3 || hi.length != 3) {
+			throw new DimensionMismatchException();
+		}
+		IndexBuffer buffer = new IndexBuffer();
+		range(ceil(lo[0]), ceil(lo[1]), ceil(lo[2]), floor(hi[0]), floor(hi[1]), floor(hi[2]), buffer);
+		List<T> result = new ArrayList<T>(buffer.size());
+		for (int i = 0; i < buffer.size(); i++) {
+			result.add(get(buffer.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @brief value of a point with exactly the given key (as KDTree.search)
+	 * @param key
+	 * @return the value or null if there is no such point
+	 * @throws KeySizeException if the key is not three-dimensional
+	 */
+	public T search(double[] key) throws KeySizeException {
+		if (key.length != 3) {
+			throw new DimensionMismatchException();
+		}
+		float kx = (float) key[0];
+		float ky = (float) key[1];
+		float kz = (float) key[2];
+		if (kx != key[0] || ky != key[1] || kz != key[2]) {
+			/// keys are floats, no point can match
+			return null;
+		}
+		IndexBuffer buffer = new IndexBuffer(1);
+		range(kx, ky, kz, kx, ky, kz, buffer);
+		return buffer.size() == 0 ? null : get(buffer.get(0));
+	}
+
+	/**
+	 * @brief smallest float not smaller than v, i. e. the float bound which
+	 * admits the same float keys as the double bound
+	 */
+	private static float ceil(double v) {
+		float f = (float) v;
+		return f < v ? Math.nextUp(f) : f;
+	}
+
+	/**
+	 * @brief largest float not larger than v
+	 */
+	private static float floor(double v) {
+		float f = (float) v;
+		return f > v ? -Math.nextUp(-f) : f;
+	}
+}
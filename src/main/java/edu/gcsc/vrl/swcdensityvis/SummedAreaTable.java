@@ -0,0 +1,244 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import lombok.Getter;
+
+/**
+ * @brief 3D summed-area (prefix-sum) table of the densities of a sampling
+ * grid
+ *
+ * Entry (i, j, k) holds the sum of the cuboids [0, i) x [0, j) x [0, k),
+ * so the sum of any box of cuboids is answered in constant time by
+ * inclusion-exclusion of the eight corners of the box, independent of its
+ * size. The table takes one double per corner of the grid, i. e.
+ * (nx+1) (ny+1) (nz+1) doubles.
+ *
+ * @author stephan
+ */
+public final class SummedAreaTable {
+
+	/// the sampling grid of the densities
+	@Getter private final SamplingGrid grid;
+	/// prefix sums, z fastest
+	private final double[] sums;
+	/// strides of the x and y axis in sums
+	private final int strideX;
+	private final int strideY;
+
+	/**
+	 * @brief ctor
+	 * @param grid
+	 */
+	private SummedAreaTable(SamplingGrid grid) {
+		long size = (grid.getNx() + 1L) * (grid.getNy() + 1L) * (grid.getNz() + 1L);
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many sampling cuboids for a summed-area table: " + grid);
+		}
+		this.grid = grid;
+		this.strideY = grid.getNz() + 1;
+		this.strideX = (grid.getNy() + 1) * strideY;
+		this.sums = new double[(int) size];
+	}
+
+	/**
+	 * @brief builds the table on the pool of the shared service
+	 * @param grid
+	 * @param density densities by Morton key of the cuboids of the grid
+	 * @return
+	 * @throws IllegalArgumentException if the grid has too many cuboids
+	 */
+	public static SummedAreaTable build(SamplingGrid grid, SparseDensityGrid density) {
+		DensityComputeService service = DensityComputeService.getShared();
+		try {
+			return build(grid, density, service.getPool(), service.getParallelism());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Summed-area table was interrupted.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException("Summed-area table failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * @brief builds the table in parallel over slabs
+	 *
+	 * The occupied cuboids are scattered into the table, then each x-slab
+	 * is summed along z and y, and finally each y-slab along x. The slabs
+	 * of a pass are independent, so both passes run on the executor.
+	 *
+	 * @param grid
+	 * @param density densities by Morton key of the cuboids of the grid
+	 * @param executor
+	 * @param slabs number of tasks per pass
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @throws IllegalArgumentException if the grid has too many cuboids
+	 */
+	public static SummedAreaTable build(SamplingGrid grid, SparseDensityGrid density, ExecutorService executor, int slabs) throws InterruptedException, ExecutionException {
+		final SummedAreaTable table = new SummedAreaTable(grid);
+		final double[] s = table.sums;
+		final int sx = table.strideX;
+		final int sy = table.strideY;
+		final int nx = grid.getNx();
+		final int ny = grid.getNy();
+		final int nz = grid.getNz();
+
+		/// cuboid (i, j, k) is entry (i+1, j+1, k+1), the zero planes stay 0
+		SparseDensityGrid.Cursor c = density.cursor();
+		while (c.next()) {
+			if (c.getI() < nx && c.getJ() < ny && c.getK() < nz) {
+				s[(c.getI() + 1) * sx + (c.getJ() + 1) * sy + c.getK() + 1] = c.value();
+			}
+		}
+
+		/// prefix along z and y within each x-slab
+		List<Callable<Void>> planes = new ArrayList<Callable<Void>>();
+		for (final int[] r : split(1, nx + 1, slabs)) {
+			planes.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = r[0]; i < r[1]; i++) {
+						int plane = i * sx;
+						for (int j = 1; j <= ny; j++) {
+							int row = plane + j * sy;
+							for (int k = 1; k <= nz; k++) {
+								s[row + k] += s[row + k - 1];
+							}
+						}
+						for (int j = 2; j <= ny; j++) {
+							int row = plane + j * sy;
+							for (int k = 1; k <= nz; k++) {
+								s[row + k] += s[row - sy + k];
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, planes);
+
+		/// prefix along x within each y-slab
+		List<Callable<Void>> columns = new ArrayList<Callable<Void>>();
+		for (final int[] r : split(1, ny + 1, slabs)) {
+			columns.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = 2; i <= nx; i++) {
+						for (int j = r[0]; j < r[1]; j++) {
+							int row = i * sx + j * sy;
+							for (int k = 1; k <= nz; k++) {
+								s[row + k] += s[row - sx + k];
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, columns);
+		return table;
+	}
+
+	/**
+	 * @brief runs the tasks and waits for all of them
+	 * @param executor
+	 * @param tasks
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws InterruptedException, ExecutionException {
+		for (Future<Void> f : executor.invokeAll(tasks)) {
+			f.get();
+		}
+	}
+
+	/**
+	 * @brief splits [from, to) into at most parts contiguous ranges
+	 * @param from
+	 * @param to
+	 * @param parts
+	 * @return {begin, end} of each range
+	 */
+	private static List<int[]> split(int from, int to, int parts) {
+		List<int[]> ranges = new ArrayList<int[]>();
+		int n = to - from;
+		parts = Math.max(1, Math.min(parts, n));
+		for (int p = 0; p < parts && n > 0; p++) {
+			ranges.add(new int[]{from + (int) ((long) n * p / parts), from + (int) ((long) n * (p + 1) / parts)});
+		}
+		return ranges;
+	}
+
+	/**
+	 * @brief sum of the densities of the cuboids [i0, i1) x [j0, j1) x
+	 * [k0, k1), clamped to the grid
+	 * @param i0
+	 * @param j0
+	 * @param k0
+	 * @param i1
+	 * @param j1
+	 * @param k1
+	 * @return 0 for an empty box
+	 */
+	public double sum(int i0, int j0, int k0, int i1, int j1, int k1) {
+		i0 = clamp(i0, grid.getNx());
+		j0 = clamp(j0, grid.getNy());
+		k0 = clamp(k0, grid.getNz());
+		i1 = clamp(i1, grid.getNx());
+		j1 = clamp(j1, grid.getNy());
+		k1 = clamp(k1, grid.getNz());
+		if (i0 >= i1 || j0 >= j1 || k0 >= k1) {
+			return 0;
+		}
+		return at(i1, j1, k1) - at(i0, j1, k1) - at(i1, j0, k1) - at(i1, j1, k0)
+			+ at(i0, j0, k1) + at(i0, j1, k0) + at(i1, j0, k0) - at(i0, j0, k0);
+	}
+
+	/**
+	 * @brief sum of the densities of the cuboids a region overlaps
+	 * @see RegionOfInterest#getCuboids(SamplingGrid)
+	 * @param region
+	 * @return
+	 */
+	public double sum(RegionOfInterest region) {
+		int[] r = region.getCuboids(grid);
+		return sum(r[0], r[1], r[2], r[3], r[4], r[5]);
+	}
+
+	/**
+	 * @brief sum of the densities of all cuboids
+	 * @return
+	 */
+	public double getTotal() {
+		return at(grid.getNx(), grid.getNy(), grid.getNz());
+	}
+
+	private double at(int i, int j, int k) {
+		return sums[i * strideX + j * strideY + k];
+	}
+
+	private static int clamp(int v, int n) {
+		return Math.max(0, Math.min(n, v));
+	}
+
+	@Override
+	public String toString() {
+		return "SummedAreaTable(grid=" + grid + ")";
+	}
+}
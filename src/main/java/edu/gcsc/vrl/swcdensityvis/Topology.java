@@ -0,0 +1,178 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * @brief child adjacency of a morphology in compressed sparse row layout
+ *
+ * Compartments are addressed by their position in the morphology. The
+ * children of compartment i are children[offsets[i]] ... children[offsets[i+1]-1]
+ * in file order. The topology is built in a single pass over the parent
+ * column (plus a counting pass), i. e. in linear time.
+ *
+ * @note as in the former pairwise search a compartment whose parent index
+ * occurs several times is a child of each of these compartments
+ * @author stephan
+ */
+public final class Topology {
+
+	/// row offsets (size + 1 entries) and child positions
+	private final int[] offsets;
+	private final int[] children;
+
+	/**
+	 * @brief ctor, takes ownership of the arrays
+	 */
+	private Topology(int[] offsets, int[] children) {
+		this.offsets = offsets;
+		this.children = children;
+	}
+
+	/**
+	 * @brief builds the child adjacency of a morphology
+	 * @param cell
+	 * @return
+	 */
+	public static Topology build(Morphology cell) {
+		final int n = cell.size();
+		PositionLookup lookup = new PositionLookup(cell.index);
+
+		/// count children per compartment
+		int[] offsets = new int[n + 1];
+		for (int j = 0; j < n; j++) {
+			for (int i = lookup.first(cell.parent[j] - 1); i >= 0; i = lookup.next(i)) {
+				offsets[i + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		/// fill rows, children end up in ascending (file) order
+		int[] children = new int[offsets[n]];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for (int j = 0; j < n; j++) {
+			for (int i = lookup.first(cell.parent[j] - 1); i >= 0; i = lookup.next(i)) {
+				children[fill[i]++] = j;
+			}
+		}
+		return new Topology(offsets, children);
+	}
+
+	/**
+	 * @brief number of compartments
+	 * @return
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @brief number of children of compartment i
+	 * @param i
+	 * @return
+	 */
+	public int getChildCount(int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	/**
+	 * @brief k-th child of compartment i
+	 * @param i
+	 * @param k
+	 * @return position of the child in the morphology
+	 */
+	public int getChild(int i, int k) {
+		return children[offsets[i] + k];
+	}
+
+	/**
+	 * @brief copy of the row offsets
+	 * @return
+	 */
+	public int[] getOffsets() {
+		return offsets.clone();
+	}
+
+	/**
+	 * @brief copy of the child positions
+	 * @return
+	 */
+	public int[] getChildren() {
+		return children.clone();
+	}
+
+	/**
+	 * @brief maps compartment indices to positions
+	 *
+	 * Uses a direct table if the indices are dense (the common case of
+	 * indices 0 ... n-1) and a hash map otherwise. Positions sharing the
+	 * same index are chained in file order.
+	 */
+	private static final class PositionLookup {
+
+		private final int min;
+		private final int[] table;
+		private final HashMap<Integer, Integer> map;
+		private final int[] next;
+
+		PositionLookup(int[] index) {
+			final int n = index.length;
+			int lo = Integer.MAX_VALUE;
+			int hi = Integer.MIN_VALUE;
+			for (int i = 0; i < n; i++) {
+				lo = Math.min(lo, index[i]);
+				hi = Math.max(hi, index[i]);
+			}
+			min = lo;
+			next = new int[n];
+			Arrays.fill(next, -1);
+
+			long span = (long) hi - lo + 1;
+			if (n > 0 && span <= 4L * n + 64) {
+				table = new int[(int) span];
+				Arrays.fill(table, -1);
+				map = null;
+				/// insert backwards so each chain is in ascending order
+				for (int i = n - 1; i >= 0; i--) {
+					int slot = index[i] - lo;
+					next[i] = table[slot];
+					table[slot] = i;
+				}
+			} else {
+				table = null;
+				map = new HashMap<Integer, Integer>(n * 2);
+				for (int i = n - 1; i >= 0; i--) {
+					Integer head = map.put(index[i], i);
+					next[i] = head != null ? head : -1;
+				}
+			}
+		}
+
+		/**
+		 * @brief first position with the given index
+		 * @param index
+		 * @return position or -1
+		 */
+		int first(int index) {
+			if (table != null) {
+				long slot = (long) index - min;
+				return slot >= 0 && slot < table.length ? table[(int) slot] : -1;
+			}
+			Integer head = map.get(index);
+			return head != null ? head : -1;
+		}
+
+		/**
+		 * @brief next position with the same index
+		 * @param position
+		 * @return position or -1
+		 */
+		int next(int position) {
+			return next[position];
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/// imports
+import edu.gcsc.vrl.densityvis.WritableVoxel;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * @brief list of voxels backed by primitive arrays
+ *
+ * Holds the Morton keys and values of the voxels only, the voxel objects
+ * are lightweight views created on access which read from and write to
+ * the arrays.
+ *
+ * @author stephan
+ */
+final class VoxelList extends AbstractList<WritableVoxel> {
+
+	private final SamplingGrid grid;
+	private final long[] keys;
+	private final float[] values;
+
+	/**
+	 * @brief ctor, takes ownership of the arrays
+	 * @param grid sampling grid the voxels belong to
+	 * @param keys Morton keys of the voxels
+	 * @param values
+	 */
+	VoxelList(SamplingGrid grid, long[] keys, float[] values) {
+		this.grid = grid;
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * @brief voxels of a density above a threshold
+	 * @param density
+	 * @param grid sampling grid of the density
+	 * @param threshold voxels with a density above it are kept
+	 * @param factor the densities are multiplied by it, e. g. 255 for grey values
+	 * @return
+	 */
+	static VoxelList of(SparseDensityGrid density, SamplingGrid grid, float threshold, float factor) {
+		long[] keys = new long[density.size()];
+		float[] values = new float[density.size()];
+		int n = 0;
+		SparseDensityGrid.Cursor c = density.cursor();
+		while (c.next()) {
+			if (c.value() > threshold) {
+				keys[n] = c.key();
+				values[n] = c.value() * factor;
+				n++;
+			}
+		}
+		return new VoxelList(grid, Arrays.copyOf(keys, n), Arrays.copyOf(values, n));
+	}
+
+	@Override
+	public WritableVoxel get(int index) {
+		if (index < 0 || index >= keys.length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + keys.length);
+		}
+		return new Voxel(index);
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @brief view of one voxel
+	 */
+	private final class Voxel implements WritableVoxel {
+
+		private final int index;
+
+		Voxel(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int getX() {
+			return (int) (grid.getX() + CuboidUtility.mortonDecodeX(keys[index]) * grid.getWidth());
+		}
+
+		@Override
+		public int getY() {
+			return (int) (grid.getY() + CuboidUtility.mortonDecodeY(keys[index]) * grid.getHeight());
+		}
+
+		@Override
+		public int getZ() {
+			return (int) (grid.getZ() + CuboidUtility.mortonDecodeZ(keys[index]) * grid.getDepth());
+		}
+
+		@Override
+		public int getWidth() {
+			return (int) grid.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return (int) grid.getHeight();
+		}
+
+		@Override
+		public int getDepth() {
+			return (int) grid.getDepth();
+		}
+
+		@Override
+		public double getValue() {
+			return values[index];
+		}
+
+		@Override
+		public void setValue(double value) {
+			values[index] = (float) value;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis;
+
+/**
+ * @brief walks line segments through a sampling grid (3D DDA)
+ *
+ * A segment is clipped against the grid and then followed cuboid by cuboid
+ * as described by Amanatides and Woo ("A fast voxel traversal algorithm for
+ * ray tracing", 1987). Each cuboid the segment passes through is reported
+ * once with the parameter range [t0, t1] of the segment inside it, so the
+ * cost is proportional to the number of cuboids touched.
+ *
+ * @author stephan
+ */
+public final class VoxelTraversal {
+
+	/**
+	 * @brief receives the cuboids of a traversal in segment order
+	 */
+	public interface Visitor {
+
+		/**
+		 * @brief called for each cuboid with a non-empty part of the segment
+		 * @param i
+		 * @param j
+		 * @param k
+		 * @param t0 segment parameter at which the cuboid is entered
+		 * @param t1 segment parameter at which the cuboid is left (t0 < t1)
+		 */
+		void visit(int i, int j, int k, double t0, double t1);
+	}
+
+	/**
+	 * @brief private ctor since utility classs should be final and private
+	 */
+	private VoxelTraversal() {
+
+	}
+
+	/**
+	 * @brief traverses the segment p = (x1, y1, z1) + t * (x2 - x1, ...)
+	 * for t in [0, 1]
+	 * @param grid
+	 * @param x1
+	 * @param y1
+	 * @param z1
+	 * @param x2
+	 * @param y2
+	 * @param z2
+	 * @param visitor
+	 */
+	public static void traverse(SamplingGrid grid, float x1, float y1, float z1, float x2, float y2, float z2, Visitor visitor) {
+		final int nx = grid.getNx();
+		final int ny = grid.getNy();
+		final int nz = grid.getNz();
+		if (nx == 0 || ny == 0 || nz == 0) {
+			return;
+		}
+
+		/// segment in grid coordinates, i. e. cuboid (i, j, k) is [i, i+1] x ...
+		final double ux = (x1 - grid.getX()) / (double) grid.getWidth();
+		final double uy = (y1 - grid.getY()) / (double) grid.getHeight();
+		final double uz = (z1 - grid.getZ()) / (double) grid.getDepth();
+		final double dx = (x2 - x1) / (double) grid.getWidth();
+		final double dy = (y2 - y1) / (double) grid.getHeight();
+		final double dz = (z2 - z1) / (double) grid.getDepth();
+		if (dx == 0 && dy == 0 && dz == 0) {
+			return;
+		}
+
+		/// clip the parameter range against the grid
+		double[] range = {0, 1};
+		if (!clip(ux, dx, nx, range) || !clip(uy, dy, ny, range) || !clip(uz, dz, nz, range)) {
+			return;
+		}
+		double t = range[0];
+		final double tEnd = range[1];
+		if (!(t < tEnd)) {
+			return;
+		}
+
+		/// start cuboid: the one containing the point slightly after entry
+		final double eps = (tEnd - t) * 1e-9;
+		final double tStart = t + eps;
+		int i = cell(ux + tStart * dx, nx);
+		int j = cell(uy + tStart * dy, ny);
+		int k = cell(uz + tStart * dz, nz);
+
+		final int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+		final int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+		final int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+		final double deltaX = stepX != 0 ? 1 / Math.abs(dx) : Double.POSITIVE_INFINITY;
+		final double deltaY = stepY != 0 ? 1 / Math.abs(dy) : Double.POSITIVE_INFINITY;
+		final double deltaZ = stepZ != 0 ? 1 / Math.abs(dz) : Double.POSITIVE_INFINITY;
+		double maxX = boundary(ux, dx, i, stepX);
+		double maxY = boundary(uy, dy, j, stepY);
+		double maxZ = boundary(uz, dz, k, stepZ);
+
+		while (true) {
+			double next = Math.min(maxX, Math.min(maxY, maxZ));
+			if (next > tEnd - eps) {
+				/// end point on a face up to rounding, e. g. at a multiple of the cuboid size
+				next = tEnd;
+			}
+			double t1 = Math.min(next, tEnd);
+			if (t1 > t) {
+				visitor.visit(i, j, k, t, t1);
+				t = t1;
+			}
+			if (next >= tEnd) {
+				return;
+			}
+			if (maxX == next) {
+				i += stepX;
+				maxX += deltaX;
+				if (i < 0 || i >= nx) {
+					return;
+				}
+			} else if (maxY == next) {
+				j += stepY;
+				maxY += deltaY;
+				if (j < 0 || j >= ny) {
+					return;
+				}
+			} else {
+				k += stepZ;
+				maxZ += deltaZ;
+				if (k < 0 || k >= nz) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief restricts range to the parameters where u + t * d is in [0, n]
+	 * @param u
+	 * @param d
+	 * @param n
+	 * @param range in and out: {t min, t max}
+	 * @return false if the range becomes empty
+	 */
+	private static boolean clip(double u, double d, int n, double[] range) {
+		if (d == 0) {
+			return u >= 0 && u <= n;
+		}
+		double t0 = (0 - u) / d;
+		double t1 = (n - u) / d;
+		if (t0 > t1) {
+			double temp = t0;
+			t0 = t1;
+			t1 = temp;
+		}
+		range[0] = Math.max(range[0], t0);
+		range[1] = Math.min(range[1], t1);
+		return range[0] <= range[1];
+	}
+
+	/**
+	 * @brief cuboid of a grid coordinate, clamped to the grid
+	 */
+	private static int cell(double u, int n) {
+		return Math.max(0, Math.min(n - 1, (int) Math.floor(u)));
+	}
+
+	/**
+	 * @brief parameter at which the segment leaves cuboid c along one axis
+	 */
+	private static double boundary(double u, double d, int c, int step) {
+		if (step > 0) {
+			return (c + 1 - u) / d;
+		}
+		if (step < 0) {
+			return (c - u) / d;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+}
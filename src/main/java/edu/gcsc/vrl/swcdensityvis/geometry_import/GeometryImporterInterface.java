@@ -2,7 +2,7 @@
 package edu.gcsc.vrl.swcdensityvis.geometry_import;
 
 /// imports
-import edu.wlu.cs.levy.CG.KDTree;
+import edu.gcsc.vrl.swcdensityvis.StaticKDTree;
 import eu.mihosoft.vrl.reflection.Pair;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -23,7 +23,7 @@ public interface GeometryImporterInterface {
 	HashMap<Vector3f, ArrayList<Vector3f>> getIndicents();
 	
 	/// build the KD tree
-	KDTree<ArrayList<Vector3f>> buildKDTree();
+	StaticKDTree<ArrayList<Vector3f>> buildKDTree();
 	
 	/// compute density
 	HashMap<Integer, Float> computeDensity();
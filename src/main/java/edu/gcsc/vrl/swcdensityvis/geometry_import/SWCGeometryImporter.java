@@ -2,7 +2,7 @@
 package edu.gcsc.vrl.swcdensityvis.geometry_import;
 
 /// imports
-import edu.wlu.cs.levy.CG.KDTree;
+import edu.gcsc.vrl.swcdensityvis.StaticKDTree;
 import eu.mihosoft.vrl.reflection.Pair;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -51,7 +51,7 @@ public final class SWCGeometryImporter extends GeometryImporter {
 	}
 
 	@Override
-	public KDTree<ArrayList<Vector3f>> buildKDTree() {
+	public StaticKDTree<ArrayList<Vector3f>> buildKDTree() {
 		throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
 	}
 
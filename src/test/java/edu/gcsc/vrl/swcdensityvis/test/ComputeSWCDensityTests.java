@@ -5,7 +5,15 @@
  */
 package edu.gcsc.vrl.swcdensityvis.test;
 
+import edu.gcsc.vrl.densityvis.DensityResult;
 import edu.gcsc.vrl.swcdensityvis.ComputeSWCDensity;
+import edu.gcsc.vrl.swcdensityvis.SWCDensityCache;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -46,4 +54,52 @@ public class ComputeSWCDensityTests {
 		 * @todo implement
 		 */
 	}
+
+	@Test
+	public void watchPublishesUpdatesUntilStopped() throws IOException, InterruptedException {
+		File folder = File.createTempFile("swc-watch", "");
+		assertTrue(folder.delete() && folder.mkdir());
+		/// the density cache of the base resolution, used in watch mode
+		File cacheFile = SWCDensityCache.getCacheFile(folder, 1, 1, 1);
+		ComputeSWCDensity d = new ComputeSWCDensity();
+		try {
+			write(new File(folder, "a.swc"), "1 3 0 0 0 1 -1\n2 3 10 0 0 1 1\n");
+			final LinkedBlockingQueue<DensityResult> updates = new LinkedBlockingQueue<DensityResult>();
+			d.addListener(new ComputeSWCDensity.Listener() {
+				@Override
+				public void updated(DensityResult result) {
+					updates.add(result);
+				}
+			});
+			assertNotNull(d.watch(folder, false, 5, 5, 5, "all", 0.0, null, 50));
+			assertTrue(d.isWatching());
+			assertTrue(cacheFile.isFile());
+
+			write(new File(folder, "b.swc"), "1 3 0 5 0 1 -1\n2 3 0 15 0 1 1\n");
+			assertNotNull("The change should be published.", updates.poll(10, TimeUnit.SECONDS));
+			assertTrue(new File(folder, "a.swc").delete());
+			assertNotNull("The removal should be published.", updates.poll(10, TimeUnit.SECONDS));
+
+			d.stopWatching();
+			assertFalse(d.isWatching());
+			write(new File(folder, "c.swc"), "1 3 0 0 5 1 -1\n2 3 0 0 15 1 1\n");
+			assertNull("No updates after stopping.", updates.poll(500, TimeUnit.MILLISECONDS));
+		} finally {
+			d.stopWatching();
+			cacheFile.delete();
+			for (File f : folder.listFiles()) {
+				f.delete();
+			}
+			folder.delete();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
 }
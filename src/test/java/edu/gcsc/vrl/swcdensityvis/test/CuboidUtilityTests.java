@@ -8,6 +8,7 @@ package edu.gcsc.vrl.swcdensityvis.test;
 import edu.gcsc.vrl.swcdensityvis.Cuboid;
 import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
 import eu.mihosoft.vrl.reflection.Pair;
+import java.util.Random;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -43,24 +44,58 @@ public class CuboidUtilityTests {
 	@Test
 	public void getSampleCuboidBounding() {
 		Pair<int[], int[]> res = CuboidUtility.getSampleCuboidBounding(new Cuboid(0f, 0f, 0f, 1.0f, 1.0f, 1.0f), new Cuboid(0f, 0f, 0f, 0.25f, 0.25f, 0.25f), new Cuboid(0.25f, 0.25f, 0.25f, 0.25f, 0.25f, 0.25f), 0.25f, 0.25f, 0.25f);
-		/**
-		 * @todo implement
-		 */
+		assertArrayEquals(new int[]{0, 0, 0}, res.getFirst());
+		assertArrayEquals(new int[]{2, 2, 2}, res.getSecond());
 	}
 	
 	@Test
 	public void getCuboidById() {
-		CuboidUtility.getCuboidbyId(new Cuboid(0f, 0f, 0f, 1f, 1f, 1f), new int[] {1, 2, 3}, 0.1f, 0.1f, 0.1f);
-		/**
-		 * @todo implement
-		 */
+		Cuboid bounding = new Cuboid(0f, 0f, 0f, 1f, 1f, 1f);
+		Cuboid cuboid = CuboidUtility.getCuboidbyId(bounding, CuboidUtility.mortonEncode(1, 2, 3), 0.25f, 0.25f, 0.25f);
+		assertEquals(new Cuboid(0.25f, 0.5f, 0.75f, 0.25f, 0.25f, 0.25f), cuboid);
+		assertEquals(CuboidUtility.mortonEncode(1, 2, 3), CuboidUtility.getCuboidId(bounding, cuboid, 0.25f, 0.25f, 0.25f));
 	}
 	
 	@Test
 	public void getCuboidId() {
-		CuboidUtility.getCuboidId(new Cuboid(0f, 0f, 0f, 1.0f, 1.0f, 1.0f), new Cuboid(0f, 0f, 0f, 0.25f, 0.25f, 0.25f), 0.1f, 0.1f, 0.1f);
-		/**
-		 * @todo implement
-		 */
+		long id = CuboidUtility.getCuboidId(new Cuboid(0f, 0f, 0f, 1.0f, 1.0f, 1.0f), new Cuboid(0.35f, 0.05f, 0.95f, 0.25f, 0.25f, 0.25f), 0.1f, 0.1f, 0.1f);
+		assertArrayEquals(new int[]{3, 0, 9}, CuboidUtility.mortonDecode(id));
+	}
+	
+	@Test
+	public void mortonRoundTrip() {
+		Random random = new Random(42);
+		for (int n = 0; n < 10000; n++) {
+			int i = random.nextInt(CuboidUtility.MORTON_MAX + 1);
+			int j = random.nextInt(CuboidUtility.MORTON_MAX + 1);
+			int k = random.nextInt(CuboidUtility.MORTON_MAX + 1);
+			assertArrayEquals(new int[]{i, j, k}, CuboidUtility.mortonDecode(CuboidUtility.mortonEncode(i, j, k)));
+		}
+		int max = CuboidUtility.MORTON_MAX;
+		assertEquals((1L << 63) - 1, CuboidUtility.mortonEncode(max, max, max));
+		assertArrayEquals(new int[]{max, max, max}, CuboidUtility.mortonDecode(CuboidUtility.mortonEncode(max, max, max)));
+	}
+	
+	@Test
+	public void mortonOrder() {
+		/// a 2x2x2 block occupies eight consecutive keys, x varies fastest
+		for (int i = 0; i < 2; i++) {
+			for (int j = 0; j < 2; j++) {
+				for (int k = 0; k < 2; k++) {
+					assertEquals(i + 2 * j + 4 * k, CuboidUtility.mortonEncode(i, j, k));
+				}
+			}
+		}
+		assertEquals(8, CuboidUtility.mortonEncode(2, 0, 0));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void mortonOutOfRange() {
+		CuboidUtility.mortonEncode(0, CuboidUtility.MORTON_MAX + 1, 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void mortonNegative() {
+		CuboidUtility.mortonEncode(-1, 0, 0);
 	}
 }
@@ -0,0 +1,119 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.DensityChannels;
+import edu.gcsc.vrl.swcdensityvis.DensityComputeService;
+import edu.gcsc.vrl.swcdensityvis.DensityJob;
+import edu.gcsc.vrl.swcdensityvis.DensityTimings;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCCompartmentType;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class DensityChannelsTests {
+
+	private static HashMap<String, Morphology> cells;
+
+	public DensityChannelsTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void channelOfType() {
+		assertEquals(SWCCompartmentType.AXON.ordinal(), DensityChannels.channel(SWCCompartmentType.AXON.ordinal()));
+		assertEquals(DensityChannels.TYPES, DensityChannels.channel(42));
+		assertEquals(DensityChannels.TYPES, DensityChannels.channel(-1));
+	}
+
+	@Test
+	public void channelsAgreeWithComputeDensity() {
+		DensityTimings timings = new DensityTimings();
+		DensityChannels channels = SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f, timings);
+		assertTrue(timings.getTasks() > 0);
+		int selected = 0;
+		for (SWCCompartmentType type : SWCCompartmentType.values()) {
+			String choice = type.name();
+			int channel = type == SWCCompartmentType.ALL ? -1 : DensityChannels.channel(type.ordinal());
+			if (channel >= 0 && channels.getTotalLength(channel) == 0) {
+				assertEquals(0, channels.getLengths(channel).size());
+				continue;
+			}
+			selected++;
+			assertAgrees(SWCUtility.computeDensityAlternative(cells, 10.f, 10.f, 10.f, choice), channels.density(choice));
+		}
+		/// "all" and at least two types
+		assertTrue(selected >= 3);
+
+		/// all types are the sum of the channels
+		double total = 0;
+		SparseDensityGrid sum = new SparseDensityGrid();
+		for (int c = 0; c < DensityChannels.CHANNELS; c++) {
+			total += channels.getTotalLength(c);
+			SparseDensityGrid.Cursor lc = channels.getLengths(c).cursor();
+			while (lc.next()) {
+				sum.addTo(lc.key(), lc.value());
+			}
+		}
+		assertEquals(total, sum.sum(), 1e-3 * total);
+		sum.scale((float) (cells.size() / total));
+		assertAgrees(sum, channels.density("all"));
+	}
+
+	@Test
+	public void jobOnService() throws InterruptedException, ExecutionException {
+		DensityComputeService service = new DensityComputeService(2);
+		try {
+			DensityJob<DensityChannels> job = service.computeDensityChannels(cells, 10.f, 10.f, 10.f, null);
+			DensityChannels channels = job.get();
+			assertEquals(1.0, job.getProgress(), 0);
+			assertEquals(cells.size(), channels.getCells());
+			assertEquals(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f).getGrid(), channels.getGrid());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * @brief same cuboids, same densities up to rounding
+	 */
+	private static void assertAgrees(SparseDensityGrid expected, SparseDensityGrid actual) {
+		assertEquals(expected.size(), actual.size());
+		SparseDensityGrid.Cursor c = expected.cursor();
+		while (c.next()) {
+			assertEquals(c.value(), actual.get(c.key()), 1e-4 * c.value());
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.DensityComputeService;
+import edu.gcsc.vrl.swcdensityvis.DensityJob;
+import edu.gcsc.vrl.swcdensityvis.DensityProgressListener;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.RegionOfInterest;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class DensityComputeServiceTests {
+
+	private static HashMap<String, Morphology> cells;
+	private DensityComputeService service;
+
+	public DensityComputeServiceTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+		cells.put("original", Morphology.parse(new File("data/02a_pyramidal2aFI_original.swc")));
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+		service = new DensityComputeService(2);
+	}
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+	}
+
+	@Test
+	public void jobAgreesWithSynchronousComputation() throws InterruptedException, ExecutionException {
+		/// the grain and the accumulator slots depend on the parallelism
+		service.shutdown();
+		service = new DensityComputeService(DensityComputeService.getShared().getParallelism());
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger last = new AtomicInteger();
+		DensityJob<SparseDensityGrid> job = service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", new DensityProgressListener() {
+			@Override
+			public void progress(int done, int total) {
+				calls.incrementAndGet();
+				if (done == total) {
+					last.set(total);
+				}
+			}
+		});
+		SparseDensityGrid density = job.get();
+		assertEquals(SWCUtility.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL"), density);
+		assertEquals(service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", null).get(), density);
+		assertTrue(job.isDone());
+		assertFalse(job.isCancelled());
+		assertEquals(1.0, job.getProgress(), 0);
+		assertEquals(job.getTimings().getTasks(), calls.get());
+		assertEquals(job.getTimings().getTasks(), last.get());
+		assertFalse("A finished job can not be cancelled", job.cancel(true));
+	}
+
+	@Test
+	public void denseAndSparseAccumulationAgree() throws InterruptedException, ExecutionException {
+		for (boolean traversal : new boolean[]{true, false}) {
+			service.setDenseMemoryBudget(Long.MAX_VALUE);
+			service.setDirectBuffers(false);
+			DensityJob<SparseDensityGrid> dense = traversal
+				? service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", null)
+				: service.computeDensity(cells, 5.f, 5.f, 5.f, "ALL", null);
+			SparseDensityGrid expected = dense.get();
+			assertEquals("dense", dense.getTimings().getAccumulation());
+			assertTrue(dense.getTimings().getEstimatedBytes() > 0);
+
+			/// the slots of the tasks do not depend on the scheduling
+			DensityJob<SparseDensityGrid> again = traversal
+				? service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", null)
+				: service.computeDensity(cells, 5.f, 5.f, 5.f, "ALL", null);
+			assertEquals("Dense sums should be reproducible", expected, again.get());
+
+			service.setDirectBuffers(true);
+			DensityJob<SparseDensityGrid> direct = traversal
+				? service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", null)
+				: service.computeDensity(cells, 5.f, 5.f, 5.f, "ALL", null);
+			assertAgrees(expected, direct.get());
+			assertEquals("dense direct", direct.getTimings().getAccumulation());
+
+			/// no budget, hash maps of the occupied cuboids
+			service.setDenseMemoryBudget(0);
+			DensityJob<SparseDensityGrid> sparse = traversal
+				? service.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", null)
+				: service.computeDensity(cells, 5.f, 5.f, 5.f, "ALL", null);
+			assertAgrees(expected, sparse.get());
+			assertEquals("sparse", sparse.getTimings().getAccumulation());
+		}
+	}
+
+	/**
+	 * @brief same cuboids, same densities up to rounding
+	 */
+	private static void assertAgrees(SparseDensityGrid expected, SparseDensityGrid actual) {
+		assertEquals(expected.size(), actual.size());
+		SparseDensityGrid.Cursor c = expected.cursor();
+		while (c.next()) {
+			assertEquals(c.value(), actual.get(c.key()), 1e-5 * c.value());
+		}
+	}
+
+	@Test
+	public void cancelStopsWorkers() throws InterruptedException, ExecutionException, TimeoutException {
+		/// kd tree search with small cuboids runs for minutes
+		DensityJob<SparseDensityGrid> job = service.computeDensity(cells, 0.5f, 0.5f, 0.5f, "ALL", null);
+		Thread.sleep(200);
+		assertTrue(job.cancel(true));
+		assertTrue(job.isCancelled());
+		assertFalse("A cancelled job can not be cancelled again", job.cancel(true));
+		try {
+			job.get();
+			fail("A cancelled job should not deliver a result");
+		} catch (CancellationException e) {
+			/// expected
+		}
+		/// done once the tasks have stopped, the progress stays
+		assertTrue(job.isDone());
+		double progress = job.getProgress();
+		assertTrue(progress < 1.0);
+		Thread.sleep(100);
+		assertEquals(progress, job.getProgress(), 0);
+
+		/// the workers are free again shortly
+		DensityJob<SparseDensityGrid> next = service.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL", null);
+		assertFalse(next.get(30, TimeUnit.SECONDS).isEmpty());
+	}
+
+	@Test
+	public void cancelStopsSearchWithinSlab() throws InterruptedException, ExecutionException, TimeoutException {
+		/// one cell spanning a large square in y and z, a slab of small
+		/// cuboids in x takes many seconds
+		Morphology.Builder builder = new Morphology.Builder(2);
+		builder.compartment(0, 3, 0.f, 0.f, 0.f, 1.0, -1);
+		builder.compartment(1, 3, 1.f, 4000.f, 4000.f, 1.0, 1);
+		HashMap<String, Morphology> wide = new HashMap<String, Morphology>();
+		wide.put("wide", builder.build());
+
+		DensityComputeService single = new DensityComputeService(1);
+		try {
+			DensityJob<SparseDensityGrid> job = single.computeDensity(wide, 0.5f, 0.5f, 0.5f, "ALL", null);
+			Thread.sleep(200);
+			assertTrue(job.cancel(true));
+			try {
+				job.get(2, TimeUnit.SECONDS);
+				fail("A cancelled job should not deliver a result");
+			} catch (CancellationException e) {
+				/// expected
+			}
+			assertTrue(job.isDone());
+
+			/// the only worker is free again
+			DensityJob<SparseDensityGrid> next = single.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL", null);
+			assertFalse(next.get(30, TimeUnit.SECONDS).isEmpty());
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	@Test
+	public void cancelStopsRegionWorkers() throws InterruptedException, ExecutionException, TimeoutException {
+		/// one large cell zigzagging through a small box, its task takes seconds
+		Random random = new Random(7);
+		Morphology.Builder builder = new Morphology.Builder(1 << 20);
+		for (int i = 0; i < 1 << 20; i++) {
+			builder.compartment(i, 3, 50 * random.nextFloat(), 50 * random.nextFloat(), 50 * random.nextFloat(), 1.0, i - 1);
+		}
+		HashMap<String, Morphology> large = new HashMap<String, Morphology>();
+		large.put("large", builder.build());
+		List<RegionOfInterest> whole = Collections.singletonList(new RegionOfInterest(0.f, 0.f, 0.f, 50.f, 50.f, 50.f));
+
+		DensityComputeService single = new DensityComputeService(1);
+		try {
+			DensityJob<SparseDensityGrid> job = single.computeDensity(large, 1.f, 1.f, 1.f, "ALL", whole, null);
+			Thread.sleep(200);
+			assertTrue(job.cancel(true));
+
+			/// the only worker is free once the cancelled task has stopped
+			DensityJob<SparseDensityGrid> next = single.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL", null);
+			assertFalse(next.get(30, TimeUnit.SECONDS).isEmpty());
+			assertTrue("The task of the large cell should stop within the cell.", job.getProgress() < 1.0);
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	@Test
+	public void interruptCancelsComputation() throws InterruptedException {
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread invocation = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SWCUtility.computeDensity(cells, 0.5f, 0.5f, 0.5f, "ALL");
+				} catch (Throwable t) {
+					thrown.set(t);
+				}
+			}
+		});
+		invocation.start();
+		Thread.sleep(200);
+		invocation.interrupt();
+		invocation.join(10000);
+		assertFalse("The interrupted computation should return", invocation.isAlive());
+		assertTrue(thrown.get() instanceof CancellationException);
+	}
+}
@@ -0,0 +1,120 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.densityvis.Density;
+import edu.gcsc.vrl.densityvis.VoxelSet;
+import edu.gcsc.vrl.swcdensityvis.DensityPyramid;
+import edu.gcsc.vrl.swcdensityvis.DensityUtil;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class DensityPyramidTests {
+
+	public DensityPyramidTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void levelsSumTheCuboidsBelow() {
+		SamplingGrid grid = new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, 30, 20, 10);
+		SparseDensityGrid base = new SparseDensityGrid();
+		Random random = new Random(5);
+		for (int n = 0; n < 2000; n++) {
+			base.addTo(grid.key(random.nextInt(30), random.nextInt(20), random.nextInt(10)), random.nextFloat());
+		}
+		DensityPyramid pyramid = new DensityPyramid(grid, base);
+		/// 30 cuboids per axis: 15, 8, 4, 2, 1
+		assertEquals(6, pyramid.getLevels());
+		assertEquals(1, pyramid.getGrid(5).getCellCount());
+		for (int level = 0; level < pyramid.getLevels(); level++) {
+			assertEquals(base.sum(), pyramid.getLevel(level).sum(), 1e-3);
+		}
+		assertEquals(new SamplingGrid(0.f, 0.f, 0.f, 4.f, 4.f, 4.f, 8, 5, 3), pyramid.getGrid(2));
+		assertSame(pyramid.getLevel(1), pyramid.density(2, 2, 2));
+
+		/// other multiples are summed from the coarsest level dividing them
+		float expected = 0;
+		for (int i = 6; i < 12; i++) {
+			for (int j = 4; j < 8; j++) {
+				for (int k = 0; k < 2; k++) {
+					expected += base.get(i, j, k);
+				}
+			}
+		}
+		SparseDensityGrid coarse = pyramid.density(6, 4, 2);
+		assertEquals(expected, coarse.get(1, 1, 0), 1e-4);
+		assertEquals(new SamplingGrid(0.f, 0.f, 0.f, 6.f, 4.f, 2.f, 5, 5, 5), pyramid.grid(6, 4, 2));
+		assertEquals(DensityPyramid.coarsen(base, 3, 3, 3), pyramid.density(3, 3, 3));
+	}
+
+	@Test
+	public void factors() {
+		DensityPyramid pyramid = new DensityPyramid(new SamplingGrid(0.f, 0.f, 0.f, 0.5f, 1.f, 1.f, 4, 4, 4), new SparseDensityGrid());
+		assertArrayEquals(new int[]{20, 3, 1}, pyramid.factors(10.f, 3.f, 1.f));
+		assertNull(pyramid.factors(0.75f, 1.f, 1.f));
+		assertNull(pyramid.factors(1.f, 0.5f, 1.f));
+	}
+
+	@Test
+	public void pyramidAgreesWithComputeDensity() throws IOException {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+		DensityPyramid pyramid = DensityPyramid.compute(cells, 1.f, "ALL");
+		for (int size : new int[]{4, 5, 10}) {
+			SparseDensityGrid expected = SWCUtility.computeDensityAlternative(cells, size, size, size, "ALL");
+			SparseDensityGrid actual = pyramid.density(size, size, size);
+			assertEquals(expected.sum(), actual.sum(), 1e-4);
+			SparseDensityGrid.Cursor c = expected.cursor();
+			while (c.next()) {
+				assertEquals(c.value(), actual.get(c.key()), 1e-4 * c.value() + 1e-6);
+			}
+		}
+
+		/// served as density of the stack
+		Density density = DensityUtil.computeDensity(cells, pyramid, 10, 10, 10, "ALL", 0.f);
+		Density direct = DensityUtil.computeDensity(cells, 10, 10, 10, "ALL", 0.f);
+		assertEquals(direct.getVoxels().size(), density.getVoxels().size());
+		for (VoxelSet voxel : density.getVoxels()) {
+			assertEquals(10, voxel.getDepth());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherSizes() {
+		DensityPyramid pyramid = new DensityPyramid(new SamplingGrid(0.f, 0.f, 0.f, 2.f, 2.f, 2.f, 4, 4, 4), new SparseDensityGrid());
+		DensityUtil.computeDensity(new HashMap<String, Morphology>(), pyramid, 3, 4, 4, "ALL", 0.f);
+	}
+}
@@ -4,13 +4,17 @@ package edu.gcsc.vrl.swcdensityvis.test;
 /// imports
 import edu.gcsc.vrl.swcdensityvis.*;
 import edu.wlu.cs.levy.CG.KDTree;
+import edu.wlu.cs.levy.CG.KeyDuplicateException;
 import edu.wlu.cs.levy.CG.KeySizeException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import javax.vecmath.Vector3f;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -59,7 +63,7 @@ public class KDTreeTests {
 		 
 		for (Map.Entry<String, ArrayList<SWCCompartmentInformation>> cell : cells.entrySet()) {
 		HashMap<Vector3f, ArrayList<Vector3f>> incidents = SWCUtility.getIndicents(cell.getValue());
-		KDTree<ArrayList<Vector3f>> tree = SWCUtility.buildKDTree(incidents);
+		StaticKDTree<ArrayList<Vector3f>> tree = SWCUtility.buildKDTree(incidents);
 		assertEquals("Tree size is required to be: 1514, but was: " + tree.size(), tree.size(), 1514);
 		double[] elem = {2.14, 14.34, -0.15};
 		try {
@@ -77,19 +81,136 @@ public class KDTreeTests {
 		}
 	 }
 	 
-	@Test
 	/**
-	 * @todo implement
+	 * @brief random points on a coarse lattice, i. e. with duplicate
+	 * coordinates in each dimension
 	 */
-	public void testKDTreeSearch() {
-		 
+	private static float[][] randomPoints(int n, long seed) {
+		Random random = new Random(seed);
+		float[][] points = new float[3][n];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < 3; d++) {
+				points[d][i] = random.nextInt(50) * 0.5f;
+			}
+		}
+		return points;
 	}
+
+	private static List<Integer> ids(int n) {
+		List<Integer> ids = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			ids.add(i);
+		}
+		return ids;
+	}
+
 	@Test
-	/**
-	 * @todo implement
-	 */
-	public void testKDTreeRange() {
-		
+	public void testKDTreeSearch() throws KeySizeException {
+		float[][] p = randomPoints(2000, 1);
+		StaticKDTree<Integer> tree = new StaticKDTree<Integer>(p[0], p[1], p[2], ids(2000));
+		assertEquals(2000, tree.size());
+		for (int i = 0; i < 2000; i++) {
+			Integer found = tree.search(new double[]{p[0][i], p[1][i], p[2][i]});
+			assertNotNull(found);
+			assertEquals(p[0][i], p[0][found], 0);
+			assertEquals(p[1][i], p[1][found], 0);
+			assertEquals(p[2][i], p[2][found], 0);
+		}
+		assertNull(tree.search(new double[]{0.25, 0.25, 0.25}));
+	}
+
+	@Test(expected = KeySizeException.class)
+	public void testKDTreeKeySize() throws KeySizeException {
+		float[][] p = randomPoints(10, 1);
+		new StaticKDTree<Integer>(p[0], p[1], p[2], ids(10)).range(new double[]{0, 0}, new double[]{1, 1});
+	}
+
+	@Test
+	public void testKDTreeRange() throws KeySizeException {
+		/// all points including duplicates are found, compared to a linear scan
+		float[][] p = randomPoints(5000, 2);
+		StaticKDTree<Integer> tree = new StaticKDTree<Integer>(p[0], p[1], p[2], ids(5000));
+		IndexBuffer hits = new IndexBuffer(1);
+		Random random = new Random(3);
+		for (int q = 0; q < 500; q++) {
+			float[] lo = new float[3];
+			float[] hi = new float[3];
+			for (int d = 0; d < 3; d++) {
+				lo[d] = random.nextInt(50) * 0.5f;
+				hi[d] = lo[d] + random.nextInt(10) * 0.5f;
+			}
+			Set<Integer> expected = new HashSet<Integer>();
+			for (int i = 0; i < 5000; i++) {
+				if (p[0][i] >= lo[0] && p[0][i] <= hi[0] && p[1][i] >= lo[1] && p[1][i] <= hi[1] && p[2][i] >= lo[2] && p[2][i] <= hi[2]) {
+					expected.add(i);
+				}
+			}
+			tree.range(lo[0], lo[1], lo[2], hi[0], hi[1], hi[2], hits);
+			Set<Integer> actual = new HashSet<Integer>();
+			for (int h = 0; h < hits.size(); h++) {
+				actual.add(tree.get(hits.get(h)));
+			}
+			assertEquals(expected.size(), hits.size());
+			assertEquals(expected, actual);
+			assertEquals(expected, new HashSet<Integer>(tree.range(new double[]{lo[0], lo[1], lo[2]}, new double[]{hi[0], hi[1], hi[2]})));
+		}
+	}
+
+	@Test
+	public void benchmarkKDTree() throws IOException, KeySizeException, KeyDuplicateException {
+		HashMap<Vector3f, ArrayList<Vector3f>> incidents = SWCUtility.getIndicents(SWCUtility.parse(new File("data/02a_pyramidal2aFI_original.swc")));
+		final int iterations = 200;
+		StaticKDTree<ArrayList<Vector3f>> tree = null;
+		KDTree<ArrayList<Vector3f>> levy = null;
+		long start = 0;
+		long levyBuild = 0;
+		long staticBuild = 0;
+		/// first half warms up
+		for (int i = 0; i < 2 * iterations; i++) {
+			if (i == iterations) {
+				levyBuild = 0;
+				staticBuild = 0;
+			}
+			start = System.nanoTime();
+			levy = new KDTree<ArrayList<Vector3f>>(3);
+			for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : incidents.entrySet()) {
+				levy.insert(new double[]{entry.getKey().x, entry.getKey().y, entry.getKey().z}, entry.getValue());
+			}
+			levyBuild += System.nanoTime() - start;
+			start = System.nanoTime();
+			tree = SWCUtility.buildKDTree(incidents);
+			staticBuild += System.nanoTime() - start;
+		}
+
+		/// range queries of 10 µm sampling cuboids with some margin
+		Random random = new Random(5);
+		double[][] lower = new double[20000][];
+		double[][] upper = new double[20000][];
+		for (int q = 0; q < lower.length; q++) {
+			lower[q] = new double[]{random.nextInt(60) * 5.f - 150.f, random.nextInt(60) * 5.f - 150.f, random.nextInt(20) * 5.f - 50.f};
+			upper[q] = new double[]{lower[q][0] + 12.f, lower[q][1] + 12.f, lower[q][2] + 12.f};
+		}
+		IndexBuffer hits = new IndexBuffer();
+		long levyQuery = 0;
+		long staticQuery = 0;
+		int levyHits = 0;
+		int staticHits = 0;
+		for (int rep = 0; rep < 2; rep++) {
+			levyHits = 0;
+			staticHits = 0;
+			start = System.nanoTime();
+			for (int q = 0; q < lower.length; q++) {
+				levyHits += levy.range(lower[q], upper[q]).size();
+			}
+			levyQuery = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int q = 0; q < lower.length; q++) {
+				staticHits += tree.range((float) lower[q][0], (float) lower[q][1], (float) lower[q][2], (float) upper[q][0], (float) upper[q][1], (float) upper[q][2], hits);
+			}
+			staticQuery = System.nanoTime() - start;
+		}
+		assertEquals(levyHits, staticHits);
+		System.out.println("KDTree build [ms]: " + levyBuild / 1e6 / iterations + ", range queries [ms]: " + levyQuery / 1e6);
+		System.out.println("StaticKDTree build [ms]: " + staticBuild / 1e6 / iterations + ", range queries [ms]: " + staticQuery / 1e6);
 	}
-		 
 }
@@ -0,0 +1,301 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.LongFloatHashMap;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.Topology;
+import edu.gcsc.vrl.swcdensityvis.VoxelTraversal;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class LongFloatHashMapTests {
+
+	public LongFloatHashMapTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void addToAgreesWithHashMap() {
+		Random random = new Random(13);
+		LongFloatHashMap map = new LongFloatHashMap(2);
+		HashMap<Long, Float> reference = new HashMap<Long, Float>();
+		for (int i = 0; i < 100000; i++) {
+			/// keys beyond the int range, dense keys and the sentinel
+			long key = random.nextBoolean() ? random.nextLong() : (1L << 40) + random.nextInt(5000);
+			if (i % 1000 == 0) {
+				key = Long.MIN_VALUE;
+			}
+			float delta = random.nextFloat();
+			Float old = reference.get(key);
+			reference.put(key, old != null ? old + delta : delta);
+			assertEquals(reference.get(key), map.addTo(key, delta), 0);
+		}
+		assertEquals(reference.size(), map.size());
+		assertEquals(reference, map.toHashMap());
+		assertEquals(map, new LongFloatHashMap(reference));
+	}
+
+	@Test
+	public void putGrowsTable() {
+		LongFloatHashMap map = new LongFloatHashMap(2);
+		for (int i = 0; i < 10000; i++) {
+			map.put((long) i << 33, i);
+		}
+		assertEquals(10000, map.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, map.get((long) i << 33), 0);
+		}
+	}
+
+	@Test
+	public void putGetAndCursor() {
+		LongFloatHashMap map = new LongFloatHashMap();
+		map.put(1L << 40, 2.f);
+		map.put(Long.MIN_VALUE, 3.f);
+		assertEquals(2.f, map.get(1L << 40), 0);
+		assertEquals(0.f, map.get(1L << 41), 0);
+		assertTrue(map.containsKey(Long.MIN_VALUE));
+		assertEquals(5.0, map.sum(), 0);
+
+		LongFloatHashMap.Cursor c = map.cursor();
+		int n = 0;
+		while (c.next()) {
+			c.setValue(c.value() + 1);
+			n++;
+		}
+		assertEquals(2, n);
+		assertEquals(4.f, map.get(Long.MIN_VALUE), 0);
+		map.divide(2.f);
+		assertEquals(1.5f, map.get(1L << 40), 0);
+		map.clear();
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void sumShardedAgreesWithAddAll() throws InterruptedException, ExecutionException {
+		Random random = new Random(7);
+		ArrayList<LongFloatHashMap> maps = new ArrayList<LongFloatHashMap>();
+		LongFloatHashMap expected = new LongFloatHashMap();
+		for (int m = 0; m < 20; m++) {
+			LongFloatHashMap map = new LongFloatHashMap();
+			for (int i = 0; i < 5000; i++) {
+				/// dense keys fill the ranges of the shards
+				map.addTo(random.nextInt(40000), random.nextFloat());
+			}
+			if (m % 5 == 0) {
+				map.put(Long.MIN_VALUE, 1.f);
+			}
+			maps.add(map);
+			expected.addAll(map);
+		}
+		double total = expected.sum();
+		expected.divide(3.f);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int shards = 1; shards <= 16; shards *= 2) {
+				LongFloatHashMap[] sums = new LongFloatHashMap[shards];
+				double[] lengths = new double[shards];
+				LongFloatHashMap.sumSharded(maps, sums, lengths, shards % 4 == 0 ? 9 : 0, executor);
+				double sum = 0;
+				for (double length : lengths) {
+					sum += length;
+				}
+				assertEquals(total, sum, 1e-6 * total);
+				LongFloatHashMap joined = new LongFloatHashMap();
+				for (LongFloatHashMap shard : sums) {
+					for (long key : shard.keys()) {
+						assertFalse(joined.containsKey(key));
+					}
+					joined.addAll(shard);
+				}
+				joined.divide(3.f);
+				assertEquals(expected, joined);
+				for (long key : expected.keys()) {
+					assertEquals(expected.get(key), joined.get(key), 0);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void sumShardedRejectsOddShards() throws InterruptedException, ExecutionException {
+		LongFloatHashMap.sumSharded(new ArrayList<LongFloatHashMap>(), new LongFloatHashMap[3], new double[3], null);
+	}
+
+	/**
+	 * @brief bytes allocated by the current thread so far, -1 if unknown
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @brief number of garbage collections so far
+	 */
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * @brief accumulates the edge lengths of all cells by Morton key and
+	 * reduces them as the density pipeline does, either boxed or primitive
+	 */
+	private static double accumulate(ArrayList<Morphology> cells, final SamplingGrid grid, final boolean boxed) {
+		final ArrayList<HashMap<Long, Float>> boxedResults = new ArrayList<HashMap<Long, Float>>();
+		final ArrayList<LongFloatHashMap> primitiveResults = new ArrayList<LongFloatHashMap>();
+		for (final Morphology cell : cells) {
+			final HashMap<Long, Float> boxedLengths = new HashMap<Long, Float>();
+			final LongFloatHashMap primitiveLengths = new LongFloatHashMap();
+			Topology topology = cell.getTopology();
+			for (int i = 0; i < cell.size(); i++) {
+				for (int c = 0; c < topology.getChildCount(i); c++) {
+					final int child = topology.getChild(i, c);
+					double ex = cell.getX(child) - cell.getX(i);
+					double ey = cell.getY(child) - cell.getY(i);
+					double ez = cell.getZ(child) - cell.getZ(i);
+					final double length = Math.sqrt(ex * ex + ey * ey + ez * ez);
+					VoxelTraversal.traverse(grid, cell.getX(i), cell.getY(i), cell.getZ(i), cell.getX(child), cell.getY(child), cell.getZ(child), new VoxelTraversal.Visitor() {
+						@Override
+						public void visit(int i, int j, int k, double t0, double t1) {
+							long key = grid.key(i, j, k);
+							float len = (float) ((t1 - t0) * length);
+							if (boxed) {
+								if (boxedLengths.containsKey(key)) {
+									boxedLengths.put(key, boxedLengths.get(key) + len);
+								} else {
+									boxedLengths.put(key, len);
+								}
+							} else {
+								primitiveLengths.addTo(key, len);
+							}
+						}
+					});
+				}
+			}
+			boxedResults.add(boxedLengths);
+			primitiveResults.add(primitiveLengths);
+		}
+
+		double total = 0;
+		if (boxed) {
+			HashMap<Long, Float> vals = new HashMap<Long, Float>();
+			for (HashMap<Long, Float> result : boxedResults) {
+				for (Map.Entry<Long, Float> entry : result.entrySet()) {
+					if (vals.containsKey(entry.getKey())) {
+						vals.put(entry.getKey(), entry.getValue() + vals.get(entry.getKey()));
+					} else {
+						vals.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			for (Float value : vals.values()) {
+				total += value;
+			}
+		} else {
+			LongFloatHashMap vals = new LongFloatHashMap();
+			for (LongFloatHashMap result : primitiveResults) {
+				vals.addAll(result);
+			}
+			total = vals.sum();
+		}
+		return total;
+	}
+
+	@Test
+	public void benchmarkAccumulation() throws IOException {
+		/// a stack of 32 cells, the bundled reconstructions shifted slightly
+		ArrayList<Morphology> cells = new ArrayList<Morphology>();
+		HashMap<String, Morphology> stack = new HashMap<String, Morphology>();
+		Morphology original = Morphology.parse(new File("data/02a_pyramidal2aFI_original.swc"));
+		for (int c = 0; c < 32; c++) {
+			Morphology.Builder builder = new Morphology.Builder(original.size());
+			for (int i = 0; i < original.size(); i++) {
+				builder.compartment(original.getIndex(i), original.getType(i), original.getX(i) + c * 0.37f, original.getY(i) - c * 0.21f,
+					original.getZ(i) + c * 0.13f, original.getRadius(i), original.getParent(i));
+			}
+			Morphology cell = builder.build();
+			cells.add(cell);
+			stack.put("cell" + c, cell);
+		}
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(stack), 1.f, 1.f, 1.f);
+
+		/// warm up
+		for (int i = 0; i < 3; i++) {
+			assertEquals(accumulate(cells, grid, true), accumulate(cells, grid, false), 1e-2);
+		}
+
+		long[] bytes = new long[2];
+		long[] gcs = new long[2];
+		long[] nanos = new long[2];
+		for (int variant = 0; variant < 2; variant++) {
+			boolean boxed = variant == 0;
+			System.gc();
+			long gcBefore = collections();
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < 5; i++) {
+				accumulate(cells, grid, boxed);
+			}
+			nanos[variant] = System.nanoTime() - start;
+			bytes[variant] = allocatedBytes() - bytesBefore;
+			gcs[variant] = collections() - gcBefore;
+		}
+		System.out.println("HashMap<Long, Float> accumulation: " + nanos[0] / 5e6 + " ms, " + bytes[0] / 5 / 1024 + " KiB allocated, " + gcs[0] + " collections");
+		System.out.println("LongFloatHashMap accumulation: " + nanos[1] / 5e6 + " ms, " + bytes[1] / 5 / 1024 + " KiB allocated, " + gcs[1] + " collections");
+		if (bytes[0] >= 0 && allocatedBytes() >= 0) {
+			assertTrue("Primitive accumulation should allocate less.", bytes[1] < bytes[0]);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.DensityTimings;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCCompartmentInformation;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import javax.vecmath.Vector3f;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class MorphologyTests {
+
+	private ArrayList<SWCCompartmentInformation> compartments;
+	private Morphology morphology;
+
+	public MorphologyTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		compartments = SWCUtility.parse(new File("data/02a_pyramidal2aFI_original.swc"));
+		morphology = Morphology.parse(new File("data/02a_pyramidal2aFI_original.swc"));
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void parseAgreesWithCompartments() {
+		assertEquals(compartments.size(), morphology.size());
+		List<SWCCompartmentInformation> view = morphology.asCompartmentList();
+		assertEquals(compartments.size(), view.size());
+		for (int i = 0; i < compartments.size(); i++) {
+			SWCCompartmentInformation info = compartments.get(i);
+			assertEquals(info.getIndex(), morphology.getIndex(i));
+			assertEquals(info.getType(), morphology.getType(i));
+			assertEquals(info.getCoordinates(), morphology.getCoordinates(i));
+			assertEquals(info.getConnectivity().getSecond().intValue(), morphology.getParent(i));
+			assertEquals((float) info.getThickness(), morphology.getRadius(i), 0.f);
+			assertEquals(info.getCoordinates(), view.get(i).getCoordinates());
+			assertEquals(info.getConnectivity().getSecond(), view.get(i).getConnectivity().getSecond());
+		}
+	}
+
+	@Test
+	public void fromCompartmentsRoundTrip() {
+		Morphology converted = Morphology.fromCompartments(compartments);
+		ArrayList<SWCCompartmentInformation> back = converted.toCompartments();
+		assertEquals(compartments.size(), back.size());
+		for (int i = 0; i < back.size(); i++) {
+			assertEquals(compartments.get(i).getCoordinates(), back.get(i).getCoordinates());
+			assertEquals(compartments.get(i).getIndex(), back.get(i).getIndex());
+		}
+	}
+
+	@Test
+	public void typeOutOfRangeIsRejected() throws IOException {
+		Morphology.Builder builder = new Morphology.Builder(2);
+		builder.compartment(0, 127, 0.f, 0.f, 0.f, 1.0, -1);
+		try {
+			builder.compartment(1, 200, 1.f, 0.f, 0.f, 1.0, 0);
+			fail("Type 200 should be rejected instead of wrapping to a negative byte.");
+		} catch (IllegalArgumentException e) {
+			/// expected
+		}
+		assertEquals(1, builder.build().size());
+
+		File file = File.createTempFile("swc-type", ".swc");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			out.write("1 1 0 0 0 1 -1\n2 200 1 0 0 1 1\n".getBytes("UTF-8"));
+			out.close();
+			Morphology.parse(file);
+			fail("Type 200 should be reported as an unreadable file.");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("200"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void boundingBoxAgrees() {
+		HashMap<String, ArrayList<SWCCompartmentInformation>> cells = new HashMap<String, ArrayList<SWCCompartmentInformation>>();
+		cells.put("dummy", compartments);
+		assertEquals(SWCUtility.getBoundingBox(cells).getFirst(), morphology.getBoundingBox().getFirst());
+		assertEquals(SWCUtility.getBoundingBox(cells).getSecond(), morphology.getBoundingBox().getSecond());
+		assertEquals(SWCUtility.getDimensions(cells), SWCUtility.getDimensions(Morphology.fromStack(cells)));
+	}
+
+	@Test
+	public void getIndicentsAgrees() throws IOException {
+		HashMap<Vector3f, ArrayList<Vector3f>> incidents = SWCUtility.getIndicents(morphology);
+		assertEquals(SWCUtility.getIndicents(compartments), incidents);
+		assertEquals(SWCUtility.getIndicents(compartments, "axon"), SWCUtility.getIndicents(morphology, "axon"));
+	}
+
+	@Test
+	public void computeDensityAgrees() {
+		HashMap<String, ArrayList<SWCCompartmentInformation>> cells = new HashMap<String, ArrayList<SWCCompartmentInformation>>();
+		cells.put("dummy", compartments);
+		HashMap<String, Morphology> morphologies = new HashMap<String, Morphology>();
+		morphologies.put("dummy", morphology);
+		/// the morphology variant is keyed by Morton keys, the legacy one by sweep indices
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(morphologies), 10.f, 10.f, 10.f);
+		HashMap<Integer, Float> expected = SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL");
+		SparseDensityGrid actual = SWCUtility.computeDensity(morphologies, 10.f, 10.f, 10.f, "ALL");
+		assertEquals(expected.size(), actual.size());
+		SparseDensityGrid.Cursor c = actual.cursor();
+		while (c.next()) {
+			assertEquals(expected.get(grid.indexOfKey(c.key())), c.value(), 0.f);
+		}
+	}
+
+	@Test
+	public void computeDensityTimings() {
+		HashMap<String, Morphology> morphologies = new HashMap<String, Morphology>();
+		for (int i = 0; i < 50; i++) {
+			morphologies.put("dummy" + i, morphology);
+		}
+		DensityTimings timings = new DensityTimings();
+		SparseDensityGrid density = SWCUtility.computeDensityAlternative(morphologies, 5.f, 5.f, 5.f, "ALL", timings);
+		assertTrue(timings.getParallelNanos() > 0);
+		assertTrue(timings.getMergeNanos() > 0);
+		assertTrue(timings.getShards() >= Runtime.getRuntime().availableProcessors());
+		/// identical cells, so the densities of all cells sum up to their number
+		assertEquals(50.0, density.sum(), 1e-3);
+		assertEquals(SWCUtility.computeDensityAlternative(morphologies, 5.f, 5.f, 5.f, "ALL"), density);
+		/// the traversal does not query cuboids
+		assertEquals(0, timings.getQueries());
+
+		/// the hierarchy search reports its candidates
+		timings = new DensityTimings();
+		SWCUtility.computeDensity(morphologies, 5.f, 5.f, 5.f, "ALL", timings);
+		assertTrue(timings.getQueries() > 0);
+		assertTrue(timings.getCandidates() > 0);
+	}
+
+	@Test
+	public void memoryFootprint() {
+		assertEquals(25L * morphology.size(), morphology.getMemoryFootprint());
+	}
+}
@@ -0,0 +1,156 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.MorphometryMetric;
+import edu.gcsc.vrl.swcdensityvis.MorphometryMetrics;
+import edu.gcsc.vrl.swcdensityvis.MorphometryTable;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import edu.gcsc.vrl.swcdensityvis.Topology;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class MorphometryTableTests {
+
+	public MorphometryTableTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void rowsAgreeWithHashMap() {
+		List<MorphometryMetric> metrics = Arrays.asList(MorphometryMetrics.LENGTH, MorphometryMetrics.END_POINTS);
+		MorphometryTable table = new MorphometryTable(metrics);
+		MorphometryTable other = new MorphometryTable(metrics);
+		HashMap<Long, Float> reference = new HashMap<Long, Float>();
+		Random random = new Random(11);
+		for (int n = 0; n < 20000; n++) {
+			long key = CuboidUtility.mortonEncode(random.nextInt(50), random.nextInt(50), random.nextInt(50));
+			float value = random.nextFloat();
+			MorphometryTable target = n % 2 == 0 ? table : other;
+			target.add(target.row(key), 1, value);
+			Float old = reference.get(key);
+			reference.put(key, old != null ? old + value : value);
+		}
+		table.addAll(other);
+		assertEquals(reference.size(), table.size());
+		assertEquals(1, table.getColumn("end points"));
+		assertEquals(-1, table.getColumn("foo"));
+		for (Long key : reference.keySet()) {
+			assertEquals(reference.get(key), table.get(key, 1), 1e-4);
+			assertEquals(0.f, table.get(key, 0), 0);
+		}
+		assertEquals(-1, table.find(CuboidUtility.mortonEncode(60, 0, 0)));
+		assertEquals(reference.size(), table.toGrid(1).size());
+		assertEquals(0, table.toGrid(0).size());
+	}
+
+	@Test
+	public void cylinder() {
+		/// a cylinder of radius 1 and length 10 along x, cuboids of 1 µm
+		Morphology.Builder builder = new Morphology.Builder(2);
+		builder.compartment(0, 1, 0.f, 0.5f, 0.5f, 1.0, -1);
+		builder.compartment(1, 3, 10.f, 0.5f, 0.5f, 1.0, 1);
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("cylinder", builder.build());
+		cells.put("corner", point(10.f, 1.f, 1.f));
+		MorphometryTable table = SWCUtility.computeMorphometry(cells, 1.f, 1.f, 1.f, "ALL", MorphometryMetrics.all());
+		assertEquals(5, table.getColumnCount());
+		assertEquals(10, table.size());
+		assertEquals(10.0, table.sum(0), 1e-4);
+		assertEquals(2 * Math.PI * 10, table.sum(1), 1e-3);
+		assertEquals(Math.PI * 10, table.sum(2), 1e-3);
+		assertEquals(0.0, table.sum(3), 0);
+		/// the end of the cylinder and the corner
+		assertEquals(2.0, table.sum(4), 0);
+		for (int r = 0; r < table.size(); r++) {
+			assertEquals(2 * Math.PI, table.get(r, 1), 1e-4);
+		}
+	}
+
+	@Test
+	public void cone() {
+		/// lateral surface and volume of a cone split by the cuboids
+		Morphology.Builder builder = new Morphology.Builder(2);
+		builder.compartment(0, 1, 0.f, 0.f, 0.f, 2.0, -1);
+		builder.compartment(1, 3, 0.f, 0.f, 7.f, 0.0, 1);
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("cone", builder.build());
+		cells.put("corner", point(1.f, 1.f, 7.f));
+		MorphometryTable table = SWCUtility.computeMorphometry(cells, 2.f, 2.f, 2.f, "ALL",
+			Arrays.asList(MorphometryMetrics.SURFACE, MorphometryMetrics.VOLUME));
+		assertEquals(Math.PI * 2 * Math.sqrt(4 + 49), table.sum(0), 1e-3);
+		assertEquals(Math.PI * 4 * 7 / 3, table.sum(1), 1e-3);
+	}
+
+	/**
+	 * @brief cell of a single compartment, spans the bounding box
+	 */
+	private static Morphology point(float x, float y, float z) {
+		Morphology.Builder builder = new Morphology.Builder(1);
+		builder.compartment(0, 1, x, y, z, 1.0, -1);
+		return builder.build();
+	}
+
+	@Test
+	public void stackAgreesWithComputeDensity() throws IOException {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+		MorphometryTable table = SWCUtility.computeMorphometry(cells, 10.f, 10.f, 10.f, "ALL", MorphometryMetrics.all());
+
+		/// the length column normalized is the density
+		SparseDensityGrid expected = SWCUtility.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL");
+		float total_length = (float) (table.sum(0) / cells.size());
+		SparseDensityGrid.Cursor c = expected.cursor();
+		while (c.next()) {
+			assertEquals(c.value(), table.get(c.key(), 0) / total_length, 1e-4 * c.value());
+		}
+		assertEquals(expected.size(), table.toGrid(0).size());
+
+		/// node counts
+		int branches = 0;
+		int ends = 0;
+		for (Morphology cell : cells.values()) {
+			Topology topology = cell.getTopology();
+			for (int i = 0; i < cell.size(); i++) {
+				branches += topology.getChildCount(i) >= 2 ? 1 : 0;
+				ends += topology.getChildCount(i) == 0 ? 1 : 0;
+			}
+		}
+		assertEquals(branches, table.sum(table.getColumn("branch points")), 0);
+		assertEquals(ends, table.sum(table.getColumn("end points")), 0);
+		assertTrue(table.sum(table.getColumn("volume")) > 0);
+	}
+}
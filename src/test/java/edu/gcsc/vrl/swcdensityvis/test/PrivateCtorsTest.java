@@ -8,8 +8,13 @@ package edu.gcsc.vrl.swcdensityvis.test;
 import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
 import edu.gcsc.vrl.swcdensityvis.DensityUtil;
 import edu.gcsc.vrl.swcdensityvis.EdgeUtility;
+import edu.gcsc.vrl.swcdensityvis.MorphometryMetrics;
+import edu.gcsc.vrl.swcdensityvis.SWCFastParser;
+import edu.gcsc.vrl.swcdensityvis.SWCStackLoader;
 import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SegmentClipper;
 import edu.gcsc.vrl.swcdensityvis.SwappablePairUtility;
+import edu.gcsc.vrl.swcdensityvis.VoxelTraversal;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -73,5 +78,30 @@ public void testConstructorIsPrivate() throws NoSuchMethodException, IllegalAcce
   assertTrue(Modifier.isPrivate(constructor5.getModifiers()));
   constructor5.setAccessible(true);
   constructor5.newInstance();
+
+   Constructor<SWCFastParser> constructor6 = SWCFastParser.class.getDeclaredConstructor();
+  assertTrue(Modifier.isPrivate(constructor6.getModifiers()));
+  constructor6.setAccessible(true);
+  constructor6.newInstance();
+
+   Constructor<SWCStackLoader> constructor7 = SWCStackLoader.class.getDeclaredConstructor();
+  assertTrue(Modifier.isPrivate(constructor7.getModifiers()));
+  constructor7.setAccessible(true);
+  constructor7.newInstance();
+
+   Constructor<VoxelTraversal> constructor8 = VoxelTraversal.class.getDeclaredConstructor();
+  assertTrue(Modifier.isPrivate(constructor8.getModifiers()));
+  constructor8.setAccessible(true);
+  constructor8.newInstance();
+
+   Constructor<SegmentClipper> constructor9 = SegmentClipper.class.getDeclaredConstructor();
+  assertTrue(Modifier.isPrivate(constructor9.getModifiers()));
+  constructor9.setAccessible(true);
+  constructor9.newInstance();
+
+   Constructor<MorphometryMetrics> constructor10 = MorphometryMetrics.class.getDeclaredConstructor();
+  assertTrue(Modifier.isPrivate(constructor10.getModifiers()));
+  constructor10.setAccessible(true);
+  constructor10.newInstance();
 	}
 }
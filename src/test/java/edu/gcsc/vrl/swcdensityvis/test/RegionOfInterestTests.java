@@ -0,0 +1,139 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
+import edu.gcsc.vrl.swcdensityvis.DensityTimings;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.RegionOfInterest;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class RegionOfInterestTests {
+
+	private static HashMap<String, Morphology> cells;
+	private static SamplingGrid grid;
+
+	public RegionOfInterestTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+		grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 10.f, 10.f);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void cuboidsOfRegion() {
+		SamplingGrid g = new SamplingGrid(0.f, 0.f, 0.f, 10.f, 10.f, 10.f, 5, 5, 5);
+		assertArrayEquals(new int[]{1, 0, 2, 3, 1, 5}, new RegionOfInterest(15.f, 0.f, 20.f, 25.f, 5.f, 100.f).getCuboids(g));
+		assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0}, new RegionOfInterest(-20.f, -20.f, -20.f, -10.f, -10.f, -10.f).getCuboids(g));
+		assertTrue(new RegionOfInterest(0.f, 0.f, 0.f, 1.f, 1.f, 1.f).overlaps(1.f, 1.f, 1.f, 2.f, 2.f, 2.f));
+		assertFalse(new RegionOfInterest(0.f, 0.f, 0.f, 1.f, 1.f, 1.f).overlaps(1.5f, 0.f, 0.f, 2.f, 2.f, 2.f));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invertedRegion() {
+		new RegionOfInterest(1.f, 0.f, 0.f, 0.f, 1.f, 1.f);
+	}
+
+	@Test
+	public void regionAgreesWithFullDensity() {
+		SparseDensityGrid full = SWCUtility.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL");
+		RegionOfInterest middle = region(0.25f, 0.6f);
+		SparseDensityGrid restricted = SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL", Collections.singletonList(middle));
+		assertTrue(restricted.size() > 0);
+		assertTrue(restricted.size() < full.size());
+		assertWindow(full, restricted, Collections.singletonList(middle));
+	}
+
+	@Test
+	public void overlappingRegionsCountOnce() {
+		SparseDensityGrid full = SWCUtility.computeDensityAlternative(cells, 10.f, 10.f, 10.f, "ALL");
+		List<RegionOfInterest> regions = Arrays.asList(region(0.f, 0.5f), region(0.3f, 0.8f));
+		assertWindow(full, SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL", regions), regions);
+
+		/// the whole bounding box is the full density
+		assertWindow(full, SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL", Collections.singletonList(region(0.f, 1.f))), Collections.singletonList(region(0.f, 1.f)));
+	}
+
+	@Test
+	public void cellsOutsideAreSkipped() {
+		DensityTimings timings = new DensityTimings();
+		RegionOfInterest outside = new RegionOfInterest(1e5f, 1e5f, 1e5f, 2e5f, 2e5f, 2e5f);
+		SparseDensityGrid restricted = SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL", Collections.singletonList(outside), timings);
+		assertEquals(0, restricted.size());
+		assertEquals(0, timings.getQueries());
+	}
+
+	/**
+	 * @brief region between fractions of the bounding box of the stack
+	 */
+	private static RegionOfInterest region(float from, float to) {
+		float x = grid.getNx() * grid.getWidth();
+		float y = grid.getNy() * grid.getHeight();
+		float z = grid.getNz() * grid.getDepth();
+		return new RegionOfInterest(grid.getX() + from * x, grid.getY() + from * y, grid.getZ() + from * z,
+			grid.getX() + to * x, grid.getY() + to * y, grid.getZ() + to * z);
+	}
+
+	/**
+	 * @brief the restricted density is the full density in the cuboids of
+	 * the regions and absent elsewhere
+	 */
+	private static void assertWindow(SparseDensityGrid full, SparseDensityGrid restricted, List<RegionOfInterest> regions) {
+		int inside = 0;
+		SparseDensityGrid.Cursor c = full.cursor();
+		while (c.next()) {
+			if (contains(regions, c.key())) {
+				inside++;
+				assertEquals(c.value(), restricted.get(c.key()), 1e-4 * c.value());
+			}
+		}
+		assertEquals(inside, restricted.size());
+	}
+
+	private static boolean contains(List<RegionOfInterest> regions, long key) {
+		int i = CuboidUtility.mortonDecodeX(key);
+		int j = CuboidUtility.mortonDecodeY(key);
+		int k = CuboidUtility.mortonDecodeZ(key);
+		for (RegionOfInterest region : regions) {
+			int[] r = region.getCuboids(grid);
+			if (i >= r[0] && i < r[3] && j >= r[1] && j < r[4] && k >= r[2] && k < r[5]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
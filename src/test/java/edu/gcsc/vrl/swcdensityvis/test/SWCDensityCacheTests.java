@@ -0,0 +1,231 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.DensityChannels;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCDensityCache;
+import edu.gcsc.vrl.swcdensityvis.SWCStackLoader;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SWCDensityCacheTests {
+
+	private File folder;
+
+	public SWCDensityCacheTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		folder = File.createTempFile("swc-density", "");
+		assertTrue(folder.delete() && folder.mkdir());
+		for (File f : SWCStackLoader.listSWCFiles(new File("data/"))) {
+			copy(f, new File(folder, f.getName()));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+		SWCDensityCache.getCacheFile(folder, 10.f, 10.f, 10.f).delete();
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	@Test
+	public void loadAgreesWithComputeDensityChannels() throws IOException {
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(folder);
+		SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+		DensityChannels channels = cache.load(cells, 2);
+		assertTrue("Cache should be written on first load.", cache.isWritten() && cache.getCacheFile().isFile());
+		/// three of the five files are identical
+		assertEquals(3, cache.getComputedCount());
+		assertEquals(5, cache.getAddedCount());
+		assertEquals(0, cache.getReusedCount());
+		assertEquals(5, channels.getCells());
+
+		/// the grid is the grid of the other engines
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 10.f, 10.f);
+		assertEquals(grid, channels.getGrid());
+		assertAgrees(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f), channels);
+
+		DensityChannels second = cache.load(cells, 2);
+		assertFalse("Fresh cache should not be rewritten.", cache.isWritten());
+		assertEquals(0, cache.getComputedCount());
+		assertEquals(5, cache.getReusedCount());
+		assertAgrees(channels, second);
+	}
+
+	@Test
+	public void loadComputesChangedFilesOnly() throws IOException {
+		SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+		cache.load(SWCStackLoader.loadMorphologies(folder), 2);
+
+		/// one removed, one changed to a cached content, one added
+		assertTrue(new File(folder, "02a_pyramidal2aFI3.swc").delete());
+		copy(new File("data/02a_pyramidal2aFI_original.swc"), new File(folder, "02a_pyramidal2aFI2.swc"));
+		copy(new File("data/02a_pyramidal2aFI2.swc"), new File(folder, "added.swc"));
+		OutputStream out = new FileOutputStream(new File(folder, "added.swc"), true);
+		out.write("# a comment changes the hash\n".getBytes("UTF-8"));
+		out.close();
+
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(folder);
+		DensityChannels channels = cache.load(cells, 2);
+		assertTrue(cache.isWritten());
+		assertEquals(1, cache.getComputedCount());
+		assertEquals(2, cache.getAddedCount());
+		assertEquals(2, cache.getRemovedCount());
+		assertEquals(3, cache.getReusedCount());
+		assertEquals(5, channels.getCells());
+
+		assertTrue(cache.getCacheFile().delete());
+		DensityChannels expected = new SWCDensityCache(folder, 10.f, 10.f, 10.f).load(cells, 2);
+		assertAgrees(expected, channels);
+	}
+
+	@Test
+	public void loadCachesTheHashedContent() throws IOException {
+		/// the stack is parsed before a file changes
+		HashMap<String, Morphology> stale = SWCStackLoader.loadMorphologies(folder);
+		copy(new File("data/02a_pyramidal2aFI.swc"), new File(folder, "02a_pyramidal2aFI2.swc"));
+		OutputStream out = new FileOutputStream(new File(folder, "02a_pyramidal2aFI2.swc"), true);
+		out.write("1000 3 500 500 500 1.0 1\n".getBytes("UTF-8"));
+		out.close();
+		new SWCDensityCache(folder, 10.f, 10.f, 10.f).load(stale, 2);
+
+		/// the changed file is cached with its new geometry
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(folder);
+		SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+		DensityChannels channels = cache.load(cells, 2);
+		assertEquals(0, cache.getComputedCount());
+		assertAgrees(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f), channels);
+	}
+
+	@Test
+	public void loadIgnoresCorruptCache() throws IOException {
+		OutputStream out = new FileOutputStream(SWCDensityCache.getCacheFile(folder, 10.f, 10.f, 10.f));
+		out.write(new byte[]{1, 2, 3});
+		out.close();
+
+		SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+		DensityChannels channels = cache.load(SWCStackLoader.loadMorphologies(folder), 2);
+		assertEquals(3, cache.getComputedCount());
+		assertTrue(cache.isWritten());
+		assertEquals(5, channels.getCells());
+	}
+
+	@Test
+	public void loadKeepsCellsWhenStackGrows() throws IOException {
+		SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+		cache.load(SWCStackLoader.loadMorphologies(folder), 2);
+
+		/// a cell beyond the lower corner extends the grid, the cached cells stay on the lattice
+		Morphology.Builder builder = new Morphology.Builder(1);
+		builder.compartment(0, 1, -1000, -1000, -1000, 1.0, -1);
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(folder);
+		cells.put("corner.swc", builder.build());
+		OutputStream out = new FileOutputStream(new File(folder, "corner.swc"));
+		out.write("1 1 -1000 -1000 -1000 1.0 -1\n".getBytes("UTF-8"));
+		out.close();
+
+		DensityChannels channels = cache.load(cells, 2);
+		assertEquals(1, cache.getComputedCount());
+		assertEquals(5, cache.getReusedCount());
+		assertEquals(-1000.f, channels.getGrid().getX(), 0);
+		assertAgrees(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f), channels);
+
+		/// removing it again does not recompute anything either
+		assertTrue(new File(folder, "corner.swc").delete());
+		cells.remove("corner.swc");
+		channels = cache.load(cells, 2);
+		assertEquals(0, cache.getComputedCount());
+		assertEquals(1, cache.getRemovedCount());
+		assertAgrees(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f), channels);
+	}
+
+	@Test
+	public void loadIgnoresCorruptCounts() throws IOException {
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(folder);
+		File file = SWCDensityCache.getCacheFile(folder, 10.f, 10.f, 10.f);
+		/// offsets of the number of entries and of the multiplicity of the first entry
+		int entries = 24 + 12 * DensityChannels.CHANNELS + 8;
+		int count = entries + 4 + 20;
+		for (int[] corruption : new int[][]{{entries, 0x40000000}, {entries, -1}, {count, -3}}) {
+			new SWCDensityCache(folder, 10.f, 10.f, 10.f).load(cells, 2);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(corruption[0]);
+				raf.writeInt(corruption[1]);
+			} finally {
+				raf.close();
+			}
+
+			SWCDensityCache cache = new SWCDensityCache(folder, 10.f, 10.f, 10.f);
+			DensityChannels channels = cache.load(cells, 2);
+			assertEquals(3, cache.getComputedCount());
+			assertTrue("Corrupt cache should be replaced.", cache.isWritten());
+			assertAgrees(SWCUtility.computeDensityChannels(cells, 10.f, 10.f, 10.f), channels);
+		}
+	}
+
+	/**
+	 * @brief same grid, same lengths up to rounding
+	 */
+	private static void assertAgrees(DensityChannels expected, DensityChannels actual) {
+		assertEquals(expected.getGrid().getX(), actual.getGrid().getX(), 0);
+		assertEquals(expected.getGrid().getY(), actual.getGrid().getY(), 0);
+		assertEquals(expected.getGrid().getZ(), actual.getGrid().getZ(), 0);
+		for (int c = 0; c < DensityChannels.CHANNELS; c++) {
+			assertEquals(expected.getTotalLength(c), actual.getTotalLength(c), 1e-4 * Math.max(1, expected.getTotalLength(c)));
+			assertEquals(expected.getLengths(c).size(), actual.getLengths(c).size());
+			SparseDensityGrid.Cursor cursor = expected.getLengths(c).cursor();
+			while (cursor.next()) {
+				assertEquals(cursor.value(), actual.getLengths(c).get(cursor.key()), 1e-3);
+			}
+		}
+	}
+}
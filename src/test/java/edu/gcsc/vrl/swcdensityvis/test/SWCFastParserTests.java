@@ -0,0 +1,162 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.SWCCompartmentInformation;
+import edu.gcsc.vrl.swcdensityvis.SWCFastParser;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SWCFastParserTests {
+
+	public SWCFastParserTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	/**
+	 * @brief compares two compartment lists field by field
+	 * @param expected
+	 * @param actual
+	 */
+	private static void assertSameCompartments(ArrayList<SWCCompartmentInformation> expected, ArrayList<SWCCompartmentInformation> actual) {
+		assertEquals("Number of compartments should agree.", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			SWCCompartmentInformation e = expected.get(i);
+			SWCCompartmentInformation a = actual.get(i);
+			assertEquals("Index should agree.", e.getIndex(), a.getIndex());
+			assertEquals("Type should agree.", e.getType(), a.getType());
+			assertEquals("Coordinates should agree.", e.getCoordinates(), a.getCoordinates());
+			assertEquals("Thickness should agree.", Double.doubleToLongBits(e.getThickness()), Double.doubleToLongBits(a.getThickness()));
+			assertEquals("Connectivity should agree.", e.getConnectivity().getFirst(), a.getConnectivity().getFirst());
+			assertEquals("Connectivity should agree.", e.getConnectivity().getSecond(), a.getConnectivity().getSecond());
+		}
+	}
+
+	@Test
+	public void parseAgreesWithBufferedReader() throws IOException {
+		File[] files = new File("data/").listFiles();
+		assertNotNull(files);
+		for (File f : files) {
+			if (f.getName().endsWith(".swc")) {
+				assertSameCompartments(SWCUtility.parseBuffered(f), SWCFastParser.parse(f));
+			}
+		}
+	}
+
+	@Test
+	public void parseArbitraryWhitespace() throws IOException {
+		String content = "# comment\r\n"
+			+ "\n"
+			+ "   1\t1  2.14 1.73\t\t-0.15 12.61 -1\n"
+			+ "2 3 1e1 -2.5E-1 +0.125 0.5 1 extra columns\r"
+			+ "3  3 .5 5. -0 1 2";
+		final ArrayList<float[]> rows = new ArrayList<float[]>();
+		SWCFastParser.parse(ByteBuffer.wrap(content.getBytes("US-ASCII")), new SWCFastParser.Handler() {
+			@Override
+			public void compartment(int index, int type, float x, float y, float z, double thickness, int parent) {
+				rows.add(new float[]{index, type, x, y, z, (float) thickness, parent});
+			}
+		}, "inline");
+
+		assertEquals("Three compartments should be parsed.", 3, rows.size());
+		assertArrayEquals(new float[]{0, 1, 2.14f, 1.73f, -0.15f, 12.61f, -1}, rows.get(0), 0.f);
+		assertArrayEquals(new float[]{1, 3, 10.f, -0.25f, 0.125f, 0.5f, 1}, rows.get(1), 0.f);
+		assertArrayEquals(new float[]{2, 3, 0.5f, 5.f, -0.f, 1.f, 2}, rows.get(2), 0.f);
+	}
+
+	@Test(expected = IOException.class)
+	public void parseMissingColumns() throws IOException {
+		SWCFastParser.parse(ByteBuffer.wrap("1 1 0 0 0 1\n".getBytes("US-ASCII")), new SWCFastParser.Handler() {
+			@Override
+			public void compartment(int index, int type, float x, float y, float z, double thickness, int parent) {
+			}
+		}, "inline");
+	}
+
+	@Test
+	public void parseNumbersExactly() throws IOException {
+		/// random decimals in the typical SWC range and some awkward ones
+		Random random = new Random(42);
+		final ArrayList<String> literals = new ArrayList<String>();
+		for (int i = 0; i < 20000; i++) {
+			literals.add(String.valueOf((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4)));
+			literals.add(String.format(Locale.US, "%.2f", (random.nextDouble() - 0.5) * 2000));
+		}
+		literals.add("1.00000005960464477539062500001");
+		literals.add("3.4028235e38");
+		literals.add("1e-45");
+		literals.add("NaN");
+
+		StringBuilder content = new StringBuilder();
+		for (String literal : literals) {
+			content.append("1 1 ").append(literal).append(' ').append(literal).append(" 0 ").append(literal).append(" -1\n");
+		}
+		final int[] row = {0};
+		SWCFastParser.parse(ByteBuffer.wrap(content.toString().getBytes("US-ASCII")), new SWCFastParser.Handler() {
+			@Override
+			public void compartment(int index, int type, float x, float y, float z, double thickness, int parent) {
+				String literal = literals.get(row[0]++);
+				assertEquals("Float conversion of " + literal, Float.floatToIntBits(Float.parseFloat(literal)), Float.floatToIntBits(x));
+				assertEquals("Double conversion of " + literal, Double.doubleToLongBits(Double.parseDouble(literal)), Double.doubleToLongBits(thickness));
+			}
+		}, "inline");
+		assertEquals(literals.size(), row[0]);
+	}
+
+	@Test
+	public void benchmarkParse() throws IOException {
+		File file = new File("data/02a_pyramidal2aFI_original.swc");
+		final int iterations = 200;
+		/// warm up both parsers
+		for (int i = 0; i < iterations; i++) {
+			SWCUtility.parseBuffered(file);
+			SWCFastParser.parse(file);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			SWCUtility.parseBuffered(file);
+		}
+		long buffered = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			SWCFastParser.parse(file);
+		}
+		long mapped = System.nanoTime() - start;
+
+		double megabytes = file.length() * (double) iterations / (1024 * 1024);
+		System.out.println("Buffered reader throughput [MB/s]: " + megabytes / (buffered / 1e9));
+		System.out.println("Memory-mapped parser throughput [MB/s]: " + megabytes / (mapped / 1e9));
+	}
+}
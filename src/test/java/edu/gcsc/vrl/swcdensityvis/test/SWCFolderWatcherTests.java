@@ -0,0 +1,121 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.SWCFolderWatcher;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SWCFolderWatcherTests {
+
+	private File folder;
+
+	public SWCFolderWatcherTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		folder = File.createTempFile("swc-watch", "");
+		assertTrue(folder.delete() && folder.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+	}
+
+	private void write(String name, String content) throws IOException {
+		OutputStream out = new FileOutputStream(new File(folder, name));
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void burstIsReportedOnce() throws IOException, InterruptedException {
+		final LinkedBlockingQueue<Set<String>> changes = new LinkedBlockingQueue<Set<String>>();
+		SWCFolderWatcher watcher = new SWCFolderWatcher(folder, 300, new SWCFolderWatcher.Listener() {
+			@Override
+			public void changed(Set<String> names) {
+				changes.add(names);
+			}
+		});
+		try {
+			assertTrue(watcher.isWatching());
+			write("a.swc", "1 1 0 0 0 1 -1\n");
+			write("b.swc", "1 1 0 0 0 1 -1\n");
+			write("b.swc", "1 1 1 1 1 1 -1\n");
+			write("notes.txt", "not a reconstruction\n");
+
+			Set<String> names = changes.poll(10, TimeUnit.SECONDS);
+			assertNotNull("The burst should be reported.", names);
+			assertEquals(new HashSet<String>(Arrays.asList("a.swc", "b.swc")), names);
+			assertNull("The burst should be reported once.", changes.poll(1, TimeUnit.SECONDS));
+
+			assertTrue(new File(folder, "a.swc").delete());
+			assertEquals(new HashSet<String>(Arrays.asList("a.swc")), changes.poll(10, TimeUnit.SECONDS));
+
+			/// files other than SWC files are ignored
+			write("notes.txt", "still not a reconstruction\n");
+			assertNull(changes.poll(1, TimeUnit.SECONDS));
+		} finally {
+			watcher.close();
+		}
+		for (int i = 0; i < 50 && watcher.isWatching(); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(watcher.isWatching());
+	}
+
+	@Test
+	public void listenerStopsByInterrupting() throws IOException, InterruptedException {
+		final LinkedBlockingQueue<Set<String>> changes = new LinkedBlockingQueue<Set<String>>();
+		SWCFolderWatcher watcher = new SWCFolderWatcher(folder, 100, new SWCFolderWatcher.Listener() {
+			@Override
+			public void changed(Set<String> names) {
+				changes.add(names);
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			write("a.swc", "1 1 0 0 0 1 -1\n");
+			assertNotNull(changes.poll(10, TimeUnit.SECONDS));
+			for (int i = 0; i < 50 && watcher.isWatching(); i++) {
+				Thread.sleep(100);
+			}
+			assertFalse(watcher.isWatching());
+		} finally {
+			watcher.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.SWCCompartmentInformation;
+import edu.gcsc.vrl.swcdensityvis.SWCStackCache;
+import edu.gcsc.vrl.swcdensityvis.SWCStackLoader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SWCStackCacheTests {
+
+	private File folder;
+
+	public SWCStackCacheTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		folder = File.createTempFile("swc-stack", "");
+		assertTrue(folder.delete() && folder.mkdir());
+		for (File f : SWCStackLoader.listSWCFiles(new File("data/"))) {
+			copy(f, new File(folder, f.getName()));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+		SWCStackCache.getCacheFile(folder).delete();
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static void assertSameStack(HashMap<String, ArrayList<SWCCompartmentInformation>> expected, HashMap<String, ArrayList<SWCCompartmentInformation>> actual) {
+		assertEquals("Same files should be loaded.", expected.keySet(), actual.keySet());
+		for (Map.Entry<String, ArrayList<SWCCompartmentInformation>> entry : expected.entrySet()) {
+			ArrayList<SWCCompartmentInformation> other = actual.get(entry.getKey());
+			assertEquals("Same number of compartments.", entry.getValue().size(), other.size());
+			for (int i = 0; i < other.size(); i++) {
+				SWCCompartmentInformation e = entry.getValue().get(i);
+				SWCCompartmentInformation a = other.get(i);
+				assertEquals(e.getIndex(), a.getIndex());
+				assertEquals(e.getType(), a.getType());
+				assertEquals(e.getCoordinates(), a.getCoordinates());
+				assertEquals(e.getConnectivity().getSecond(), a.getConnectivity().getSecond());
+				assertEquals((float) e.getThickness(), (float) a.getThickness(), 0.f);
+			}
+		}
+	}
+
+	@Test
+	public void loadWritesAndReusesCache() throws IOException {
+		HashMap<String, ArrayList<SWCCompartmentInformation>> parsed = SWCStackLoader.load(folder);
+
+		SWCStackCache cache = new SWCStackCache(folder);
+		HashMap<String, ArrayList<SWCCompartmentInformation>> first = cache.load(2);
+		assertTrue("Cache should be written on first load.", cache.isWritten() && cache.getCacheFile().isFile());
+		assertEquals(5, cache.getParsedCount());
+		assertEquals(0, cache.getReusedCount());
+		assertSameStack(parsed, first);
+
+		HashMap<String, ArrayList<SWCCompartmentInformation>> second = cache.load(2);
+		assertFalse("Fresh cache should not be rewritten.", cache.isWritten());
+		assertEquals(0, cache.getParsedCount());
+		assertEquals(5, cache.getReusedCount());
+		assertSameStack(parsed, second);
+	}
+
+	@Test
+	public void loadRebuildsChangedFilesOnly() throws IOException {
+		SWCStackCache cache = new SWCStackCache(folder);
+		cache.load(2);
+
+		File changed = new File(folder, "02a_pyramidal2aFI2.swc");
+		copy(new File("data/02a_pyramidal2aFI.swc"), changed);
+		assertTrue(changed.setLastModified(changed.lastModified() + 2000));
+		assertTrue(new File(folder, "02a_pyramidal2aFI3.swc").delete());
+
+		HashMap<String, ArrayList<SWCCompartmentInformation>> cells = cache.load(2);
+		assertEquals(1, cache.getParsedCount());
+		assertEquals(3, cache.getReusedCount());
+		assertTrue(cache.isWritten());
+		assertSameStack(SWCStackLoader.load(folder), cells);
+
+		cache.load(2);
+		assertEquals(4, cache.getReusedCount());
+		assertFalse(cache.isWritten());
+	}
+
+	@Test
+	public void loadIgnoresCorruptCache() throws IOException {
+		OutputStream out = new FileOutputStream(SWCStackCache.getCacheFile(folder));
+		out.write(new byte[]{1, 2, 3});
+		out.close();
+
+		SWCStackCache cache = new SWCStackCache(folder);
+		assertSameStack(SWCStackLoader.load(folder), cache.load(2));
+		assertEquals(5, cache.getParsedCount());
+		assertTrue(cache.isWritten());
+	}
+
+	@Test
+	public void loadIgnoresCorruptLengths() throws IOException {
+		/// offsets of the number of cells and of the name length of the first cell
+		for (int[] corruption : new int[][]{{8, 0x40000000}, {12, -5}, {12, 0x7fffffff}}) {
+			new SWCStackCache(folder).load(2);
+			RandomAccessFile raf = new RandomAccessFile(SWCStackCache.getCacheFile(folder), "rw");
+			try {
+				raf.seek(corruption[0]);
+				raf.writeInt(corruption[1]);
+			} finally {
+				raf.close();
+			}
+
+			SWCStackCache cache = new SWCStackCache(folder);
+			assertSameStack(SWCStackLoader.load(folder), cache.load(2));
+			assertEquals(5, cache.getParsedCount());
+			assertTrue("Corrupt cache should be replaced.", cache.isWritten());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCCompartmentInformation;
+import edu.gcsc.vrl.swcdensityvis.SWCStackLoader;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SWCStackLoaderTests {
+
+	public SWCStackLoaderTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void loadAgreesWithSequentialParsing() throws IOException {
+		File[] files = SWCStackLoader.listSWCFiles(new File("data/"));
+		assertEquals("Five SWC files are bundled.", 5, files.length);
+
+		HashMap<String, ArrayList<SWCCompartmentInformation>> sequential = new HashMap<String, ArrayList<SWCCompartmentInformation>>();
+		for (File f : files) {
+			sequential.put(f.getName(), SWCUtility.parse(f));
+		}
+
+		for (int parallelism : new int[]{1, 2, 8}) {
+			HashMap<String, ArrayList<SWCCompartmentInformation>> parallel = SWCStackLoader.load(files, parallelism);
+			assertEquals("Same files should be loaded.", sequential.keySet(), parallel.keySet());
+			for (Map.Entry<String, ArrayList<SWCCompartmentInformation>> entry : sequential.entrySet()) {
+				ArrayList<SWCCompartmentInformation> other = parallel.get(entry.getKey());
+				assertEquals("Same number of compartments.", entry.getValue().size(), other.size());
+				for (int i = 0; i < other.size(); i++) {
+					assertEquals(entry.getValue().get(i).getCoordinates(), other.get(i).getCoordinates());
+					assertEquals(entry.getValue().get(i).getConnectivity().getSecond(), other.get(i).getConnectivity().getSecond());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void loadMorphologiesRecordsStats() throws IOException {
+		File[] files = SWCStackLoader.listSWCFiles(new File("data/"));
+		HashMap<String, long[]> stats = new HashMap<String, long[]>();
+		HashMap<String, Morphology> cells = SWCStackLoader.loadMorphologies(files, 2, stats);
+		assertEquals(cells.keySet(), stats.keySet());
+		for (File f : files) {
+			assertArrayEquals(new long[]{f.length(), f.lastModified()}, stats.get(f.getName()));
+		}
+	}
+
+	@Test
+	public void parseStackWithParallelism() throws IOException {
+		assertEquals(5, SWCUtility.parseStack(new File("data/"), 3).size());
+	}
+
+	@Test(expected = IOException.class)
+	public void loadMissingFolder() throws IOException {
+		SWCStackLoader.load(new File("data/does-not-exist"));
+	}
+
+	@Test(expected = IOException.class)
+	public void loadMissingFile() throws IOException {
+		SWCStackLoader.load(new File[]{new File("data/02a_pyramidal2aFI.swc"), new File("data/missing.swc")}, 2);
+	}
+}
@@ -3,7 +3,9 @@ package edu.gcsc.vrl.swcdensityvis.test;
 
 /// imports
 import edu.gcsc.vrl.densityvis.Density;
+import edu.gcsc.vrl.densityvis.VoxelSet;
 import edu.gcsc.vrl.swcdensityvis.DensityUtil;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
 import edu.gcsc.vrl.swcdensityvis.SWCCompartmentInformation;
 import edu.gcsc.vrl.swcdensityvis.SWCUtility;
 import eu.mihosoft.vrl.reflection.Pair;
@@ -12,6 +14,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.vecmath.Vector3f;
 import org.junit.After;
@@ -172,7 +175,7 @@ public class SWCUtilityTests {
 		 System.err.println("File not found: " + e);
 	 	}
 		HashMap<Integer, Float> res = SWCUtility.computeDensityAlternative(cells);
-		//assertTrue("Result should not be empty", !res.isEmpty());
+		assertTrue("Result should not be empty", !res.isEmpty());
 		 
 	}
 
@@ -194,6 +197,35 @@ public class SWCUtilityTests {
 	assertTrue("Voxels in density should not be zero: ", !density.getVoxels().isEmpty());
 	}
 
+	@Test
+	public void testDensityUtilSparse() throws IOException {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>(1);
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		Density dense = DensityUtil.computeDensity(cells, 10, 10, 10, "ALL");
+		Density sparse = DensityUtil.computeDensity(cells, 10, 10, 10, "ALL", 0.f);
+
+		/// the sparse output holds exactly the non-empty voxels of the dense one
+		HashMap<List<Integer>, Double> expected = new HashMap<List<Integer>, Double>();
+		for (VoxelSet voxel : dense.getVoxels()) {
+			if (voxel.getValue() > 0) {
+				expected.put(Arrays.asList(voxel.getX(), voxel.getY(), voxel.getZ()), voxel.getValue());
+			}
+		}
+		assertTrue(sparse.getVoxels().size() < dense.getVoxels().size());
+		assertEquals(expected.size(), sparse.getVoxels().size());
+		for (VoxelSet voxel : sparse.getVoxels()) {
+			assertEquals(10, voxel.getWidth());
+			assertEquals(expected.get(Arrays.asList(voxel.getX(), voxel.getY(), voxel.getZ())), voxel.getValue(), 1e-4);
+		}
+
+		/// a threshold drops the voxels of low density
+		Density thresholded = DensityUtil.computeDensity(cells, 10, 10, 10, "ALL", 0.01f);
+		assertTrue(thresholded.getVoxels().size() < sparse.getVoxels().size());
+		for (VoxelSet voxel : thresholded.getVoxels()) {
+			assertTrue(voxel.getValue() > 0.01 * 255);
+		}
+	}
+
 	
 	 @Test
 	 public void testEdgeSegmentWithinCube() {
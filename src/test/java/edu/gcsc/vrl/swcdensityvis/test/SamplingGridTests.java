@@ -0,0 +1,106 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SamplingGridTests {
+
+	public SamplingGridTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void keyAndIndex() {
+		SamplingGrid grid = new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, 3, 4, 5);
+		assertEquals(60, grid.getCellCount());
+		assertTrue(grid.hasIntegerIndices());
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 4; j++) {
+				for (int k = 0; k < 5; k++) {
+					assertEquals(CuboidUtility.mortonEncode(i, j, k), grid.key(i, j, k));
+					assertEquals(grid.index(i, j, k), grid.indexOfKey(grid.key(i, j, k)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void fromBoundingBoxSnapsToLattice() throws IOException {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 4.f, 0.3f);
+		assertEquals(0, Math.IEEEremainder(grid.getX(), 10.f), 1e-4);
+		assertEquals(0, Math.IEEEremainder(grid.getY(), 4.f), 1e-4);
+		assertEquals(0, Math.IEEEremainder(grid.getZ(), 0.3f), 1e-4);
+
+		/// a cell beyond the lower corner extends the grid by whole cuboids
+		Morphology.Builder builder = new Morphology.Builder(1);
+		builder.compartment(0, 1, -1001.f, -1001.f, -1001.f, 1.0, -1);
+		cells.put("corner", builder.build());
+		SamplingGrid extended = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 4.f, 0.3f);
+		assertEquals(-1010.f, extended.getX(), 0);
+		assertEquals(-1004.f, extended.getY(), 0);
+		assertEquals(0, Math.IEEEremainder(extended.getX() - grid.getX(), 10.f), 1e-3);
+		assertEquals(0, Math.IEEEremainder(extended.getY() - grid.getY(), 4.f), 1e-3);
+		assertEquals(0, Math.IEEEremainder(extended.getZ() - grid.getZ(), 0.3f), 1e-3);
+	}
+
+	@Test
+	public void largeGrid() {
+		SamplingGrid grid = new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, 2000, 2000, 2000);
+		assertFalse(grid.hasIntegerIndices());
+		assertArrayEquals(new int[]{1999, 1999, 1999}, CuboidUtility.mortonDecode(grid.key(1999, 1999, 1999)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyCuboidsPerAxis() {
+		new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, CuboidUtility.MORTON_MAX + 2, 1, 1);
+	}
+
+	@Test
+	public void computeDensityOnLargeGrid() throws IOException {
+		/// far more than 2^31 sampling cuboids, which sweep indices can not address
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI_original.swc")));
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 0.05f, 0.05f, 0.05f);
+		assertTrue(grid.getCellCount() > Integer.MAX_VALUE);
+
+		SparseDensityGrid density = SWCUtility.computeDensityAlternative(cells, 0.05f, 0.05f, 0.05f, "ALL");
+		assertFalse(density.isEmpty());
+		/// the normalized densities of one cell sum up to one
+		assertEquals(1.0, density.sum(), 1e-3);
+	}
+}
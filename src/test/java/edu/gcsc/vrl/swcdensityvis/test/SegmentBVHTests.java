@@ -0,0 +1,195 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.IndexBuffer;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SegmentBVH;
+import edu.gcsc.vrl.swcdensityvis.SegmentClipper;
+import edu.gcsc.vrl.swcdensityvis.StaticKDTree;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.vecmath.Vector3f;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SegmentBVHTests {
+
+	public SegmentBVHTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	/**
+	 * @brief ids of the segments whose boxes overlap the box by linear scan
+	 */
+	private static Set<Integer> overlapping(float[][] p, float[] lo, float[] hi) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int s = 0; s < p[0].length; s++) {
+			boolean overlaps = true;
+			for (int d = 0; d < 3; d++) {
+				overlaps &= Math.min(p[d][s], p[d + 3][s]) <= hi[d] && Math.max(p[d][s], p[d + 3][s]) >= lo[d];
+			}
+			if (overlaps) {
+				ids.add(s);
+			}
+		}
+		return ids;
+	}
+
+	@Test
+	public void queryAgreesWithLinearScan() {
+		Random random = new Random(7);
+		int size = 5000;
+		float[][] p = new float[6][size];
+		for (int s = 0; s < size; s++) {
+			for (int d = 0; d < 3; d++) {
+				p[d][s] = random.nextFloat() * 100.f;
+				/// mostly short, some very long segments
+				float length = random.nextInt(20) == 0 ? 60.f : 2.f;
+				p[d + 3][s] = p[d][s] + (random.nextFloat() - 0.5f) * length;
+			}
+		}
+		SegmentBVH bvh = new SegmentBVH(p[0], p[1], p[2], p[3], p[4], p[5], size);
+		assertEquals(size, bvh.size());
+
+		IndexBuffer hits = new IndexBuffer();
+		for (int q = 0; q < 500; q++) {
+			float[] lo = new float[3];
+			float[] hi = new float[3];
+			for (int d = 0; d < 3; d++) {
+				lo[d] = random.nextFloat() * 100.f;
+				hi[d] = lo[d] + random.nextFloat() * 5.f;
+			}
+			int count = bvh.query(lo[0], lo[1], lo[2], hi[0], hi[1], hi[2], hits);
+			assertEquals(hits.size(), count);
+			Set<Integer> ids = new HashSet<Integer>();
+			for (int h = 0; h < hits.size(); h++) {
+				assertTrue("Segments are reported once", ids.add(bvh.getId(hits.get(h))));
+			}
+			assertEquals(overlapping(p, lo, hi), ids);
+		}
+	}
+
+	@Test
+	public void emptyHierarchy() {
+		SegmentBVH bvh = new SegmentBVH(new float[0], new float[0], new float[0], new float[0], new float[0], new float[0], 0);
+		IndexBuffer hits = new IndexBuffer();
+		assertEquals(0, bvh.query(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, hits));
+		assertEquals(0.f, bvh.clippedLength(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, hits), 0);
+	}
+
+	@Test
+	public void longSegmentIsFound() {
+		/// one segment crossing many cuboids, none of its end points is near
+		float[] x1 = {0.f};
+		float[] x2 = {100.f};
+		float[] zero = {0.5f};
+		SegmentBVH bvh = new SegmentBVH(x1, zero, zero, x2, zero, zero, 1);
+		IndexBuffer hits = new IndexBuffer();
+		assertEquals(1, bvh.query(50.f, 0.f, 0.f, 51.f, 1.f, 1.f, hits));
+		assertEquals(1.f, bvh.clippedLength(50.f, 0.f, 0.f, 51.f, 1.f, 1.f, hits), 1e-5);
+		assertEquals(0, bvh.query(50.f, 2.f, 0.f, 51.f, 3.f, 1.f, hits));
+	}
+
+	@Test
+	public void buildFromMorphology() throws IOException {
+		Morphology cell = Morphology.parse(new File("data/02a_pyramidal2aFI.swc"));
+		/// every compartment but the root has one edge to its parent
+		SegmentBVH bvh = SegmentBVH.build(cell, -1);
+		assertEquals(cell.size() - 1, bvh.size());
+
+		/// the clipped lengths within a box holding the cell sum up to the total length
+		double total = 0;
+		for (int i = 0; i < cell.size(); i++) {
+			if (cell.getParent(i) > 0) {
+				int parent = cell.getParent(i) - 1;
+				total += SegmentClipper.clippedLength(cell.getX(parent), cell.getY(parent), cell.getZ(parent),
+					cell.getX(i), cell.getY(i), cell.getZ(i), -1e4f, -1e4f, -1e4f, 1e4f, 1e4f, 1e4f);
+			}
+		}
+		IndexBuffer hits = new IndexBuffer();
+		assertEquals(total, bvh.clippedLength(-1e4f, -1e4f, -1e4f, 1e4f, 1e4f, 1e4f, hits), 1e-3 * total);
+	}
+
+	@Test
+	public void candidatesComparedToPaddedKDTree() throws IOException {
+		/// the former search queried the start points in cuboids padded by
+		/// the mean edge extent and missed edges longer than the padding
+		Morphology cell = Morphology.parse(new File("data/02a_pyramidal2aFI.swc"));
+		SegmentBVH bvh = SegmentBVH.build(cell, -1);
+		HashMap<Vector3f, ArrayList<Vector3f>> incidents = SWCUtility.getIndicents(cell);
+		StaticKDTree<ArrayList<Vector3f>> tree = SWCUtility.buildKDTree(incidents);
+		float[] lambda = new float[3];
+		int edges = 0;
+		for (Map.Entry<Vector3f, ArrayList<Vector3f>> entry : incidents.entrySet()) {
+			for (Vector3f vec : entry.getValue()) {
+				lambda[0] += Math.abs(entry.getKey().x - vec.x);
+				lambda[1] += Math.abs(entry.getKey().y - vec.y);
+				lambda[2] += Math.abs(entry.getKey().z - vec.z);
+				edges++;
+			}
+		}
+		for (int d = 0; d < 3; d++) {
+			lambda[d] /= edges;
+		}
+
+		float size = 5.f;
+		float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int i = 0; i < cell.size(); i++) {
+			bounds[0] = Math.min(bounds[0], cell.getX(i));
+			bounds[1] = Math.min(bounds[1], cell.getY(i));
+			bounds[2] = Math.min(bounds[2], cell.getZ(i));
+			bounds[3] = Math.max(bounds[3], cell.getX(i));
+			bounds[4] = Math.max(bounds[4], cell.getY(i));
+			bounds[5] = Math.max(bounds[5], cell.getZ(i));
+		}
+		IndexBuffer hits = new IndexBuffer();
+		long queries = 0;
+		long bvhCandidates = 0;
+		long treeCandidates = 0;
+		for (float x = bounds[0]; x < bounds[3]; x += size) {
+			for (float y = bounds[1]; y < bounds[4]; y += size) {
+				for (float z = bounds[2]; z < bounds[5]; z += size) {
+					bvhCandidates += bvh.query(x, y, z, x + size, y + size, z + size, hits);
+					treeCandidates += tree.range(x - lambda[0], y - lambda[1], z - lambda[2],
+						x + size + lambda[0], y + size + lambda[1], z + size + lambda[2], hits);
+					queries++;
+				}
+			}
+		}
+		System.out.println("Cuboid queries: " + queries);
+		System.out.println("Candidates per query (hierarchy over edges): " + (double) bvhCandidates / queries);
+		System.out.println("Candidates per query (padded kd tree over start points): " + (double) treeCandidates / queries);
+		assertTrue(bvhCandidates > 0);
+	}
+}
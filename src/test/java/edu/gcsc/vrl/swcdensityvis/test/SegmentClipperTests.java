@@ -0,0 +1,123 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.SegmentClipper;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SegmentClipperTests {
+
+	private static final double DELTA = 1e-5;
+
+	public SegmentClipperTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void clippedLengthCases() {
+		/// both vertices inside
+		assertEquals(Math.sqrt(3), SegmentClipper.clippedLength(0.5f, 0.5f, 0.5f, 1.5f, 1.5f, 1.5f, 0, 0, 0, 2, 2, 2), DELTA);
+		/// one vertex inside, in both orders
+		assertEquals(0.5, SegmentClipper.clippedLength(0.5f, 0.5f, 0.5f, 1.5f, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+		assertEquals(0.5, SegmentClipper.clippedLength(1.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+		/// both vertices outside, crossing and missing
+		assertEquals(1, SegmentClipper.clippedLength(-1, 0.5f, 0.5f, 2, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+		assertEquals(0, SegmentClipper.clippedLength(-1, 2, 0.5f, 2, 2, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+		assertEquals(0, SegmentClipper.clippedLength(-1, -0.5f, 0.5f, 0.5f, -2, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+		/// segment within a face of the (closed) box
+		assertEquals(1, SegmentClipper.clippedLength(0, 0, 1, 1, 0, 1, 0, 0, 0, 1, 1, 1), DELTA);
+		/// degenerated segment
+		assertEquals(0, SegmentClipper.clippedLength(0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1), DELTA);
+	}
+
+	@Test
+	public void clippedLengthIsAdditive() {
+		/// the lengths within the eight octants sum up to the length within the box
+		Random random = new Random(3);
+		for (int s = 0; s < 1000; s++) {
+			float[] p = new float[6];
+			for (int i = 0; i < 6; i++) {
+				p[i] = random.nextFloat() * 4 - 1;
+			}
+			float whole = SegmentClipper.clippedLength(p[0], p[1], p[2], p[3], p[4], p[5], 0, 0, 0, 2, 2, 2);
+			float parts = 0;
+			for (int o = 0; o < 8; o++) {
+				float x = o & 1;
+				float y = (o >> 1) & 1;
+				float z = (o >> 2) & 1;
+				parts += SegmentClipper.clippedLength(p[0], p[1], p[2], p[3], p[4], p[5], x, y, z, x + 1, y + 1, z + 1);
+			}
+			assertEquals(whole, parts, DELTA);
+		}
+	}
+
+	@Test
+	public void intersectRay() {
+		float[] t = new float[2];
+		assertTrue(SegmentClipper.intersectRay(0.5f, 0.5f, 0.5f, 1, 0, 0, 0, 0, 0, 1, 1, 1, t));
+		assertArrayEquals(new float[]{-0.5f, 0.5f}, t, 0);
+		assertTrue(SegmentClipper.intersectRay(-1, 0.5f, 0.5f, 4, 0, 0, 0, 0, 0, 1, 1, 1, t));
+		assertArrayEquals(new float[]{0.25f, 0.5f}, t, 0);
+		assertFalse(SegmentClipper.intersectRay(-1, 2, 0.5f, 1, 0, 0, 0, 0, 0, 1, 1, 1, t));
+		assertArrayEquals(new float[]{-1f, -1f}, t, 0);
+		assertTrue(SegmentClipper.intersectRay(0.5f, 0.5f, 0.5f, 0, 0, 0, 0, 0, 0, 1, 1, 1, t));
+		assertArrayEquals(new float[]{0f, 0f}, t, 0);
+
+		assertTrue(SegmentClipper.intersectSegment(-1, 0.5f, 0.5f, 3, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1, t));
+		assertFalse(SegmentClipper.intersectSegment(-3, 0.5f, 0.5f, -1, 0.5f, 0.5f, 0, 0, 0, 1, 1, 1, t));
+	}
+
+	@Test
+	public void clippedLengthAllocatesNothing() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		float[] t = new float[2];
+		float sum = 0;
+		/// warm up, i. e. compile the kernel
+		for (int i = 0; i < 100000; i++) {
+			sum += SegmentClipper.clippedLength(i % 7, 0.5f, 0.5f, -(i % 5), 0.25f, 0.75f, 0, 0, 0, 1, 1, 1);
+			SegmentClipper.intersectSegment(i % 7, 0.5f, 0.5f, -(i % 5), 0.25f, 0.75f, 0, 0, 0, 1, 1, 1, t);
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < 100000; i++) {
+			sum += SegmentClipper.clippedLength(i % 7, 0.5f, 0.5f, -(i % 5), 0.25f, 0.75f, 0, 0, 0, 1, 1, 1);
+			SegmentClipper.intersectSegment(i % 7, 0.5f, 0.5f, -(i % 5), 0.25f, 0.75f, 0, 0, 0, 1, 1, 1, t);
+		}
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+		assertTrue(sum > 0);
+		/// allow for the measurement itself, but not for one object per call
+		assertTrue("Kernel should not allocate, allocated " + allocated + " bytes.", allocated < 100000);
+	}
+}
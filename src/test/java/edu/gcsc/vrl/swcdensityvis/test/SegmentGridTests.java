@@ -0,0 +1,144 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.IndexBuffer;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SegmentBVH;
+import edu.gcsc.vrl.swcdensityvis.SegmentGrid;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SegmentGridTests {
+
+	public SegmentGridTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	/**
+	 * @brief ids of the segments whose boxes overlap the box by linear scan
+	 */
+	private static Set<Integer> overlapping(float[][] p, float[] lo, float[] hi) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int s = 0; s < p[0].length; s++) {
+			boolean overlaps = true;
+			for (int d = 0; d < 3; d++) {
+				overlaps &= Math.min(p[d][s], p[d + 3][s]) <= hi[d] && Math.max(p[d][s], p[d + 3][s]) >= lo[d];
+			}
+			if (overlaps) {
+				ids.add(s);
+			}
+		}
+		return ids;
+	}
+
+	@Test
+	public void queryAgreesWithLinearScan() {
+		Random random = new Random(11);
+		int size = 5000;
+		float[][] p = new float[6][size];
+		for (int s = 0; s < size; s++) {
+			for (int d = 0; d < 3; d++) {
+				p[d][s] = random.nextFloat() * 100.f;
+				/// mostly short, some long segments
+				float length = random.nextInt(20) == 0 ? 30.f : 2.f;
+				p[d + 3][s] = p[d][s] + (random.nextFloat() - 0.5f) * length;
+			}
+		}
+		for (float cell : new float[]{1.f, 5.f, 50.f}) {
+			SegmentGrid grid = new SegmentGrid(p[0], p[1], p[2], p[3], p[4], p[5], size, cell, cell, cell);
+			assertEquals(size, grid.size());
+			IndexBuffer hits = new IndexBuffer();
+			for (int q = 0; q < 300; q++) {
+				float[] lo = new float[3];
+				float[] hi = new float[3];
+				for (int d = 0; d < 3; d++) {
+					/// also boxes partially outside the segments
+					lo[d] = random.nextFloat() * 120.f - 10.f;
+					hi[d] = lo[d] + random.nextFloat() * 2.f * cell;
+				}
+				int count = grid.query(lo[0], lo[1], lo[2], hi[0], hi[1], hi[2], hits);
+				assertEquals(hits.size(), count);
+				Set<Integer> ids = new HashSet<Integer>();
+				for (int h = 0; h < hits.size(); h++) {
+					assertTrue("Segments are reported once", ids.add(grid.getId(hits.get(h))));
+				}
+				assertEquals(overlapping(p, lo, hi), ids);
+			}
+		}
+	}
+
+	@Test
+	public void emptyGrid() {
+		SegmentGrid grid = new SegmentGrid(new float[0], new float[0], new float[0], new float[0], new float[0], new float[0], 0, 1.f, 1.f, 1.f);
+		IndexBuffer hits = new IndexBuffer();
+		assertEquals(0, grid.query(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, hits));
+		assertEquals(0.f, grid.clippedLength(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, hits), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cellSizeMustBePositive() {
+		float[] zero = {0.f};
+		new SegmentGrid(zero, zero, zero, zero, zero, zero, 1, 0.f, 1.f, 1.f);
+	}
+
+	@Test
+	public void agreesWithHierarchy() throws IOException {
+		Morphology cell = Morphology.parse(new File("data/02a_pyramidal2aFI.swc"));
+		SegmentGrid grid = SegmentGrid.build(cell, -1, 5.f, 5.f, 5.f);
+		SegmentBVH bvh = SegmentBVH.build(cell, -1);
+		assertEquals(bvh.size(), grid.size());
+		/// the buckets are sized by the number of registrations
+		assertTrue(grid.getBuckets() >= grid.size());
+
+		IndexBuffer hits = new IndexBuffer();
+		Random random = new Random(5);
+		for (int q = 0; q < 1000; q++) {
+			float x = (random.nextFloat() - 0.5f) * 400.f;
+			float y = (random.nextFloat() - 0.5f) * 400.f;
+			float z = (random.nextFloat() - 0.5f) * 100.f;
+			float expected = bvh.clippedLength(x, y, z, x + 5.f, y + 5.f, z + 5.f, hits);
+			assertEquals(expected, grid.clippedLength(x, y, z, x + 5.f, y + 5.f, z + 5.f, hits), 1e-4);
+		}
+	}
+
+	@Test
+	public void meanCellsPerSegment() throws IOException {
+		Morphology cell = Morphology.parse(new File("data/02a_pyramidal2aFI.swc"));
+		double coarse = SegmentGrid.meanCellsPerSegment(Collections.singleton(cell), -1, 100.f, 100.f, 100.f);
+		double fine = SegmentGrid.meanCellsPerSegment(Collections.singleton(cell), -1, 0.1f, 0.1f, 0.1f);
+		/// edges much shorter than the cells are mostly within one cell
+		assertTrue(coarse >= 1.0 && coarse < 1.5);
+		assertTrue(fine > SegmentGrid.MAX_MEAN_CELLS_PER_SEGMENT);
+		assertEquals(0.0, SegmentGrid.meanCellsPerSegment(Collections.<Morphology>emptySet(), -1, 1.f, 1.f, 1.f), 0);
+	}
+}
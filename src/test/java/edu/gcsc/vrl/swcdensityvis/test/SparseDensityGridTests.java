@@ -0,0 +1,219 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.densityvis.Density;
+import edu.gcsc.vrl.densityvis.VoxelSet;
+import edu.gcsc.vrl.densityvis.WritableVoxel;
+import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
+import edu.gcsc.vrl.swcdensityvis.LongFloatHashMap;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SparseDensityGridTests {
+
+	public SparseDensityGridTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void addToAgreesWithHashMap() {
+		Random random = new Random(3);
+		SparseDensityGrid grid = new SparseDensityGrid(1);
+		HashMap<Long, Float> reference = new HashMap<Long, Float>();
+		for (int n = 0; n < 100000; n++) {
+			/// clustered and scattered voxels
+			long key = random.nextBoolean()
+				? CuboidUtility.mortonEncode(random.nextInt(40), random.nextInt(40), random.nextInt(40))
+				: CuboidUtility.mortonEncode(random.nextInt(CuboidUtility.MORTON_MAX), random.nextInt(CuboidUtility.MORTON_MAX), random.nextInt(CuboidUtility.MORTON_MAX));
+			float delta = random.nextFloat() + 0.5f;
+			Float old = reference.get(key);
+			reference.put(key, old != null ? old + delta : delta);
+			assertEquals(reference.get(key), grid.addTo(key, delta), 0);
+		}
+		assertEquals(reference.size(), grid.size());
+		assertEquals(reference, grid.toHashMap());
+		assertEquals(grid, SparseDensityGrid.fromMap(new LongFloatHashMap(reference)));
+		assertEquals(new LongFloatHashMap(reference), grid.toMap());
+	}
+
+	@Test
+	public void putGetAndCursor() {
+		SparseDensityGrid grid = new SparseDensityGrid();
+		grid.put(CuboidUtility.mortonEncode(1, 2, 3), 2.f);
+		grid.put(CuboidUtility.mortonEncode(100, 2, 3), 3.f);
+		assertEquals(2.f, grid.get(1, 2, 3), 0);
+		assertEquals(3.f, grid.get(CuboidUtility.mortonEncode(100, 2, 3)), 0);
+		assertEquals(0.f, grid.get(1, 2, 4), 0);
+		assertEquals(0.f, grid.get(-1, 2, 3), 0);
+		assertEquals(2, grid.size());
+		assertEquals(2, grid.getBrickCount());
+		assertEquals(5.0, grid.sum(), 0);
+
+		SparseDensityGrid.Cursor c = grid.cursor();
+		int n = 0;
+		while (c.next()) {
+			assertEquals(grid.get(c.getI(), c.getJ(), c.getK()), c.value(), 0);
+			c.setValue(c.value() + 1);
+			n++;
+		}
+		assertEquals(2, n);
+		assertEquals(3.f, grid.get(1, 2, 3), 0);
+		grid.scale(0.5f);
+		assertEquals(2.f, grid.get(100, 2, 3), 0);
+
+		/// zero voxels count as absent
+		grid.put(CuboidUtility.mortonEncode(1, 2, 3), 0.f);
+		assertEquals(1, grid.size());
+		grid.put(CuboidUtility.mortonEncode(500, 2, 3), 0.f);
+		assertEquals(2, grid.getBrickCount());
+		c = grid.cursor();
+		assertTrue(c.next());
+		assertEquals(CuboidUtility.mortonEncode(100, 2, 3), c.key());
+		assertFalse(c.next());
+	}
+
+	@Test
+	public void neighbours() {
+		SparseDensityGrid grid = new SparseDensityGrid();
+		/// across the brick boundary at 8
+		long key = CuboidUtility.mortonEncode(7, 7, 7);
+		grid.put(key, 1.f);
+		grid.put(CuboidUtility.mortonEncode(8, 7, 7), 2.f);
+		grid.put(CuboidUtility.mortonEncode(7, 6, 7), 3.f);
+		assertEquals(2, grid.getBrickCount());
+		assertEquals(2.f, grid.getNeighbour(key, 1, 0, 0), 0);
+		assertEquals(3.f, grid.getNeighbour(key, 0, -1, 0), 0);
+		assertEquals(0.f, grid.getNeighbour(key, 0, 0, 1), 0);
+		assertEquals(0.f, grid.getNeighbour(CuboidUtility.mortonEncode(0, 0, 0), -1, 0, 0), 0);
+	}
+
+	@Test
+	public void memoryIsProportionalToOccupiedSpace() {
+		/// a thin line of voxels through a box of 1000^3 voxels
+		SparseDensityGrid grid = new SparseDensityGrid();
+		for (int i = 0; i < 1000; i++) {
+			grid.put(CuboidUtility.mortonEncode(i, i, i), 1.f);
+		}
+		assertEquals(1000 / SparseDensityGrid.BRICK_SIZE, grid.getBrickCount());
+		assertTrue(grid.getMemoryFootprint() < 4L * 2 * grid.getBrickCount() * SparseDensityGrid.BRICK_VOXELS + 4096);
+	}
+
+	@Test
+	public void joinAgreesWithSumSharded() throws InterruptedException, ExecutionException {
+		Random random = new Random(7);
+		ArrayList<LongFloatHashMap> maps = new ArrayList<LongFloatHashMap>();
+		for (int m = 0; m < 10; m++) {
+			LongFloatHashMap map = new LongFloatHashMap();
+			for (int n = 0; n < 2000; n++) {
+				map.addTo(CuboidUtility.mortonEncode(random.nextInt(50), random.nextInt(50), random.nextInt(50)), random.nextFloat() + 0.5f);
+			}
+			maps.add(map);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			LongFloatHashMap expected = new LongFloatHashMap();
+			for (LongFloatHashMap map : maps) {
+				expected.addAll(map);
+			}
+			expected.divide(3.f);
+			LongFloatHashMap[] shards = new LongFloatHashMap[4];
+			LongFloatHashMap.sumSharded(maps, shards, new double[4], SparseDensityGrid.BRICK_BITS, executor);
+			SparseDensityGrid joined = SparseDensityGrid.join(shards, 3.f, executor);
+			assertEquals(expected.size(), joined.size());
+			assertEquals(expected, joined.toMap());
+			assertEquals(SparseDensityGrid.fromMap(expected).getBrickCount(), joined.getBrickCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void joinRejectsSharedBricks() throws InterruptedException, ExecutionException {
+		LongFloatHashMap first = new LongFloatHashMap();
+		first.put(CuboidUtility.mortonEncode(0, 0, 0), 1.f);
+		LongFloatHashMap second = new LongFloatHashMap();
+		second.put(CuboidUtility.mortonEncode(1, 0, 0), 1.f);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			SparseDensityGrid.join(new LongFloatHashMap[]{first, second}, 1.f, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void toDensity() {
+		SamplingGrid sampling = new SamplingGrid(10.f, 20.f, 30.f, 2.f, 2.f, 2.f, 100, 100, 100);
+		SparseDensityGrid grid = new SparseDensityGrid();
+		grid.put(sampling.key(1, 2, 3), 0.5f);
+		grid.put(sampling.key(50, 0, 0), 0.25f);
+		Density density = grid.toDensity(sampling, 255);
+		/// the non-zero voxels only
+		assertEquals(2, density.getVoxels().size());
+		for (VoxelSet voxel : density.getVoxels()) {
+			assertEquals(2, voxel.getWidth());
+			if (voxel.getX() == 12) {
+				assertEquals(24, voxel.getY());
+				assertEquals(36, voxel.getZ());
+				assertEquals(127.5, voxel.getValue(), 1e-6);
+			} else {
+				assertEquals(110, voxel.getX());
+				assertEquals(63.75, voxel.getValue(), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void toDensityViews() {
+		SamplingGrid sampling = new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, 100, 100, 100);
+		SparseDensityGrid grid = new SparseDensityGrid();
+		for (int i = 0; i < 100; i++) {
+			grid.put(sampling.key(i, 0, 0), i / 100.f);
+		}
+		/// above the threshold only, voxel 0 is absent
+		Density density = grid.toDensity(sampling, 0.5f, 1.f);
+		assertEquals(49, density.getVoxels().size());
+		for (VoxelSet voxel : density.getVoxels()) {
+			assertTrue(voxel.getValue() > 0.5);
+			assertEquals(voxel.getX() / 100.0, voxel.getValue(), 1e-6);
+		}
+
+		/// the views write through to the arrays
+		WritableVoxel voxel = (WritableVoxel) density.getVoxels().get(0);
+		voxel.setValue(7.0);
+		assertEquals(7.0, density.getVoxels().get(0).getValue(), 0);
+		assertEquals(99, grid.toDensity(sampling, 1.f).getVoxels().size());
+	}
+}
@@ -0,0 +1,128 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.densityvis.Density;
+import edu.gcsc.vrl.densityvis.DensityResult;
+import edu.gcsc.vrl.densityvis.VoxelSet;
+import edu.gcsc.vrl.swcdensityvis.ComputeBoxDensity;
+import edu.gcsc.vrl.swcdensityvis.CuboidUtility;
+import edu.gcsc.vrl.swcdensityvis.DensityUtil;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.RegionOfInterest;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import edu.gcsc.vrl.swcdensityvis.SummedAreaTable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class SummedAreaTableTests {
+
+	private static HashMap<String, Morphology> cells;
+
+	public SummedAreaTableTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	@Test
+	public void boxSumsAgreeWithBruteForce() throws InterruptedException, ExecutionException {
+		Random random = new Random(42);
+		SamplingGrid grid = new SamplingGrid(0.f, 0.f, 0.f, 1.f, 1.f, 1.f, 13, 7, 11);
+		SparseDensityGrid density = new SparseDensityGrid();
+		for (int n = 0; n < 300; n++) {
+			density.addTo(CuboidUtility.mortonEncode(random.nextInt(13), random.nextInt(7), random.nextInt(11)), random.nextFloat());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			/// more slabs than planes and a single slab give the same table
+			for (int slabs : new int[]{1, 4, 100}) {
+				SummedAreaTable table = SummedAreaTable.build(grid, density, executor, slabs);
+				assertEquals(density.sum(), table.getTotal(), 1e-9 * density.sum());
+				for (int n = 0; n < 200; n++) {
+					int i0 = random.nextInt(15) - 1, i1 = random.nextInt(15) - 1;
+					int j0 = random.nextInt(9) - 1, j1 = random.nextInt(9) - 1;
+					int k0 = random.nextInt(13) - 1, k1 = random.nextInt(13) - 1;
+					assertEquals(bruteForce(density, i0, j0, k0, i1, j1, k1), table.sum(i0, j0, k0, i1, j1, k1), 1e-9);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void regionSumsAgreeWithDensity() {
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 10.f, 10.f);
+		SparseDensityGrid full = SWCUtility.computeDensity(cells, 10.f, 10.f, 10.f, "ALL");
+		Density density = DensityUtil.computeDensity(cells, 10, 10, 10, "ALL");
+		double[][] boxes = {{-1e5, -1e5, -1e5, 1e5, 1e5, 1e5}, {-20, -30, -10, 40, 25, 15}, {1e5, 1e5, 1e5, 2e5, 2e5, 2e5}};
+		for (double[] b : boxes) {
+			RegionOfInterest box = new RegionOfInterest((float) b[0], (float) b[1], (float) b[2], (float) b[3], (float) b[4], (float) b[5]);
+			int[] r = box.getCuboids(grid);
+			double expected = bruteForce(full, r[0], r[1], r[2], r[3], r[4], r[5]);
+			assertEquals(expected, DensityUtil.sum(density, box), 1e-6);
+			assertEquals(expected, new ComputeBoxDensity().compute(new DensityResult(density, null), b[0], b[1], b[2], b[3], b[4], b[5]), 1e-6);
+		}
+
+		/// a box around the whole stack sums up all cuboids
+		assertEquals(full.sum(), DensityUtil.sum(density, new RegionOfInterest(-1e5f, -1e5f, -1e5f, 1e5f, 1e5f, 1e5f)), 1e-6);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void foreignDensity() {
+		DensityUtil.sum(new Density() {
+			@Override
+			public List<? extends VoxelSet> getVoxels() {
+				return Collections.<VoxelSet>emptyList();
+			}
+		}, new RegionOfInterest(0.f, 0.f, 0.f, 1.f, 1.f, 1.f));
+	}
+
+	private static double bruteForce(SparseDensityGrid density, int i0, int j0, int k0, int i1, int j1, int k1) {
+		double sum = 0;
+		SparseDensityGrid.Cursor c = density.cursor();
+		while (c.next()) {
+			if (c.getI() >= i0 && c.getI() < i1 && c.getJ() >= j0 && c.getJ() < j1 && c.getK() >= k0 && c.getK() < k1) {
+				sum += c.value();
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,127 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.Topology;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class TopologyTests {
+
+	public TopologyTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	/**
+	 * @brief pairwise reference search for the children of compartment i
+	 */
+	private static ArrayList<Integer> children(Morphology cell, int i) {
+		ArrayList<Integer> children = new ArrayList<Integer>();
+		for (int j = 0; j < cell.size(); j++) {
+			if (cell.getIndex(i) == cell.getParent(j) - 1) {
+				children.add(j);
+			}
+		}
+		return children;
+	}
+
+	private static void assertSameTopology(Morphology cell) {
+		Topology topology = Topology.build(cell);
+		assertEquals(cell.size(), topology.size());
+		for (int i = 0; i < cell.size(); i++) {
+			ArrayList<Integer> expected = children(cell, i);
+			assertEquals("Number of children should agree.", expected.size(), topology.getChildCount(i));
+			for (int k = 0; k < expected.size(); k++) {
+				assertEquals("Children should agree.", expected.get(k).intValue(), topology.getChild(i, k));
+			}
+		}
+	}
+
+	/**
+	 * @brief random tree with the SWC convention index = position
+	 */
+	private static Morphology randomTree(int n, long seed) {
+		Random random = new Random(seed);
+		Morphology.Builder builder = new Morphology.Builder(n);
+		for (int i = 0; i < n; i++) {
+			int parent = i == 0 ? -1 : random.nextInt(i) + 1;
+			builder.compartment(i, 3, random.nextFloat(), random.nextFloat(), random.nextFloat(), 1, parent);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void buildAgreesWithPairwiseSearch() throws IOException {
+		File[] files = new File("data/").listFiles();
+		assertNotNull(files);
+		for (File f : files) {
+			if (f.getName().endsWith(".swc")) {
+				assertSameTopology(Morphology.parse(f));
+			}
+		}
+		assertSameTopology(randomTree(500, 1));
+	}
+
+	@Test
+	public void buildSparseAndDuplicateIndices() {
+		Morphology.Builder builder = new Morphology.Builder();
+		builder.compartment(1000000, 1, 0, 0, 0, 1, -1);
+		builder.compartment(7, 3, 1, 0, 0, 1, 1000001);
+		builder.compartment(7, 3, 2, 0, 0, 1, 1000001);
+		builder.compartment(-5, 3, 3, 0, 0, 1, 8);
+		builder.compartment(9, 3, 4, 0, 0, 1, 42);
+		Morphology cell = builder.build();
+		assertSameTopology(cell);
+		/// the compartment with parent 8 is a child of both compartments 7
+		assertEquals(1, Topology.build(cell).getChildCount(1));
+		assertEquals(1, Topology.build(cell).getChildCount(2));
+	}
+
+	@Test
+	public void buildEmpty() {
+		Topology topology = Topology.build(new Morphology.Builder().build());
+		assertEquals(0, topology.size());
+		assertEquals(0, topology.getChildren().length);
+	}
+
+	@Test
+	public void buildLargeReconstruction() {
+		Morphology cell = randomTree(100000, 2);
+		/// warm up
+		Topology.build(cell);
+		long start = System.nanoTime();
+		Topology topology = Topology.build(cell);
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Topology of 100000 compartments built in [ms]: " + elapsed / 1e6);
+		assertEquals(cell.size() - 1, topology.getChildren().length);
+		assertTrue("Topology construction should be linear.", elapsed < 1000000000L);
+	}
+}
@@ -0,0 +1,339 @@
+/// package's name
+package edu.gcsc.vrl.swcdensityvis.test;
+
+/// imports
+import edu.gcsc.vrl.swcdensityvis.DensityTimings;
+import edu.gcsc.vrl.swcdensityvis.LongFloatHashMap;
+import edu.gcsc.vrl.swcdensityvis.Morphology;
+import edu.gcsc.vrl.swcdensityvis.SWCUtility;
+import edu.gcsc.vrl.swcdensityvis.SamplingGrid;
+import edu.gcsc.vrl.swcdensityvis.SparseDensityGrid;
+import edu.gcsc.vrl.swcdensityvis.Topology;
+import edu.gcsc.vrl.swcdensityvis.VoxelTraversal;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author stephan
+ */
+public class VoxelTraversalTests {
+
+	private static final double DELTA = 1e-6;
+
+	public VoxelTraversalTests() {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+	}
+
+	@Before
+	public void setUp() {
+	}
+
+	@After
+	public void tearDown() {
+	}
+
+	/**
+	 * @brief records the visited cuboids and parameter ranges
+	 */
+	private static final class Recorder implements VoxelTraversal.Visitor {
+
+		private final ArrayList<int[]> cuboids = new ArrayList<int[]>();
+		private final ArrayList<double[]> ranges = new ArrayList<double[]>();
+
+		@Override
+		public void visit(int i, int j, int k, double t0, double t1) {
+			cuboids.add(new int[]{i, j, k});
+			ranges.add(new double[]{t0, t1});
+		}
+
+		double covered() {
+			double sum = 0;
+			for (double[] range : ranges) {
+				sum += range[1] - range[0];
+			}
+			return sum;
+		}
+	}
+
+	@Test
+	public void traverseAxisAligned() {
+		SamplingGrid grid = new SamplingGrid(0, 0, 0, 1, 1, 1, 4, 4, 4);
+		Recorder recorder = new Recorder();
+		VoxelTraversal.traverse(grid, 0.5f, 1.5f, 2.5f, 3.5f, 1.5f, 2.5f, recorder);
+		assertEquals(4, recorder.cuboids.size());
+		for (int c = 0; c < 4; c++) {
+			assertArrayEquals(new int[]{c, 1, 2}, recorder.cuboids.get(c));
+		}
+		assertArrayEquals(new double[]{0, 1. / 6}, recorder.ranges.get(0), DELTA);
+		assertArrayEquals(new double[]{5. / 6, 1}, recorder.ranges.get(3), DELTA);
+	}
+
+	@Test
+	public void traverseReversed() {
+		SamplingGrid grid = new SamplingGrid(-1, -2, -3, 0.5f, 0.7f, 0.3f, 10, 10, 20);
+		Recorder forward = new Recorder();
+		Recorder backward = new Recorder();
+		VoxelTraversal.traverse(grid, -0.9f, -1.1f, 2.9f, 3.8f, 4.1f, -2.7f, forward);
+		VoxelTraversal.traverse(grid, 3.8f, 4.1f, -2.7f, -0.9f, -1.1f, 2.9f, backward);
+		assertEquals(forward.cuboids.size(), backward.cuboids.size());
+		int n = forward.cuboids.size();
+		for (int c = 0; c < n; c++) {
+			assertArrayEquals(forward.cuboids.get(c), backward.cuboids.get(n - 1 - c));
+		}
+		assertEquals(1, forward.covered(), DELTA);
+	}
+
+	@Test
+	public void traverseClipsToGrid() {
+		SamplingGrid grid = new SamplingGrid(0, 0, 0, 1, 1, 1, 2, 2, 2);
+		Recorder recorder = new Recorder();
+		/// enters at x = 0 and leaves at x = 2, i. e. half of the segment
+		VoxelTraversal.traverse(grid, -1, 0.5f, 0.5f, 3, 0.5f, 0.5f, recorder);
+		assertEquals(2, recorder.cuboids.size());
+		assertEquals(0.5, recorder.covered(), DELTA);
+
+		recorder = new Recorder();
+		VoxelTraversal.traverse(grid, -1, 5, 0.5f, 3, 5, 0.5f, recorder);
+		assertTrue("Segments outside of the grid should not be reported.", recorder.cuboids.isEmpty());
+
+		recorder = new Recorder();
+		VoxelTraversal.traverse(grid, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, recorder);
+		assertTrue("Degenerated segments should not be reported.", recorder.cuboids.isEmpty());
+	}
+
+	@Test
+	public void traverseRandomSegments() {
+		SamplingGrid grid = new SamplingGrid(0, 0, 0, 1, 1, 1, 16, 16, 16);
+		Random random = new Random(7);
+		for (int s = 0; s < 1000; s++) {
+			float[] p = {random.nextFloat() * 16, random.nextFloat() * 16, random.nextFloat() * 16};
+			float[] q = {random.nextFloat() * 16, random.nextFloat() * 16, random.nextFloat() * 16};
+			Recorder recorder = new Recorder();
+			VoxelTraversal.traverse(grid, p[0], p[1], p[2], q[0], q[1], q[2], recorder);
+			assertEquals("Segment should be covered completely.", 1, recorder.covered(), DELTA);
+			/// consecutive cuboids are face neighbours
+			for (int c = 1; c < recorder.cuboids.size(); c++) {
+				int[] a = recorder.cuboids.get(c - 1);
+				int[] b = recorder.cuboids.get(c);
+				assertEquals(1, Math.abs(a[0] - b[0]) + Math.abs(a[1] - b[1]) + Math.abs(a[2] - b[2]));
+				assertEquals(recorder.ranges.get(c - 1)[1], recorder.ranges.get(c)[0], 0);
+			}
+		}
+	}
+
+	@Test
+	public void fromBoundingBox() throws IOException {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 10.f, 10.f, 10.f);
+		/// dimensions are 77.28 x 48.75 x 34.09, the lower corner -75.14 is snapped to the lattice
+		assertEquals(9, grid.getNx());
+		assertEquals(6, grid.getNy());
+		assertEquals(4, grid.getNz());
+		assertEquals(-80.f, grid.getX(), 0);
+		assertEquals(-30.f, grid.getY(), 0);
+		assertEquals(-20.f, grid.getZ(), 0);
+		assertEquals((1 * 6 + 2) * 4 + 3, grid.index(1, 2, 3));
+	}
+
+	/**
+	 * @brief exact length of segment p q within the cuboid, faces are
+	 * assigned to the upper cuboid as in the traversal
+	 */
+	private static double clippedLength(double[] p, double[] q, double[] lo, double[] hi, boolean[] last) {
+		double t0 = 0;
+		double t1 = 1;
+		for (int a = 0; a < 3; a++) {
+			double d = q[a] - p[a];
+			if (d == 0) {
+				if (p[a] < lo[a] || (p[a] >= hi[a] && !(last[a] && p[a] == hi[a]))) {
+					return 0;
+				}
+				continue;
+			}
+			double u = (lo[a] - p[a]) / d;
+			double v = (hi[a] - p[a]) / d;
+			t0 = Math.max(t0, Math.min(u, v));
+			t1 = Math.min(t1, Math.max(u, v));
+			if (t0 >= t1) {
+				return 0;
+			}
+		}
+		double len = 0;
+		for (int a = 0; a < 3; a++) {
+			len += (q[a] - p[a]) * (q[a] - p[a]);
+		}
+		return (t1 - t0) * Math.sqrt(len);
+	}
+
+	/**
+	 * @brief reference density: every edge clipped against every cuboid
+	 */
+	private static HashMap<Long, Double> referenceDensity(Morphology cell, SamplingGrid grid) {
+		Topology topology = cell.getTopology();
+		HashMap<Long, Double> lengths = new HashMap<Long, Double>();
+		double total = 0;
+		for (int i = 0; i < grid.getNx(); i++) {
+			for (int j = 0; j < grid.getNy(); j++) {
+				for (int k = 0; k < grid.getNz(); k++) {
+					double[] lo = {grid.getX() + i * grid.getWidth(), grid.getY() + j * grid.getHeight(), grid.getZ() + k * grid.getDepth()};
+					double[] hi = {lo[0] + grid.getWidth(), lo[1] + grid.getHeight(), lo[2] + grid.getDepth()};
+					boolean[] last = {i == grid.getNx() - 1, j == grid.getNy() - 1, k == grid.getNz() - 1};
+					double length = 0;
+					for (int p = 0; p < cell.size(); p++) {
+						for (int c = 0; c < topology.getChildCount(p); c++) {
+							int q = topology.getChild(p, c);
+							length += clippedLength(new double[]{cell.getX(p), cell.getY(p), cell.getZ(p)},
+								new double[]{cell.getX(q), cell.getY(q), cell.getZ(q)}, lo, hi, last);
+						}
+					}
+					if (length != 0) {
+						lengths.put(grid.key(i, j, k), length);
+						total += length;
+					}
+				}
+			}
+		}
+		for (Map.Entry<Long, Double> entry : lengths.entrySet()) {
+			entry.setValue(entry.getValue() / total);
+		}
+		return lengths;
+	}
+
+	@Test
+	public void computeDensityAlternativeIsExact() throws IOException {
+		for (String name : new String[]{"data/02a_pyramidal2aFI.swc", "data/02a_pyramidal2aFI2.swc", "data/02a_pyramidal2aFI_original.swc"}) {
+			Morphology cell = Morphology.parse(new File(name));
+			HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+			cells.put("dummy", cell);
+			for (float size : new float[]{10.f, 5.f}) {
+				SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), size, size, size);
+				HashMap<Long, Double> expected = referenceDensity(cell, grid);
+				HashMap<Long, Float> actual = SWCUtility.computeDensityAlternative(cells, size, size, size, "ALL").toHashMap();
+				Set<Long> keys = new HashSet<Long>(expected.keySet());
+				keys.addAll(actual.keySet());
+				for (Long key : keys) {
+					assertNotNull("Cuboid " + key + " should be touched (" + name + ")", expected.get(key));
+					assertNotNull("Cuboid " + key + " should be touched (" + name + ")", actual.get(key));
+					assertEquals("Density of cuboid " + key + " (" + name + ")", expected.get(key), actual.get(key), 1e-5);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void computeDensityAlternativeAgreesWithComputeDensity() throws IOException {
+		/// the hierarchy search of computeDensity finds all edges, also
+		/// the ones longer than the cuboids
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("dummy", Morphology.parse(new File("data/02a_pyramidal2aFI.swc")));
+		cells.put("dummy2", Morphology.parse(new File("data/02a_pyramidal2aFI2.swc")));
+		for (float size : new float[]{100.f, 10.f}) {
+			HashMap<Long, Float> expected = SWCUtility.computeDensity(cells, size, size, size, "ALL").toHashMap();
+			HashMap<Long, Float> actual = SWCUtility.computeDensityAlternative(cells, size, size, size, "ALL").toHashMap();
+			assertEquals(expected.keySet(), actual.keySet());
+			for (Long key : expected.keySet()) {
+				assertEquals(expected.get(key), actual.get(key), 1e-5);
+			}
+		}
+
+		/// type selection picks the same edges
+		HashMap<Long, Float> expected = SWCUtility.computeDensity(cells, 100.f, 100.f, 100.f, "AXON").toHashMap();
+		HashMap<Long, Float> actual = SWCUtility.computeDensityAlternative(cells, 100.f, 100.f, 100.f, "AXON").toHashMap();
+		assertFalse(actual.isEmpty());
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Long key : expected.keySet()) {
+			assertEquals(expected.get(key), actual.get(key), 1e-5);
+		}
+	}
+
+	@Test
+	public void computeDensityChoosesSegmentIndex() {
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("random", randomCell(2000, 9));
+		/// edges of about 2 µm: a grid for large cuboids, a hierarchy for small ones
+		for (float size : new float[]{10.f, 0.5f}) {
+			DensityTimings timings = new DensityTimings();
+			HashMap<Long, Float> expected = SWCUtility.computeDensity(cells, size, size, size, "ALL", timings).toHashMap();
+			HashMap<Long, Float> actual = SWCUtility.computeDensityAlternative(cells, size, size, size, "ALL").toHashMap();
+			assertEquals(size > 1.f ? "SegmentGrid" : "SegmentBVH", timings.getIndex());
+			assertEquals(expected.keySet(), actual.keySet());
+			for (Long key : expected.keySet()) {
+				assertEquals(expected.get(key), actual.get(key), 1e-5);
+			}
+		}
+	}
+
+	/**
+	 * @brief random tree, each compartment attached to one of the recent ones
+	 */
+	private static Morphology randomCell(int size, long seed) {
+		Random random = new Random(seed);
+		Morphology.Builder builder = new Morphology.Builder(size);
+		float[] x = new float[size];
+		float[] y = new float[size];
+		float[] z = new float[size];
+		builder.compartment(0, 1, 0.f, 0.f, 0.f, 1.0, -1);
+		for (int i = 1; i < size; i++) {
+			int parent = Math.max(0, i - 1 - random.nextInt(10));
+			x[i] = x[parent] + (random.nextFloat() - 0.5f) * 4.f;
+			y[i] = y[parent] + (random.nextFloat() - 0.5f) * 4.f;
+			z[i] = z[parent] + (random.nextFloat() - 0.5f) * 4.f;
+			builder.compartment(i, 3, x[i], y[i], z[i], 1.0, parent + 1);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void computeDensityAlternativeSplitsLargeCells() {
+		final Morphology cell = randomCell(200000, 3);
+		HashMap<String, Morphology> cells = new HashMap<String, Morphology>();
+		cells.put("huge", cell);
+		final SamplingGrid grid = SamplingGrid.fromBoundingBox(SWCUtility.getBoundingBox(cells), 5.f, 5.f, 5.f);
+
+		/// serial reference over all edges of the cell
+		final LongFloatHashMap expected = new LongFloatHashMap();
+		final Topology topology = cell.getTopology();
+		for (int p = 0; p < cell.size(); p++) {
+			for (int c = 0; c < topology.getChildCount(p); c++) {
+				int q = topology.getChild(p, c);
+				final double length = Math.sqrt(Math.pow(cell.getX(q) - cell.getX(p), 2) + Math.pow(cell.getY(q) - cell.getY(p), 2) + Math.pow(cell.getZ(q) - cell.getZ(p), 2));
+				VoxelTraversal.traverse(grid, cell.getX(p), cell.getY(p), cell.getZ(p), cell.getX(q), cell.getY(q), cell.getZ(q), new VoxelTraversal.Visitor() {
+					@Override
+					public void visit(int i, int j, int k, double t0, double t1) {
+						expected.addTo(grid.key(i, j, k), (float) ((t1 - t0) * length));
+					}
+				});
+			}
+		}
+		expected.divide((float) expected.sum());
+
+		DensityTimings timings = new DensityTimings();
+		SparseDensityGrid actual = SWCUtility.computeDensityAlternative(cells, 5.f, 5.f, 5.f, "ALL", timings);
+		assertTrue("A huge cell should be split into several tasks", timings.getTasks() > 1);
+		assertEquals(expected.size(), actual.size());
+		for (long key : expected.keys()) {
+			assertEquals(expected.get(key), actual.get(key), 1e-4 * expected.get(key) + 1e-9);
+		}
+	}
+}